@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The (table, family) behind each column id of compact events. The proxy publishes an
+ * HBaseKafkaColumn to the dictionary topic for every column it gives an id, keyed on the id;
+ * consumers {@link #load(Consumer, String, Duration)} it once and again whenever an event refers
+ * to an id they do not know yet.
+ * <p>
+ * Ids are a hash of the table and family, so every proxy gives a column the same id without
+ * talking to the others, and columns of different proxies can get the same id. The first entry
+ * of an id owns it: the entries of an id share a partition and are read in order, and a proxy
+ * only sends events with an id after it saw the entry of its column come first. Later entries of
+ * other columns with the id are ignored, the events of those columns carry their table and
+ * family. Id 0 is never handed out, it marks an event that carries its table and family.
+ * <p>
+ * Thread safe.
+ */
+@InterfaceAudience.Private
+public class ColumnDictionary {
+  private static final Logger LOG = LoggerFactory.getLogger(ColumnDictionary.class);
+
+  /**
+   * Id of events that carry their table and family.
+   */
+  public static final int INLINE = 0;
+
+  /**
+   * A table and family.
+   */
+  public static final class Column {
+    private final byte[] table;
+    private final byte[] family;
+
+    Column(byte[] table, byte[] family) {
+      this.table = table;
+      this.family = family;
+    }
+
+    boolean matches(byte[] table, byte[] family) {
+      return Bytes.equals(this.table, table) && Bytes.equals(this.family, family);
+    }
+
+    public byte[] getTable() {
+      return table;
+    }
+
+    public byte[] getFamily() {
+      return family;
+    }
+
+    @Override
+    public String toString() {
+      return Bytes.toStringBinary(table) + ":" + Bytes.toStringBinary(family);
+    }
+  }
+
+  private final ConcurrentMap<Integer, Column> columns = new ConcurrentHashMap<>();
+  private final SpecificDatumReader<HBaseKafkaColumn> reader =
+    new SpecificDatumReader<>(HBaseKafkaColumn.SCHEMA$);
+  private BinaryDecoder decoder;
+
+  /**
+   * The id of a column, the same on every proxy.
+   * @param table  table name bytes
+   * @param family column family
+   * @return the id, never {@link #INLINE}
+   */
+  public static int idOf(byte[] table, byte[] family) {
+    CRC32 crc = new CRC32();
+    crc.update(table, 0, table.length);
+    // a table name never holds a 0, so table and family can not run into each other
+    crc.update(0);
+    crc.update(family, 0, family.length);
+    int id = (int) (crc.getValue() & 0x7FFFFFFF);
+    return id == INLINE ? 1 : id;
+  }
+
+  /**
+   * @param id an id from a compact event
+   * @return the column owning the id, null if the id is not known
+   */
+  public Column get(int id) {
+    return columns.get(id);
+  }
+
+  /**
+   * @return number of ids known
+   */
+  public int size() {
+    return columns.size();
+  }
+
+  /**
+   * Add a column, in the order of the dictionary topic. The first column added with an id owns
+   * it, adding another column with the id is a no-op.
+   * @param id     id of the column
+   * @param table  table name bytes
+   * @param family column family
+   */
+  public void add(int id, byte[] table, byte[] family) {
+    Column column = new Column(table, family);
+    Column previous = columns.putIfAbsent(id, column);
+    if (previous != null && !previous.matches(table, family) && LOG.isDebugEnabled()) {
+      LOG.debug("Column id {} is owned by {}, the events of {} carry their table and family", id,
+        previous, column);
+    }
+  }
+
+  /**
+   * Add the HBaseKafkaColumn of a record from the dictionary topic.
+   * @param value record value
+   * @throws IOException if the value is not an HBaseKafkaColumn
+   */
+  public synchronized void addEntry(byte[] value) throws IOException {
+    decoder = DecoderFactory.get().binaryDecoder(value, decoder);
+    HBaseKafkaColumn entry = reader.read(null, decoder);
+    add(entry.getId(), Bytes.getBytes(entry.getTable()), Bytes.getBytes(entry.getFamily()));
+  }
+
+  /**
+   * Read the dictionary topic from the start up to its current end. The consumer is assigned the
+   * partitions of the topic, so it should be one dedicated to the dictionary.
+   * @param consumer consumer to read with
+   * @param topic    the dictionary topic
+   * @param timeout  how long to wait for the end of the topic
+   * @return number of entries read
+   * @throws IOException if an entry could not be decoded or the end was not reached in time
+   */
+  public int load(Consumer<byte[], byte[]> consumer, String topic, Duration timeout)
+    throws IOException {
+    List<PartitionInfo> infos = consumer.partitionsFor(topic);
+    if (infos == null || infos.isEmpty()) {
+      return 0;
+    }
+    List<TopicPartition> partitions = new ArrayList<>(infos.size());
+    for (PartitionInfo info : infos) {
+      partitions.add(new TopicPartition(info.topic(), info.partition()));
+    }
+    consumer.assign(partitions);
+    consumer.seekToBeginning(partitions);
+    Map<TopicPartition, Long> ends = consumer.endOffsets(partitions);
+    long deadline = System.nanoTime() + timeout.toNanos();
+    int count = 0;
+    while (!reachedEnd(consumer, ends)) {
+      if (System.nanoTime() - deadline > 0) {
+        throw new IOException("Timed out reading column dictionary " + topic);
+      }
+      for (ConsumerRecord<byte[], byte[]> record : consumer.poll(Duration.ofMillis(100))) {
+        if (record.value() != null) {
+          addEntry(record.value());
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  private static boolean reachedEnd(Consumer<byte[], byte[]> consumer,
+    Map<TopicPartition, Long> ends) {
+    for (Map.Entry<TopicPartition, Long> end : ends.entrySet()) {
+      if (consumer.position(end.getKey()) < end.getValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
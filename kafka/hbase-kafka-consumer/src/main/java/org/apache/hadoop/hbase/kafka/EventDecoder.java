@@ -0,0 +1,324 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.IOException;
+import java.util.Locale;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Decodes the records the kafka proxy writes. The avro binary encoding of
+ * {@link HBaseKafkaEvent}, {@link HBaseKafkaEventBatch} and {@link HBaseKafkaCompactEvent} is
+ * walked by hand: every bytes field
+ * becomes an offset and length in a reused {@link EventView}, so decoding does not allocate.
+ * Callers that want the generated avro objects can use {@link #read(byte[], HBaseKafkaEvent)},
+ * which at least reuses the avro decoder and reader between records.
+ * <p>
+ * Not thread safe, use one decoder per consumer thread.
+ */
+@InterfaceAudience.Private
+public final class EventDecoder {
+
+  /**
+   * What the records of a topic hold, the proxy setting kafkaproxy.envelope decides it.
+   */
+  public enum Format {
+    /** one HBaseKafkaEvent per record, kafkaproxy.envelope=none */
+    EVENT,
+    /** one HBaseKafkaEventBatch per record, kafkaproxy.envelope=row or batch */
+    BATCH,
+    /** one HBaseKafkaCompactEvent per record, kafkaproxy.compact.columns=true */
+    COMPACT;
+
+    /**
+     * @param value format name, case insensitive
+     * @return the format
+     */
+    public static Format parse(String value) {
+      return Format.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
+  private final Format format;
+  private final ColumnDictionary dictionary;
+  private final EventView view = new EventView();
+  private final SpecificDatumReader<HBaseKafkaEvent> reader =
+    new SpecificDatumReader<>(HBaseKafkaEvent.SCHEMA$);
+  private BinaryDecoder decoder;
+
+  // parse position, only valid during decode
+  private byte[] buf;
+  private int pos;
+  private int limit;
+
+  /**
+   * @param format what the decoded records hold, not {@link Format#COMPACT}
+   */
+  public EventDecoder(Format format) {
+    this(format, null);
+  }
+
+  /**
+   * @param format     what the decoded records hold
+   * @param dictionary columns of the compact column ids, only used by {@link Format#COMPACT}
+   */
+  public EventDecoder(Format format, ColumnDictionary dictionary) {
+    if (format == Format.COMPACT && dictionary == null) {
+      throw new IllegalArgumentException("Compact events need a column dictionary");
+    }
+    this.format = format;
+    this.dictionary = dictionary;
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  /**
+   * Decode every record of a poll.
+   * @param records records to decode, records without a value are skipped
+   * @param handler gets every event
+   * @return number of events decoded
+   * @throws IOException if a record is malformed or the handler failed
+   */
+  public int decodeAll(Iterable<ConsumerRecord<byte[], byte[]>> records, EventHandler handler)
+    throws IOException {
+    int count = 0;
+    for (ConsumerRecord<byte[], byte[]> record : records) {
+      if (record.value() != null) {
+        count += decode(record.value(), handler);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param record  record value
+   * @param handler gets every event
+   * @return number of events decoded
+   * @throws IOException if the record is malformed or the handler failed
+   */
+  public int decode(byte[] record, EventHandler handler) throws IOException {
+    return decode(record, 0, record.length, handler);
+  }
+
+  /**
+   * @param record  buffer holding the record value
+   * @param offset  where the record starts
+   * @param length  length of the record
+   * @param handler gets every event
+   * @return number of events decoded
+   * @throws UnknownColumnException if a compact event refers to a column id the dictionary does
+   *                                 not know yet
+   * @throws IOException            if the record is malformed or the handler failed
+   */
+  public int decode(byte[] record, int offset, int length, EventHandler handler)
+    throws IOException {
+    this.buf = record;
+    this.pos = offset;
+    this.limit = offset + length;
+    view.setBuffer(record);
+    try {
+      int count;
+      switch (format) {
+        case EVENT:
+          count = decodeEvent(handler);
+          break;
+        case BATCH:
+          count = decodeBatch(handler);
+          break;
+        default:
+          count = decodeCompact(handler);
+          break;
+      }
+      if (pos != limit) {
+        throw new IOException("Malformed record, " + (limit - pos) + " trailing bytes");
+      }
+      return count;
+    } finally {
+      this.buf = null;
+    }
+  }
+
+  /**
+   * Decode a record of {@link Format#EVENT} into an avro object. The records of proxies that did
+   * not send the cell type end early for the current schema and cannot be read this way.
+   * @param record record value
+   * @param reuse  object to decode into, null for a new one
+   * @return the decoded event
+   * @throws IOException if the record is malformed
+   */
+  public HBaseKafkaEvent read(byte[] record, HBaseKafkaEvent reuse) throws IOException {
+    decoder = DecoderFactory.get().binaryDecoder(record, decoder);
+    return reader.read(reuse, decoder);
+  }
+
+  private int decodeEvent(EventHandler handler) throws IOException {
+    readEventFields();
+    readFamily();
+    readTable();
+    readTrailingType();
+    handler.onEvent(view);
+    return 1;
+  }
+
+  private int decodeCompact(EventHandler handler) throws IOException {
+    readEventFields();
+    long id = readLong();
+    if (id == ColumnDictionary.INLINE) {
+      readFamily();
+      readTable();
+    } else {
+      if (id < 0 || id > Integer.MAX_VALUE) {
+        throw new IOException("Malformed record, bad column id " + id);
+      }
+      ColumnDictionary.Column column = dictionary.get((int) id);
+      if (column == null) {
+        throw new UnknownColumnException((int) id);
+      }
+      // the family and table fields are left empty
+      int skip = readLength();
+      pos += skip;
+      skip = readLength();
+      pos += skip;
+      view.setFamily(column.getFamily(), 0, column.getFamily().length);
+      view.setTable(column.getTable(), 0, column.getTable().length);
+    }
+    readTrailingType();
+    handler.onEvent(view);
+    return 1;
+  }
+
+  private int decodeBatch(EventHandler handler) throws IOException {
+    readTable();
+    int count = 0;
+    while (true) {
+      long blockCount = readLong();
+      if (blockCount == 0) {
+        return count;
+      }
+      if (blockCount < 0) {
+        // a negative count is followed by the size of the block in bytes
+        blockCount = -blockCount;
+        readLong();
+      }
+      for (long i = 0; i < blockCount; i++) {
+        readEventFields();
+        readFamily();
+        view.setType(readType());
+        handler.onEvent(view);
+        count++;
+      }
+    }
+  }
+
+  /**
+   * Read key, timestamp, delete, value and qualifier, the fields every schema starts with.
+   */
+  private void readEventFields() throws IOException {
+    int length = readLength();
+    view.setRow(pos, length);
+    pos += length;
+    view.setTimestamp(readLong());
+    if (pos >= limit) {
+      throw truncated();
+    }
+    view.setDelete(buf[pos++] != 0);
+    length = readLength();
+    view.setValue(pos, length);
+    pos += length;
+    length = readLength();
+    view.setQualifier(pos, length);
+    pos += length;
+  }
+
+  private void readFamily() throws IOException {
+    int length = readLength();
+    view.setFamily(buf, pos, length);
+    pos += length;
+  }
+
+  private void readTable() throws IOException {
+    int length = readLength();
+    view.setTable(buf, pos, length);
+    pos += length;
+  }
+
+  /**
+   * Read the type that ends an event record. Proxies that did not send it yet end the record with
+   * the table.
+   */
+  private void readTrailingType() throws IOException {
+    view.setType(pos < limit ? readType() : null);
+  }
+
+  private Cell.Type readType() throws IOException {
+    long code = readLong();
+    if (code == 0) {
+      return null;
+    }
+    for (Cell.Type type : Cell.Type.values()) {
+      if (type.getCode() == code) {
+        return type;
+      }
+    }
+    throw new IOException("Malformed record, unknown cell type " + code + " at " + pos);
+  }
+
+  /**
+   * Read the length of a bytes field and check the field is within the record.
+   */
+  private int readLength() throws IOException {
+    long length = readLong();
+    if (length < 0 || length > limit - pos) {
+      throw new IOException("Malformed record, bad field length " + length + " at " + pos);
+    }
+    return (int) length;
+  }
+
+  /**
+   * Read a zig zag encoded variable length long.
+   */
+  private long readLong() throws IOException {
+    long n = 0;
+    int shift = 0;
+    while (true) {
+      if (pos >= limit) {
+        throw truncated();
+      }
+      int b = buf[pos++] & 0xFF;
+      n |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return (n >>> 1) ^ -(n & 1);
+      }
+      shift += 7;
+      if (shift > 63) {
+        throw new IOException("Malformed record, varint longer than 10 bytes at " + pos);
+      }
+    }
+  }
+
+  private IOException truncated() {
+    return new IOException("Malformed record, truncated at " + pos);
+  }
+}
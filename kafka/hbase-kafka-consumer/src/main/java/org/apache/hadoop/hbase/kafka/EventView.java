@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.Arrays;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A decoded event, as a view over the bytes of the kafka record it came from: the row, column
+ * family, qualifier, value and table are offsets into the record value, nothing is copied. With
+ * compact column ids the family and table are in the arrays of the {@link ColumnDictionary}. The
+ * {@link EventDecoder} reuses the same view for every event, so it is only valid until the handler
+ * it was passed to returns; copy what has to be kept.
+ */
+@InterfaceAudience.Private
+public final class EventView {
+  private byte[] buffer;
+  private int rowOffset;
+  private int rowLength;
+  private long timestamp;
+  private boolean delete;
+  private int valueOffset;
+  private int valueLength;
+  private int qualifierOffset;
+  private int qualifierLength;
+  private byte[] familyArray;
+  private int familyOffset;
+  private int familyLength;
+  private byte[] tableArray;
+  private int tableOffset;
+  private int tableLength;
+  private Cell.Type type;
+
+  EventView() {
+  }
+
+  void setBuffer(byte[] buffer) {
+    this.buffer = buffer;
+  }
+
+  void setRow(int offset, int length) {
+    this.rowOffset = offset;
+    this.rowLength = length;
+  }
+
+  void setTimestamp(long timestamp) {
+    this.timestamp = timestamp;
+  }
+
+  void setDelete(boolean delete) {
+    this.delete = delete;
+  }
+
+  void setType(Cell.Type type) {
+    this.type = type;
+  }
+
+  void setValue(int offset, int length) {
+    this.valueOffset = offset;
+    this.valueLength = length;
+  }
+
+  void setQualifier(int offset, int length) {
+    this.qualifierOffset = offset;
+    this.qualifierLength = length;
+  }
+
+  void setFamily(byte[] array, int offset, int length) {
+    this.familyArray = array;
+    this.familyOffset = offset;
+    this.familyLength = length;
+  }
+
+  void setTable(byte[] array, int offset, int length) {
+    this.tableArray = array;
+    this.tableOffset = offset;
+    this.tableLength = length;
+  }
+
+  /**
+   * @return the record value the row, qualifier and value offsets point into
+   */
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  public int getRowOffset() {
+    return rowOffset;
+  }
+
+  public int getRowLength() {
+    return rowLength;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * @return true if the event is a delete marker
+   */
+  public boolean isDelete() {
+    return delete;
+  }
+
+  /**
+   * @return the type of the cell the event came from, which tells the kinds of deletes apart, or
+   *         null if the proxy that wrote the event did not send it
+   */
+  public Cell.Type getType() {
+    return type;
+  }
+
+  public int getValueOffset() {
+    return valueOffset;
+  }
+
+  public int getValueLength() {
+    return valueLength;
+  }
+
+  public int getQualifierOffset() {
+    return qualifierOffset;
+  }
+
+  public int getQualifierLength() {
+    return qualifierLength;
+  }
+
+  /**
+   * @return the array the family offset points into, the record value unless the column was
+   *         looked up in a dictionary
+   */
+  public byte[] getFamilyArray() {
+    return familyArray;
+  }
+
+  public int getFamilyOffset() {
+    return familyOffset;
+  }
+
+  public int getFamilyLength() {
+    return familyLength;
+  }
+
+  /**
+   * @return the array the table offset points into, the record value unless the column was looked
+   *         up in a dictionary
+   */
+  public byte[] getTableArray() {
+    return tableArray;
+  }
+
+  public int getTableOffset() {
+    return tableOffset;
+  }
+
+  public int getTableLength() {
+    return tableLength;
+  }
+
+  public byte[] copyRow() {
+    return Arrays.copyOfRange(buffer, rowOffset, rowOffset + rowLength);
+  }
+
+  public byte[] copyValue() {
+    return Arrays.copyOfRange(buffer, valueOffset, valueOffset + valueLength);
+  }
+
+  public byte[] copyQualifier() {
+    return Arrays.copyOfRange(buffer, qualifierOffset, qualifierOffset + qualifierLength);
+  }
+
+  public byte[] copyFamily() {
+    return Arrays.copyOfRange(familyArray, familyOffset, familyOffset + familyLength);
+  }
+
+  public byte[] copyTable() {
+    return Arrays.copyOfRange(tableArray, tableOffset, tableOffset + tableLength);
+  }
+
+  /**
+   * @param row row to compare with
+   * @return true if the event is for that row
+   */
+  public boolean matchingRow(byte[] row) {
+    return Bytes.equals(buffer, rowOffset, rowLength, row, 0, row.length);
+  }
+
+  /**
+   * @param table table name bytes to compare with
+   * @return true if the event is from that table
+   */
+  public boolean matchingTable(byte[] table) {
+    return Bytes.equals(tableArray, tableOffset, tableLength, table, 0, table.length);
+  }
+
+  @Override
+  public String toString() {
+    return Bytes.toStringBinary(tableArray, tableOffset, tableLength) + "/"
+      + Bytes.toStringBinary(buffer, rowOffset, rowLength) + "/"
+      + Bytes.toStringBinary(familyArray, familyOffset, familyLength) + ":"
+      + Bytes.toStringBinary(buffer, qualifierOffset, qualifierLength) + "/" + timestamp
+      + (delete ? "/delete" : "/put") + "/vlen=" + valueLength;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Turns decoded events back into mutations. Consecutive events of a row become one {@link Put}
+ * or {@link Delete}, and the mutations are handed to a {@link Sink} in batches.
+ * <p>
+ * A delete event is applied as the kind of delete marker it came from. Events of proxies that did
+ * not send the cell type do not say: a delete with an empty qualifier is then applied as a delete
+ * of the whole family, any other delete as a delete of every version of the column up to the
+ * event timestamp.
+ * <p>
+ * Not thread safe.
+ */
+@InterfaceAudience.Private
+public class MutationApplier implements EventHandler, Closeable {
+
+  /**
+   * Where the mutations go.
+   */
+  @FunctionalInterface
+  public interface Sink {
+
+    /**
+     * @param table     table the mutations are for
+     * @param mutations mutations in the order they were decoded
+     * @throws IOException if the mutations could not be applied
+     */
+    void apply(TableName table, List<Mutation> mutations) throws IOException;
+
+    /**
+     * @param connection connection to the cluster to apply the mutations to
+     * @return a sink that writes to the table of the same name through the connection
+     */
+    static Sink toTables(Connection connection) {
+      return (table, mutations) -> {
+        try (Table t = connection.getTable(table)) {
+          t.batch(mutations, new Object[mutations.size()]);
+        } catch (InterruptedException e) {
+          throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted applying " + mutations.size() + " mutations to " + table).initCause(e);
+        }
+      };
+    }
+  }
+
+  private final Sink sink;
+  private final int maxBatchSize;
+  private final Map<TableName, List<Mutation>> pending = new LinkedHashMap<>();
+  private int pendingCount = 0;
+
+  // the mutation events are added to until the row, table or delete flag changes
+  private Mutation current;
+  private List<Mutation> currentTable;
+  private byte[] tableAsBytes;
+
+  /**
+   * @param sink         where mutations go
+   * @param maxBatchSize number of mutations to collect before they are applied
+   */
+  public MutationApplier(Sink sink, int maxBatchSize) {
+    if (maxBatchSize <= 0) {
+      throw new IllegalArgumentException("maxBatchSize must be positive, got " + maxBatchSize);
+    }
+    this.sink = sink;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  @Override
+  public void onEvent(EventView event) throws IOException {
+    if (!continuesCurrent(event)) {
+      if (pendingCount >= maxBatchSize) {
+        flush();
+      }
+      startMutation(event);
+    }
+    if (event.isDelete()) {
+      Cell.Type type = event.getType();
+      if (type == null || type == Cell.Type.Put) {
+        type = event.getQualifierLength() == 0 ? Cell.Type.DeleteFamily : Cell.Type.DeleteColumn;
+      }
+      // Delete.addFamily would drop the deletes of the family added before, add the marker as is
+      ((Delete) current).add(new KeyValue(current.getRow(), event.copyFamily(),
+        event.copyQualifier(), event.getTimestamp(), KeyValue.Type.codeToType(type.getCode())));
+    } else {
+      ((Put) current).addColumn(event.copyFamily(), event.copyQualifier(), event.getTimestamp(),
+        event.copyValue());
+    }
+  }
+
+  private boolean continuesCurrent(EventView event) {
+    return current != null && event.isDelete() == (current instanceof Delete)
+      && event.matchingRow(current.getRow()) && event.matchingTable(tableAsBytes);
+  }
+
+  private void startMutation(EventView event) {
+    if (currentTable == null || !event.matchingTable(tableAsBytes)) {
+      tableAsBytes = event.copyTable();
+      TableName table = TableName.valueOf(tableAsBytes);
+      currentTable = pending.get(table);
+      if (currentTable == null) {
+        currentTable = new ArrayList<>();
+        pending.put(table, currentTable);
+      }
+    }
+    byte[] row = event.copyRow();
+    current = event.isDelete() ? new Delete(row) : new Put(row);
+    currentTable.add(current);
+    pendingCount++;
+  }
+
+  /**
+   * @return number of mutations not applied yet
+   */
+  public int getPendingCount() {
+    return pendingCount;
+  }
+
+  /**
+   * Apply every pending mutation. Call it before committing consumer offsets.
+   * @throws IOException if the sink failed, the mutations stay pending
+   */
+  public void flush() throws IOException {
+    current = null;
+    currentTable = null;
+    for (Map.Entry<TableName, List<Mutation>> entry : pending.entrySet()) {
+      if (!entry.getValue().isEmpty()) {
+        sink.apply(entry.getKey(), entry.getValue());
+        pendingCount -= entry.getValue().size();
+        entry.getValue().clear();
+      }
+    }
+    pending.clear();
+    pendingCount = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+  }
+}
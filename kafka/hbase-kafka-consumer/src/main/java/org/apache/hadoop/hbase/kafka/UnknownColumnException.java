@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.IOException;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A compact event refers to a column id the {@link ColumnDictionary} does not know yet. The
+ * proxy sends the dictionary entry along with the first events of a column but to another topic,
+ * so a consumer can see the events first; load the dictionary again and retry the record.
+ */
+@InterfaceAudience.Private
+public class UnknownColumnException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  private final int id;
+
+  /**
+   * @param id the unknown column id
+   */
+  public UnknownColumnException(int id) {
+    super("Unknown column id " + id);
+    this.id = id;
+  }
+
+  public int getId() {
+    return id;
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecord;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Make sure the hand written decoder reads what the avro writer writes
+ */
+@Category(SmallTests.class)
+public class TestEventDecoder {
+  private static final String TABLE = "MyNamespace:MyTable";
+
+  private static ByteBuffer wrap(String s) {
+    return ByteBuffer.wrap(Bytes.toBytes(s));
+  }
+
+  private static Cell.Type typeOf(boolean delete) {
+    return delete ? Cell.Type.DeleteColumn : Cell.Type.Put;
+  }
+
+  private static HBaseKafkaEvent event(String row, long ts, boolean delete, String qualifier,
+    String value) {
+    HBaseKafkaEvent event = new HBaseKafkaEvent();
+    event.setKey(wrap(row));
+    event.setTimestamp(ts);
+    event.setDelete(delete);
+    event.setValue(wrap(value));
+    event.setQualifier(wrap(qualifier));
+    event.setFamily(wrap("FAMILY"));
+    event.setTable(wrap(TABLE));
+    event.setType((int) typeOf(delete).getCode());
+    return event;
+  }
+
+  private static HBaseKafkaBatchEvent batchEvent(String row, long ts, boolean delete,
+    String qualifier, String value) {
+    HBaseKafkaBatchEvent event = new HBaseKafkaBatchEvent();
+    event.setKey(wrap(row));
+    event.setTimestamp(ts);
+    event.setDelete(delete);
+    event.setValue(wrap(value));
+    event.setQualifier(wrap(qualifier));
+    event.setFamily(wrap("FAMILY"));
+    event.setType((int) typeOf(delete).getCode());
+    return event;
+  }
+
+  private static HBaseKafkaCompactEvent compactEvent(String row, int column, String family) {
+    HBaseKafkaCompactEvent event = new HBaseKafkaCompactEvent();
+    event.setKey(wrap(row));
+    event.setTimestamp(1L);
+    event.setDelete(false);
+    event.setValue(wrap("value"));
+    event.setQualifier(wrap("q"));
+    event.setColumn(column);
+    event.setFamily(wrap(column == ColumnDictionary.INLINE ? family : ""));
+    event.setTable(wrap(column == ColumnDictionary.INLINE ? TABLE : ""));
+    return event;
+  }
+
+  private static byte[] columnEntry(int id, String family) throws IOException {
+    HBaseKafkaColumn column = new HBaseKafkaColumn();
+    column.setId(id);
+    column.setTable(wrap(TABLE));
+    column.setFamily(wrap(family));
+    return avroEncode(column, false);
+  }
+
+  private static <T extends SpecificRecord> byte[] avroEncode(T record, boolean blocking)
+    throws IOException {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    // the blocking encoder writes arrays as blocks with a negative count and a byte size
+    BinaryEncoder encoder = blocking
+      ? EncoderFactory.get().blockingBinaryEncoder(bout, null)
+      : EncoderFactory.get().binaryEncoder(bout, null);
+    new SpecificDatumWriter<T>(record.getSchema()).write(record, encoder);
+    encoder.flush();
+    return bout.toByteArray();
+  }
+
+  private static List<String> decode(EventDecoder decoder, byte[] record) throws IOException {
+    List<String> events = new ArrayList<>();
+    int count = decoder.decode(record, (event) -> events.add(event.toString()));
+    Assert.assertEquals(events.size(), count);
+    return events;
+  }
+
+  @Test
+  public void testEvent() throws Exception {
+    EventDecoder decoder = new EventDecoder(EventDecoder.Format.EVENT);
+    long[] timestamps = new long[] { 0L, 1L, -1L, 63L, 64L, Long.MAX_VALUE, Long.MIN_VALUE };
+    for (long ts : timestamps) {
+      byte[] record = avroEncode(event("row", ts, false, "q", "value"), false);
+      Assert.assertEquals(Arrays.asList(TABLE + "/row/FAMILY:q/" + ts + "/put/vlen=5"),
+        decode(decoder, record));
+    }
+    byte[] value = new byte[300];
+    HBaseKafkaEvent large = event("r", 5L, true, "", "");
+    large.setValue(ByteBuffer.wrap(value));
+    decoder.decode(avroEncode(large, false), (event) -> {
+      Assert.assertTrue(event.isDelete());
+      Assert.assertEquals(Cell.Type.DeleteColumn, event.getType());
+      Assert.assertEquals(0, event.getQualifierLength());
+      Assert.assertArrayEquals(value, event.copyValue());
+      Assert.assertArrayEquals(Bytes.toBytes("r"), event.copyRow());
+      Assert.assertArrayEquals(Bytes.toBytes(TABLE), event.copyTable());
+    });
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    EventDecoder decoder = new EventDecoder(EventDecoder.Format.parse("batch"));
+    HBaseKafkaEventBatch batch = new HBaseKafkaEventBatch();
+    batch.setTable(wrap(TABLE));
+    batch.setEvents(new ArrayList<>());
+    for (boolean blocking : new boolean[] { true, false }) {
+      Assert.assertEquals(0, decode(decoder, avroEncode(batch, blocking)).size());
+    }
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      batch.getEvents().add(batchEvent("row" + i, i, i % 10 == 0, "q" + i, "v" + i));
+      expected.add(TABLE + "/row" + i + "/FAMILY:q" + i + "/" + i
+        + (i % 10 == 0 ? "/delete" : "/put") + "/vlen=" + ("v" + i).length());
+    }
+    for (boolean blocking : new boolean[] { true, false }) {
+      Assert.assertEquals(expected, decode(decoder, avroEncode(batch, blocking)));
+    }
+    List<Cell.Type> types = new ArrayList<>();
+    decoder.decode(avroEncode(batch, false), (event) -> types.add(event.getType()));
+    Assert.assertEquals(Cell.Type.DeleteColumn, types.get(0));
+    Assert.assertEquals(Cell.Type.Put, types.get(1));
+  }
+
+  @Test
+  public void testDecodeAll() throws Exception {
+    EventDecoder decoder = new EventDecoder(EventDecoder.Format.EVENT);
+    List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      records.add(new ConsumerRecord<>("foo", 0, i, Bytes.toBytes("row" + i),
+        avroEncode(event("row" + i, i, false, "q", "v"), false)));
+    }
+    // a tombstone is skipped
+    records.add(new ConsumerRecord<>("foo", 0, 10, Bytes.toBytes("row"), null));
+    List<String> rows = new ArrayList<>();
+    Assert.assertEquals(10,
+      decoder.decodeAll(records, (event) -> rows.add(Bytes.toString(event.copyRow()))));
+    Assert.assertEquals("row9", rows.get(9));
+  }
+
+  @Test
+  public void testMalformed() throws Exception {
+    EventDecoder decoder = new EventDecoder(EventDecoder.Format.EVENT);
+    byte[] record = avroEncode(event("row", 1L, false, "q", "value"), false);
+    // without its last byte, the type, the record reads as one of a proxy that did not send it
+    decoder.decode(record, 0, record.length - 1, (event) -> Assert.assertNull(event.getType()));
+    for (int length = 0; length < record.length - 1; length++) {
+      try {
+        decoder.decode(record, 0, length, (event) -> Assert.fail("truncated record decoded"));
+        Assert.fail("expected truncated record to fail");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+    try {
+      decoder.decode(Arrays.copyOf(record, record.length + 1), (event) -> {
+      });
+      Assert.fail("expected trailing bytes to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    // an unknown cell type
+    byte[] badType = Arrays.copyOf(record, record.length);
+    badType[record.length - 1] = 2;
+    try {
+      decoder.decode(badType, (event) -> Assert.fail("bad type decoded"));
+      Assert.fail("expected the unknown type to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    // a negative field length
+    try {
+      decoder.decode(new byte[] { 1 }, (event) -> Assert.fail("bad record decoded"));
+      Assert.fail("expected negative length to fail");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCompact() throws Exception {
+    ColumnDictionary dictionary = new ColumnDictionary();
+    EventDecoder decoder = new EventDecoder(EventDecoder.Format.COMPACT, dictionary);
+    int id = ColumnDictionary.idOf(Bytes.toBytes(TABLE), Bytes.toBytes("FAMILY"));
+    byte[] record = avroEncode(compactEvent("row", id, null), false);
+    try {
+      decoder.decode(record, (event) -> Assert.fail("unknown column decoded"));
+      Assert.fail("expected the unknown column to fail");
+    } catch (UnknownColumnException e) {
+      Assert.assertEquals(id, e.getId());
+    }
+
+    dictionary.addEntry(columnEntry(id, "FAMILY"));
+    Assert.assertEquals(Arrays.asList(TABLE + "/row/FAMILY:q/1/put/vlen=5"),
+      decode(decoder, record));
+    // adding the same column again changes nothing
+    dictionary.add(id, Bytes.toBytes(TABLE), Bytes.toBytes("FAMILY"));
+    Assert.assertEquals(1, decode(decoder, record).size());
+
+    // columns without an id carry their table and family
+    Assert.assertEquals(Arrays.asList(TABLE + "/row/other:q/1/put/vlen=5"),
+      decode(decoder, avroEncode(compactEvent("row", ColumnDictionary.INLINE, "other"), false)));
+
+    // the first column added with an id owns it, the events of later ones carry their names
+    dictionary.add(id, Bytes.toBytes(TABLE), Bytes.toBytes("other"));
+    Assert.assertEquals(Arrays.asList(TABLE + "/row/FAMILY:q/1/put/vlen=5"),
+      decode(decoder, record));
+  }
+
+  @Test
+  public void testLoadDictionary() throws Exception {
+    String topic = "hbase-kafka-columns";
+    TopicPartition partition = new TopicPartition(topic, 0);
+    MockConsumer<byte[], byte[]> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+    consumer.updatePartitions(topic,
+      Collections.singletonList(new PartitionInfo(topic, 0, null, null, null)));
+    consumer.updateBeginningOffsets(Collections.singletonMap(partition, 0L));
+    consumer.updateEndOffsets(Collections.singletonMap(partition, 2L));
+    int[] ids = new int[] { 5, 7 };
+    consumer.schedulePollTask(() -> {
+      for (int i = 0; i < ids.length; i++) {
+        try {
+          consumer.addRecord(new ConsumerRecord<>(topic, 0, i, Bytes.toBytes(ids[i]),
+            columnEntry(ids[i], "f" + i)));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    ColumnDictionary dictionary = new ColumnDictionary();
+    Assert.assertEquals(2, dictionary.load(consumer, topic, Duration.ofSeconds(30)));
+    Assert.assertEquals("f1", Bytes.toString(dictionary.get(7).getFamily()));
+    Assert.assertNull(dictionary.get(6));
+  }
+
+  @Test
+  public void testReadReusesEvent() throws Exception {
+    EventDecoder decoder = new EventDecoder(EventDecoder.Format.EVENT);
+    HBaseKafkaEvent event = decoder.read(avroEncode(event("row1", 1L, false, "q", "v"), false),
+      null);
+    HBaseKafkaEvent second =
+      decoder.read(avroEncode(event("row2", 2L, true, "q", "v"), false), event);
+    Assert.assertSame(event, second);
+    Assert.assertEquals(2L, second.getTimestamp());
+    Assert.assertTrue(second.getDelete());
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test turning decoded events back into puts and deletes
+ */
+@Category(SmallTests.class)
+public class TestMutationApplier {
+  private static final byte[] FAMILY = Bytes.toBytes("FAMILY");
+
+  private static final class Applied {
+    final TableName table;
+    final List<Mutation> mutations;
+
+    Applied(TableName table, List<Mutation> mutations) {
+      this.table = table;
+      this.mutations = new ArrayList<>(mutations);
+    }
+  }
+
+  private final List<Applied> applied = new ArrayList<>();
+
+  private final MutationApplier.Sink sink =
+    (table, mutations) -> applied.add(new Applied(table, mutations));
+
+  /**
+   * Write an event in the binary layout the proxy uses for kafkaproxy.envelope=none.
+   */
+  private static byte[] encode(String table, String row, long ts, Cell.Type type,
+    String qualifier, String value) {
+    ByteArrayOutputStream out = encodeFields(table, row, ts, type != Cell.Type.Put, qualifier,
+      value);
+    writeLong(out, type.getCode());
+    return out.toByteArray();
+  }
+
+  /**
+   * Write an event the way proxies that did not send the cell type did.
+   */
+  private static byte[] encodeWithoutType(String table, String row, long ts, boolean delete,
+    String qualifier) {
+    return encodeFields(table, row, ts, delete, qualifier, "").toByteArray();
+  }
+
+  private static ByteArrayOutputStream encodeFields(String table, String row, long ts,
+    boolean delete, String qualifier, String value) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writeBytes(out, Bytes.toBytes(row));
+    writeLong(out, ts);
+    out.write(delete ? 1 : 0);
+    writeBytes(out, Bytes.toBytes(value));
+    writeBytes(out, Bytes.toBytes(qualifier));
+    writeBytes(out, FAMILY);
+    writeBytes(out, Bytes.toBytes(table));
+    return out;
+  }
+
+  private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+    writeLong(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static void writeLong(ByteArrayOutputStream out, long value) {
+    long n = (value << 1) ^ (value >> 63);
+    while ((n & ~0x7FL) != 0) {
+      out.write((int) ((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    out.write((int) n);
+  }
+
+  private static void apply(MutationApplier applier, byte[]... records) throws IOException {
+    EventDecoder decoder = new EventDecoder(EventDecoder.Format.EVENT);
+    for (byte[] record : records) {
+      decoder.decode(record, applier);
+    }
+  }
+
+  @Test
+  public void testEventsOfARowAreGrouped() throws Exception {
+    MutationApplier applier = new MutationApplier(sink, 100);
+    apply(applier, encode("t1", "row1", 1L, Cell.Type.Put, "a", "va"),
+      encode("t1", "row1", 1L, Cell.Type.Put, "b", "vb"),
+      encode("t1", "row1", 2L, Cell.Type.DeleteColumn, "a", ""),
+      encode("t1", "row1", 3L, Cell.Type.DeleteFamily, "", ""),
+      encode("t1", "row2", 1L, Cell.Type.Put, "a", "v2"),
+      encode("t2", "row2", 1L, Cell.Type.Put, "a", "v3"));
+    Assert.assertEquals(4, applier.getPendingCount());
+    Assert.assertTrue(applied.isEmpty());
+    applier.close();
+    Assert.assertEquals(0, applier.getPendingCount());
+
+    Assert.assertEquals(2, applied.size());
+    Assert.assertEquals(TableName.valueOf("t1"), applied.get(0).table);
+    List<Mutation> t1 = applied.get(0).mutations;
+    Assert.assertEquals(3, t1.size());
+
+    Put put = (Put) t1.get(0);
+    Assert.assertEquals("row1", Bytes.toString(put.getRow()));
+    Assert.assertEquals(2, put.size());
+    Cell cell = put.get(FAMILY, Bytes.toBytes("b")).get(0);
+    Assert.assertEquals("vb", Bytes.toString(CellUtil.cloneValue(cell)));
+    Assert.assertEquals(1L, cell.getTimestamp());
+
+    Delete delete = (Delete) t1.get(1);
+    List<Cell> cells = delete.getFamilyCellMap().get(FAMILY);
+    Assert.assertEquals(2, cells.size());
+    Assert.assertEquals(Cell.Type.DeleteColumn, cells.get(0).getType());
+    Assert.assertEquals(2L, cells.get(0).getTimestamp());
+    Assert.assertEquals(Cell.Type.DeleteFamily, cells.get(1).getType());
+    Assert.assertEquals(3L, cells.get(1).getTimestamp());
+
+    Assert.assertEquals("row2", Bytes.toString(t1.get(2).getRow()));
+    Assert.assertEquals(TableName.valueOf("t2"), applied.get(1).table);
+    Assert.assertEquals(1, applied.get(1).mutations.size());
+  }
+
+  @Test
+  public void testDeleteTypes() throws Exception {
+    MutationApplier applier = new MutationApplier(sink, 100);
+    // a newer column delete followed by an older family delete, and a delete of the empty
+    // qualifier, which is a column like any other
+    apply(applier, encode("t1", "row1", 5L, Cell.Type.DeleteColumn, "a", ""),
+      encode("t1", "row1", 3L, Cell.Type.DeleteFamily, "", ""),
+      encode("t1", "row1", 4L, Cell.Type.DeleteColumn, "", ""),
+      encode("t1", "row1", 6L, Cell.Type.Delete, "b", ""),
+      encode("t1", "row1", 7L, Cell.Type.DeleteFamilyVersion, "", ""));
+    applier.close();
+
+    Assert.assertEquals(1, applied.size());
+    Assert.assertEquals(1, applied.get(0).mutations.size());
+    List<Cell> cells = applied.get(0).mutations.get(0).getFamilyCellMap().get(FAMILY);
+    Assert.assertEquals(5, cells.size());
+    Cell.Type[] types = new Cell.Type[] { Cell.Type.DeleteColumn, Cell.Type.DeleteFamily,
+      Cell.Type.DeleteColumn, Cell.Type.Delete, Cell.Type.DeleteFamilyVersion };
+    long[] timestamps = new long[] { 5L, 3L, 4L, 6L, 7L };
+    for (int i = 0; i < cells.size(); i++) {
+      Assert.assertEquals(types[i], cells.get(i).getType());
+      Assert.assertEquals(timestamps[i], cells.get(i).getTimestamp());
+    }
+    Assert.assertEquals("a", Bytes.toString(CellUtil.cloneQualifier(cells.get(0))));
+    Assert.assertEquals(0, cells.get(2).getQualifierLength());
+  }
+
+  @Test
+  public void testEventsWithoutType() throws Exception {
+    MutationApplier applier = new MutationApplier(sink, 100);
+    apply(applier, encodeWithoutType("t1", "row1", 2L, true, "a"),
+      encodeWithoutType("t1", "row1", 3L, true, ""));
+    applier.close();
+
+    List<Cell> cells = applied.get(0).mutations.get(0).getFamilyCellMap().get(FAMILY);
+    Assert.assertEquals(2, cells.size());
+    Assert.assertEquals(Cell.Type.DeleteColumn, cells.get(0).getType());
+    Assert.assertEquals(Cell.Type.DeleteFamily, cells.get(1).getType());
+  }
+
+  @Test
+  public void testBatchSize() throws Exception {
+    MutationApplier applier = new MutationApplier(sink, 2);
+    for (int i = 0; i < 5; i++) {
+      // both cells of a row end up in the same put
+      apply(applier, encode("t1", "row" + i, 1L, Cell.Type.Put, "a", "v"),
+        encode("t1", "row" + i, 1L, Cell.Type.Put, "b", "v"));
+    }
+    Assert.assertEquals(2, applied.size());
+    Assert.assertEquals(1, applier.getPendingCount());
+    applier.flush();
+    Assert.assertEquals(3, applied.size());
+    for (Applied batch : applied) {
+      for (Mutation mutation : batch.mutations) {
+        Assert.assertEquals(2, mutation.size());
+      }
+    }
+  }
+
+  @Test
+  public void testFailedSinkKeepsMutations() throws Exception {
+    List<Integer> attempts = new ArrayList<>();
+    MutationApplier applier = new MutationApplier((table, mutations) -> {
+      attempts.add(mutations.size());
+      if (attempts.size() == 1) {
+        throw new IOException("sink down");
+      }
+    }, 100);
+    apply(applier, encode("t1", "row1", 1L, Cell.Type.Put, "a", "v"));
+    try {
+      applier.flush();
+      Assert.fail("expected the sink failure");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(1, applier.getPendingCount());
+    applier.flush();
+    Assert.assertEquals(0, applier.getPendingCount());
+    Assert.assertEquals(2, attempts.size());
+  }
+}
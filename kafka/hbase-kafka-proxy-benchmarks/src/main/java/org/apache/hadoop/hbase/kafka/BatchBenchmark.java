@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole replication batch through {@link KafkaTableForBridge#batch(List, Object[])}: routing,
+ * encoding and sending to a producer that acknowledges right away.
+ */
+@InterfaceAudience.Private
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class BatchBenchmark {
+  @Param({ "1000", "10000" })
+  public int cells;
+
+  @Param({ "1", "10", "100" })
+  public int rowWidth;
+
+  @Param({ "10", "1000" })
+  public int rules;
+
+  @Param({ "none", "row" })
+  public String envelope;
+
+  private NoopProducer producer;
+  private KafkaBridgeConnection connection;
+  private Table table;
+  private List<Row> batch;
+
+  @Setup
+  public void setup() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set(KafkaProxy.KAFKA_PROXY_ENVELOPE, envelope);
+    producer = new NoopProducer();
+    connection = new KafkaBridgeConnection(conf,
+      SyntheticWorkload.rules(rules, TopicRoutingRules.DEFAULT_DECISION_CACHE_SIZE), producer);
+    table = connection.getTable(SyntheticWorkload.TABLE);
+    batch = SyntheticWorkload.puts(cells, rowWidth);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    connection.close();
+  }
+
+  @Benchmark
+  public long batch() throws Exception {
+    table.batch(batch, new Object[0]);
+    return producer.getRecords();
+  }
+}
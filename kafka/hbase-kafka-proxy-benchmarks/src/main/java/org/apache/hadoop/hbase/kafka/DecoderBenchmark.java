@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding HBaseKafkaEvent records on the consumer side: a new avro decoder and event per record,
+ * the way DumpToStringListener used to, against {@link EventDecoder} reusing them and decoding
+ * into its flyweight view.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DecoderBenchmark {
+  @Param({ "1000", "10000" })
+  public int cells;
+
+  @Param({ "1", "100" })
+  public int rowWidth;
+
+  private final SpecificDatumReader<HBaseKafkaEvent> reader =
+    new SpecificDatumReader<>(HBaseKafkaEvent.SCHEMA$);
+  private final EventDecoder decoder = new EventDecoder(EventDecoder.Format.EVENT);
+  private List<byte[]> records;
+
+  @Setup
+  public void setup() throws IOException {
+    byte[] encodedTable =
+      HBaseKafkaEventEncoder.encodeBytesField(SyntheticWorkload.TABLE.toBytes());
+    HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+    records = new ArrayList<>(cells);
+    for (Row row : SyntheticWorkload.puts(cells, rowWidth)) {
+      CellScanner scanner = ((Mutation) row).cellScanner();
+      while (scanner.advance()) {
+        Cell cell = scanner.current();
+        records.add(encoder.encodeToArray(cell, encodedTable, false));
+      }
+    }
+  }
+
+  @Benchmark
+  public void datumReader(Blackhole bh) throws IOException {
+    for (byte[] record : records) {
+      bh.consume(reader.read(null, DecoderFactory.get().binaryDecoder(record, null)));
+    }
+  }
+
+  @Benchmark
+  public void datumReaderReuse(Blackhole bh) throws IOException {
+    HBaseKafkaEvent event = null;
+    for (byte[] record : records) {
+      event = decoder.read(record, event);
+      bh.consume(event);
+    }
+  }
+
+  @Benchmark
+  public void eventDecoder(Blackhole bh) throws IOException {
+    for (byte[] record : records) {
+      decoder.decode(record, (event) -> {
+        bh.consume(event.getTimestamp());
+        bh.consume(event.getValueLength());
+      });
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Avro encoding of HBaseKafkaEvent records, with the generated SpecificDatumWriter (building an
+ * event object per cell) and with {@link HBaseKafkaEventEncoder}, which writes straight from the
+ * cell arrays.
+ */
+@InterfaceAudience.Private
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class EncoderBenchmark {
+  @Param({ "1000", "10000" })
+  public int cells;
+
+  @Param({ "1", "100" })
+  public int rowWidth;
+
+  private final byte[] tableAsBytes = SyntheticWorkload.TABLE.toBytes();
+  private final byte[] encodedTable = HBaseKafkaEventEncoder.encodeBytesField(tableAsBytes);
+  private final DatumWriter<HBaseKafkaEvent> writer =
+    new SpecificDatumWriter<>(HBaseKafkaEvent.getClassSchema());
+  private final ByteArrayOutputStream bout = new ByteArrayOutputStream();
+  private final HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+  private BinaryEncoder binaryEncoder;
+  private List<Cell> batch;
+
+  @Setup
+  public void setup() throws IOException {
+    batch = new ArrayList<>(cells);
+    for (Row row : SyntheticWorkload.puts(cells, rowWidth)) {
+      CellScanner scanner = ((Mutation) row).cellScanner();
+      while (scanner.advance()) {
+        batch.add(scanner.current());
+      }
+    }
+  }
+
+  @Benchmark
+  public void datumWriter(Blackhole bh) throws IOException {
+    for (Cell cell : batch) {
+      HBaseKafkaEvent event = new HBaseKafkaEvent();
+      event.setKey(ByteBuffer.wrap(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()));
+      event.setTable(ByteBuffer.wrap(tableAsBytes));
+      event.setDelete(false);
+      event.setTimestamp(cell.getTimestamp());
+      event.setFamily(ByteBuffer.wrap(cell.getFamilyArray(), cell.getFamilyOffset(),
+        cell.getFamilyLength()));
+      event.setQualifier(ByteBuffer.wrap(cell.getQualifierArray(), cell.getQualifierOffset(),
+        cell.getQualifierLength()));
+      event.setValue(
+        ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+      event.setType((int) cell.getType().getCode());
+      bout.reset();
+      binaryEncoder = EncoderFactory.get().binaryEncoder(bout, binaryEncoder);
+      writer.write(event, binaryEncoder);
+      binaryEncoder.flush();
+      bh.consume(bout.toByteArray());
+    }
+  }
+
+  @Benchmark
+  public void eventEncoder(Blackhole bh) {
+    for (Cell cell : batch) {
+      bh.consume(encoder.encode(cell, encodedTable, false).toByteArray());
+    }
+  }
+
+  @Benchmark
+  public void eventEncoderToArray(Blackhole bh) {
+    for (Cell cell : batch) {
+      bh.consume(encoder.encodeToArray(cell, encodedTable, false));
+    }
+  }
+}
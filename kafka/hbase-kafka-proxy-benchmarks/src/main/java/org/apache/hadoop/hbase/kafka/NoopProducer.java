@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * A producer that acknowledges every record right away and keeps nothing, so benchmarks measure the
+ * proxy and not the producer (MockProducer keeps every record it was sent).
+ */
+@InterfaceAudience.Private
+public class NoopProducer implements Producer<byte[], byte[]> {
+  private static final RecordMetadata METADATA =
+    new RecordMetadata(new TopicPartition("noop", 0), 0L, 0L, 0L, null, 0, 0);
+  private static final Future<RecordMetadata> DONE = CompletableFuture.completedFuture(METADATA);
+
+  private long records = 0;
+
+  /**
+   * @return the number of records sent, to keep the JIT from dropping the sends
+   */
+  public long getRecords() {
+    return records;
+  }
+
+  @Override
+  public void initTransactions() {
+  }
+
+  @Override
+  public void beginTransaction() {
+  }
+
+  @Override
+  public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets,
+    String consumerGroupId) {
+  }
+
+  @Override
+  public void commitTransaction() {
+  }
+
+  @Override
+  public void abortTransaction() {
+  }
+
+  @Override
+  public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record) {
+    return send(record, null);
+  }
+
+  @Override
+  public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record, Callback callback) {
+    records++;
+    if (callback != null) {
+      callback.onCompletion(METADATA, null);
+    }
+    return DONE;
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public List<PartitionInfo> partitionsFor(String topic) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public Map<MetricName, ? extends Metric> metrics() {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public void close(long timeout, TimeUnit unit) {
+  }
+}
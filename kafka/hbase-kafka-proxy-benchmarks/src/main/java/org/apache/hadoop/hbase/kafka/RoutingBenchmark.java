@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Rule evaluation for the cells of a batch, with and without memoized decisions. The row width
+ * sets how many distinct qualifiers the cells have.
+ */
+@InterfaceAudience.Private
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RoutingBenchmark {
+  @Param({ "1000", "10000" })
+  public int cells;
+
+  @Param({ "10", "100" })
+  public int rowWidth;
+
+  @Param({ "10", "1000", "10000" })
+  public int rules;
+
+  @Param({ "0", "100000" })
+  public long decisionCacheSize;
+
+  private TopicRoutingRules routingRules;
+  private byte[][] qualifiers;
+
+  @Setup
+  public void setup() {
+    routingRules = SyntheticWorkload.rules(rules, decisionCacheSize);
+    qualifiers = SyntheticWorkload.qualifiers(rowWidth);
+  }
+
+  @Benchmark
+  public void getTopics(Blackhole bh) {
+    for (int i = 0; i < cells; i++) {
+      bh.consume(routingRules.getTopics(SyntheticWorkload.TABLE, SyntheticWorkload.FAMILY,
+        qualifiers[i % rowWidth]));
+    }
+  }
+
+  @Benchmark
+  public void isExclude(Blackhole bh) {
+    for (int i = 0; i < cells; i++) {
+      bh.consume(routingRules.isExclude(SyntheticWorkload.TABLE, SyntheticWorkload.FAMILY,
+        qualifiers[i % rowWidth]));
+    }
+  }
+
+  @Benchmark
+  public void route(Blackhole bh) {
+    for (int i = 0; i < cells; i++) {
+      byte[] qualifier = qualifiers[i % rowWidth];
+      bh.consume(routingRules.route(SyntheticWorkload.TABLE, SyntheticWorkload.FAMILY, qualifier,
+        0, qualifier.length));
+    }
+  }
+}
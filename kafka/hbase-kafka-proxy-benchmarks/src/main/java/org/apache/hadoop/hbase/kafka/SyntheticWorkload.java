@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Synthetic rules and mutations for the benchmarks. The rules are a mix of exact, prefix and
+ * suffix rules on the benchmarked table and on other tables, so rule evaluation has to look past
+ * rules that don't apply.
+ */
+@InterfaceAudience.Private
+public final class SyntheticWorkload {
+  public static final TableName TABLE = TableName.valueOf("bench:table");
+  public static final byte[] FAMILY = Bytes.toBytes("f");
+  public static final byte[] DROPPED_FAMILY = Bytes.toBytes("d");
+  public static final int VALUE_SIZE = 64;
+
+  private SyntheticWorkload() {
+  }
+
+  /**
+   * Build a rule set.
+   * @param count             number of rules, at least 2
+   * @param decisionCacheSize number of memoized routing decisions, 0 to disable memoization
+   * @return the rules
+   */
+  public static TopicRoutingRules rules(int count, long decisionCacheSize) {
+    StringBuilder xml = new StringBuilder("<rules>");
+    xml.append("<rule action=\"drop\" table=\"").append(TABLE.getNameAsString())
+      .append("\" columnFamily=\"d\"/>");
+    xml.append("<rule action=\"route\" table=\"").append(TABLE.getNameAsString())
+      .append("\" columnFamily=\"f\" topic=\"all\"/>");
+    for (int i = 2; i < count; i++) {
+      switch (i % 4) {
+        case 0:
+          // rules on other tables
+          xml.append("<rule action=\"route\" table=\"bench:other").append(i)
+            .append("\" topic=\"other\"/>");
+          break;
+        case 1:
+          xml.append("<rule action=\"route\" table=\"").append(TABLE.getNameAsString())
+            .append("\" columnFamily=\"f\" qualifier=\"q").append(i).append("*\" topic=\"p")
+            .append(i % 10).append("\"/>");
+          break;
+        case 2:
+          xml.append("<rule action=\"route\" table=\"").append(TABLE.getNameAsString())
+            .append("\" columnFamily=\"f\" qualifier=\"*x").append(i).append("\" topic=\"s")
+            .append(i % 10).append("\"/>");
+          break;
+        default:
+          xml.append("<rule action=\"drop\" table=\"").append(TABLE.getNameAsString())
+            .append("\" columnFamily=\"f\" qualifier=\"secret").append(i).append("*\"/>");
+          break;
+      }
+    }
+    xml.append("</rules>");
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.setDecisionCacheSize(decisionCacheSize);
+    rules.parseRules(new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8)));
+    return rules;
+  }
+
+  /**
+   * Qualifiers the mutations use, some of them match prefix, suffix or drop rules.
+   * @param count number of distinct qualifiers
+   * @return the qualifiers
+   */
+  public static byte[][] qualifiers(int count) {
+    byte[][] ret = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      ret[i] = Bytes.toBytes((i % 3 == 0 ? "secret" : "q") + i + "x" + (i % 7));
+    }
+    return ret;
+  }
+
+  /**
+   * Build the mutations of a replication batch.
+   * @param cells    number of cells
+   * @param rowWidth cells per row
+   * @return puts, one every rowWidth cells
+   */
+  public static List<Row> puts(int cells, int rowWidth) {
+    Random random = new Random(42);
+    byte[][] qualifiers = qualifiers(rowWidth);
+    List<Row> ret = new ArrayList<>();
+    Put put = null;
+    for (int i = 0; i < cells; i++) {
+      if (i % rowWidth == 0) {
+        put = new Put(Bytes.toBytes(String.format("row%08d", i / rowWidth)), 1L);
+        ret.add(put);
+      }
+      byte[] value = new byte[VALUE_SIZE];
+      random.nextBytes(value);
+      put.addColumn(FAMILY, qualifiers[i % rowWidth], value);
+    }
+    return ret;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Projects cell values that are avro binary encoded records down to some of their fields. The value
+ * is read with the schema it was written with and written again with a schema that only has the
+ * projected fields, in the order they are listed. Values that do not decode are logged and not
+ * sent.
+ */
+@InterfaceAudience.Private
+public class AvroProjectionTransform implements ValueTransform {
+  private static final Logger LOG = LoggerFactory.getLogger(AvroProjectionTransform.class);
+
+  /**
+   * Reused decoding and encoding state, one per thread.
+   */
+  private static final class State {
+    BinaryDecoder decoder;
+    BinaryEncoder encoder;
+    GenericRecord record;
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+  }
+
+  private final Schema projection;
+  private final GenericDatumReader<GenericRecord> reader;
+  private final GenericDatumWriter<GenericRecord> writer;
+  private final ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+
+  /**
+   * @param writerSchema schema the values were written with, a record
+   * @param fields       names of the fields to keep
+   */
+  public AvroProjectionTransform(Schema writerSchema, List<String> fields) {
+    if (writerSchema.getType() != Schema.Type.RECORD) {
+      throw new IllegalArgumentException("value schema is not a record: " + writerSchema);
+    }
+    List<Schema.Field> projected = new ArrayList<>(fields.size());
+    for (String name : fields) {
+      Schema.Field field = writerSchema.getField(name.trim());
+      if (field == null) {
+        throw new IllegalArgumentException(
+          "no field " + name + " in value schema " + writerSchema.getFullName());
+      }
+      projected.add(new Schema.Field(field, field.schema()));
+    }
+    this.projection = Schema.createRecord(writerSchema.getName(), writerSchema.getDoc(),
+      writerSchema.getNamespace(), false, projected);
+    this.reader = new GenericDatumReader<>(writerSchema, projection);
+    this.writer = new GenericDatumWriter<>(projection);
+  }
+
+  /**
+   * @return the schema of the values that are sent
+   */
+  public Schema getProjection() {
+    return projection;
+  }
+
+  @Override
+  public byte[] transform(Cell cell) {
+    State state = states.get();
+    try {
+      state.decoder = DecoderFactory.get().binaryDecoder(cell.getValueArray(),
+        cell.getValueOffset(), cell.getValueLength(), state.decoder);
+      state.record = reader.read(state.record, state.decoder);
+      state.out.reset();
+      state.encoder = EncoderFactory.get().binaryEncoder(state.out, state.encoder);
+      writer.write(state.record, state.encoder);
+      state.encoder.flush();
+      return state.out.toByteArray();
+    } catch (IOException | RuntimeException e) {
+      LOG.warn("skipping a value of {} that does not decode as {}", cell, projection.getFullName(),
+        e);
+      // the reused record might be half filled
+      state.record = null;
+      return null;
+    }
+  }
+}
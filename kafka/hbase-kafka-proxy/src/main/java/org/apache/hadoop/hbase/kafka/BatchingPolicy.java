@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Picks the producer batching settings (batch.size, linger.ms and compression) that a route rule
+ * leaves open. When adaptive batching is enabled the settings are sized from what the proxy
+ * observes: the bytes a replication batch sends through a producer, the time until the batch is
+ * acknowledged and the compression ratio reported by the producer. Settings fixed by a rule are
+ * never changed.
+ */
+@InterfaceAudience.Private
+public class BatchingPolicy {
+  /** compression used for auto compression until the compression ratio is known */
+  static final String AUTO_COMPRESSION_START = "lz4";
+  /** above this compressed/uncompressed ratio compressing is not worth the cpu */
+  static final double INCOMPRESSIBLE_RATIO = 0.9;
+  /** linger.ms changes smaller than this are not worth a new producer */
+  static final int LINGER_MS_STEP = 5;
+
+  /**
+   * What was observed for a producer since the last adaptation.
+   */
+  public static final class Observations {
+    final double avgBatchBytes;
+    final double avgAckLatencyMs;
+    final double compressionRatio;
+
+    /**
+     * @param avgBatchBytes    average bytes a replication batch sent to the producer
+     * @param avgAckLatencyMs  average time until a batch was acknowledged
+     * @param compressionRatio compressed/uncompressed size from the producer, NaN if unknown
+     */
+    public Observations(double avgBatchBytes, double avgAckLatencyMs, double compressionRatio) {
+      this.avgBatchBytes = avgBatchBytes;
+      this.avgAckLatencyMs = avgAckLatencyMs;
+      this.compressionRatio = compressionRatio;
+    }
+  }
+
+  private final boolean adaptive;
+  private final long intervalMs;
+  private final long latencyTargetMs;
+  private final int maxLingerMs;
+  private final int minBatchSize;
+  private final int maxBatchSize;
+
+  public BatchingPolicy(Configuration conf) {
+    this.adaptive = conf.getBoolean(KafkaProxy.KAFKA_PROXY_BATCHING_ADAPTIVE, false);
+    this.intervalMs = conf.getLong(KafkaProxy.KAFKA_PROXY_BATCHING_INTERVAL_MS, 30000);
+    this.latencyTargetMs =
+      conf.getLong(KafkaProxy.KAFKA_PROXY_BATCHING_LATENCY_TARGET_MS, 100);
+    this.maxLingerMs = conf.getInt(KafkaProxy.KAFKA_PROXY_BATCHING_MAX_LINGER_MS, 20);
+    this.minBatchSize = conf.getInt(KafkaProxy.KAFKA_PROXY_BATCHING_MIN_BATCH_SIZE, 16 * 1024);
+    this.maxBatchSize =
+      conf.getInt(KafkaProxy.KAFKA_PROXY_BATCHING_MAX_BATCH_SIZE, 1024 * 1024);
+  }
+
+  public boolean isAdaptive() {
+    return adaptive;
+  }
+
+  public long getIntervalMs() {
+    return intervalMs;
+  }
+
+  /**
+   * The settings a new producer of the profile starts with.
+   * @param requested profile from the route rules
+   * @return the settings to create the producer with
+   */
+  public ProducerProfile initial(ProducerProfile requested) {
+    if (requested.isAutoCompression()) {
+      return new ProducerProfile(AUTO_COMPRESSION_START, requested.getLingerMs(),
+        requested.getBatchSize());
+    }
+    return requested;
+  }
+
+  /**
+   * Size the open settings from the observations.
+   * @param requested profile from the route rules
+   * @param current   settings the producer currently runs with
+   * @param observed  what was observed since the last adaptation
+   * @return the new settings, or current if the change is not worth a new producer
+   */
+  public ProducerProfile adapt(ProducerProfile requested, ProducerProfile current,
+    Observations observed) {
+    if (!adaptive) {
+      return current;
+    }
+    boolean changed = false;
+
+    Integer batchSize = current.getBatchSize();
+    if (requested.getBatchSize() == null && observed.avgBatchBytes > 0) {
+      double ratio =
+        Double.isNaN(observed.compressionRatio) ? 1.0 : Math.min(1.0, observed.compressionRatio);
+      int target = clamp(roundUpToPowerOfTwo((long) (observed.avgBatchBytes * ratio)),
+        minBatchSize, maxBatchSize);
+      // only resize for a factor of two, a new producer is not free
+      if (batchSize == null || target >= 2L * batchSize || 2L * target <= batchSize) {
+        batchSize = target;
+        changed = true;
+      }
+    }
+
+    Integer lingerMs = current.getLingerMs();
+    if (requested.getLingerMs() == null) {
+      // acks already take longer than the target, lingering would only add to it
+      int target = observed.avgAckLatencyMs >= latencyTargetMs
+        ? 0
+        : (int) Math.min(maxLingerMs, (latencyTargetMs - observed.avgAckLatencyMs) / 2);
+      if (lingerMs == null || Math.abs(target - lingerMs) >= LINGER_MS_STEP) {
+        lingerMs = target;
+        changed = true;
+      }
+    }
+
+    String compression = current.getCompression();
+    boolean incompressible = !Double.isNaN(observed.compressionRatio)
+      && observed.compressionRatio > INCOMPRESSIBLE_RATIO;
+    if (requested.isAutoCompression() && incompressible && !"none".equals(compression)) {
+      compression = "none";
+      changed = true;
+    }
+
+    return changed ? new ProducerProfile(compression, lingerMs, batchSize) : current;
+  }
+
+  private static int clamp(long value, int min, int max) {
+    return (int) Math.max(min, Math.min(max, value));
+  }
+
+  private static long roundUpToPowerOfTwo(long value) {
+    if (value <= 1) {
+      return 1;
+    }
+    return Long.highestOneBit(value - 1) << 1;
+  }
+}
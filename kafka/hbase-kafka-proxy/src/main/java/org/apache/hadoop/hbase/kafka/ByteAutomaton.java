@@ -0,0 +1,657 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Deterministic automaton over bytes that matches glob or regex patterns against qualifiers and
+ * column families in place, without decoding them to strings. Patterns are compiled to a
+ * nondeterministic automaton and then to a transition table with 256 entries per state, so a
+ * match is one table lookup per byte. Several patterns can share one automaton; a lookup then
+ * finds all the patterns that match in a single pass. Patterns always match the whole data.
+ * <p>
+ * Globs support {@code *} (any bytes), {@code ?} (one byte), {@code [abc]}, {@code [a-z]} and
+ * {@code [!abc]}. Regexes support literals, {@code .}, character classes with ranges and
+ * negation, {@code \d}, {@code \w}, {@code \s}, groups, {@code |}, {@code *}, {@code +} and
+ * {@code ?}, also lazy; a quantifier can't follow another one. Both escape with {@code \}.
+ * Patterns are UTF-8 encoded; {@code .}, {@code ?} and negated classes match a single byte, line
+ * breaks included, and classes may only hold ASCII characters.
+ * <p>
+ * An instance is immutable and safe to share between threads.
+ */
+@InterfaceAudience.Private
+public final class ByteAutomaton {
+  /** more states than this are not worth the memory, 256 ints each */
+  static final int MAX_STATES = 10000;
+
+  private static final int[] NO_PATTERNS = new int[0];
+
+  /**
+   * Pattern languages.
+   */
+  public enum Syntax {
+    GLOB,
+    REGEX
+  }
+
+  /**
+   * A single pattern, compiled on its own so it is validated (and can be matched) as soon as it
+   * is created.
+   */
+  public static final class Pattern {
+    private final Syntax syntax;
+    private final String text;
+    private final ByteAutomaton automaton;
+
+    /**
+     * @param syntax language of the pattern
+     * @param text   the pattern
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    public Pattern(Syntax syntax, String text) {
+      this.syntax = syntax;
+      this.text = text;
+      try {
+        this.automaton = new Builder().add(this, 0).build();
+      } catch (IllegalStateException e) {
+        throw new IllegalArgumentException("pattern " + text + " is too complex", e);
+      }
+    }
+
+    public Syntax getSyntax() {
+      return syntax;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    public boolean matches(byte[] data) {
+      return automaton.matches(data, 0, data.length);
+    }
+
+    public boolean matches(byte[] data, int offset, int length) {
+      return automaton.matches(data, offset, length);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Pattern)) {
+        return false;
+      }
+      Pattern other = (Pattern) obj;
+      return syntax == other.syntax && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(syntax, text);
+    }
+
+    @Override
+    public String toString() {
+      return syntax.name().toLowerCase(Locale.ROOT) + ":" + text;
+    }
+  }
+
+  /**
+   * Collects patterns and compiles them into one automaton.
+   */
+  public static final class Builder {
+    private final List<NfaState> nfa = new ArrayList<>();
+    private final NfaState start = newState();
+
+    /**
+     * @param pattern the pattern
+     * @param ordinal reported by {@link ByteAutomaton#collect} when the pattern matches
+     * @return this builder
+     */
+    public Builder add(Pattern pattern, int ordinal) {
+      byte[] bytes = pattern.getText().getBytes(StandardCharsets.UTF_8);
+      Fragment fragment = pattern.getSyntax() == Syntax.GLOB
+        ? new GlobParser(this, bytes).parse()
+        : new RegexParser(this, bytes).parse();
+      start.epsilons.add(fragment.start);
+      fragment.end.accepts = append(fragment.end.accepts, ordinal);
+      return this;
+    }
+
+    /**
+     * @return the automaton of all the patterns that were added
+     * @throws IllegalStateException if it would have more than {@link #MAX_STATES} states
+     */
+    public ByteAutomaton build() {
+      return new ByteAutomaton(this);
+    }
+
+    NfaState newState() {
+      NfaState state = new NfaState(nfa.size());
+      nfa.add(state);
+      return state;
+    }
+
+    Fragment bytes(BitSet set) {
+      NfaState from = newState();
+      NfaState to = newState();
+      from.bytes = set;
+      from.next = to;
+      return new Fragment(from, to);
+    }
+
+    Fragment empty() {
+      NfaState state = newState();
+      return new Fragment(state, state);
+    }
+
+    Fragment concat(Fragment a, Fragment b) {
+      a.end.epsilons.add(b.start);
+      return new Fragment(a.start, b.end);
+    }
+
+    Fragment alternate(Fragment a, Fragment b) {
+      NfaState from = newState();
+      NfaState to = newState();
+      from.epsilons.add(a.start);
+      from.epsilons.add(b.start);
+      a.end.epsilons.add(to);
+      b.end.epsilons.add(to);
+      return new Fragment(from, to);
+    }
+
+    Fragment repeat(Fragment a, boolean optional, boolean many) {
+      NfaState from = newState();
+      NfaState to = newState();
+      from.epsilons.add(a.start);
+      a.end.epsilons.add(to);
+      if (optional) {
+        from.epsilons.add(to);
+      }
+      if (many) {
+        a.end.epsilons.add(a.start);
+      }
+      return new Fragment(from, to);
+    }
+  }
+
+  private static final class NfaState {
+    final int id;
+    final List<NfaState> epsilons = new ArrayList<>(2);
+    // on a byte in this set go to next
+    BitSet bytes;
+    NfaState next;
+    int[] accepts = NO_PATTERNS;
+
+    NfaState(int id) {
+      this.id = id;
+    }
+  }
+
+  private static final class Fragment {
+    final NfaState start;
+    final NfaState end;
+
+    Fragment(NfaState start, NfaState end) {
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Turns a pattern into automaton fragments.
+   */
+  private abstract static class Parser {
+    final Builder builder;
+    final byte[] pattern;
+    int pos = 0;
+
+    Parser(Builder builder, byte[] pattern) {
+      this.builder = builder;
+      this.pattern = pattern;
+    }
+
+    abstract Fragment parse();
+
+    boolean more() {
+      return pos < pattern.length;
+    }
+
+    IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at " + pos + " in pattern "
+        + new String(pattern, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A literal character, with the continuation bytes of a multi byte UTF-8 character.
+     */
+    Fragment literal() {
+      Fragment ret = builder.bytes(single(pattern[pos++]));
+      while (more() && (pattern[pos] & 0xC0) == 0x80) {
+        ret = builder.concat(ret, builder.bytes(single(pattern[pos++])));
+      }
+      return ret;
+    }
+
+    /**
+     * A bracket class, after the opening bracket.
+     * @param negations  characters that negate the class when they come first
+     * @param shorthands if shorthands like \d stand for their class, instead of the letter
+     */
+    BitSet bracketClass(String negations, boolean shorthands) {
+      BitSet set = new BitSet(256);
+      boolean negated = more() && negations.indexOf(pattern[pos]) >= 0;
+      if (negated) {
+        pos++;
+      }
+      boolean first = true;
+      while (true) {
+        if (!more()) {
+          throw error("unclosed class");
+        }
+        if (pattern[pos] == ']' && !first) {
+          pos++;
+          break;
+        }
+        first = false;
+        BitSet shorthand = shorthands ? classShorthand() : null;
+        if (shorthand != null) {
+          pos += 2;
+          set.or(shorthand);
+          continue;
+        }
+        int low = classByte();
+        boolean range = pos + 1 < pattern.length && pattern[pos] == '-' && pattern[pos + 1] != ']';
+        if (range) {
+          pos++;
+          if (shorthands && classShorthand() != null) {
+            throw error("bad range");
+          }
+          int high = classByte();
+          if (high < low) {
+            throw error("bad range");
+          }
+          set.set(low, high + 1);
+        } else {
+          set.set(low);
+        }
+      }
+      if (negated) {
+        set.flip(0, 256);
+      }
+      return set;
+    }
+
+    private BitSet classShorthand() {
+      return pattern[pos] == '\\' && pos + 1 < pattern.length ? shorthand(pattern[pos + 1]) : null;
+    }
+
+    private int classByte() {
+      byte b = pattern[pos++];
+      if (b == '\\') {
+        if (!more()) {
+          throw error("dangling escape");
+        }
+        b = pattern[pos++];
+      }
+      if (b < 0) {
+        throw error("non ASCII character in class");
+      }
+      return b;
+    }
+  }
+
+  private static final class GlobParser extends Parser {
+    GlobParser(Builder builder, byte[] pattern) {
+      super(builder, pattern);
+    }
+
+    @Override
+    Fragment parse() {
+      Fragment ret = builder.empty();
+      while (more()) {
+        byte b = pattern[pos];
+        Fragment next;
+        if (b == '*') {
+          pos++;
+          next = builder.repeat(builder.bytes(all()), true, true);
+        } else if (b == '?') {
+          pos++;
+          next = builder.bytes(all());
+        } else if (b == '[') {
+          pos++;
+          next = builder.bytes(bracketClass("!^", false));
+        } else {
+          if (b == '\\') {
+            pos++;
+            if (!more()) {
+              throw error("dangling escape");
+            }
+          }
+          next = literal();
+        }
+        ret = builder.concat(ret, next);
+      }
+      return ret;
+    }
+  }
+
+  private static final class RegexParser extends Parser {
+    RegexParser(Builder builder, byte[] pattern) {
+      super(builder, pattern);
+    }
+
+    @Override
+    Fragment parse() {
+      // the whole data always has to match, anchors are allowed but change nothing
+      if (more() && pattern[pos] == '^') {
+        pos++;
+      }
+      Fragment ret = alternation();
+      if (more() && pattern[pos] == '$' && pos == pattern.length - 1) {
+        pos++;
+      }
+      if (more()) {
+        throw error("unexpected " + (char) pattern[pos]);
+      }
+      return ret;
+    }
+
+    private boolean endOfSequence() {
+      if (!more() || pattern[pos] == '|' || pattern[pos] == ')') {
+        return true;
+      }
+      return pattern[pos] == '$' && pos == pattern.length - 1;
+    }
+
+    private Fragment alternation() {
+      Fragment ret = sequence();
+      while (more() && pattern[pos] == '|') {
+        pos++;
+        ret = builder.alternate(ret, sequence());
+      }
+      return ret;
+    }
+
+    private Fragment sequence() {
+      Fragment ret = builder.empty();
+      while (!endOfSequence()) {
+        ret = builder.concat(ret, repetition());
+      }
+      return ret;
+    }
+
+    private Fragment repetition() {
+      Fragment ret = atom();
+      if (!more()) {
+        return ret;
+      }
+      byte b = pattern[pos];
+      if (b == '*') {
+        ret = builder.repeat(ret, true, true);
+      } else if (b == '+') {
+        ret = builder.repeat(ret, false, true);
+      } else if (b == '?') {
+        ret = builder.repeat(ret, true, false);
+      } else if (b == '{') {
+        throw error("counted repetition is not supported");
+      } else {
+        return ret;
+      }
+      pos++;
+      // a lazy quantifier matches the same whole data as a greedy one
+      if (more() && pattern[pos] == '?') {
+        pos++;
+      }
+      if (more()) {
+        b = pattern[pos];
+        if (b == '+') {
+          throw error("possessive quantifiers are not supported");
+        }
+        if (b == '*' || b == '?' || b == '{') {
+          throw error("nothing to repeat");
+        }
+      }
+      return ret;
+    }
+
+    private Fragment atom() {
+      byte b = pattern[pos];
+      switch (b) {
+        case '(':
+          pos++;
+          if (more() && pattern[pos] == '?') {
+            throw error("group flags are not supported");
+          }
+          Fragment group = alternation();
+          if (!more() || pattern[pos] != ')') {
+            throw error("unclosed group");
+          }
+          pos++;
+          return group;
+        case '[':
+          pos++;
+          return builder.bytes(bracketClass("^", true));
+        case '.':
+          pos++;
+          return builder.bytes(all());
+        case '*':
+        case '+':
+        case '?':
+          throw error("nothing to repeat");
+        case '^':
+        case '$':
+          throw error("anchors are only allowed at the ends");
+        case '\\':
+          pos++;
+          if (!more()) {
+            throw error("dangling escape");
+          }
+          BitSet shorthand = shorthand(pattern[pos]);
+          if (shorthand != null) {
+            pos++;
+            return builder.bytes(shorthand);
+          }
+          return literal();
+        default:
+          return literal();
+      }
+    }
+  }
+
+  /**
+   * @return the bytes of a regex shorthand class, or null if the character is not one
+   */
+  private static BitSet shorthand(byte c) {
+    BitSet set = new BitSet(256);
+    switch (c) {
+      case 'd':
+      case 'D':
+        set.set('0', '9' + 1);
+        break;
+      case 'w':
+      case 'W':
+        set.set('a', 'z' + 1);
+        set.set('A', 'Z' + 1);
+        set.set('0', '9' + 1);
+        set.set('_');
+        break;
+      case 's':
+      case 'S':
+        set.set(' ');
+        set.set('\t', '\r' + 1);
+        break;
+      default:
+        return null;
+    }
+    if (Character.isUpperCase(c)) {
+      set.flip(0, 256);
+    }
+    return set;
+  }
+
+  private static BitSet single(byte b) {
+    BitSet set = new BitSet(256);
+    set.set(b & 0xFF);
+    return set;
+  }
+
+  private static BitSet all() {
+    BitSet set = new BitSet(256);
+    set.set(0, 256);
+    return set;
+  }
+
+  private static int[] append(int[] values, int value) {
+    int[] ret = Arrays.copyOf(values, values.length + 1);
+    ret[values.length] = value;
+    return ret;
+  }
+
+  // next state for (state << 8 | byte), -1 once nothing can match anymore
+  private final int[] transitions;
+  // patterns that match when the data ends in a state
+  private final int[][] accepts;
+
+  private ByteAutomaton(Builder builder) {
+    List<BitSet> states = new ArrayList<>();
+    Map<BitSet, Integer> ids = new HashMap<>();
+    Deque<BitSet> todo = new ArrayDeque<>();
+    BitSet initial = new BitSet();
+    closure(builder.nfa, builder.start, initial);
+    ids.put(initial, 0);
+    states.add(initial);
+    todo.add(initial);
+
+    List<int[]> rows = new ArrayList<>();
+    while (!todo.isEmpty()) {
+      BitSet current = todo.poll();
+      int[] row = new int[256];
+      for (int b = 0; b < 256; b++) {
+        BitSet next = new BitSet();
+        for (int i = current.nextSetBit(0); i >= 0; i = current.nextSetBit(i + 1)) {
+          NfaState state = builder.nfa.get(i);
+          if (state.bytes != null && state.bytes.get(b)) {
+            closure(builder.nfa, state.next, next);
+          }
+        }
+        if (next.isEmpty()) {
+          row[b] = -1;
+          continue;
+        }
+        Integer id = ids.get(next);
+        if (id == null) {
+          if (states.size() >= MAX_STATES) {
+            throw new IllegalStateException("patterns need more than " + MAX_STATES + " states");
+          }
+          id = states.size();
+          ids.put(next, id);
+          states.add(next);
+          todo.add(next);
+        }
+        row[b] = id;
+      }
+      rows.add(row);
+    }
+
+    this.transitions = new int[states.size() * 256];
+    this.accepts = new int[states.size()][];
+    for (int s = 0; s < states.size(); s++) {
+      System.arraycopy(rows.get(s), 0, transitions, s * 256, 256);
+      BitSet accepted = new BitSet();
+      BitSet members = states.get(s);
+      for (int i = members.nextSetBit(0); i >= 0; i = members.nextSetBit(i + 1)) {
+        for (int ordinal : builder.nfa.get(i).accepts) {
+          accepted.set(ordinal);
+        }
+      }
+      accepts[s] = accepted.stream().toArray();
+    }
+  }
+
+  private static void closure(List<NfaState> nfa, NfaState from, BitSet out) {
+    Deque<NfaState> stack = new ArrayDeque<>();
+    if (!out.get(from.id)) {
+      out.set(from.id);
+      stack.push(from);
+    }
+    while (!stack.isEmpty()) {
+      for (NfaState next : stack.pop().epsilons) {
+        if (!out.get(next.id)) {
+          out.set(next.id);
+          stack.push(next);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return number of states, for tests
+   */
+  int getStateCount() {
+    return accepts.length;
+  }
+
+  /**
+   * Collect the ordinals of all the patterns that match the data.
+   * @param data   array holding the data
+   * @param offset offset of the data
+   * @param length length of the data
+   * @param out    set the matching pattern ordinals are added to
+   */
+  public void collect(byte[] data, int offset, int length, BitSet out) {
+    int state = walk(data, offset, length);
+    if (state >= 0) {
+      for (int ordinal : accepts[state]) {
+        out.set(ordinal);
+      }
+    }
+  }
+
+  /**
+   * @return true if any pattern matches the data
+   */
+  public boolean matches(byte[] data, int offset, int length) {
+    int state = walk(data, offset, length);
+    return state >= 0 && accepts[state].length > 0;
+  }
+
+  private int walk(byte[] data, int offset, int length) {
+    int state = 0;
+    for (int i = 0; i < length; i++) {
+      state = transitions[(state << 8) | (data[offset + i] & 0xFF)];
+      if (state < 0) {
+        break;
+      }
+    }
+    return state;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Byte level trie that maps qualifiers to rule ordinals. A key can be added as an exact match or
+ * as a prefix; a trie built with reversed keys answers suffix matches. A lookup walks the data
+ * once and collects every rule whose key matches, so the cost depends on the qualifier length and
+ * not on the number of rules.
+ */
+@InterfaceAudience.Private
+public class ByteTrie {
+  private static final byte[] NO_LABELS = new byte[0];
+  private static final Node[] NO_CHILDREN = new Node[0];
+  private static final int[] NO_RULES = new int[0];
+
+  private static final class Node {
+    // labels are kept sorted so children can be found with a binary search
+    byte[] labels = NO_LABELS;
+    Node[] children = NO_CHILDREN;
+    int[] prefixRules = NO_RULES;
+    int[] exactRules = NO_RULES;
+
+    Node child(byte label) {
+      int idx = Arrays.binarySearch(labels, label);
+      return idx < 0 ? null : children[idx];
+    }
+
+    Node getOrAddChild(byte label) {
+      int idx = Arrays.binarySearch(labels, label);
+      if (idx >= 0) {
+        return children[idx];
+      }
+      int insert = -(idx + 1);
+      byte[] newLabels = new byte[labels.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(labels, 0, newLabels, 0, insert);
+      System.arraycopy(children, 0, newChildren, 0, insert);
+      newLabels[insert] = label;
+      newChildren[insert] = new Node();
+      System.arraycopy(labels, insert, newLabels, insert + 1, labels.length - insert);
+      System.arraycopy(children, insert, newChildren, insert + 1, children.length - insert);
+      labels = newLabels;
+      children = newChildren;
+      return children[insert];
+    }
+  }
+
+  private final boolean reversed;
+  private final Node root = new Node();
+
+  /**
+   * @param reversed if true keys are stored and matched from their last byte, which turns prefix
+   *                 matches into suffix matches
+   */
+  public ByteTrie(boolean reversed) {
+    this.reversed = reversed;
+  }
+
+  /**
+   * Add a key for a rule.
+   * @param key   the key bytes
+   * @param rule  ordinal of the rule
+   * @param exact true if the data has to equal the key, false if the key only has to be a prefix
+   *              (or a suffix for a reversed trie)
+   */
+  public void add(byte[] key, int rule, boolean exact) {
+    Node node = root;
+    for (int i = 0; i < key.length; i++) {
+      node = node.getOrAddChild(key[reversed ? key.length - 1 - i : i]);
+    }
+    if (exact) {
+      node.exactRules = append(node.exactRules, rule);
+    } else {
+      node.prefixRules = append(node.prefixRules, rule);
+    }
+  }
+
+  /**
+   * Collect the ordinals of all the rules that match the data.
+   * @param data   array holding the data
+   * @param offset offset of the data
+   * @param length length of the data
+   * @param out    set the matching rule ordinals are added to
+   */
+  public void collect(byte[] data, int offset, int length, BitSet out) {
+    Node node = root;
+    set(node.prefixRules, out);
+    for (int i = 0; i < length; i++) {
+      node = node.child(data[reversed ? offset + length - 1 - i : offset + i]);
+      if (node == null) {
+        return;
+      }
+      set(node.prefixRules, out);
+    }
+    set(node.exactRules, out);
+  }
+
+  private static void set(int[] rules, BitSet out) {
+    for (int rule : rules) {
+      out.set(rule);
+    }
+  }
+
+  private static int[] append(int[] rules, int rule) {
+    int[] ret = Arrays.copyOf(rules, rules.length + 1);
+    ret[rules.length] = rule;
+    return ret;
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Gives each (table, family) the proxy sends an id for compact events, see
+ * {@link ColumnDictionary#idOf(byte[], byte[])}. Ids are hashes, so columns of different proxies
+ * can get the same one; the first HBaseKafkaColumn of an id in the dictionary topic owns it, as
+ * it does for consumers. A new column is sent with its table and family until the dictionary
+ * shows who owns its id: its entry is published with the next batch if nobody does yet, and its
+ * events use the id once the dictionary shows the column owns it. A column whose id is owned by
+ * another column keeps sending its table and family, so no event refers to an id that consumers
+ * would decode to another column.
+ * <p>
+ * The dictionary is read again by a thread of its own while columns wait for it, see
+ * {@link #start(Consumer, long)}; {@link #resolve(ColumnDictionary)} does the same for a given
+ * dictionary.
+ */
+@InterfaceAudience.Private
+public class ColumnIds implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(ColumnIds.class);
+
+  // an entry that did not show up in the dictionary in this time is sent again
+  private static final long REPUBLISH_NANOS = TimeUnit.MINUTES.toNanos(1);
+  private static final Duration LOAD_TIMEOUT = Duration.ofSeconds(30);
+
+  /**
+   * Where a column is in getting its id.
+   */
+  enum State {
+    /** waiting to see if the dictionary holds the id */
+    CHECKING,
+    /** the id is free, the entry goes out with the next batch */
+    PUBLISHING,
+    /** the entry was sent, waiting to see it in the dictionary */
+    PUBLISHED,
+    /** the column owns the id, events use it */
+    OWNED,
+    /** another column owns the id, events carry the table and family */
+    INLINE
+  }
+
+  /**
+   * A column family of a table and how its events refer to it.
+   */
+  static final class Column {
+    final byte[] family;
+    final int id;
+    // the dictionary entry, null when the id is used by another column of this proxy
+    final ProducerRecord<byte[], byte[]> entry;
+    volatile State state;
+    // id and empty family and table fields once the column owns the id, null until then
+    volatile byte[] encoded;
+    long publishedNanos;
+
+    Column(byte[] family, int id, ProducerRecord<byte[], byte[]> entry) {
+      this.family = family;
+      this.id = id;
+      this.entry = entry;
+      this.state = entry == null ? State.INLINE : State.CHECKING;
+    }
+  }
+
+  private final String topic;
+  private final ConcurrentMap<TableName, TableColumns> tables = new ConcurrentHashMap<>();
+  // the column each id was given to
+  private final Map<Integer, String> assigned = new HashMap<>();
+  private volatile boolean closed = false;
+  private Thread thread;
+
+  /**
+   * @param topic the dictionary topic
+   */
+  public ColumnIds(String topic) {
+    this.topic = topic;
+  }
+
+  public String getTopic() {
+    return topic;
+  }
+
+  /**
+   * Read the dictionary topic every interval while columns wait for it.
+   * @param consumer   consumer of its own to read with, closed with this
+   * @param intervalMs time between reads
+   */
+  public void start(Consumer<byte[], byte[]> consumer, long intervalMs) {
+    thread = new Thread(() -> watch(consumer, intervalMs), "kafkaproxy-column-ids");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void watch(Consumer<byte[], byte[]> consumer, long intervalMs) {
+    ColumnDictionary dictionary = new ColumnDictionary();
+    try {
+      while (!closed) {
+        if (hasWaiting()) {
+          try {
+            dictionary.load(consumer, topic, LOAD_TIMEOUT);
+            resolve(dictionary);
+          } catch (IOException | KafkaException e) {
+            if (!closed) {
+              LOG.warn("failed to read column dictionary {}, new columns carry their table and"
+                + " family until it can be read", topic, e);
+            }
+          }
+        }
+        Thread.sleep(intervalMs);
+      }
+    } catch (InterruptedException e) {
+      // closed
+    } finally {
+      consumer.close();
+    }
+  }
+
+  /**
+   * @param table a table
+   * @return the columns of the table
+   */
+  public TableColumns forTable(TableName table) {
+    return tables.computeIfAbsent(table, TableColumns::new);
+  }
+
+  private synchronized Column newColumn(TableName table, byte[] family) {
+    byte[] tableAsBytes = table.toBytes();
+    int id = ColumnDictionary.idOf(tableAsBytes, family);
+    String name = table.getNameAsString() + ":" + Bytes.toStringBinary(family);
+    String previous = assigned.putIfAbsent(id, name);
+    if (previous != null && !previous.equals(name)) {
+      LOG.warn("Column {} has the same id {} as {}, its events carry the table and family", name,
+        id, previous);
+      return new Column(family, id, null);
+    }
+    HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+    // an HBaseKafkaColumn
+    encoder.writeLong(id);
+    encoder.writeBytes(tableAsBytes, 0, tableAsBytes.length);
+    encoder.writeBytes(family, 0, family.length);
+    // keyed on the id, so the entries of an id share a partition and are read in order
+    return new Column(family, id,
+      new ProducerRecord<>(topic, Bytes.toBytes(id), encoder.toByteArray()));
+  }
+
+  /**
+   * @return true if columns wait for the dictionary
+   */
+  boolean hasWaiting() {
+    for (TableColumns columns : tables.values()) {
+      for (Column column : columns.columns) {
+        if (column.state != State.OWNED && column.state != State.INLINE) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Settle the ids of the waiting columns with what the dictionary holds.
+   * @param dictionary the dictionary, read from the start of the topic
+   */
+  public synchronized void resolve(ColumnDictionary dictionary) {
+    long now = System.nanoTime();
+    for (TableColumns columns : tables.values()) {
+      byte[] tableAsBytes = columns.table.toBytes();
+      for (Column column : columns.columns) {
+        if (column.state == State.OWNED || column.state == State.INLINE) {
+          continue;
+        }
+        ColumnDictionary.Column owner = dictionary.get(column.id);
+        if (owner == null) {
+          boolean lost =
+            column.state == State.PUBLISHED && now - column.publishedNanos > REPUBLISH_NANOS;
+          if (column.state == State.CHECKING || lost) {
+            // a lost entry went with an aborted transaction, or is still in the spill log
+            column.state = State.PUBLISHING;
+          }
+        } else if (owner.matches(tableAsBytes, column.family)) {
+          column.encoded = HBaseKafkaEventEncoder.encodeColumnId(column.id);
+          column.state = State.OWNED;
+        } else {
+          LOG.warn("Column {}:{} has the same id {} as {} of another proxy, its events carry the"
+            + " table and family", columns.table, Bytes.toStringBinary(column.family), column.id,
+            owner);
+          column.state = State.INLINE;
+        }
+      }
+    }
+  }
+
+  private synchronized void published(TableColumns columns,
+    List<ProducerRecord<byte[], byte[]>> entries) {
+    for (Column column : columns.columns) {
+      if (column.state == State.PUBLISHING && entries.contains(column.entry)) {
+        column.state = State.PUBLISHED;
+        column.publishedNanos = System.nanoTime();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * The columns of one table. Lookups only read an array that is replaced when a family is added.
+   */
+  public final class TableColumns {
+    private final TableName table;
+    private volatile Column[] columns = new Column[0];
+
+    private TableColumns(TableName table) {
+      this.table = table;
+    }
+
+    /**
+     * @param cell a cell of the table
+     * @return what the events of the cell hold after the qualifier, see
+     *         {@link HBaseKafkaEventEncoder#encodeCompactToArray}, null while they carry the
+     *         table and family
+     */
+    public byte[] getEncoded(Cell cell) {
+      return get(cell).encoded;
+    }
+
+    Column get(Cell cell) {
+      for (Column column : columns) {
+        if (CellUtil.matchingFamily(cell, column.family)) {
+          return column;
+        }
+      }
+      return add(cell);
+    }
+
+    private synchronized Column add(Cell cell) {
+      Column[] current = columns;
+      for (Column column : current) {
+        if (CellUtil.matchingFamily(cell, column.family)) {
+          return column;
+        }
+      }
+      Column column = newColumn(table, CellUtil.cloneFamily(cell));
+      Column[] updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = column;
+      columns = updated;
+      return column;
+    }
+
+    /**
+     * @return dictionary entries of the columns of the table that are to be sent
+     */
+    public List<ProducerRecord<byte[], byte[]>> getUnpublished() {
+      List<ProducerRecord<byte[], byte[]>> ret = null;
+      for (Column column : columns) {
+        if (column.state == State.PUBLISHING) {
+          if (ret == null) {
+            ret = new ArrayList<>();
+          }
+          ret.add(column.entry);
+        }
+      }
+      return ret != null ? ret : Collections.emptyList();
+    }
+
+    /**
+     * Mark dictionary entries as sent, they are not added to batches any more.
+     * @param entries entries from {@link #getUnpublished()} that were sent
+     */
+    public void published(List<ProducerRecord<byte[], byte[]>> entries) {
+      ColumnIds.this.published(this, entries);
+    }
+  }
+}
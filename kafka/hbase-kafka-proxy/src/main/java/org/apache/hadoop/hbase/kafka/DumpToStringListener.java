@@ -17,14 +17,11 @@
  */
 package org.apache.hadoop.hbase.kafka;
 
+import java.io.IOException;
 import java.time.Duration;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.Properties;
 import java.util.stream.Collectors;
-import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.specific.SpecificDatumReader;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.VersionInfo;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
@@ -42,8 +39,8 @@ import org.apache.hbase.thirdparty.org.apache.commons.cli.Options;
 import org.apache.hbase.thirdparty.org.apache.commons.cli.ParseException;
 
 /**
- * connects to kafka and reads from the passed in topics. Parses each message into an avro object
- * and dumps it to the console.
+ * connects to kafka and reads from the passed in topics. Decodes each message with
+ * {@link EventDecoder} and dumps the events to the console.
  */
 @InterfaceAudience.Private
 public final class DumpToStringListener {
@@ -60,6 +57,10 @@ public final class DumpToStringListener {
     options.addRequiredOption("k", "kafkabrokers", true, "Kafka Brokers " + "(comma delimited)");
     options.addRequiredOption("t", "kafkatopics", true,
       "Kafka Topics " + "to subscribe to (comma delimited)");
+    options.addOption("f", "format", true,
+      "What the records hold, event (kafkaproxy.envelope=none, the default), batch or compact");
+    options.addOption("d", "dictionary", true, "Column dictionary topic of compact events "
+      + "(default " + KafkaProxy.DEFAULT_KAFKA_PROXY_COLUMN_DICTIONARY_TOPIC + ")");
     CommandLine commandLine = null;
 
     try {
@@ -69,33 +70,48 @@ public final class DumpToStringListener {
       printUsageAndExit(options, -1);
     }
 
-    SpecificDatumReader<HBaseKafkaEvent> dreader =
-      new SpecificDatumReader<>(HBaseKafkaEvent.SCHEMA$);
+    EventDecoder.Format format = null;
+    try {
+      format = EventDecoder.Format.parse(commandLine.getOptionValue('f', "event"));
+    } catch (IllegalArgumentException e) {
+      LOG.error("Unknown format: " + commandLine.getOptionValue('f'));
+      printUsageAndExit(options, -1);
+    }
 
     String topic = commandLine.getOptionValue('t');
+    String dictionaryTopic =
+      commandLine.getOptionValue('d', KafkaProxy.DEFAULT_KAFKA_PROXY_COLUMN_DICTIONARY_TOPIC);
     Properties props = new Properties();
     props.put("bootstrap.servers", commandLine.getOptionValue('k'));
     props.put("group.id", "hbase kafka test tool");
     props.put("key.deserializer", ByteArrayDeserializer.class.getName());
     props.put("value.deserializer", ByteArrayDeserializer.class.getName());
 
-    try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(props)) {
+    ColumnDictionary dictionary = new ColumnDictionary();
+    EventDecoder decoder = new EventDecoder(format, dictionary);
+    try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(props);
+      KafkaConsumer<byte[], byte[]> dictionaryConsumer = new KafkaConsumer<>(props)) {
       consumer.subscribe(Arrays.stream(topic.split(",")).collect(Collectors.toList()));
+      if (format == EventDecoder.Format.COMPACT) {
+        dictionary.load(dictionaryConsumer, dictionaryTopic, Duration.ofMillis(60000));
+      }
 
       while (true) {
         ConsumerRecords<byte[], byte[]> records = consumer.poll(Duration.ofMillis(10000));
-        Iterator<ConsumerRecord<byte[], byte[]>> it = records.iterator();
-        while (it.hasNext()) {
-          ConsumerRecord<byte[], byte[]> record = it.next();
-          BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(record.value(), null);
+        for (ConsumerRecord<byte[], byte[]> record : records) {
+          EventHandler handler =
+            (event) -> LOG.debug("key :" + Bytes.toString(record.key()) + " value " + event);
           try {
-            HBaseKafkaEvent event = dreader.read(null, decoder);
-            LOG.debug("key :" + Bytes.toString(record.key()) + " value " + event);
-          } catch (Exception e) {
-            throw new RuntimeException(e);
+            decoder.decode(record.value(), handler);
+          } catch (UnknownColumnException e) {
+            // the entry of a new column can arrive after its first events
+            dictionary.load(dictionaryConsumer, dictionaryTopic, Duration.ofMillis(60000));
+            decoder.decode(record.value(), handler);
           }
         }
       }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
   }
 
@@ -103,7 +119,7 @@ public final class DumpToStringListener {
     HelpFormatter formatter = new HelpFormatter();
     formatter.printHelp("hbase " + DumpToStringListener.class.getName(), "", options,
       "\n[--kafkabrokers <kafka brokers (comma delmited)>] "
-        + "[-k <kafka brokers (comma delmited)>] \n",
+        + "[-k <kafka brokers (comma delmited)>] [-f <event|batch|compact>] \n",
       true);
     System.exit(exitCode);
   }
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Groups the routed cells that go to the same topic into a single HBaseKafkaEventBatch record
+ * (see HbaseKafkaEventBatch.avro), either per row or per replication batch. Topics keep the order
+ * in which they were first seen and cells keep the order in which they were added. An envelope
+ * is closed and a new one started before it would grow past a byte limit, so a large batch does
+ * not make a record the producer refuses (max.request.size).
+ */
+@InterfaceAudience.Private
+public class EventBatchBuilder {
+
+  /**
+   * How cells are packed into kafka records.
+   */
+  public enum Mode {
+    /** one HBaseKafkaEvent record per cell */
+    NONE,
+    /** one HBaseKafkaEventBatch record per row and topic */
+    ROW,
+    /** one HBaseKafkaEventBatch record per replication batch and topic */
+    BATCH;
+
+    /**
+     * Parse the value of kafkaproxy.envelope.
+     * @param value configured value
+     * @return the mode
+     */
+    public static Mode parse(String value) {
+      return Mode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
+  // upper bound of the bytes of a batch event besides its row, value, qualifier and family: the
+  // timestamp, the delete flag, four length prefixes and the cell type
+  private static final int EVENT_OVERHEAD = 10 + 1 + 4 * 5 + 1;
+  // the item count of the events array and its end block
+  private static final int ENVELOPE_OVERHEAD = 10 + 1;
+
+  private static final class TopicEvents {
+    final HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+    int count = 0;
+    // envelopes closed because they were full, waiting for the next flush
+    final List<byte[]> closed = new ArrayList<>();
+  }
+
+  private final byte[] tableAsBytes;
+  private final byte[] encodedTable;
+  private final int maxBytes;
+  private final Map<String, TopicEvents> topics = new LinkedHashMap<>();
+  private byte[] row;
+
+  /**
+   * @param tableAsBytes table name bytes
+   * @param encodedTable table field from {@link HBaseKafkaEventEncoder#encodeBytesField(byte[])}
+   * @param maxBytes     size an envelope is kept under, unless it holds a single larger cell
+   */
+  public EventBatchBuilder(byte[] tableAsBytes, byte[] encodedTable, int maxBytes) {
+    this.tableAsBytes = tableAsBytes;
+    this.encodedTable = encodedTable;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Add a routed cell.
+   * @param topic    topic the cell goes to
+   * @param row      row of the cell
+   * @param cell     the cell
+   * @param isDelete if the cell came from a delete
+   */
+  public void add(String topic, byte[] row, Cell cell, boolean isDelete) {
+    add(topic, row, cell, null, isDelete);
+  }
+
+  /**
+   * Add a routed cell with another value.
+   * @param topic    topic the cell goes to
+   * @param row      row of the cell
+   * @param cell     the cell
+   * @param value    value to send instead of the value of the cell, null for the cell value
+   * @param isDelete if the cell came from a delete
+   */
+  public void add(String topic, byte[] row, Cell cell, byte[] value, boolean isDelete) {
+    if (this.row == null) {
+      this.row = row;
+    }
+    TopicEvents events = topics.get(topic);
+    if (events == null) {
+      events = new TopicEvents();
+      topics.put(topic, events);
+    }
+    int eventBytes = cell.getRowLength() + cell.getQualifierLength() + cell.getFamilyLength()
+      + (value != null ? value.length : cell.getValueLength()) + EVENT_OVERHEAD;
+    int envelopeBytes = encodedTable.length + ENVELOPE_OVERHEAD + events.encoder.size();
+    if (events.count > 0 && envelopeBytes + eventBytes > maxBytes) {
+      events.closed.add(events.encoder.toEventBatch(encodedTable, events.count));
+      events.encoder.reset();
+      events.count = 0;
+    }
+    events.encoder.appendBatchEvent(cell, value, isDelete);
+    events.count++;
+  }
+
+  /**
+   * Turn what was added since the last flush into records, one per topic unless envelopes were
+   * full. Row envelopes are keyed on the row, batch envelopes on the table, so envelopes of a row
+   * (or a table) stay in order.
+   * @param perRow if the added cells all belong to one row
+   * @param out    list the records are added to
+   */
+  public void flush(boolean perRow, List<ProducerRecord<byte[], byte[]>> out) {
+    byte[] key = perRow ? row : tableAsBytes;
+    for (Map.Entry<String, TopicEvents> entry : topics.entrySet()) {
+      TopicEvents events = entry.getValue();
+      for (byte[] envelope : events.closed) {
+        out.add(new ProducerRecord<byte[], byte[]>(entry.getKey(), key, envelope));
+      }
+      events.closed.clear();
+      if (events.count > 0) {
+        out.add(new ProducerRecord<byte[], byte[]>(entry.getKey(), key,
+          events.encoder.toEventBatch(encodedTable, events.count)));
+        events.encoder.reset();
+        events.count = 0;
+      }
+    }
+    row = null;
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.hadoop.hbase.ByteBufferExtendedCell;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Hand written avro binary encoder for the HBaseKafkaEvent schema. Writes the fields straight from
+ * the backing arrays of a {@link Cell} into a reusable buffer, so no intermediate HBaseKafkaEvent,
+ * ByteBuffer or cloned family/qualifier is created per cell. The output is byte for byte what
+ * SpecificDatumWriter produces for the same event. Cells backed by a ByteBuffer (as decoded from
+ * an off heap cell block) are read from the buffer rather than cloned through their array getters.
+ * An instance is not thread safe.
+ */
+@InterfaceAudience.Private
+public class HBaseKafkaEventEncoder {
+  private static final int INITIAL_SIZE = 1024;
+  // don't let a single huge cell pin a big buffer to a handler thread forever
+  private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+  private byte[] buf = new byte[INITIAL_SIZE];
+  private int pos = 0;
+
+  /**
+   * Avro encode the table name as a bytes field (length prefix and bytes), so it can be appended
+   * to every event of the table without encoding it again.
+   * @param table table name bytes
+   * @return encoded table field
+   */
+  public static byte[] encodeBytesField(byte[] table) {
+    HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+    encoder.writeBytes(table, 0, table.length);
+    return encoder.toByteArray();
+  }
+
+  /**
+   * Encode a cell as a HBaseKafkaEvent.
+   * @param cell         cell to encode
+   * @param encodedTable table field from {@link #encodeBytesField(byte[])}
+   * @param isDelete     if the cell came from a delete
+   * @return this encoder, the encoded bytes are available from {@link #toByteArray()}
+   */
+  public HBaseKafkaEventEncoder encode(Cell cell, byte[] encodedTable, boolean isDelete) {
+    reset();
+    appendEventFields(cell, null, isDelete);
+    writeRaw(encodedTable, 0, encodedTable.length);
+    writeType(cell);
+    return this;
+  }
+
+  /**
+   * Encode a cell as a HBaseKafkaEvent into an array of its own. The value, usually most of the
+   * event, is copied once: from the cell straight into the returned array. Only the fields before
+   * and after it go through the reusable buffer, so a large value neither grows the buffer nor is
+   * copied out of it again.
+   * @param cell         cell to encode
+   * @param encodedTable table field from {@link #encodeBytesField(byte[])}
+   * @param isDelete     if the cell came from a delete
+   * @return the encoded event
+   */
+  public byte[] encodeToArray(Cell cell, byte[] encodedTable, boolean isDelete) {
+    return encodeToArray(cell, null, encodedTable, isDelete);
+  }
+
+  /**
+   * Encode a cell with another value, see {@link #encodeToArray(Cell, byte[], boolean)}.
+   * @param cell         cell to encode
+   * @param value        value to encode instead of the value of the cell, null for the cell value
+   * @param encodedTable table field from {@link #encodeBytesField(byte[])}
+   * @param isDelete     if the cell came from a delete
+   * @return the encoded event
+   */
+  public byte[] encodeToArray(Cell cell, byte[] value, byte[] encodedTable, boolean isDelete) {
+    return encodeToArray(cell, value, false, null, encodedTable, isDelete);
+  }
+
+  /**
+   * Encode a cell as a HBaseKafkaCompactEvent into an array of its own, see
+   * {@link #encodeToArray(Cell, byte[], boolean)}.
+   * @param cell          cell to encode
+   * @param value         value to encode instead of the value of the cell, null for the cell value
+   * @param encodedColumn column id and the empty family and table fields, from
+   *                      {@link #encodeColumnId(int)}, or null to write the family and table
+   * @param encodedTable  table field from {@link #encodeBytesField(byte[])}
+   * @param isDelete      if the cell came from a delete
+   * @return the encoded event
+   */
+  public byte[] encodeCompactToArray(Cell cell, byte[] value, byte[] encodedColumn,
+    byte[] encodedTable, boolean isDelete) {
+    return encodeToArray(cell, value, true, encodedColumn, encodedTable, isDelete);
+  }
+
+  /**
+   * Avro encode what a HBaseKafkaCompactEvent holds after the qualifier for a column with an id:
+   * the id and the family and table fields, left empty.
+   * @param id column id
+   * @return encoded fields
+   */
+  public static byte[] encodeColumnId(int id) {
+    HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+    encoder.writeLong(id);
+    encoder.writeLong(0);
+    encoder.writeLong(0);
+    return encoder.toByteArray();
+  }
+
+  private byte[] encodeToArray(Cell cell, byte[] value, boolean compact, byte[] encodedColumn,
+    byte[] encodedTable, boolean isDelete) {
+    reset();
+    writeRow(cell);
+    writeLong(cell.getTimestamp());
+    writeBoolean(isDelete);
+    int valueLength = value != null ? value.length : cell.getValueLength();
+    writeLong(valueLength);
+    int header = pos;
+    writeQualifier(cell);
+    if (encodedColumn != null) {
+      writeRaw(encodedColumn, 0, encodedColumn.length);
+    } else {
+      if (compact) {
+        // id 0, the family and table follow
+        writeLong(0);
+      }
+      writeFamily(cell);
+      writeRaw(encodedTable, 0, encodedTable.length);
+    }
+    writeType(cell);
+
+    byte[] ret = new byte[pos + valueLength];
+    System.arraycopy(buf, 0, ret, 0, header);
+    if (value != null) {
+      System.arraycopy(value, 0, ret, header, valueLength);
+    } else {
+      // reads a ByteBuffer backed cell from its buffer
+      CellUtil.copyValueTo(cell, ret, header);
+    }
+    System.arraycopy(buf, header, ret, header + valueLength, pos - header);
+    return ret;
+  }
+
+  /**
+   * Append a cell as a HBaseKafkaBatchEvent (a HBaseKafkaEvent without the table) to what was
+   * encoded since the last reset.
+   * @param cell     cell to encode
+   * @param isDelete if the cell came from a delete
+   */
+  public void appendBatchEvent(Cell cell, boolean isDelete) {
+    appendBatchEvent(cell, null, isDelete);
+  }
+
+  /**
+   * Append a cell with another value as a HBaseKafkaBatchEvent.
+   * @param cell     cell to encode
+   * @param value    value to encode instead of the value of the cell, null for the cell value
+   * @param isDelete if the cell came from a delete
+   */
+  public void appendBatchEvent(Cell cell, byte[] value, boolean isDelete) {
+    appendEventFields(cell, value, isDelete);
+    writeType(cell);
+  }
+
+  private void appendEventFields(Cell cell, byte[] value, boolean isDelete) {
+    // the field order has to follow HbaseKafkaEvent.avro and HbaseKafkaEventBatch.avro
+    writeRow(cell);
+    writeLong(cell.getTimestamp());
+    writeBoolean(isDelete);
+    if (value != null) {
+      writeBytes(value, 0, value.length);
+    } else if (cell instanceof ByteBufferExtendedCell) {
+      ByteBufferExtendedCell bbCell = (ByteBufferExtendedCell) cell;
+      writeBytes(bbCell.getValueByteBuffer(), bbCell.getValuePosition(), cell.getValueLength());
+    } else {
+      writeBytes(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+    }
+    writeQualifier(cell);
+    writeFamily(cell);
+  }
+
+  private void writeType(Cell cell) {
+    // deletes of a column and of a family can look the same otherwise, both may have no qualifier
+    writeLong(cell.getType().getCode());
+  }
+
+  private void writeRow(Cell cell) {
+    if (cell instanceof ByteBufferExtendedCell) {
+      ByteBufferExtendedCell bbCell = (ByteBufferExtendedCell) cell;
+      writeBytes(bbCell.getRowByteBuffer(), bbCell.getRowPosition(), cell.getRowLength());
+    } else {
+      writeBytes(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
+    }
+  }
+
+  private void writeQualifier(Cell cell) {
+    if (cell instanceof ByteBufferExtendedCell) {
+      ByteBufferExtendedCell bbCell = (ByteBufferExtendedCell) cell;
+      writeBytes(bbCell.getQualifierByteBuffer(), bbCell.getQualifierPosition(),
+        cell.getQualifierLength());
+    } else {
+      writeBytes(cell.getQualifierArray(), cell.getQualifierOffset(), cell.getQualifierLength());
+    }
+  }
+
+  private void writeFamily(Cell cell) {
+    if (cell instanceof ByteBufferExtendedCell) {
+      ByteBufferExtendedCell bbCell = (ByteBufferExtendedCell) cell;
+      writeBytes(bbCell.getFamilyByteBuffer(), bbCell.getFamilyPosition(), cell.getFamilyLength());
+    } else {
+      writeBytes(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+    }
+  }
+
+  /**
+   * Wrap the batch events appended since the last reset into a HBaseKafkaEventBatch.
+   * @param encodedTable table field from {@link #encodeBytesField(byte[])}
+   * @param count        number of batch events that were appended
+   * @return the encoded HBaseKafkaEventBatch
+   */
+  public byte[] toEventBatch(byte[] encodedTable, int count) {
+    if (count == 0) {
+      // an empty array is just the end block
+      byte[] ret = Arrays.copyOf(encodedTable, encodedTable.length + 1);
+      ret[encodedTable.length] = 0;
+      return ret;
+    }
+    // table, then the events as a single array block followed by the empty end block
+    long n = ((long) count) << 1;
+    byte[] ret = new byte[encodedTable.length + varLongLength(n) + pos + 1];
+    System.arraycopy(encodedTable, 0, ret, 0, encodedTable.length);
+    int idx = encodedTable.length;
+    while ((n & ~0x7FL) != 0) {
+      ret[idx++] = (byte) ((n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    ret[idx++] = (byte) n;
+    System.arraycopy(buf, 0, ret, idx, pos);
+    ret[idx + pos] = 0;
+    return ret;
+  }
+
+  private static int varLongLength(long n) {
+    int length = 1;
+    while ((n & ~0x7FL) != 0) {
+      n >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * Start a new event, dropping an oversized buffer left behind by a previous large cell.
+   */
+  public void reset() {
+    if (buf.length > MAX_RETAINED_SIZE) {
+      buf = new byte[INITIAL_SIZE];
+    }
+    pos = 0;
+  }
+
+  /**
+   * @return number of bytes encoded since the last reset
+   */
+  public int size() {
+    return pos;
+  }
+
+  /**
+   * @return a right sized copy of the encoded bytes
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buf, pos);
+  }
+
+  void writeBytes(byte[] data, int offset, int length) {
+    writeLong(length);
+    writeRaw(data, offset, length);
+  }
+
+  void writeBytes(ByteBuffer data, int position, int length) {
+    writeLong(length);
+    ensure(length);
+    // a duplicate leaves the position of the cell's buffer alone
+    ByteBuffer source = data.duplicate();
+    source.position(position);
+    source.get(buf, pos, length);
+    pos += length;
+  }
+
+  void writeBoolean(boolean b) {
+    ensure(1);
+    buf[pos++] = (byte) (b ? 1 : 0);
+  }
+
+  void writeLong(long n) {
+    ensure(10);
+    // zig zag, then variable length
+    n = (n << 1) ^ (n >> 63);
+    while ((n & ~0x7FL) != 0) {
+      buf[pos++] = (byte) ((n & 0x7F) | 0x80);
+      n >>>= 7;
+    }
+    buf[pos++] = (byte) n;
+  }
+
+  void writeRaw(byte[] data, int offset, int length) {
+    ensure(length);
+    System.arraycopy(data, offset, buf, pos, length);
+    pos += length;
+  }
+
+  private void ensure(int extra) {
+    if (pos + extra > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+    }
+  }
+}
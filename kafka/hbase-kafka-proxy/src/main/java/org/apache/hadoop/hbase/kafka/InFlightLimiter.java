@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Bounds the number of records and bytes that have been handed to the kafka producer but not yet
+ * acknowledged. Shared by all the tables of a connection, so concurrent replication batches (one
+ * per shipping region server) can be in flight at the same time without growing without limit.
+ * Each {@link SendLane} has a budget of its own, so up to three times the limits can be in flight
+ * when every lane is in use.
+ */
+@InterfaceAudience.Private
+public class InFlightLimiter {
+  private final long maxBytes;
+  private final long maxRecords;
+
+  private final long[] bytes = new long[SendLane.values().length];
+  private final long[] records = new long[SendLane.values().length];
+
+  /**
+   * @param maxBytes   maximum number of unacknowledged bytes
+   * @param maxRecords maximum number of unacknowledged records
+   */
+  public InFlightLimiter(long maxBytes, long maxRecords) {
+    if (maxBytes <= 0 || maxRecords <= 0) {
+      throw new IllegalArgumentException(
+        "in flight limits must be positive, got bytes=" + maxBytes + " records=" + maxRecords);
+    }
+    this.maxBytes = maxBytes;
+    this.maxRecords = maxRecords;
+  }
+
+  /**
+   * Block until there is room for a record of the given size. A record larger than the byte budget
+   * is let through once nothing else is in flight, so it can never block forever.
+   * @param size serialized size of the record
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void acquire(int size) throws InterruptedException {
+    acquire(size, SendLane.NORMAL);
+  }
+
+  /**
+   * Block until there is room for a record of the given size in the budget of a lane.
+   * @param size serialized size of the record
+   * @param lane lane of the record
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized void acquire(int size, SendLane lane) throws InterruptedException {
+    int l = lane.ordinal();
+    while (records[l] > 0 && (records[l] >= maxRecords || bytes[l] + size > maxBytes)) {
+      wait();
+    }
+    records[l]++;
+    bytes[l] += size;
+  }
+
+  /**
+   * Return the budget taken by a record once it was acknowledged (or failed).
+   * @param size serialized size of the record
+   */
+  public void release(int size) {
+    release(size, SendLane.NORMAL);
+  }
+
+  /**
+   * Return the budget a record took from a lane.
+   * @param size serialized size of the record
+   * @param lane lane of the record
+   */
+  public synchronized void release(int size, SendLane lane) {
+    records[lane.ordinal()]--;
+    bytes[lane.ordinal()] -= size;
+    notifyAll();
+  }
+
+  /**
+   * number of records currently in flight (used for testing)
+   * @return records in flight
+   */
+  public synchronized long getRecordsInFlight() {
+    long ret = 0;
+    for (long r : records) {
+      ret += r;
+    }
+    return ret;
+  }
+
+  /**
+   * number of bytes currently in flight (used for testing)
+   * @return bytes in flight
+   */
+  public synchronized long getBytesInFlight() {
+    long ret = 0;
+    for (long b : bytes) {
+      ret += b;
+    }
+    return ret;
+  }
+}
@@ -20,10 +20,11 @@ package org.apache.hadoop.hbase.kafka;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.util.Properties;
 import java.util.concurrent.ExecutorService;
-import org.apache.avro.io.DatumWriter;
-import org.apache.avro.specific.SpecificDatumWriter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.TableName;
@@ -35,10 +36,16 @@ import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.client.TableBuilder;
 import org.apache.hadoop.hbase.security.User;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * a alternative implementation of a connection object that forwards the mutations to a kafka queue
@@ -46,12 +53,24 @@ import org.apache.yetus.audience.InterfaceAudience;
  */
 @InterfaceAudience.Private
 public class KafkaBridgeConnection implements Connection {
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaBridgeConnection.class);
+
   private final Configuration conf;
   private volatile boolean closed = false;
   private TopicRoutingRules routingRules;
-  private Producer<byte[], byte[]> producer;
-  private DatumWriter<HBaseKafkaEvent> avroWriter =
-    new SpecificDatumWriter<>(HBaseKafkaEvent.getClassSchema());
+  private RuleFileWatcher ruleWatcher;
+  private ProducerPool producers;
+  private InFlightLimiter inFlightLimiter;
+  private RowPartitioner partitioner;
+  private ForkJoinPool encodePool;
+  private TransactionalSender transactions;
+  private SpillBuffer spill;
+  private ColumnIds columnIds;
+  // the kafka client properties, null when testing with a given producer
+  private Properties kafkaProperties;
+  private final KafkaProxyMetrics metrics = KafkaProxyMetrics.get();
+  // rate limits are set by the rules, which can be reloaded, so there is always a throttle
+  private final TopicThrottle throttle = new TopicThrottle(metrics);
 
   /**
    * Public constructor
@@ -65,6 +84,20 @@ public class KafkaBridgeConnection implements Connection {
     this.conf = conf;
     setupRules();
     startKafkaConnection();
+    setupInFlightLimiter();
+    setupPartitioner();
+    setupEncodePool();
+    setupColumnIds();
+    setupSpill();
+  }
+
+  /**
+   * Connection of the replication sink, which has no pool or user to give.
+   * @param conf hbase configuration
+   * @throws IOException on error
+   */
+  public KafkaBridgeConnection(Configuration conf) throws IOException {
+    this(conf, (ExecutorService) null, (User) null);
   }
 
   /**
@@ -76,15 +109,140 @@ public class KafkaBridgeConnection implements Connection {
   public KafkaBridgeConnection(Configuration conf, TopicRoutingRules routingRules,
     Producer<byte[], byte[]> producer) {
     this.conf = conf;
-    this.producer = producer;
+    this.producers = new ProducerPool(producer);
     this.routingRules = routingRules;
+    setupInFlightLimiter();
+    setupPartitioner();
+    setupEncodePool();
+    setupColumnIds();
+  }
+
+  private void setupInFlightLimiter() {
+    boolean pipelined = conf.getBoolean(KafkaProxy.KAFKA_PROXY_PIPELINED_BATCHES,
+      KafkaProxy.DEFAULT_KAFKA_PROXY_PIPELINED_BATCHES);
+    if (pipelined) {
+      if (conf.getInt(KafkaProxy.REPLICATION_HANDLER_COUNT, 1) <= 1) {
+        LOG.warn("{} has no effect with a single replication handler, set {} above 1",
+          KafkaProxy.KAFKA_PROXY_PIPELINED_BATCHES, KafkaProxy.REPLICATION_HANDLER_COUNT);
+      }
+      this.inFlightLimiter = new InFlightLimiter(
+        conf.getLong(KafkaProxy.KAFKA_PROXY_INFLIGHT_MAX_BYTES,
+          KafkaProxy.DEFAULT_KAFKA_PROXY_INFLIGHT_MAX_BYTES),
+        conf.getLong(KafkaProxy.KAFKA_PROXY_INFLIGHT_MAX_RECORDS,
+          KafkaProxy.DEFAULT_KAFKA_PROXY_INFLIGHT_MAX_RECORDS));
+    }
+  }
+
+  private void setupPartitioner() {
+    String name =
+      conf.get(KafkaProxy.KAFKA_PROXY_PARTITIONER, KafkaProxy.DEFAULT_KAFKA_PROXY_PARTITIONER);
+    if ("kafka".equals(name)) {
+      // the producer's partitioner (murmur2 of the row key unless configured otherwise)
+      this.partitioner = null;
+    } else if ("row".equals(name)) {
+      this.partitioner = new RowKeyPartitioner();
+    } else if ("table-row".equals(name)) {
+      this.partitioner = new TableRowPartitioner();
+    } else {
+      try {
+        Class<? extends RowPartitioner> clazz =
+          conf.getClassByName(name).asSubclass(RowPartitioner.class);
+        this.partitioner = ReflectionUtils.newInstance(clazz, conf);
+      } catch (ClassNotFoundException e) {
+        throw new IllegalArgumentException("unknown partitioner " + name, e);
+      }
+    }
+  }
+
+  private void setupEncodePool() {
+    int threads = conf.getInt(KafkaProxy.KAFKA_PROXY_ENCODE_THREADS,
+      KafkaProxy.DEFAULT_KAFKA_PROXY_ENCODE_THREADS);
+    if (threads > 0) {
+      ForkJoinPool.ForkJoinWorkerThreadFactory factory = (pool) -> {
+        ForkJoinWorkerThread thread =
+          ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("kafkaproxy-encoder-" + thread.getPoolIndex());
+        return thread;
+      };
+      this.encodePool = new ForkJoinPool(threads, factory, null, false);
+    }
+  }
+
+  private void setupColumnIds() {
+    boolean compact = conf.getBoolean(KafkaProxy.KAFKA_PROXY_COMPACT_COLUMNS,
+      KafkaProxy.DEFAULT_KAFKA_PROXY_COMPACT_COLUMNS);
+    if (compact) {
+      EventBatchBuilder.Mode envelope = EventBatchBuilder.Mode.parse(
+        conf.get(KafkaProxy.KAFKA_PROXY_ENVELOPE, KafkaProxy.DEFAULT_KAFKA_PROXY_ENVELOPE));
+      if (envelope != EventBatchBuilder.Mode.NONE) {
+        // envelopes already carry the table once per message
+        throw new IllegalArgumentException(KafkaProxy.KAFKA_PROXY_COMPACT_COLUMNS + " needs "
+          + KafkaProxy.KAFKA_PROXY_ENVELOPE + "=none");
+      }
+      this.columnIds = new ColumnIds(conf.get(KafkaProxy.KAFKA_PROXY_COLUMN_DICTIONARY_TOPIC,
+        KafkaProxy.DEFAULT_KAFKA_PROXY_COLUMN_DICTIONARY_TOPIC));
+      if (kafkaProperties != null) {
+        Properties consumerProperties = (Properties) kafkaProperties.clone();
+        consumerProperties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
+          ByteArrayDeserializer.class.getName());
+        consumerProperties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
+          ByteArrayDeserializer.class.getName());
+        consumerProperties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        // entries of aborted transactions do not own their id
+        consumerProperties.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        columnIds.start(new KafkaConsumer<>(consumerProperties),
+          conf.getLong(KafkaProxy.KAFKA_PROXY_COLUMN_DICTIONARY_INTERVAL_MS,
+            KafkaProxy.DEFAULT_KAFKA_PROXY_COLUMN_DICTIONARY_INTERVAL_MS));
+      }
+    }
+  }
+
+  /**
+   * @return the column ids of compact events, null if events are not compact
+   */
+  ColumnIds getColumnIds() {
+    return columnIds;
+  }
+
+  private void setupSpill() throws IOException {
+    String dir = conf.get(KafkaProxy.KAFKA_PROXY_SPILL_DIR);
+    if (StringUtils.isEmpty(dir)) {
+      return;
+    }
+    SpillLog log = new SpillLog(new File(dir),
+      conf.getInt(KafkaProxy.KAFKA_PROXY_SPILL_SEGMENT_BYTES,
+        KafkaProxy.DEFAULT_KAFKA_PROXY_SPILL_SEGMENT_BYTES),
+      conf.getLong(KafkaProxy.KAFKA_PROXY_SPILL_MAX_BYTES,
+        KafkaProxy.DEFAULT_KAFKA_PROXY_SPILL_MAX_BYTES),
+      conf.getBoolean(KafkaProxy.KAFKA_PROXY_SPILL_SYNC,
+        KafkaProxy.DEFAULT_KAFKA_PROXY_SPILL_SYNC));
+    this.spill = new SpillBuffer(log,
+      conf.getLong(KafkaProxy.KAFKA_PROXY_SPILL_LATENCY_THRESHOLD_MS,
+        KafkaProxy.DEFAULT_KAFKA_PROXY_SPILL_LATENCY_THRESHOLD_MS),
+      conf.getLong(KafkaProxy.KAFKA_PROXY_SPILL_RETRY_MS,
+        KafkaProxy.DEFAULT_KAFKA_PROXY_SPILL_RETRY_MS),
+      (table, records) -> newTable(table).sendSpilled(records), metrics);
+    this.spill.start();
+  }
+
+  private KafkaTableForBridge newTable(TableName tableName) {
+    return new KafkaTableForBridge(tableName, conf, routingRules,
+      new KafkaTableForBridge.Collaborators(producers, metrics).setInFlightLimiter(inFlightLimiter)
+        .setPartitioner(partitioner).setEncodePool(encodePool).setTransactions(transactions)
+        .setSpill(spill).setColumnIds(columnIds).setThrottle(throttle));
   }
 
   private void setupRules() throws IOException {
     String file = this.conf.get(KafkaProxy.KAFKA_PROXY_RULES_FILE);
-    routingRules = new TopicRoutingRules();
-    try (FileInputStream fin = new FileInputStream(file);) {
-      routingRules.parseRules(fin);
+    routingRules = new TopicRoutingRules(new File(file), conf.getLong(
+      KafkaProxy.KAFKA_PROXY_RULE_CACHE_SIZE, TopicRoutingRules.DEFAULT_DECISION_CACHE_SIZE));
+    boolean reload = conf.getBoolean(KafkaProxy.KAFKA_PROXY_RULE_RELOAD,
+      KafkaProxy.DEFAULT_KAFKA_PROXY_RULE_RELOAD);
+    if (reload) {
+      ruleWatcher = new RuleFileWatcher(routingRules,
+        conf.getLong(KafkaProxy.KAFKA_PROXY_RULE_RELOAD_DELAY_MS,
+          KafkaProxy.DEFAULT_KAFKA_PROXY_RULE_RELOAD_DELAY_MS));
+      ruleWatcher.start();
     }
   }
 
@@ -101,11 +259,41 @@ public class KafkaBridgeConnection implements Connection {
       configProperties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaServers);
     }
 
+    this.kafkaProperties = (Properties) configProperties.clone();
     configProperties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG,
       "org.apache.kafka.common.serialization.ByteArraySerializer");
     configProperties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
       "org.apache.kafka.common.serialization.ByteArraySerializer");
-    this.producer = new KafkaProducer<byte[], byte[]>(configProperties);
+    boolean exactlyOnce = conf.getBoolean(KafkaProxy.KAFKA_PROXY_EXACTLY_ONCE,
+      KafkaProxy.DEFAULT_KAFKA_PROXY_EXACTLY_ONCE);
+    if (exactlyOnce) {
+      this.transactions = new TransactionalSender(configProperties, KafkaProducer::new,
+        getTransactionalId(),
+        conf.getLong(KafkaProxy.KAFKA_PROXY_TRANSACTION_LINGER_MS,
+          KafkaProxy.DEFAULT_KAFKA_PROXY_TRANSACTION_LINGER_MS),
+        conf.getInt(KafkaProxy.KAFKA_PROXY_TRANSACTION_MAX_BATCHES,
+          KafkaProxy.DEFAULT_KAFKA_PROXY_TRANSACTION_MAX_BATCHES),
+        metrics);
+    }
+    this.producers = new ProducerPool(configProperties, KafkaProducer::new,
+      new BatchingPolicy(conf),
+      conf.getInt(KafkaProxy.KAFKA_PROXY_PRODUCER_POOL_SIZE,
+        KafkaProxy.DEFAULT_KAFKA_PROXY_PRODUCER_POOL_SIZE),
+      ProducerPool.Striping.parse(conf.get(KafkaProxy.KAFKA_PROXY_PRODUCER_STRIPING,
+        KafkaProxy.DEFAULT_KAFKA_PROXY_PRODUCER_STRIPING)));
+  }
+
+  /**
+   * The transactional.id has to stay the same when the proxy restarts, so the new producer fences
+   * the old one and aborts what it left open, and has to differ between proxies.
+   */
+  private String getTransactionalId() throws IOException {
+    String id = conf.get(KafkaProxy.KAFKA_PROXY_TRANSACTIONAL_ID);
+    if (StringUtils.isEmpty(id)) {
+      id = "kafkaproxy-" + InetAddress.getLocalHost().getCanonicalHostName() + "-"
+        + conf.get("hbase.regionserver.port", "17020");
+    }
+    return id;
   }
 
   @Override
@@ -151,7 +339,23 @@ public class KafkaBridgeConnection implements Connection {
   public void close() throws IOException {
     if (!this.closed) {
       this.closed = true;
-      this.producer.close();
+      if (this.ruleWatcher != null) {
+        this.ruleWatcher.close();
+      }
+      if (this.encodePool != null) {
+        this.encodePool.shutdown();
+      }
+      if (this.spill != null) {
+        // what is left in the log is sent after the next start
+        this.spill.close();
+      }
+      if (this.transactions != null) {
+        this.transactions.close();
+      }
+      if (this.columnIds != null) {
+        this.columnIds.close();
+      }
+      this.producers.close();
     }
   }
 
@@ -165,7 +369,6 @@ public class KafkaBridgeConnection implements Connection {
     if (isClosed()) {
       throw new RuntimeException("KafkaBridgeConnection is closed.");
     }
-    final Configuration passedInConfiguration = getConfiguration();
     return new TableBuilder() {
       @Override
       public TableBuilder setOperationTimeout(int timeout) {
@@ -197,8 +400,7 @@ public class KafkaBridgeConnection implements Connection {
 
       @Override
       public Table build() {
-        return new KafkaTableForBridge(tn, passedInConfiguration, routingRules, producer,
-          avroWriter);
+        return newTable(tn);
       }
     };
   }
@@ -66,6 +66,88 @@ public final class KafkaProxy {
   public static final String KAFKA_PROXY_KAFKA_PROPERTIES = "kafkaproxy.kafka.properties";
   public static final String KAFKA_PROXY_KAFKA_BROKERS = "kafkaproxy.kafka.brokers";
 
+  public static final String KAFKA_PROXY_RULE_CACHE_SIZE = "kafkaproxy.rule.cache.size";
+  public static final String KAFKA_PROXY_RULE_RELOAD = "kafkaproxy.rule.reload";
+  public static final boolean DEFAULT_KAFKA_PROXY_RULE_RELOAD = true;
+  public static final String KAFKA_PROXY_RULE_RELOAD_DELAY_MS = "kafkaproxy.rule.reload.delay.ms";
+  public static final long DEFAULT_KAFKA_PROXY_RULE_RELOAD_DELAY_MS = 1000;
+
+  public static final String KAFKA_PROXY_ENVELOPE = "kafkaproxy.envelope";
+  public static final String DEFAULT_KAFKA_PROXY_ENVELOPE = "none";
+  // below the 1MB default of max.request.size, which also counts the record and batch headers
+  public static final String KAFKA_PROXY_ENVELOPE_MAX_BYTES = "kafkaproxy.envelope.max.bytes";
+  public static final int DEFAULT_KAFKA_PROXY_ENVELOPE_MAX_BYTES = 900 * 1024;
+
+  public static final String KAFKA_PROXY_COMPACT_COLUMNS = "kafkaproxy.compact.columns";
+  public static final boolean DEFAULT_KAFKA_PROXY_COMPACT_COLUMNS = false;
+  public static final String KAFKA_PROXY_COLUMN_DICTIONARY_TOPIC =
+    "kafkaproxy.column.dictionary.topic";
+  public static final String DEFAULT_KAFKA_PROXY_COLUMN_DICTIONARY_TOPIC = "hbase-kafka-columns";
+  public static final String KAFKA_PROXY_COLUMN_DICTIONARY_INTERVAL_MS =
+    "kafkaproxy.column.dictionary.interval.ms";
+  public static final long DEFAULT_KAFKA_PROXY_COLUMN_DICTIONARY_INTERVAL_MS = 1000;
+
+  public static final String KAFKA_PROXY_ENCODE_THREADS = "kafkaproxy.encode.threads";
+  public static final int DEFAULT_KAFKA_PROXY_ENCODE_THREADS = 0;
+  public static final String KAFKA_PROXY_ENCODE_PARALLEL_MIN_CELLS =
+    "kafkaproxy.encode.parallel.min.cells";
+  public static final int DEFAULT_KAFKA_PROXY_ENCODE_PARALLEL_MIN_CELLS = 1000;
+
+  public static final String KAFKA_PROXY_PRODUCER_POOL_SIZE = "kafkaproxy.producer.pool.size";
+  public static final int DEFAULT_KAFKA_PROXY_PRODUCER_POOL_SIZE = 1;
+  public static final String KAFKA_PROXY_PRODUCER_STRIPING = "kafkaproxy.producer.striping";
+  public static final String DEFAULT_KAFKA_PROXY_PRODUCER_STRIPING = "topic";
+
+  public static final String KAFKA_PROXY_PARTITIONER = "kafkaproxy.partitioner";
+  public static final String DEFAULT_KAFKA_PROXY_PARTITIONER = "kafka";
+
+  public static final String KAFKA_PROXY_BATCHING_ADAPTIVE = "kafkaproxy.batching.adaptive";
+  public static final String KAFKA_PROXY_BATCHING_INTERVAL_MS =
+    "kafkaproxy.batching.adapt.interval.ms";
+  public static final String KAFKA_PROXY_BATCHING_LATENCY_TARGET_MS =
+    "kafkaproxy.batching.latency.target.ms";
+  public static final String KAFKA_PROXY_BATCHING_MAX_LINGER_MS =
+    "kafkaproxy.batching.max.linger.ms";
+  public static final String KAFKA_PROXY_BATCHING_MIN_BATCH_SIZE =
+    "kafkaproxy.batching.min.batch.size";
+  public static final String KAFKA_PROXY_BATCHING_MAX_BATCH_SIZE =
+    "kafkaproxy.batching.max.batch.size";
+
+  public static final String KAFKA_PROXY_PIPELINED_BATCHES = "kafkaproxy.batch.pipelined";
+  public static final boolean DEFAULT_KAFKA_PROXY_PIPELINED_BATCHES = false;
+  public static final String KAFKA_PROXY_INFLIGHT_MAX_BYTES = "kafkaproxy.inflight.max.bytes";
+  public static final long DEFAULT_KAFKA_PROXY_INFLIGHT_MAX_BYTES = 64L * 1024 * 1024;
+  public static final String KAFKA_PROXY_INFLIGHT_MAX_RECORDS = "kafkaproxy.inflight.max.records";
+  public static final long DEFAULT_KAFKA_PROXY_INFLIGHT_MAX_RECORDS = 100000;
+
+  public static final String KAFKA_PROXY_EXACTLY_ONCE = "kafkaproxy.exactly.once";
+  public static final boolean DEFAULT_KAFKA_PROXY_EXACTLY_ONCE = false;
+  public static final String KAFKA_PROXY_TRANSACTIONAL_ID = "kafkaproxy.transactional.id";
+  public static final String KAFKA_PROXY_TRANSACTION_LINGER_MS =
+    "kafkaproxy.transaction.linger.ms";
+  public static final long DEFAULT_KAFKA_PROXY_TRANSACTION_LINGER_MS = 10;
+  public static final String KAFKA_PROXY_TRANSACTION_MAX_BATCHES =
+    "kafkaproxy.transaction.max.batches";
+  public static final int DEFAULT_KAFKA_PROXY_TRANSACTION_MAX_BATCHES = 64;
+
+  public static final String KAFKA_PROXY_SPILL_DIR = "kafkaproxy.spill.dir";
+  public static final String KAFKA_PROXY_SPILL_MAX_BYTES = "kafkaproxy.spill.max.bytes";
+  public static final long DEFAULT_KAFKA_PROXY_SPILL_MAX_BYTES = 1024L * 1024 * 1024;
+  public static final String KAFKA_PROXY_SPILL_SEGMENT_BYTES = "kafkaproxy.spill.segment.bytes";
+  public static final int DEFAULT_KAFKA_PROXY_SPILL_SEGMENT_BYTES = 64 * 1024 * 1024;
+  public static final String KAFKA_PROXY_SPILL_LATENCY_THRESHOLD_MS =
+    "kafkaproxy.spill.latency.threshold.ms";
+  public static final long DEFAULT_KAFKA_PROXY_SPILL_LATENCY_THRESHOLD_MS = 5000;
+  public static final String KAFKA_PROXY_SPILL_RETRY_MS = "kafkaproxy.spill.retry.ms";
+  public static final long DEFAULT_KAFKA_PROXY_SPILL_RETRY_MS = 1000;
+  public static final String KAFKA_PROXY_SPILL_SYNC = "kafkaproxy.spill.sync";
+  public static final boolean DEFAULT_KAFKA_PROXY_SPILL_SYNC = true;
+
+  public static final String REPLICATION_HANDLER_COUNT =
+    "hbase.regionserver.replication.handler.count";
+  // handlers when batches are pipelined or may wait on a throttled topic
+  public static final int DEFAULT_KAFKA_PROXY_CONCURRENT_HANDLER_COUNT = 4;
+
   private static Map<String, String> DEFAULT_PROPERTIES = new HashMap<>();
   private static Map<String, String> CAN_OVERRIDE_DEFAULT_PROPERTIES = new HashMap<>();
 
@@ -83,11 +165,15 @@ public final class KafkaProxy {
     DEFAULT_PROPERTIES.put("hbase.mob.file.cache.size", "0");
     DEFAULT_PROPERTIES.put("hbase.masterless", "true");
     DEFAULT_PROPERTIES.put("hbase.regionserver.metahandler.count", "1");
-    DEFAULT_PROPERTIES.put("hbase.regionserver.replication.handler.count", "1");
     DEFAULT_PROPERTIES.put("hbase.regionserver.handler.count", "1");
-    DEFAULT_PROPERTIES.put("hbase.ipc.server.read.threadpool.size", "3");
 
     CAN_OVERRIDE_DEFAULT_PROPERTIES.put("hbase.regionserver.port", "17020");
+    // replication calls go straight to the proxy instead of through mutations and a connection
+    CAN_OVERRIDE_DEFAULT_PROPERTIES.put("hbase.replication.sink.service",
+      KafkaReplicationSink.class.getName());
+    CAN_OVERRIDE_DEFAULT_PROPERTIES.put("hbase.ipc.server.read.threadpool.size", "3");
+    // raised by default with kafkaproxy.batch.pipelined, lanes or rate limits
+    CAN_OVERRIDE_DEFAULT_PROPERTIES.put(REPLICATION_HANDLER_COUNT, "1");
   }
 
   private static void printUsageAndExit(Options options, int exitCode) {
@@ -188,6 +274,10 @@ public final class KafkaProxy {
     }
 
     otherProps.put(KafkaProxy.KAFKA_PROXY_RULES_FILE, rulesFile);
+    boolean pipelined = commandLineConf.getBoolean(KAFKA_PROXY_PIPELINED_BATCHES,
+      conf.getBoolean(KAFKA_PROXY_PIPELINED_BATCHES, DEFAULT_KAFKA_PROXY_PIPELINED_BATCHES));
+    CAN_OVERRIDE_DEFAULT_PROPERTIES.put(REPLICATION_HANDLER_COUNT, Integer.toString(
+      getDefaultReplicationHandlerCount(new TopicRoutingRules(new File(rulesFile), 0), pipelined)));
 
     if (commandLine.hasOption('f')) {
       otherProps.put(KafkaProxy.KAFKA_PROXY_KAFKA_PROPERTIES, commandLine.getOptionValue('f'));
@@ -244,6 +334,23 @@ public final class KafkaProxy {
     new HRegionServerCommandLine(regionServerClass).doMain(newArgs);
   }
 
+  /**
+   * A batch holds its replication handler until its records are acknowledged, pipelined or not,
+   * and while it waits on the rate limit of a topic; with a single handler the batches of every
+   * other region server and topic, high lane ones included, wait behind it. Pipelined batches and
+   * rules with lanes or rate limits get several handlers by default, so the batches of other
+   * region servers carry on meanwhile.
+   * @param rules     the rules the proxy starts with
+   * @param pipelined whether batches are pipelined
+   * @return the default number of replication handlers
+   */
+  static int getDefaultReplicationHandlerCount(TopicRoutingRules rules, boolean pipelined) {
+    RoutingTable table = rules.getSnapshot();
+    return pipelined || table.hasLanes() || table.hasRateLimits()
+      ? DEFAULT_KAFKA_PROXY_CONCURRENT_HANDLER_COUNT
+      : 1;
+  }
+
   /**
    * Set up the needed znodes under the rootZnode
    * @param zk        CuratorFramework framework instance
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeLong;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Metrics of the proxy, published through the hadoop metrics system of the region server (and so
+ * over JMX as Hadoop:service=HBase,name=KafkaProxy). Routing and encoding time are split so a
+ * replication lag can be traced to rule evaluation, avro encoding or kafka acknowledgements.
+ */
+@InterfaceAudience.Private
+public class KafkaProxyMetrics implements MetricsSource {
+  public static final String NAME = "KafkaProxy";
+  private static final String DESCRIPTION = "Metrics about the HBase kafka proxy";
+  // interval of the latency percentiles, in seconds
+  private static final int QUANTILE_INTERVAL = 60;
+
+  private static KafkaProxyMetrics instance;
+
+  private final MetricsRegistry registry = new MetricsRegistry(NAME);
+
+  private final MutableCounterLong cellsIn =
+    registry.newCounter("cellsIn", "Cells received from replication", 0L);
+  private final MutableCounterLong cellsDropped =
+    registry.newCounter("cellsDropped", "Cells dropped by a drop rule", 0L);
+  private final MutableCounterLong cellsUnrouted =
+    registry.newCounter("cellsUnrouted", "Cells that matched no route rule", 0L);
+  private final MutableCounterLong recordsSent =
+    registry.newCounter("recordsSent", "Records sent to kafka", 0L);
+  private final MutableCounterLong bytesEncoded =
+    registry.newCounter("bytesEncoded", "Bytes of the encoded record values", 0L);
+  private final MutableCounterLong sendFailures =
+    registry.newCounter("sendFailures", "Replication batches that failed to send", 0L);
+  private final MutableGaugeLong inFlightRecords =
+    registry.newGauge("inFlightRecords", "Records sent and not acknowledged yet", 0L);
+  private final MutableGaugeLong inFlightBytes =
+    registry.newGauge("inFlightBytes", "Bytes sent and not acknowledged yet", 0L);
+  private final MutableRate routeTime =
+    registry.newRate("routeTimeUs", "Time a batch spent evaluating rules, in microseconds", false);
+  private final MutableRate encodeTime =
+    registry.newRate("encodeTimeUs", "Time a batch spent encoding records, in microseconds", false);
+  private final MutableQuantiles ackLatency = registry.newQuantiles("ackLatencyMs",
+    "Time until every record of a batch was acknowledged", "Batches", "LatencyMs",
+    QUANTILE_INTERVAL);
+  private final MutableQuantiles flushTime = registry.newQuantiles("flushTimeMs",
+    "Time flushing the producers after a batch", "Flushes", "TimeMs", QUANTILE_INTERVAL);
+  private final MutableCounterLong transactionsCommitted = registry
+    .newCounter("transactionsCommitted", "Kafka transactions committed in exactly once mode", 0L);
+  private final MutableCounterLong transactionsAborted = registry
+    .newCounter("transactionsAborted", "Kafka transactions aborted in exactly once mode", 0L);
+  private final MutableRate batchesPerTransaction = registry.newRate("batchesPerTransaction",
+    "Replication batches committed together in one kafka transaction", false);
+  private final MutableQuantiles commitTime = registry.newQuantiles("commitTimeMs",
+    "Time committing a kafka transaction", "Commits", "TimeMs", QUANTILE_INTERVAL);
+  private final MutableCounterLong batchesSpilled = registry.newCounter("batchesSpilled",
+    "Replication batches written to the spill log instead of kafka", 0L);
+  private final MutableCounterLong spillDropped = registry.newCounter("spillBatchesDropped",
+    "Spilled batches dropped because kafka refused them with an error retrying cannot fix", 0L);
+  private final MutableGaugeLong spillPendingBatches = registry
+    .newGauge("spillPendingBatches", "Batches in the spill log waiting to be sent to kafka", 0L);
+  private final MutableGaugeLong spillPendingBytes = registry
+    .newGauge("spillPendingBytes", "Bytes in the spill log waiting to be sent to kafka", 0L);
+
+  private final MutableCounterLong throttledTime = registry.newCounter("throttledTimeMs",
+    "Time replication batches waited for the rate limit of a topic", 0L);
+
+  private final ConcurrentMap<String, MutableCounterLong> topicRecords = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, MutableCounterLong> topicThrottledTime =
+    new ConcurrentHashMap<>();
+
+  /**
+   * Metrics that are not registered anywhere, for testing.
+   */
+  KafkaProxyMetrics() {
+  }
+
+  /**
+   * Get the metrics of this process, registering them with the metrics system on first use.
+   * @return the metrics
+   */
+  public static synchronized KafkaProxyMetrics get() {
+    if (instance == null) {
+      instance =
+        DefaultMetricsSystem.instance().register(NAME, DESCRIPTION, new KafkaProxyMetrics());
+    }
+    return instance;
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    registry.snapshot(collector.addRecord(registry.info()), all);
+  }
+
+  /**
+   * Account for the routing and encoding of a replication batch.
+   * @param cells       cells in the batch
+   * @param dropped     cells dropped by a drop rule
+   * @param unrouted    cells that matched no route rule
+   * @param routeNanos  time spent evaluating rules
+   * @param encodeNanos time spent encoding
+   */
+  public void updateBatch(long cells, long dropped, long unrouted, long routeNanos,
+    long encodeNanos) {
+    cellsIn.incr(cells);
+    cellsDropped.incr(dropped);
+    cellsUnrouted.incr(unrouted);
+    routeTime.add(routeNanos / 1000);
+    encodeTime.add(encodeNanos / 1000);
+  }
+
+  /**
+   * Account for a record handed to the producer.
+   * @param topic topic of the record
+   * @param bytes size of the record value
+   */
+  public void recordSent(String topic, int bytes) {
+    MutableCounterLong counter = topicRecords.get(topic);
+    if (counter == null) {
+      counter = topicRecords.computeIfAbsent(topic, (t) -> registry.newCounter("topic." + t
+        + ".recordsSent", "Records sent to kafka topic " + t, 0L));
+    }
+    counter.incr();
+    recordsSent.incr();
+    bytesEncoded.incr(bytes);
+  }
+
+  /**
+   * A record waited for the rate limit of its topic.
+   * @param topic     topic of the record
+   * @param waitNanos time it waited
+   */
+  public void throttled(String topic, long waitNanos) {
+    MutableCounterLong counter = topicThrottledTime.get(topic);
+    if (counter == null) {
+      counter = topicThrottledTime.computeIfAbsent(topic, (t) -> registry.newCounter(
+        "topic." + t + ".throttledTimeMs", "Time waited for the rate limit of topic " + t, 0L));
+    }
+    long waitMs = waitNanos / 1000000;
+    counter.incr(waitMs);
+    throttledTime.incr(waitMs);
+  }
+
+  /**
+   * Records of a batch start being sent.
+   */
+  public void sendStarted(long records, long bytes) {
+    inFlightRecords.incr(records);
+    inFlightBytes.incr(bytes);
+  }
+
+  /**
+   * The records of a batch were acknowledged (or failed).
+   * @param ackNanos time from the first send until the last acknowledgement
+   */
+  public void sendDone(long records, long bytes, long ackNanos) {
+    inFlightRecords.decr(records);
+    inFlightBytes.decr(bytes);
+    ackLatency.add(ackNanos / 1000000);
+  }
+
+  public void sendFailed() {
+    sendFailures.incr();
+  }
+
+  public void flushed(long flushNanos) {
+    flushTime.add(flushNanos / 1000000);
+  }
+
+  /**
+   * A kafka transaction was committed.
+   * @param batches     replication batches in the transaction
+   * @param commitNanos time the commit took
+   */
+  public void transactionCommitted(int batches, long commitNanos) {
+    transactionsCommitted.incr();
+    batchesPerTransaction.add(batches);
+    commitTime.add(commitNanos / 1000000);
+  }
+
+  public void transactionAborted() {
+    transactionsAborted.incr();
+  }
+
+  public void spilled() {
+    batchesSpilled.incr();
+  }
+
+  public void spillDropped() {
+    spillDropped.incr();
+  }
+
+  /**
+   * The content of the spill log changed.
+   * @param batches batches waiting in the log
+   * @param bytes   bytes waiting in the log
+   */
+  public void spillUpdated(long batches, long bytes) {
+    spillPendingBatches.set(batches);
+    spillPendingBytes.set(bytes);
+  }
+
+  long getCellsIn() {
+    return cellsIn.value();
+  }
+
+  long getCellsDropped() {
+    return cellsDropped.value();
+  }
+
+  long getCellsUnrouted() {
+    return cellsUnrouted.value();
+  }
+
+  long getRecordsSent() {
+    return recordsSent.value();
+  }
+
+  long getRecordsSent(String topic) {
+    MutableCounterLong counter = topicRecords.get(topic);
+    return counter == null ? 0 : counter.value();
+  }
+
+  long getBytesEncoded() {
+    return bytesEncoded.value();
+  }
+
+  long getInFlightRecords() {
+    return inFlightRecords.value();
+  }
+
+  long getSendFailures() {
+    return sendFailures.value();
+  }
+
+  long getTransactionsCommitted() {
+    return transactionsCommitted.value();
+  }
+
+  long getTransactionsAborted() {
+    return transactionsAborted.value();
+  }
+
+  long getThrottledTimeMs() {
+    return throttledTime.value();
+  }
+
+  long getBatchesSpilled() {
+    return batchesSpilled.value();
+  }
+
+  long getSpillDropped() {
+    return spillDropped.value();
+  }
+
+  long getSpillPendingBatches() {
+    return spillPendingBatches.value();
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellScanner;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.regionserver.ReplicationSinkService;
+import org.apache.hadoop.hbase.replication.regionserver.ReplicationLoad;
+import org.apache.hadoop.hbase.wal.WALEdit;
+import org.apache.hadoop.hbase.wal.WALFactory;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.hadoop.hbase.shaded.protobuf.generated.AdminProtos.WALEntry;
+
+/**
+ * Replication sink of the proxy. The region server hands it the WAL entries of every
+ * replicateWALEntry call, on its replication handlers. The cells are routed and encoded straight
+ * from the cell block of the call: unlike the default sink, nothing is turned into Put and Delete
+ * mutations first and no table is written. The proxy itself still is a masterless region server,
+ * only what happens to the entries of a call changes.
+ */
+@InterfaceAudience.Private
+public class KafkaReplicationSink implements ReplicationSinkService {
+  private static final Logger LOG = LoggerFactory.getLogger(KafkaReplicationSink.class);
+
+  private Configuration conf;
+  private KafkaBridgeConnection connection;
+  // the tables keep no state between batches, so the handlers share them
+  private final ConcurrentMap<TableName, KafkaTableForBridge> tables = new ConcurrentHashMap<>();
+
+  public KafkaReplicationSink() {
+  }
+
+  /**
+   * for testing.
+   * @param connection connection the replicated cells are sent through
+   */
+  KafkaReplicationSink(KafkaBridgeConnection connection) {
+    this.connection = connection;
+  }
+
+  @Override
+  public void initialize(Server server, FileSystem fs, Path logdir, Path oldLogDir,
+    WALFactory walFactory) throws IOException {
+    this.conf = server.getConfiguration();
+  }
+
+  @Override
+  public void startReplicationService() throws IOException {
+    this.connection = new KafkaBridgeConnection(conf);
+    LOG.info("kafka proxy replication sink started");
+  }
+
+  @Override
+  public void stopReplicationService() {
+    if (this.connection != null) {
+      try {
+        this.connection.close();
+      } catch (IOException e) {
+        LOG.warn("failed to close the kafka connection", e);
+      }
+    }
+  }
+
+  @Override
+  public ReplicationLoad refreshAndGetReplicationLoad() {
+    // the proxy reports through its own metrics
+    return null;
+  }
+
+  @Override
+  public void replicateLogEntries(List<WALEntry> entries, CellScanner cells,
+    String replicationClusterId, String sourceBaseNamespaceDirPath,
+    String sourceHFileArchiveDirPath) throws IOException {
+    // one batch per table, in the order the tables first show up
+    Map<TableName, KafkaTableForBridge.CellBatch> batches = new LinkedHashMap<>();
+    for (WALEntry entry : entries) {
+      TableName tableName = TableName.valueOf(entry.getKey().getTableName().toByteArray());
+      KafkaTableForBridge.CellBatch batch = batches.get(tableName);
+      if (batch == null) {
+        batch = getTable(tableName).newCellBatch();
+        batches.put(tableName, batch);
+      }
+      int count = entry.getAssociatedCellCount();
+      for (int i = 0; i < count; i++) {
+        // the cells of all the entries follow each other in the cell block of the call
+        if (!cells.advance()) {
+          throw new ArrayIndexOutOfBoundsException("Expected=" + count + ", index=" + i);
+        }
+        Cell cell = cells.current();
+        if (CellUtil.matchingFamily(cell, WALEdit.METAFAMILY)) {
+          // bulk load and other markers, there is nothing to forward
+          continue;
+        }
+        batch.add(cell);
+      }
+    }
+    try {
+      for (KafkaTableForBridge.CellBatch batch : batches.values()) {
+        batch.send();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw (InterruptedIOException) new InterruptedIOException().initCause(e);
+    }
+  }
+
+  private KafkaTableForBridge getTable(TableName tableName) throws IOException {
+    KafkaTableForBridge table = tables.get(tableName);
+    if (table == null) {
+      table = (KafkaTableForBridge) connection.getTable(tableName);
+      KafkaTableForBridge existing = tables.putIfAbsent(tableName, table);
+      if (existing != null) {
+        table = existing;
+      }
+    }
+    return table;
+  }
+}
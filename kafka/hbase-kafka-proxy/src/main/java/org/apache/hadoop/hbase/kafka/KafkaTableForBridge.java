@@ -17,16 +17,15 @@
  */
 package org.apache.hadoop.hbase.kafka;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.stream.Collectors;
-import org.apache.avro.io.BinaryEncoder;
-import org.apache.avro.io.DatumWriter;
-import org.apache.avro.io.EncoderFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
@@ -38,7 +37,6 @@ import org.apache.hadoop.hbase.client.RegionLocator;
 import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.client.TableDescriptor;
-import org.apache.hadoop.hbase.util.Pair;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
@@ -46,8 +44,6 @@ import org.apache.yetus.audience.InterfaceAudience;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.apache.hbase.thirdparty.org.apache.commons.collections4.CollectionUtils;
-
 @InterfaceAudience.Private
 public class KafkaTableForBridge implements Table {
   private Logger LOG = LoggerFactory.getLogger(KafkaTableForBridge.class);
@@ -56,104 +52,531 @@ public class KafkaTableForBridge implements Table {
   private final TableName tableName;
   private byte[] tableAsBytes;
 
-  private Producer<byte[], byte[]> producer;
+  private ProducerPool producers;
   private TopicRoutingRules routingRules;
 
-  private DatumWriter<HBaseKafkaEvent> avroWriter;
+  // encoders are reused by the replication handler threads, one per thread
+  private static final ThreadLocal<HBaseKafkaEventEncoder> ENCODERS =
+    ThreadLocal.withInitial(HBaseKafkaEventEncoder::new);
 
-  private static final class CheckMutation {
-    byte[] qualifier;
-    byte[] family;
-    Cell cell;
-    List<String> topics = new ArrayList<>();
-  }
+  // the table field is the same for every event of this table, encode it once
+  private final byte[] encodedTable;
+
+  // if and how cells are grouped into HBaseKafkaEventBatch envelopes
+  private final EventBatchBuilder.Mode envelopeMode;
+  private final int envelopeMaxBytes;
+
+  // when set, batches are pipelined: records are acknowledged through callbacks under this budget
+  private final InFlightLimiter inFlightLimiter;
+
+  // when set, picks the partition of every record instead of the producer's partitioner
+  private final RowPartitioner partitioner;
+
+  private final KafkaProxyMetrics metrics;
+
+  // when set, the cells of large batches are encoded on this pool instead of the handler thread
+  private final ExecutorService encodePool;
+  private final int parallelMinCells;
+
+  // when set, batches are sent in kafka transactions for exactly once delivery
+  private final TransactionalSender transactions;
+
+  // when set, batches go to a local log while kafka is slow or down
+  private final SpillBuffer spill;
+
+  // when set, events are HBaseKafkaCompactEvents referring to the table and family by id
+  private final ColumnIds.TableColumns columns;
+  private final String dictionaryTopic;
+
+  // when set, holds back the records of topics whose rules limit their rate
+  private final TopicThrottle throttle;
 
   @Override
   public RegionLocator getRegionLocator() throws IOException {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * What a table shares with the other tables of its connection. Only the producers and metrics
+   * are needed, whatever else is not set is not used.
+   */
+  public static final class Collaborators {
+    private final ProducerPool producers;
+    private final KafkaProxyMetrics metrics;
+    private InFlightLimiter inFlightLimiter;
+    private RowPartitioner partitioner;
+    private ExecutorService encodePool;
+    private TransactionalSender transactions;
+    private SpillBuffer spill;
+    private ColumnIds columnIds;
+    private TopicThrottle throttle;
+
+    public Collaborators(ProducerPool producers, KafkaProxyMetrics metrics) {
+      this.producers = producers;
+      this.metrics = metrics;
+    }
+
+    /** pipeline batches, acknowledging records through callbacks under this budget */
+    public Collaborators setInFlightLimiter(InFlightLimiter inFlightLimiter) {
+      this.inFlightLimiter = inFlightLimiter;
+      return this;
+    }
+
+    /** pick the partition of every record instead of the producer's partitioner */
+    public Collaborators setPartitioner(RowPartitioner partitioner) {
+      this.partitioner = partitioner;
+      return this;
+    }
+
+    /** encode the cells of large batches on this pool */
+    public Collaborators setEncodePool(ExecutorService encodePool) {
+      this.encodePool = encodePool;
+      return this;
+    }
+
+    /** send batches in kafka transactions */
+    public Collaborators setTransactions(TransactionalSender transactions) {
+      this.transactions = transactions;
+      return this;
+    }
+
+    /** send batches to a local log while kafka is slow or down */
+    public Collaborators setSpill(SpillBuffer spill) {
+      this.spill = spill;
+      return this;
+    }
+
+    /** send compact events referring to columns by id */
+    public Collaborators setColumnIds(ColumnIds columnIds) {
+      this.columnIds = columnIds;
+      return this;
+    }
+
+    /** hold back the records of topics whose rules limit their rate */
+    public Collaborators setThrottle(TopicThrottle throttle) {
+      this.throttle = throttle;
+      return this;
+    }
+  }
+
   public KafkaTableForBridge(TableName tableName, Configuration conf,
-    TopicRoutingRules routingRules, Producer<byte[], byte[]> producer,
-    DatumWriter<HBaseKafkaEvent> avroWriter) {
+    TopicRoutingRules routingRules, Collaborators collaborators) {
     this.conf = conf;
     this.tableName = tableName;
     this.tableAsBytes = this.tableName.toBytes();
+    this.encodedTable = HBaseKafkaEventEncoder.encodeBytesField(tableAsBytes);
     this.routingRules = routingRules;
-    this.producer = producer;
-    this.avroWriter = avroWriter;
+    this.producers = collaborators.producers;
+    this.inFlightLimiter = collaborators.inFlightLimiter;
+    this.partitioner = collaborators.partitioner;
+    this.metrics = collaborators.metrics;
+    this.envelopeMode = EventBatchBuilder.Mode.parse(
+      conf.get(KafkaProxy.KAFKA_PROXY_ENVELOPE, KafkaProxy.DEFAULT_KAFKA_PROXY_ENVELOPE));
+    this.envelopeMaxBytes = conf.getInt(KafkaProxy.KAFKA_PROXY_ENVELOPE_MAX_BYTES,
+      KafkaProxy.DEFAULT_KAFKA_PROXY_ENVELOPE_MAX_BYTES);
+    // batch envelopes gather the whole batch per topic, there is nothing to split
+    this.encodePool =
+      envelopeMode == EventBatchBuilder.Mode.BATCH ? null : collaborators.encodePool;
+    this.parallelMinCells = conf.getInt(KafkaProxy.KAFKA_PROXY_ENCODE_PARALLEL_MIN_CELLS,
+      KafkaProxy.DEFAULT_KAFKA_PROXY_ENCODE_PARALLEL_MIN_CELLS);
+    this.transactions = collaborators.transactions;
+    this.spill = collaborators.spill;
+    ColumnIds columnIds = collaborators.columnIds;
+    this.columns = columnIds == null ? null : columnIds.forTable(tableName);
+    this.dictionaryTopic = columnIds == null ? null : columnIds.getTopic();
+    this.throttle = collaborators.throttle;
   }
 
-  private List<Pair<String, HBaseKafkaEvent>> processMutation(CheckMutation check,
-    boolean isDelete) {
-    HBaseKafkaEvent event = new HBaseKafkaEvent();
-    event.setKey(ByteBuffer.wrap(check.cell.getRowArray(), check.cell.getRowOffset(),
-      check.cell.getRowLength()));
-    event.setTable(ByteBuffer.wrap(tableAsBytes));
-    event.setDelete(isDelete);
-    event.setTimestamp(check.cell.getTimestamp());
-    event.setFamily(ByteBuffer.wrap(check.family));
-    event.setQualifier(ByteBuffer.wrap(check.qualifier));
-    event.setValue(ByteBuffer.wrap(check.cell.getValueArray(), check.cell.getValueOffset(),
-      check.cell.getValueLength()));
+  private RoutingTable.Decision route(RoutingTable rules, byte[] family, Cell cell) {
+    return rules.route(this.tableName, family, cell.getQualifierArray(),
+      cell.getQualifierOffset(), cell.getQualifierLength());
+  }
+
+  @Override
+  public void batch(final List<? extends Row> actions, Object[] results)
+    throws IOException, InterruptedException {
+    LOG.debug("got {} inputs ", actions.size());
 
-    return check.topics.stream().map((topic) -> new Pair<String, HBaseKafkaEvent>(topic, event))
-      .collect(Collectors.toList());
+    CellBatch batch = newCellBatch();
+    for (Row row : actions) {
+      if (!(row instanceof Mutation)) {
+        continue;
+      }
+      Mutation mut = (Mutation) row;
+      boolean isDelete = mut instanceof Delete;
+      for (Map.Entry<byte[], List<Cell>> familyCells : mut.getFamilyCellMap().entrySet()) {
+        byte[] family = familyCells.getKey();
+        for (Cell cell : familyCells.getValue()) {
+          batch.add(mut.getRow(), family, cell, isDelete);
+        }
+      }
+      batch.endRow();
+    }
+    batch.send();
+  }
+
+  /**
+   * Start a batch that is fed cell by cell instead of with mutations.
+   * @return a new batch, routed with the rules in use right now
+   */
+  public CellBatch newCellBatch() {
+    return new CellBatch();
   }
 
-  private boolean keep(CheckMutation ret) {
-    if (!routingRules.isExclude(this.tableName, ret.family, ret.qualifier)) {
-      return true;
+  /**
+   * A routed cell waiting to be encoded.
+   */
+  private static final class RoutedCell {
+    final byte[] row;
+    final Cell cell;
+    final boolean isDelete;
+    final RoutingTable.Decision decision;
+    // set on the last routed cell of a row, a batch is only split between rows
+    boolean endOfRow;
+
+    RoutedCell(byte[] row, Cell cell, boolean isDelete, RoutingTable.Decision decision) {
+      this.row = row;
+      this.cell = cell;
+      this.isDelete = isDelete;
+      this.decision = decision;
     }
-    return false;
   }
 
-  private CheckMutation addTopics(CheckMutation ret) {
-    ret.topics = routingRules.getTopics(this.tableName, ret.family, ret.qualifier);
-    return ret;
+  /**
+   * Encode a routed cell for each of its topics, with the value transform of the rule that routed
+   * it there. Into envelopes when there are any, otherwise as one record per topic; topics that get
+   * the value as it is share the encoded event.
+   */
+  private void encodeCell(HBaseKafkaEventEncoder encoder, EventBatchBuilder envelopes, byte[] row,
+    Cell cell, boolean isDelete, RoutingTable.Decision decision,
+    List<ProducerRecord<byte[], byte[]>> out) {
+    List<String> topics = decision.getTopics();
+    byte[] untransformed = null;
+    for (int i = 0; i < topics.size(); i++) {
+      ValueTransform transform = decision.getTransform(i);
+      byte[] value = null;
+      if (transform != null) {
+        value = transform.transform(cell);
+        if (value == null) {
+          continue;
+        }
+      }
+      if (envelopes != null) {
+        envelopes.add(topics.get(i), row, cell, value, isDelete);
+      } else if (value != null) {
+        out.add(new ProducerRecord<byte[], byte[]>(topics.get(i), row,
+          encodeEvent(encoder, cell, value, isDelete)));
+      } else {
+        if (untransformed == null) {
+          untransformed = encodeEvent(encoder, cell, null, isDelete);
+        }
+        out.add(new ProducerRecord<byte[], byte[]>(topics.get(i), row, untransformed));
+      }
+    }
   }
 
-  private ProducerRecord<byte[], byte[]> toByteArray(ByteArrayOutputStream bout,
-    Pair<String, HBaseKafkaEvent> event, BinaryEncoder encoder) {
-    try {
-      bout.reset();
-      BinaryEncoder encoderUse = EncoderFactory.get().binaryEncoder(bout, encoder);
-      avroWriter.write(event.getSecond(), encoderUse);
-      encoder.flush();
-      return new ProducerRecord<byte[], byte[]>(event.getFirst(),
-        event.getSecond().getKey().array(), bout.toByteArray());
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+  private byte[] encodeEvent(HBaseKafkaEventEncoder encoder, Cell cell, byte[] value,
+    boolean isDelete) {
+    if (columns == null) {
+      return encoder.encodeToArray(cell, value, encodedTable, isDelete);
     }
+    return encoder.encodeCompactToArray(cell, value, columns.getEncoded(cell), encodedTable,
+      isDelete);
   }
 
-  @Override
-  public void batch(final List<? extends Row> actions, Object[] results)
+  /**
+   * The cells of one replication batch, routed and encoded into records as they are added and sent
+   * together. With an encode pool, cells are only routed as they are added; encoding waits for
+   * {@link #send()}, which splits a large batch into runs of whole rows and encodes them in
+   * parallel. The records keep the order of the cells either way. Not thread safe, a batch belongs
+   * to the handler that builds it.
+   */
+  public final class CellBatch {
+    private final HBaseKafkaEventEncoder encoder = ENCODERS.get();
+    // the whole batch is routed with the rules it started with, even if they are reloaded meanwhile
+    private final RoutingTable rules = routingRules.getSnapshot();
+    private final List<ProducerRecord<byte[], byte[]>> records = new ArrayList<>();
+    private final EventBatchBuilder envelopes = envelopeMode == EventBatchBuilder.Mode.NONE
+      ? null
+      : new EventBatchBuilder(tableAsBytes, encodedTable, envelopeMaxBytes);
+    // routed cells left for send() to encode, when there is an encode pool
+    private final List<RoutedCell> routed = encodePool == null ? null : new ArrayList<>();
+    private final long buildStart = System.nanoTime();
+    private long routeNanos = 0;
+    private long cells = 0;
+    private long dropped = 0;
+    private long unrouted = 0;
+
+    // row and family of the last cell added with add(Cell), reused while the cells share them
+    private byte[] row;
+    private byte[] family;
+
+    private CellBatch() {
+    }
+
+    /**
+     * Route and encode a cell of a mutation.
+     * @param row      row of the mutation
+     * @param family   column family of the cell
+     * @param cell     the cell
+     * @param isDelete whether the mutation is a delete
+     */
+    public void add(byte[] row, byte[] family, Cell cell, boolean isDelete) {
+      long routeStart = System.nanoTime();
+      RoutingTable.Decision decision = route(rules, family, cell);
+      routeNanos += System.nanoTime() - routeStart;
+      cells++;
+      if (decision.isDrop()) {
+        dropped++;
+        return;
+      }
+      if (decision.getTopics().isEmpty()) {
+        unrouted++;
+        return;
+      }
+      if (routed != null) {
+        routed.add(new RoutedCell(row, cell, isDelete, decision));
+        return;
+      }
+      encodeCell(encoder, envelopes, row, cell, isDelete, decision, records);
+    }
+
+    /**
+     * Route and encode a cell as it was replicated, without a mutation around it. Cells of the same
+     * row must be added one after the other; the row ends when a cell of another row is added.
+     * @param cell the cell, a delete marker if its type is one of the delete types
+     */
+    public void add(Cell cell) {
+      if (row == null || !CellUtil.matchingRows(cell, row)) {
+        endRow();
+        row = CellUtil.cloneRow(cell);
+      }
+      if (family == null || !CellUtil.matchingFamily(cell, family)) {
+        family = CellUtil.cloneFamily(cell);
+      }
+      add(row, family, cell, CellUtil.isDelete(cell));
+    }
+
+    /**
+     * Mark the end of a row, so row envelopes are closed.
+     */
+    public void endRow() {
+      if (routed != null) {
+        if (!routed.isEmpty()) {
+          routed.get(routed.size() - 1).endOfRow = true;
+        }
+      } else if (envelopeMode == EventBatchBuilder.Mode.ROW) {
+        envelopes.flush(true, records);
+      }
+      row = null;
+    }
+
+    /**
+     * Send the records of the batch and wait until they are acknowledged.
+     * @throws IOException          if the records could not be sent
+     * @throws InterruptedException if interrupted while waiting for acknowledgements
+     */
+    public void send() throws IOException, InterruptedException {
+      endRow();
+      if (routed != null) {
+        encodeRouted();
+      } else if (envelopeMode == EventBatchBuilder.Mode.BATCH) {
+        envelopes.flush(false, records);
+      }
+      metrics.updateBatch(cells, dropped, unrouted, routeNanos,
+        System.nanoTime() - buildStart - routeNanos);
+      List<ProducerRecord<byte[], byte[]>> entries = Collections.emptyList();
+      if (columns != null && !records.isEmpty()) {
+        // dictionary entries of new columns go first, consumers look for them when they see an id
+        entries = columns.getUnpublished();
+        records.addAll(0, entries);
+      }
+      if (spill == null || records.isEmpty()) {
+        sendRecords(rules, records);
+        published(entries);
+        return;
+      }
+
+      if (spill.offer(tableName, records)) {
+        published(entries);
+        return;
+      }
+      long sendStart = System.nanoTime();
+      try {
+        sendRecords(rules, records);
+      } catch (IOException | RuntimeException e) {
+        // records that made it to kafka are sent again, as when replication retries the batch
+        spill.spill(tableName, records, e);
+        published(entries);
+        return;
+      }
+      spill.sent(System.nanoTime() - sendStart);
+      published(entries);
+    }
+
+    private void published(List<ProducerRecord<byte[], byte[]>> entries) {
+      if (!entries.isEmpty()) {
+        columns.published(entries);
+      }
+    }
+
+    /**
+     * Encode the routed cells, split into runs of whole rows that are encoded on the pool when the
+     * batch is large enough. The records of the runs are appended in order.
+     */
+    private void encodeRouted() throws IOException, InterruptedException {
+      if (routed.size() < parallelMinCells) {
+        encode(0, routed.size(), records);
+        return;
+      }
+      int runs = Math.max(1, routed.size() / parallelMinCells);
+      int runSize = (routed.size() + runs - 1) / runs;
+      List<Future<List<ProducerRecord<byte[], byte[]>>>> encoded = new ArrayList<>(runs);
+      int from = 0;
+      while (from < routed.size()) {
+        int to = Math.min(from + runSize, routed.size());
+        // never split a row, its records have to stay together and in order
+        while (to < routed.size() && !routed.get(to - 1).endOfRow) {
+          to++;
+        }
+        final int start = from;
+        final int end = to;
+        encoded.add(encodePool.submit(() -> {
+          List<ProducerRecord<byte[], byte[]>> out = new ArrayList<>(end - start);
+          encode(start, end, out);
+          return out;
+        }));
+        from = to;
+      }
+      try {
+        for (Future<List<ProducerRecord<byte[], byte[]>>> run : encoded) {
+          records.addAll(run.get());
+        }
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IOException("failed to encode batch", e.getCause());
+      } finally {
+        for (Future<List<ProducerRecord<byte[], byte[]>>> run : encoded) {
+          run.cancel(false);
+        }
+      }
+    }
+
+    /**
+     * Encode routed cells [from, to), on whatever thread calls this.
+     */
+    private void encode(int from, int to, List<ProducerRecord<byte[], byte[]>> out) {
+      // each worker thread has its own encoder
+      HBaseKafkaEventEncoder cellEncoder = ENCODERS.get();
+      EventBatchBuilder rowEnvelopes = envelopeMode == EventBatchBuilder.Mode.ROW
+        ? new EventBatchBuilder(tableAsBytes, encodedTable, envelopeMaxBytes)
+        : null;
+      for (int i = from; i < to; i++) {
+        RoutedCell item = routed.get(i);
+        encodeCell(cellEncoder, rowEnvelopes, item.row, item.cell, item.isDelete, item.decision,
+          out);
+        if (rowEnvelopes != null && item.endOfRow) {
+          rowEnvelopes.flush(true, out);
+        }
+      }
+    }
+  }
+
+  /**
+   * Send the records of a batch to kafka and wait until they are acknowledged.
+   * @param rules rules that give the producer settings of the topics
+   */
+  private void sendRecords(RoutingTable rules, List<ProducerRecord<byte[], byte[]>> records)
     throws IOException, InterruptedException {
+    long bytes = 0;
+    for (ProducerRecord<byte[], byte[]> item : records) {
+      bytes += PendingBatch.sizeOf(item);
+    }
+    metrics.sendStarted(records.size(), bytes);
+    if (rules.hasLanes()) {
+      records = orderByLane(rules, records);
+    }
+    long sendStart = System.nanoTime();
+    try (ProducerPool.Lease lease = producers.lease(rules)) {
+      if (transactions != null) {
+        for (ProducerRecord<byte[], byte[]> item : records) {
+          throttle(rules, item);
+        }
+        sendTransactional(records);
+      } else if (inFlightLimiter != null) {
+        sendPipelined(rules, lease, records);
+      } else {
+        sendAndFlush(rules, lease, records);
+      }
+    } catch (IOException | RuntimeException e) {
+      metrics.sendFailed();
+      throw e;
+    } finally {
+      metrics.sendDone(records.size(), bytes, System.nanoTime() - sendStart);
+    }
+  }
 
-    ByteArrayOutputStream bout = new ByteArrayOutputStream();
-    BinaryEncoder encoderUse = EncoderFactory.get().binaryEncoder(bout, null);
+  /**
+   * Put the records of high lane topics first and those of low lane topics last, so they are not
+   * held up behind bulk topics. Records of a topic keep their order since a topic has one lane.
+   */
+  private static List<ProducerRecord<byte[], byte[]>> orderByLane(RoutingTable rules,
+    List<ProducerRecord<byte[], byte[]>> records) {
+    List<ProducerRecord<byte[], byte[]>> normal = new ArrayList<>(records.size());
+    List<ProducerRecord<byte[], byte[]>> low = null;
+    List<ProducerRecord<byte[], byte[]>> ret = new ArrayList<>(records.size());
+    for (ProducerRecord<byte[], byte[]> item : records) {
+      SendLane lane = rules.getLane(item.topic());
+      if (lane == SendLane.HIGH) {
+        ret.add(item);
+      } else if (lane == SendLane.NORMAL) {
+        normal.add(item);
+      } else {
+        if (low == null) {
+          low = new ArrayList<>();
+        }
+        low.add(item);
+      }
+    }
+    ret.addAll(normal);
+    if (low != null) {
+      ret.addAll(low);
+    }
+    return ret;
+  }
 
-    LOG.debug("got {} inputs ", actions.size());
+  private void throttle(RoutingTable rules, ProducerRecord<byte[], byte[]> item)
+    throws InterruptedException {
+    if (throttle != null) {
+      throttle.acquire(rules, item);
+    }
+  }
 
-    List<Future<RecordMetadata>> sends = new ArrayList<>();
-
-    actions.stream().filter((row) -> row instanceof Mutation).map((row) -> (Mutation) row)
-      .flatMap((row) -> {
-        Mutation mut = (Mutation) row;
-        boolean isDelete = mut instanceof Delete;
-        return mut.getFamilyCellMap().keySet().stream()
-          .flatMap((family) -> mut.getFamilyCellMap().get(family).stream()).map((cell) -> {
-            CheckMutation ret = new CheckMutation();
-            ret.family = CellUtil.cloneFamily(cell);
-            ret.qualifier = CellUtil.cloneQualifier(cell);
-            ret.cell = cell;
-            return ret;
-          }).filter((check) -> keep(check)).map((check) -> addTopics(check))
-          .filter((check) -> !CollectionUtils.isEmpty(check.topics))
-          .flatMap((check) -> processMutation(check, isDelete).stream());
-      }).map((event) -> toByteArray(bout, event, encoderUse))
-      .forEach((item) -> sends.add(producer.send(item)));
+  /**
+   * Send a batch that was spilled, bypassing the spill log.
+   * @param records the records of the batch
+   * @throws IOException if the records could not be sent
+   */
+  void sendSpilled(List<ProducerRecord<byte[], byte[]>> records)
+    throws IOException, InterruptedException {
+    sendRecords(routingRules.getSnapshot(), records);
+  }
+
+  /**
+   * Send every record, wait for each one and then flush the producers that were used.
+   */
+  private void sendAndFlush(RoutingTable rules, ProducerPool.Lease lease,
+    List<ProducerRecord<byte[], byte[]>> records) throws InterruptedException {
+    List<Future<RecordMetadata>> sends = new ArrayList<>(records.size());
+    Map<String, Integer> partitionCounts = new HashMap<>();
+    for (ProducerRecord<byte[], byte[]> item : records) {
+      throttle(rules, item);
+      Producer<byte[], byte[]> producer = lease.producerFor(item);
+      sends.add(producer.send(partition(producer, item, partitionCounts)));
+      metrics.recordSent(item.topic(), item.value().length);
+    }
 
     // make sure the sends are done before returning
     sends.stream().forEach((sendResult) -> {
@@ -165,12 +588,76 @@ public class KafkaTableForBridge implements Table {
       }
     });
 
-    this.producer.flush();
+    long flushStart = System.nanoTime();
+    lease.getProducers().forEach(Producer::flush);
+    metrics.flushed(System.nanoTime() - flushStart);
+  }
+
+  /**
+   * Hand the records to the producer as long as the shared in flight budget allows and wait only
+   * for the acknowledgements of this batch. The producer is not flushed, so a batch never waits on
+   * records that other replication batches have in flight at the same time.
+   */
+  private void sendPipelined(RoutingTable rules, ProducerPool.Lease lease,
+    List<ProducerRecord<byte[], byte[]>> records) throws IOException, InterruptedException {
+    PendingBatch pending = new PendingBatch(inFlightLimiter);
+    Map<String, Integer> partitionCounts = new HashMap<>();
+    try {
+      for (ProducerRecord<byte[], byte[]> item : records) {
+        throttle(rules, item);
+        Producer<byte[], byte[]> producer = lease.producerFor(item);
+        pending.send(producer, partition(producer, item, partitionCounts),
+          rules.getLane(item.topic()));
+        metrics.recordSent(item.topic(), item.value().length);
+      }
+    } finally {
+      // even on failure, wait for what was sent so the budget is returned before we leave
+      pending.await();
+    }
+  }
+
+  /**
+   * Send the records in a kafka transaction, which the batches of other handlers may share, and
+   * wait until it is committed.
+   */
+  private void sendTransactional(List<ProducerRecord<byte[], byte[]>> records)
+    throws IOException, InterruptedException {
+    Map<String, Integer> partitionCounts = new HashMap<>();
+    transactions.send(records, (producer, item) -> {
+      metrics.recordSent(item.topic(), item.value().length);
+      return partition(producer, item, partitionCounts);
+    });
+  }
+
+  /**
+   * Let the partitioner pick the partition of a record. The records of a mutation share their key,
+   * so they all get the same partition and, sent in order through one producer, stay in order.
+   * @param partitionCounts partition count per topic, looked up once per batch
+   */
+  private ProducerRecord<byte[], byte[]> partition(Producer<byte[], byte[]> producer,
+    ProducerRecord<byte[], byte[]> record, Map<String, Integer> partitionCounts) {
+    // dictionary entries stay with the producer's partitioner, which puts the entries of an id in
+    // one partition whatever table they belong to
+    if (partitioner == null || record.topic().equals(dictionaryTopic)) {
+      return record;
+    }
+    Integer count = partitionCounts.get(record.topic());
+    if (count == null) {
+      count = producer.partitionsFor(record.topic()).size();
+      partitionCounts.put(record.topic(), count);
+    }
+    if (count == 0) {
+      // no metadata for the topic, leave it to the producer
+      return record;
+    }
+    int partition = partitioner.partition(record.topic(), tableAsBytes, record.key(), count);
+    return new ProducerRecord<byte[], byte[]>(record.topic(), partition, record.key(),
+      record.value());
   }
 
   @Override
   public void close() {
-    this.producer.flush();
+    this.producers.flush();
   }
 
   @Override
@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.IOException;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Tracks the sends of a single replication batch. Records are handed to the producer without
+ * waiting on each one, and {@link #await()} returns once every record of the batch was
+ * acknowledged. Since a region server ships its next batch only after the previous call returned,
+ * the acknowledged records always form an ordered prefix of what that region server sent.
+ */
+@InterfaceAudience.Private
+public class PendingBatch {
+  private final InFlightLimiter limiter;
+
+  private int outstanding = 0;
+  private Exception failure;
+
+  /**
+   * @param limiter shared in flight budget, released as records are acknowledged
+   */
+  public PendingBatch(InFlightLimiter limiter) {
+    this.limiter = limiter;
+  }
+
+  /**
+   * Send a record, blocking first if the in flight budget is used up.
+   * @param producer the producer to send with
+   * @param record   the record to send
+   * @throws InterruptedException if interrupted waiting for budget
+   */
+  public void send(Producer<byte[], byte[]> producer, ProducerRecord<byte[], byte[]> record)
+    throws InterruptedException {
+    send(producer, record, SendLane.NORMAL);
+  }
+
+  /**
+   * Send a record, blocking first if the in flight budget of its lane is used up.
+   * @param producer the producer to send with
+   * @param record   the record to send
+   * @param lane     lane of the record
+   * @throws InterruptedException if interrupted waiting for budget
+   */
+  public void send(Producer<byte[], byte[]> producer, ProducerRecord<byte[], byte[]> record,
+    SendLane lane) throws InterruptedException {
+    final int size = sizeOf(record);
+    limiter.acquire(size, lane);
+    synchronized (this) {
+      outstanding++;
+    }
+    Callback callback = (RecordMetadata metadata, Exception exception) -> {
+      limiter.release(size, lane);
+      completed(exception);
+    };
+    try {
+      producer.send(record, callback);
+    } catch (RuntimeException e) {
+      // the producer did not take the record, so the callback will never fire
+      limiter.release(size, lane);
+      completed(e);
+      throw e;
+    }
+  }
+
+  private synchronized void completed(Exception exception) {
+    if (exception != null && failure == null) {
+      failure = exception;
+    }
+    outstanding--;
+    if (outstanding == 0) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Wait for every record sent through this batch to be acknowledged.
+   * @throws IOException          if any of the records failed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized void await() throws IOException, InterruptedException {
+    while (outstanding > 0) {
+      wait();
+    }
+    if (failure != null) {
+      throw new IOException("Failed to send replication batch to kafka", failure);
+    }
+  }
+
+  static int sizeOf(ProducerRecord<byte[], byte[]> record) {
+    int size = record.value() == null ? 0 : record.value().length;
+    if (record.key() != null) {
+      size += record.key().length;
+    }
+    return size;
+  }
+}
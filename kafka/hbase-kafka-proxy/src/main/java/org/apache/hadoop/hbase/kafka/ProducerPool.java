@@ -0,0 +1,373 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The kafka producers of a connection, one per {@link ProducerProfile} used by the route rules.
+ * Each profile can be striped over several producers, by topic or by row, so sends are spread over
+ * several sender threads and broker connections instead of queueing behind a single producer; a
+ * topic (or a row) always goes through the same producer, which keeps its records in order.
+ * A replication batch takes a {@link Lease} and gets its producers from it; the lease keeps them
+ * alive until the batch is done. When batching is adaptive the pool feeds what the leases observed
+ * into the {@link BatchingPolicy} and replaces a producer when its settings should change. The
+ * replaced producer is closed once the last batch using it returns, or when the pool is closed.
+ */
+@InterfaceAudience.Private
+public class ProducerPool implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(ProducerPool.class);
+
+  /**
+   * How records are spread over the producers of a profile.
+   */
+  public enum Striping {
+    /** all records of a topic go through the same producer */
+    TOPIC,
+    /** records with the same key (the row, or the table for batch envelopes) share a producer */
+    ROW;
+
+    /**
+     * Parse the value of kafkaproxy.producer.striping.
+     * @param value configured value
+     * @return the striping
+     */
+    public static Striping parse(String value) {
+      return Striping.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+  }
+
+  /**
+   * Creates producers, so tests can run without a broker.
+   */
+  public interface ProducerFactory {
+    Producer<byte[], byte[]> create(Properties properties);
+  }
+
+  private static final class Handle {
+    final ProducerProfile requested;
+    final int stripe;
+    final ProducerProfile effective;
+    final Producer<byte[], byte[]> producer;
+
+    // guarded by the pool
+    int refs = 0;
+    boolean retired = false;
+    long batches = 0;
+    long bytes = 0;
+    long ackNanos = 0;
+    long lastAdaptMs;
+
+    Handle(ProducerProfile requested, int stripe, ProducerProfile effective,
+      Producer<byte[], byte[]> producer) {
+      this.requested = requested;
+      this.stripe = stripe;
+      this.effective = effective;
+      this.producer = producer;
+      this.lastAdaptMs = System.currentTimeMillis();
+    }
+  }
+
+  private final Properties baseProperties;
+  private final ProducerFactory factory;
+  private final BatchingPolicy policy;
+  private final int stripes;
+  private final Striping striping;
+  // set when the pool wraps a single producer that is used for every topic
+  private final Handle fixed;
+  private final Map<ProducerProfile, Handle[]> handles = new HashMap<>();
+  // replaced handles that are still leased
+  private final Set<Handle> retired = new HashSet<>();
+
+  /**
+   * Pool that sends everything through one producer, whatever the rules say.
+   * @param producer the producer
+   */
+  public ProducerPool(Producer<byte[], byte[]> producer) {
+    this.baseProperties = null;
+    this.factory = null;
+    this.policy = null;
+    this.stripes = 1;
+    this.striping = Striping.TOPIC;
+    this.fixed = new Handle(ProducerProfile.DEFAULT, 0, ProducerProfile.DEFAULT, producer);
+  }
+
+  /**
+   * Pool with a single producer per profile.
+   * @param baseProperties producer properties that profiles are applied to
+   * @param factory        creates the producers
+   * @param policy         sizes the settings a profile leaves open
+   */
+  public ProducerPool(Properties baseProperties, ProducerFactory factory, BatchingPolicy policy) {
+    this(baseProperties, factory, policy, 1, Striping.TOPIC);
+  }
+
+  /**
+   * @param baseProperties producer properties that profiles are applied to
+   * @param factory        creates the producers
+   * @param policy         sizes the settings a profile leaves open
+   * @param stripes        number of producers per profile
+   * @param striping       how records are spread over the producers of a profile
+   */
+  public ProducerPool(Properties baseProperties, ProducerFactory factory, BatchingPolicy policy,
+    int stripes, Striping striping) {
+    if (stripes < 1) {
+      throw new IllegalArgumentException("producer pool size must be positive: " + stripes);
+    }
+    this.baseProperties = baseProperties;
+    this.factory = factory;
+    this.policy = policy;
+    this.stripes = stripes;
+    this.striping = striping;
+    this.fixed = null;
+  }
+
+  /**
+   * @return the number of producers per profile
+   */
+  public int getStripes() {
+    return stripes;
+  }
+
+  /**
+   * Pick the producer of a profile a record goes through.
+   * @param record the record
+   * @return stripe in [0, stripes)
+   */
+  int stripeOf(ProducerRecord<byte[], byte[]> record) {
+    if (stripes == 1) {
+      return 0;
+    }
+    int hash;
+    if (striping == Striping.ROW) {
+      hash = record.key() == null ? 0 : Bytes.hashCode(record.key());
+    } else {
+      hash = record.topic().hashCode();
+    }
+    return Math.floorMod(hash, stripes);
+  }
+
+  /**
+   * Start using producers for one replication batch.
+   * @param rules rules that give the profile of each topic
+   * @return the lease, to be closed once the batch was acknowledged
+   */
+  public Lease lease(RoutingTable rules) {
+    return new Lease(rules);
+  }
+
+  private synchronized Handle acquire(ProducerProfile requested, int stripe) {
+    Handle handle = fixed;
+    if (handle == null) {
+      Handle[] profileHandles = handles.get(requested);
+      if (profileHandles == null) {
+        profileHandles = new Handle[stripes];
+        handles.put(requested, profileHandles);
+      }
+      handle = profileHandles[stripe];
+      if (handle == null) {
+        handle = createHandle(requested, stripe, policy.initial(requested));
+        profileHandles[stripe] = handle;
+      }
+    }
+    handle.refs++;
+    return handle;
+  }
+
+  private Handle createHandle(ProducerProfile requested, int stripe, ProducerProfile effective) {
+    Properties properties = effective.apply(baseProperties);
+    String clientId = properties.getProperty(ProducerConfig.CLIENT_ID_CONFIG);
+    if (clientId != null && stripes > 1) {
+      // kafka registers its metrics under the client id, keep the stripes apart
+      properties.put(ProducerConfig.CLIENT_ID_CONFIG, clientId + "-" + stripe);
+    }
+    return new Handle(requested, stripe, effective, factory.create(properties));
+  }
+
+  private void release(Handle handle, long bytes, long ackNanos) {
+    Handle done = null;
+    synchronized (this) {
+      handle.refs--;
+      handle.batches++;
+      handle.bytes += bytes;
+      handle.ackNanos += ackNanos;
+      if (handle != fixed && !handle.retired && policy.isAdaptive()) {
+        adapt(handle);
+      }
+      if (handle.retired && handle.refs == 0 && retired.remove(handle)) {
+        done = handle;
+      }
+    }
+    if (done != null) {
+      // every batch that used it waited for its acks, so this does not block for long
+      done.producer.close();
+    }
+  }
+
+  private void adapt(Handle handle) {
+    long now = System.currentTimeMillis();
+    if (now - handle.lastAdaptMs < policy.getIntervalMs() || handle.batches == 0) {
+      return;
+    }
+    BatchingPolicy.Observations observed =
+      new BatchingPolicy.Observations((double) handle.bytes / handle.batches,
+        handle.ackNanos / 1000000.0 / handle.batches, getCompressionRatio(handle.producer));
+    handle.lastAdaptMs = now;
+    handle.batches = 0;
+    handle.bytes = 0;
+    handle.ackNanos = 0;
+    ProducerProfile next = policy.adapt(handle.requested, handle.effective, observed);
+    if (!next.equals(handle.effective)) {
+      LOG.info("changing producer settings for profile {} from {} to {}", handle.requested,
+        handle.effective, next);
+      handles.get(handle.requested)[handle.stripe] =
+        createHandle(handle.requested, handle.stripe, next);
+      handle.retired = true;
+      retired.add(handle);
+    }
+  }
+
+  private static double getCompressionRatio(Producer<byte[], byte[]> producer) {
+    for (Map.Entry<MetricName, ? extends Metric> entry : producer.metrics().entrySet()) {
+      MetricName name = entry.getKey();
+      boolean compressionRate =
+        "compression-rate-avg".equals(name.name()) && "producer-metrics".equals(name.group());
+      if (compressionRate) {
+        Object value = entry.getValue().metricValue();
+        return value instanceof Double ? (Double) value : Double.NaN;
+      }
+    }
+    return Double.NaN;
+  }
+
+  private synchronized List<Producer<byte[], byte[]>> getProducers() {
+    List<Producer<byte[], byte[]>> ret = new ArrayList<>();
+    if (fixed != null) {
+      ret.add(fixed.producer);
+    }
+    for (Handle[] profileHandles : handles.values()) {
+      for (Handle handle : profileHandles) {
+        if (handle != null) {
+          ret.add(handle.producer);
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Flush every producer of the pool.
+   */
+  public void flush() {
+    for (Producer<byte[], byte[]> producer : getProducers()) {
+      producer.flush();
+    }
+  }
+
+  @Override
+  public void close() {
+    List<Producer<byte[], byte[]>> producers = getProducers();
+    synchronized (this) {
+      // a batch still holding a replaced producer will not get to close it
+      for (Handle handle : retired) {
+        producers.add(handle.producer);
+      }
+      retired.clear();
+    }
+    for (Producer<byte[], byte[]> producer : producers) {
+      producer.close();
+    }
+  }
+
+  /**
+   * The producers used by one replication batch.
+   */
+  public final class Lease implements AutoCloseable {
+    private final RoutingTable rules;
+    private final Map<ProducerProfile, Handle[]> held = new HashMap<>();
+    private final Map<Handle, long[]> sentBytes = new LinkedHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    private Lease(RoutingTable rules) {
+      this.rules = rules;
+    }
+
+    /**
+     * Get the producer to send a record with.
+     * @param record record about to be sent
+     * @return the producer for the topic of the record
+     */
+    public Producer<byte[], byte[]> producerFor(ProducerRecord<byte[], byte[]> record) {
+      ProducerProfile profile = rules.getProducerProfile(record.topic());
+      int stripe = stripeOf(record);
+      Handle[] profileHandles = held.get(profile);
+      if (profileHandles == null) {
+        profileHandles = new Handle[stripes];
+        held.put(profile, profileHandles);
+      }
+      Handle handle = profileHandles[stripe];
+      if (handle == null) {
+        handle = acquire(profile, stripe);
+        profileHandles[stripe] = handle;
+        sentBytes.put(handle, new long[1]);
+      }
+      sentBytes.get(handle)[0] += PendingBatch.sizeOf(record);
+      return handle.producer;
+    }
+
+    /**
+     * @return the producers handed out by this lease
+     */
+    public Collection<Producer<byte[], byte[]>> getProducers() {
+      List<Producer<byte[], byte[]>> ret = new ArrayList<>(sentBytes.size());
+      for (Handle handle : sentBytes.keySet()) {
+        ret.add(handle.producer);
+      }
+      return ret;
+    }
+
+    @Override
+    public void close() {
+      long ackNanos = System.nanoTime() - startNanos;
+      for (Map.Entry<Handle, long[]> entry : sentBytes.entrySet()) {
+        release(entry.getKey(), entry.getValue()[0], ackNanos);
+      }
+      held.clear();
+      sentBytes.clear();
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.Objects;
+import java.util.Properties;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * The producer batching settings of a topic, taken from the compression, lingerMs and batchSize
+ * attributes of a route rule. A null value means the setting is not fixed by the rule; it then
+ * comes from the kafka properties, or from the {@link BatchingPolicy} when batching is adaptive.
+ * Topics with equal profiles share producers.
+ */
+@InterfaceAudience.Private
+public final class ProducerProfile {
+  /** compression value that lets the {@link BatchingPolicy} pick the compression */
+  public static final String AUTO = "auto";
+
+  /** profile of topics whose rules don't set anything */
+  public static final ProducerProfile DEFAULT = new ProducerProfile(null, null, null);
+
+  private final String compression;
+  private final Integer lingerMs;
+  private final Integer batchSize;
+  private final SendLane lane;
+
+  public ProducerProfile(String compression, Integer lingerMs, Integer batchSize) {
+    this(compression, lingerMs, batchSize, SendLane.NORMAL);
+  }
+
+  public ProducerProfile(String compression, Integer lingerMs, Integer batchSize, SendLane lane) {
+    this.compression = compression;
+    this.lingerMs = lingerMs;
+    this.batchSize = batchSize;
+    this.lane = lane;
+  }
+
+  public String getCompression() {
+    return compression;
+  }
+
+  public Integer getLingerMs() {
+    return lingerMs;
+  }
+
+  public Integer getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @return the lane of the topics, profiles that only differ in it still get other producers
+   */
+  public SendLane getLane() {
+    return lane;
+  }
+
+  /**
+   * @return true if the compression is picked at runtime
+   */
+  public boolean isAutoCompression() {
+    return AUTO.equals(compression);
+  }
+
+  /**
+   * Copy the base producer properties and set what this profile fixes.
+   * @param base base producer properties
+   * @return properties for a producer of this profile
+   */
+  public Properties apply(Properties base) {
+    Properties ret = new Properties();
+    ret.putAll(base);
+    if (compression != null && !isAutoCompression()) {
+      ret.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
+    }
+    if (lingerMs != null) {
+      ret.put(ProducerConfig.LINGER_MS_CONFIG, Integer.toString(lingerMs));
+    }
+    if (batchSize != null) {
+      ret.put(ProducerConfig.BATCH_SIZE_CONFIG, Integer.toString(batchSize));
+    }
+    return ret;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ProducerProfile)) {
+      return false;
+    }
+    ProducerProfile other = (ProducerProfile) obj;
+    return Objects.equals(compression, other.compression)
+      && Objects.equals(lingerMs, other.lingerMs) && Objects.equals(batchSize, other.batchSize)
+      && lane == other.lane;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(compression, lingerMs, batchSize, lane);
+  }
+
+  @Override
+  public String toString() {
+    return "compression=" + compression + ", lingerMs=" + lingerMs + ", batchSize=" + batchSize
+      + ", lane=" + lane;
+  }
+}
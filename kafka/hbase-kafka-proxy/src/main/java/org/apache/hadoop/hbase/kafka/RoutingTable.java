@@ -0,0 +1,503 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.yetus.audience.InterfaceAudience;
+
+import org.apache.hbase.thirdparty.com.google.common.cache.Cache;
+import org.apache.hbase.thirdparty.com.google.common.cache.CacheBuilder;
+
+/**
+ * The drop and route rules compiled into an index. Rules are keyed on their exact table and column
+ * family, qualifier prefixes go into a trie and qualifier suffixes into a reversed trie, and the
+ * glob and regex patterns of a level are compiled into one {@link ByteAutomaton}, so finding the
+ * rules that match a cell does not depend on how many rules there are. Resolved decisions are
+ * memoized in a bounded cache. A RoutingTable is immutable once built and safe to share between
+ * threads.
+ */
+@InterfaceAudience.Private
+public class RoutingTable {
+
+  /**
+   * What to do with a cell: drop it, or send it to the listed topics (none if no rule matched),
+   * with the value transform of the rule that routed it to each topic.
+   */
+  public static final class Decision {
+    static final Decision DROP = new Decision(true, Collections.emptyList(), null);
+    static final Decision NO_TOPICS = new Decision(false, Collections.emptyList(), null);
+
+    private final boolean drop;
+    private final List<String> topics;
+    // parallel to topics, null when no rule of the decision has a transform
+    private final List<ValueTransform> transforms;
+
+    private Decision(boolean drop, List<String> topics, List<ValueTransform> transforms) {
+      this.drop = drop;
+      this.topics = topics;
+      this.transforms = transforms;
+    }
+
+    public boolean isDrop() {
+      return drop;
+    }
+
+    /**
+     * @return the (unmodifiable) topics, in rule order
+     */
+    public List<String> getTopics() {
+      return topics;
+    }
+
+    /**
+     * @return if the value sent to any of the topics is transformed
+     */
+    public boolean hasTransforms() {
+      return transforms != null;
+    }
+
+    /**
+     * @param index index of the topic in {@link #getTopics()}
+     * @return the transform of the value sent to the topic, null if it is sent as it is
+     */
+    public ValueTransform getTransform(int index) {
+      return transforms == null ? null : transforms.get(index);
+    }
+  }
+
+  private final RuleIndex dropIndex;
+  private final RuleIndex routeIndex;
+  private final List<DropRule> dropRules;
+  private final List<TopicRule> routeRules;
+  private final Map<String, ProducerProfile> producerProfiles = new HashMap<>();
+  private final Map<String, TopicThrottle.Limit> rateLimits = new HashMap<>();
+  // true if any topic is in a lane other than the normal one
+  private final boolean laned;
+  private final Cache<DecisionKey, Decision> decisions;
+
+  /**
+   * Compile a rule set.
+   * @param dropRules  the drop rules
+   * @param routeRules the route rules
+   * @param cacheSize  maximum number of memoized decisions, 0 to disable memoization
+   */
+  public RoutingTable(List<DropRule> dropRules, List<TopicRule> routeRules, long cacheSize) {
+    this.dropIndex = new RuleIndex(dropRules);
+    this.routeIndex = new RuleIndex(routeRules);
+    this.dropRules = Collections.unmodifiableList(new ArrayList<>(dropRules));
+    this.routeRules = Collections.unmodifiableList(new ArrayList<>(routeRules));
+    for (TopicRule rule : routeRules) {
+      if (!ProducerProfile.DEFAULT.equals(rule.getProducerProfile())) {
+        for (String topic : rule.getTopics()) {
+          // the first rule that sets a profile for a topic wins
+          producerProfiles.putIfAbsent(topic, rule.getProducerProfile());
+        }
+      }
+      if (rule.getRateLimit() != null) {
+        for (String topic : rule.getTopics()) {
+          // as for profiles, the first rule that limits a topic wins
+          rateLimits.putIfAbsent(topic, rule.getRateLimit());
+        }
+      }
+    }
+    this.laned = producerProfiles.values().stream()
+      .anyMatch((profile) -> profile.getLane() != SendLane.NORMAL);
+    if (cacheSize > 0) {
+      this.decisions = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    } else {
+      this.decisions = null;
+    }
+  }
+
+  /**
+   * Decide what to do with a cell.
+   * @param table           table name of the cell
+   * @param family          column family of the cell
+   * @param qualifierArray  array holding the qualifier
+   * @param qualifierOffset offset of the qualifier
+   * @param qualifierLength length of the qualifier
+   * @return the decision for the cell
+   */
+  public Decision route(TableName table, byte[] family, byte[] qualifierArray, int qualifierOffset,
+    int qualifierLength) {
+    if (decisions == null) {
+      return resolve(table, family, qualifierArray, qualifierOffset, qualifierLength);
+    }
+    DecisionKey probe =
+      new DecisionKey(table, family, qualifierArray, qualifierOffset, qualifierLength);
+    Decision ret = decisions.getIfPresent(probe);
+    if (ret == null) {
+      ret = resolve(table, family, qualifierArray, qualifierOffset, qualifierLength);
+      // the probe points into the caller's arrays, keep a private copy in the cache
+      decisions.put(probe.copy(), ret);
+    }
+    return ret;
+  }
+
+  /**
+   * @return the (unmodifiable) drop rules this table was compiled from
+   */
+  public List<DropRule> getDropRules() {
+    return dropRules;
+  }
+
+  /**
+   * @return the (unmodifiable) route rules this table was compiled from
+   */
+  public List<TopicRule> getRouteRules() {
+    return routeRules;
+  }
+
+  /**
+   * Get the producer batching settings of a topic.
+   * @param topic the topic
+   * @return the profile of the first route rule that sets one for the topic, or the default
+   */
+  public ProducerProfile getProducerProfile(String topic) {
+    ProducerProfile ret = producerProfiles.get(topic);
+    return ret != null ? ret : ProducerProfile.DEFAULT;
+  }
+
+  /**
+   * @param topic the topic
+   * @return the lane the records of the topic are sent in
+   */
+  public SendLane getLane(String topic) {
+    return getProducerProfile(topic).getLane();
+  }
+
+  /**
+   * @return true if any rule puts its topics in a lane other than {@link SendLane#NORMAL}
+   */
+  public boolean hasLanes() {
+    return laned;
+  }
+
+  /**
+   * @return true if any rule limits the rate of its topics
+   */
+  public boolean hasRateLimits() {
+    return !rateLimits.isEmpty();
+  }
+
+  /**
+   * @param topic the topic
+   * @return the rate limit of the first route rule that sets one for the topic, null if the topic
+   *         is not limited
+   */
+  public TopicThrottle.Limit getRateLimit(String topic) {
+    return rateLimits.get(topic);
+  }
+
+  private Decision resolve(TableName table, byte[] family, byte[] qualifierArray,
+    int qualifierOffset, int qualifierLength) {
+    BitSet matched = new BitSet();
+    dropIndex.collect(table, family, qualifierArray, qualifierOffset, qualifierLength, matched);
+    if (!matched.isEmpty()) {
+      return Decision.DROP;
+    }
+    return resolveRoute(table, family, qualifierArray, qualifierOffset, qualifierLength);
+  }
+
+  /**
+   * Find the topics of the route rules that match a cell, whether or not a drop rule matches it
+   * too. Unlike {@link #route(TableName, byte[], byte[], int, int)} the result is not memoized.
+   * @param table           table name of the cell
+   * @param family          column family of the cell
+   * @param qualifierArray  array holding the qualifier
+   * @param qualifierOffset offset of the qualifier
+   * @param qualifierLength length of the qualifier
+   * @return the (unmodifiable) topics, in rule order
+   */
+  public List<String> getTopics(TableName table, byte[] family, byte[] qualifierArray,
+    int qualifierOffset, int qualifierLength) {
+    return resolveRoute(table, family, qualifierArray, qualifierOffset, qualifierLength)
+      .getTopics();
+  }
+
+  private Decision resolveRoute(TableName table, byte[] family, byte[] qualifierArray,
+    int qualifierOffset, int qualifierLength) {
+    BitSet matched = new BitSet();
+    routeIndex.collect(table, family, qualifierArray, qualifierOffset, qualifierLength, matched);
+    if (matched.isEmpty()) {
+      return Decision.NO_TOPICS;
+    }
+    List<String> topics = new ArrayList<>();
+    List<ValueTransform> transforms = new ArrayList<>();
+    boolean transformed = false;
+    for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+      TopicRule rule = routeRules.get(i);
+      for (String topic : rule.getTopics()) {
+        topics.add(topic);
+        transforms.add(rule.getTransform());
+      }
+      transformed |= rule.getTransform() != null;
+    }
+    return new Decision(false, Collections.unmodifiableList(topics),
+      transformed ? transforms : null);
+  }
+
+  /**
+   * Rules of one kind, indexed by table, then column family, then qualifier.
+   */
+  private static final class RuleIndex {
+    private final Map<TableName, FamilyIndex> tables = new HashMap<>();
+    private final FamilyIndex anyTable = new FamilyIndex();
+
+    RuleIndex(List<? extends Rule> rules) {
+      for (int i = 0; i < rules.size(); i++) {
+        Rule rule = rules.get(i);
+        FamilyIndex families = rule.getTableName() == null
+          ? anyTable
+          : tables.computeIfAbsent(rule.getTableName(), (t) -> new FamilyIndex());
+        families.get(rule).add(rule, i);
+      }
+      anyTable.compile();
+      for (FamilyIndex families : tables.values()) {
+        families.compile();
+      }
+    }
+
+    void collect(TableName table, byte[] family, byte[] qualifierArray, int qualifierOffset,
+      int qualifierLength, BitSet out) {
+      anyTable.collect(family, qualifierArray, qualifierOffset, qualifierLength, out);
+      FamilyIndex families = tables.get(table);
+      if (families != null) {
+        families.collect(family, qualifierArray, qualifierOffset, qualifierLength, out);
+      }
+    }
+  }
+
+  private static final class FamilyIndex {
+    private final Map<byte[], QualifierIndex> families = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+    private final QualifierIndex anyFamily = new QualifierIndex();
+    // families given as a pattern, in the order the patterns were first seen
+    private final Map<ByteAutomaton.Pattern, QualifierIndex> familyPatterns =
+      new LinkedHashMap<>();
+    private QualifierIndex[] patternQualifiers;
+    private PatternMatcher patternMatcher;
+
+    QualifierIndex get(Rule rule) {
+      if (rule.getColumnFamilyPattern() != null) {
+        return familyPatterns.computeIfAbsent(rule.getColumnFamilyPattern(),
+          (p) -> new QualifierIndex());
+      }
+      return rule.getColumnFamily() == null
+        ? anyFamily
+        : families.computeIfAbsent(rule.getColumnFamily(), (f) -> new QualifierIndex());
+    }
+
+    void compile() {
+      anyFamily.compile();
+      for (QualifierIndex qualifiers : families.values()) {
+        qualifiers.compile();
+      }
+      patternQualifiers = familyPatterns.values().toArray(new QualifierIndex[0]);
+      for (QualifierIndex qualifiers : patternQualifiers) {
+        qualifiers.compile();
+      }
+      List<ByteAutomaton.Pattern> patterns = new ArrayList<>(familyPatterns.keySet());
+      int[] ordinals = new int[patterns.size()];
+      for (int i = 0; i < ordinals.length; i++) {
+        ordinals[i] = i;
+      }
+      patternMatcher = PatternMatcher.compile(patterns, ordinals);
+    }
+
+    void collect(byte[] family, byte[] qualifierArray, int qualifierOffset, int qualifierLength,
+      BitSet out) {
+      anyFamily.collect(qualifierArray, qualifierOffset, qualifierLength, out);
+      QualifierIndex qualifiers = families.get(family);
+      if (qualifiers != null) {
+        qualifiers.collect(qualifierArray, qualifierOffset, qualifierLength, out);
+      }
+      if (patternMatcher != null) {
+        BitSet matched = new BitSet();
+        patternMatcher.collect(family, 0, family.length, matched);
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+          patternQualifiers[i].collect(qualifierArray, qualifierOffset, qualifierLength, out);
+        }
+      }
+    }
+  }
+
+  /**
+   * The patterns of one index level, compiled into a single automaton. Patterns that together need
+   * too many states are matched one after the other instead.
+   */
+  private static final class PatternMatcher {
+    private final ByteAutomaton automaton;
+    private final ByteAutomaton.Pattern[] patterns;
+    private final int[] ordinals;
+
+    private PatternMatcher(ByteAutomaton automaton, ByteAutomaton.Pattern[] patterns,
+      int[] ordinals) {
+      this.automaton = automaton;
+      this.patterns = patterns;
+      this.ordinals = ordinals;
+    }
+
+    /**
+     * @return the matcher, null if there are no patterns
+     */
+    static PatternMatcher compile(List<ByteAutomaton.Pattern> patterns, int[] ordinals) {
+      if (patterns.isEmpty()) {
+        return null;
+      }
+      ByteAutomaton.Builder builder = new ByteAutomaton.Builder();
+      for (int i = 0; i < ordinals.length; i++) {
+        builder.add(patterns.get(i), ordinals[i]);
+      }
+      ByteAutomaton automaton;
+      try {
+        automaton = builder.build();
+      } catch (IllegalStateException e) {
+        automaton = null;
+      }
+      return new PatternMatcher(automaton, patterns.toArray(new ByteAutomaton.Pattern[0]),
+        ordinals);
+    }
+
+    void collect(byte[] data, int offset, int length, BitSet out) {
+      if (automaton != null) {
+        automaton.collect(data, offset, length, out);
+        return;
+      }
+      for (int i = 0; i < patterns.length; i++) {
+        if (patterns[i].matches(data, offset, length)) {
+          out.set(ordinals[i]);
+        }
+      }
+    }
+  }
+
+  private static final class QualifierIndex {
+    private final BitSet anyQualifier = new BitSet();
+    // exact matches and prefixes (foo*)
+    private final ByteTrie forward = new ByteTrie(false);
+    // suffixes (*foo)
+    private final ByteTrie backward = new ByteTrie(true);
+    // globs and regexes
+    private final List<ByteAutomaton.Pattern> patterns = new ArrayList<>();
+    private final List<Integer> patternOrdinals = new ArrayList<>();
+    private PatternMatcher patternMatcher;
+
+    void add(Rule rule, int ordinal) {
+      if (rule.getQualifierPattern() != null) {
+        patterns.add(rule.getQualifierPattern());
+        patternOrdinals.add(ordinal);
+        return;
+      }
+      byte[] qualifier = rule.getQualifier();
+      if (qualifier == null) {
+        anyQualifier.set(ordinal);
+        return;
+      }
+      if (!rule.isQualifierStartsWith() && !rule.isQualifierEndsWith()) {
+        forward.add(qualifier, ordinal, true);
+        return;
+      }
+      // *foo* matches qualifiers that start or end with foo, see Rule#qualifierMatch
+      if (rule.isQualifierStartsWith()) {
+        forward.add(qualifier, ordinal, false);
+      }
+      if (rule.isQualifierEndsWith()) {
+        backward.add(qualifier, ordinal, false);
+      }
+    }
+
+    void collect(byte[] qualifierArray, int qualifierOffset, int qualifierLength, BitSet out) {
+      out.or(anyQualifier);
+      forward.collect(qualifierArray, qualifierOffset, qualifierLength, out);
+      backward.collect(qualifierArray, qualifierOffset, qualifierLength, out);
+      if (patternMatcher != null) {
+        patternMatcher.collect(qualifierArray, qualifierOffset, qualifierLength, out);
+      }
+    }
+
+    void compile() {
+      int[] ordinals = new int[patternOrdinals.size()];
+      for (int i = 0; i < ordinals.length; i++) {
+        ordinals[i] = patternOrdinals.get(i);
+      }
+      patternMatcher = PatternMatcher.compile(patterns, ordinals);
+    }
+  }
+
+  /**
+   * Cache key. A probe references the caller's arrays; {@link #copy()} makes a key that is safe to
+   * keep.
+   */
+  private static final class DecisionKey {
+    private final TableName table;
+    private final byte[] family;
+    private final byte[] qualifierArray;
+    private final int qualifierOffset;
+    private final int qualifierLength;
+    private final int hash;
+
+    DecisionKey(TableName table, byte[] family, byte[] qualifierArray, int qualifierOffset,
+      int qualifierLength) {
+      this.table = table;
+      this.family = family;
+      this.qualifierArray = qualifierArray;
+      this.qualifierOffset = qualifierOffset;
+      this.qualifierLength = qualifierLength;
+      int h = table.hashCode();
+      h = 31 * h + Bytes.hashCode(family);
+      h = 31 * h + Bytes.hashCode(qualifierArray, qualifierOffset, qualifierLength);
+      this.hash = h;
+    }
+
+    DecisionKey copy() {
+      return new DecisionKey(table, Arrays.copyOf(family, family.length),
+        Arrays.copyOfRange(qualifierArray, qualifierOffset, qualifierOffset + qualifierLength), 0,
+        qualifierLength);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof DecisionKey)) {
+        return false;
+      }
+      DecisionKey other = (DecisionKey) obj;
+      return hash == other.hash && table.equals(other.table)
+        && Bytes.equals(family, other.family)
+        && Bytes.equals(qualifierArray, qualifierOffset, qualifierLength, other.qualifierArray,
+          other.qualifierOffset, other.qualifierLength);
+    }
+  }
+}
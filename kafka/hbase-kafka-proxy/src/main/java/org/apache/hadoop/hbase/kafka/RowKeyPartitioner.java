@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import org.apache.kafka.common.utils.Utils;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Partitions on the murmur2 hash of the exact record key, the same way the default kafka
+ * partitioner does for keyed records, so consumers can compute the partition of a row themselves.
+ * Unlike leaving it to the producer this does not change when the kafka properties configure a
+ * different partitioner.
+ */
+@InterfaceAudience.Private
+public class RowKeyPartitioner implements RowPartitioner {
+  @Override
+  public int partition(String topic, byte[] table, byte[] key, int numPartitions) {
+    return Utils.toPositive(Utils.murmur2(key)) % numPartitions;
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Picks the kafka partition of the records the proxy sends. The key is the row of a mutation (or
+ * the table for batch envelopes), so as long as the partition only depends on the table and the
+ * key, every cell of a mutation lands in the same partition, in the order of the mutation.
+ * Implementations need a public no argument constructor and must be thread safe.
+ */
+@InterfaceAudience.Private
+public interface RowPartitioner {
+  /**
+   * @param topic         topic of the record
+   * @param table         table name bytes
+   * @param key           key of the record
+   * @param numPartitions number of partitions of the topic, always positive
+   * @return the partition, in [0, numPartitions)
+   */
+  int partition(String topic, byte[] table, byte[] key, int numPartitions);
+}
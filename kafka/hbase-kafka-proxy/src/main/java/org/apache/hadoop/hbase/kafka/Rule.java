@@ -30,6 +30,9 @@ public abstract class Rule {
   TableName tableName;
   private byte[] columnFamily;
   private byte[] qualifier;
+  // glob or regex, instead of columnFamily or qualifier
+  private ByteAutomaton.Pattern columnFamilyPattern;
+  private ByteAutomaton.Pattern qualifierPattern;
 
   boolean qualifierStartsWith = false;
   boolean qualifierEndsWith = false;
@@ -57,7 +60,9 @@ public abstract class Rule {
    * @return true if the qualifier matches
    */
   public boolean qualifierMatch(byte[] tryQualifier) {
-
+    if (qualifierPattern != null) {
+      return qualifierPattern.matches(tryQualifier);
+    }
     if (qualifier != null) {
       if (qualifierStartsWith && qualifierEndsWith) {
         return (startsWith(tryQualifier, this.qualifier) || endsWith(tryQualifier, this.qualifier));
@@ -78,6 +83,9 @@ public abstract class Rule {
    * @return true if the column family matches the rule
    */
   public boolean columnFamilyMatch(byte[] tryColumFamily) {
+    if (columnFamilyPattern != null) {
+      return columnFamilyPattern.matches(tryColumFamily);
+    }
     if (columnFamily != null) {
       return Bytes.equals(this.columnFamily, tryColumFamily);
     }
@@ -126,6 +134,22 @@ public abstract class Rule {
 
   }
 
+  /**
+   * set a glob or regex the column family has to match, instead of a column family
+   * @param columnFamilyPattern compiled pattern
+   */
+  public void setColumnFamilyPattern(ByteAutomaton.Pattern columnFamilyPattern) {
+    this.columnFamilyPattern = columnFamilyPattern;
+  }
+
+  /**
+   * set a glob or regex the qualifier has to match, instead of a qualifier
+   * @param qualifierPattern compiled pattern
+   */
+  public void setQualifierPattern(ByteAutomaton.Pattern qualifierPattern) {
+    this.qualifierPattern = qualifierPattern;
+  }
+
   /**
    * Tests if data starts with startsWith
    * @param data       byte array to test
@@ -199,6 +223,22 @@ public abstract class Rule {
     return columnFamily;
   }
 
+  /**
+   * get the column family pattern for the rule
+   * @return the pattern, null if the rule has none
+   */
+  public ByteAutomaton.Pattern getColumnFamilyPattern() {
+    return columnFamilyPattern;
+  }
+
+  /**
+   * get the qualifier pattern for the rule
+   * @return the pattern, null if the rule has none
+   */
+  public ByteAutomaton.Pattern getQualifierPattern() {
+    return qualifierPattern;
+  }
+
   /**
    * get the qualifier for the rule
    */
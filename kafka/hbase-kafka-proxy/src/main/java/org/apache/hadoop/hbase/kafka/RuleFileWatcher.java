@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reloads the route rules when their file changes. The directory of the file is watched, so
+ * replacing the file (writing a new one and renaming it over the old one) is picked up as well as
+ * editing it in place. After a change the watcher waits for the file to settle before it reloads.
+ * A file that does not parse is logged and the current rules are kept; the next change is tried
+ * again.
+ */
+@InterfaceAudience.Private
+public class RuleFileWatcher implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(RuleFileWatcher.class);
+
+  private final TopicRoutingRules rules;
+  private final Path file;
+  private final long quietPeriodMs;
+  private final WatchService watchService;
+  private final Thread thread;
+  private volatile boolean closed = false;
+
+  /**
+   * @param rules         rules loaded from a file
+   * @param quietPeriodMs how long the file has to stay unchanged before it is reloaded
+   * @throws IOException if the directory of the file can't be watched
+   */
+  public RuleFileWatcher(TopicRoutingRules rules, long quietPeriodMs) throws IOException {
+    File source = rules.getSourceFile();
+    if (source == null) {
+      throw new IllegalArgumentException("the rules were not loaded from a file");
+    }
+    this.rules = rules;
+    this.file = source.toPath().toAbsolutePath();
+    this.quietPeriodMs = quietPeriodMs;
+    Path dir = file.getParent();
+    this.watchService = dir.getFileSystem().newWatchService();
+    dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+      StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(this::watch, "kafkaproxy-rule-watcher");
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Start watching.
+   */
+  public void start() {
+    thread.start();
+  }
+
+  private void watch() {
+    try {
+      while (!closed) {
+        if (!isChanged(watchService.take())) {
+          continue;
+        }
+        // editors and copies write the file in several steps, wait until it stays unchanged
+        WatchKey key = watchService.poll(quietPeriodMs, TimeUnit.MILLISECONDS);
+        while (key != null) {
+          isChanged(key);
+          key = watchService.poll(quietPeriodMs, TimeUnit.MILLISECONDS);
+        }
+        reload();
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // closed
+    }
+  }
+
+  private boolean isChanged(WatchKey key) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      // on overflow the events are lost, reload to be safe
+      changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+        || file.getFileName().equals(event.context());
+    }
+    if (!key.reset()) {
+      LOG.warn("{} can no longer be watched, route rules will not be reloaded", file.getParent());
+      closed = true;
+    }
+    return changed;
+  }
+
+  /**
+   * Reload the rules, keeping the current ones if the file can't be loaded.
+   * @return true if the rules were reloaded
+   */
+  boolean reload() {
+    try {
+      rules.reloadIfFile();
+      LOG.info("reloaded route rules from {}: {} drop rules, {} route rules", file,
+        rules.getDropRules().size(), rules.getRouteRules().size());
+      return true;
+    } catch (Exception e) {
+      LOG.error("failed to reload route rules from {}, keeping the current rules", file, e);
+      return false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    watchService.close();
+    thread.interrupt();
+  }
+}
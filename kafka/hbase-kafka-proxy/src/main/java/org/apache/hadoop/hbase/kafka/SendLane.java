@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.Locale;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Priority of the topics of a rule. Each lane has producers and an in flight budget of its own, so
+ * a backed up bulk topic neither fills the producer buffers nor takes the budget that latency
+ * sensitive topics need, and the records of a batch are handed to kafka lane by lane, high first.
+ */
+@InterfaceAudience.Private
+public enum SendLane {
+  HIGH,
+  NORMAL,
+  LOW;
+
+  /**
+   * Parse the priority attribute of a rule.
+   * @param value configured value
+   * @return the lane
+   */
+  public static SendLane parse(String value) {
+    return SendLane.valueOf(value.trim().toUpperCase(Locale.ROOT));
+  }
+}
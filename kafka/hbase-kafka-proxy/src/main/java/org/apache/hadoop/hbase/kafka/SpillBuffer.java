@@ -0,0 +1,250 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.ApiException;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Absorbs replication batches in a {@link SpillLog} while kafka is slow or unavailable, so the
+ * replication sources keep shipping instead of piling up their queues. A batch is spilled when
+ * sending it failed; after a failure, or after a batch took longer than the latency threshold to be
+ * acknowledged, the following batches are spilled without trying kafka for the retry period. As
+ * long as the log is not empty every batch goes to the log, behind the ones already there, so the
+ * batches of a replication source stay in order. A drainer thread sends the spilled batches to
+ * kafka in order, and removes each one once it was acknowledged; a batch that fails is tried again
+ * after the retry period. A batch kafka refuses with an error that sending it again cannot fix (a
+ * record too large, a serialization or authorization error) is not spilled, and is dropped from
+ * the log when draining it, so it does not hold back the batches behind it forever. When the log
+ * is full batches fail as they would without it.
+ */
+@InterfaceAudience.Private
+public class SpillBuffer implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(SpillBuffer.class);
+
+  /**
+   * Sends a spilled batch to kafka.
+   */
+  public interface Sender {
+    /**
+     * @param table   table the records were encoded from
+     * @param records the records of the batch
+     * @throws IOException if the batch could not be sent
+     */
+    void send(TableName table, List<ProducerRecord<byte[], byte[]>> records)
+      throws IOException, InterruptedException;
+  }
+
+  private final SpillLog log;
+  private final long latencyThresholdNanos;
+  private final long retryMs;
+  private final Sender sender;
+  private final KafkaProxyMetrics metrics;
+  private final Thread drainer;
+  private volatile boolean closed = false;
+
+  // guarded by this, kafka is not tried directly until then
+  private long degradedUntilMs = 0;
+
+  /**
+   * @param log                the log to spill to
+   * @param latencyThresholdMs acknowledgement time above which batches are spilled
+   * @param retryMs            how long to spill without trying kafka, and to wait between drain
+   *                           attempts
+   * @param sender             sends the spilled batches
+   * @param metrics            metrics of the proxy
+   */
+  public SpillBuffer(SpillLog log, long latencyThresholdMs, long retryMs, Sender sender,
+    KafkaProxyMetrics metrics) {
+    this.log = log;
+    this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs);
+    this.retryMs = retryMs;
+    this.sender = sender;
+    this.metrics = metrics;
+    this.drainer = new Thread(this::drain, "kafkaproxy-spill-drainer");
+    this.drainer.setDaemon(true);
+    metrics.spillUpdated(log.getPendingEntries(), log.getPendingBytes());
+  }
+
+  /**
+   * Start draining.
+   */
+  public void start() {
+    drainer.start();
+  }
+
+  /**
+   * Spill a batch if it must not be sent to kafka directly: the log has batches it has to go after,
+   * or kafka was found degraded recently.
+   * @param table   table the records were encoded from
+   * @param records the records of the batch
+   * @return true if the batch was spilled, false if it has to be sent
+   * @throws IOException if the batch has to be spilled and the log is full
+   */
+  public synchronized boolean offer(TableName table, List<ProducerRecord<byte[], byte[]>> records)
+    throws IOException {
+    if (log.isEmpty() && System.currentTimeMillis() >= degradedUntilMs) {
+      return false;
+    }
+    append(table, records);
+    return true;
+  }
+
+  /**
+   * Spill a batch that failed to send.
+   * @param table   table the records were encoded from
+   * @param records the records of the batch
+   * @param cause   why the batch failed
+   * @throws IOException if the failure cannot be fixed by sending the batch again, or the log is
+   *                     full, with the failure of the batch as its cause
+   */
+  public synchronized void spill(TableName table, List<ProducerRecord<byte[], byte[]>> records,
+    Exception cause) throws IOException {
+    if (!isRetriable(cause)) {
+      // the batch fails as it would without the log, kafka is not degraded
+      throw new IOException("kafka refused the replication batch", cause);
+    }
+    if (System.currentTimeMillis() >= degradedUntilMs) {
+      LOG.warn("sending to kafka failed, spilling batches for at least {} ms", retryMs, cause);
+    }
+    degrade();
+    try {
+      append(table, records);
+    } catch (IOException e) {
+      e.addSuppressed(cause);
+      throw e;
+    }
+  }
+
+  /**
+   * Account for a batch that was sent to kafka directly.
+   * @param ackNanos time until the batch was acknowledged
+   */
+  public synchronized void sent(long ackNanos) {
+    if (ackNanos > latencyThresholdNanos) {
+      if (System.currentTimeMillis() >= degradedUntilMs) {
+        LOG.warn("kafka took {} ms to acknowledge a batch, spilling batches for at least {} ms",
+          TimeUnit.NANOSECONDS.toMillis(ackNanos), retryMs);
+      }
+      degrade();
+    }
+  }
+
+  /**
+   * @param failure why sending a batch failed
+   * @return false if kafka refused the batch with an error that sending it again cannot fix
+   */
+  static boolean isRetriable(Throwable failure) {
+    for (Throwable t = failure; t != null; t = t.getCause()) {
+      if (t instanceof RetriableException) {
+        return true;
+      }
+      if (t instanceof ApiException || t instanceof SerializationException) {
+        return false;
+      }
+    }
+    // unavailable brokers and timeouts, or not a kafka error at all
+    return true;
+  }
+
+  private void degrade() {
+    degradedUntilMs = System.currentTimeMillis() + retryMs;
+  }
+
+  private void append(TableName table, List<ProducerRecord<byte[], byte[]>> records)
+    throws IOException {
+    if (!log.append(table, records)) {
+      throw new IOException("spill log is full, " + log.getPendingEntries() + " batches of "
+        + log.getPendingBytes() + " bytes wait for kafka");
+    }
+    metrics.spilled();
+    metrics.spillUpdated(log.getPendingEntries(), log.getPendingBytes());
+    notifyAll();
+  }
+
+  private void drain() {
+    try {
+      while (!closed) {
+        SpillLog.Entry entry;
+        synchronized (this) {
+          try {
+            entry = log.peek();
+          } catch (IOException e) {
+            LOG.warn("failed to read the spill log, trying again in {} ms", retryMs, e);
+            wait(retryMs);
+            continue;
+          }
+          if (entry == null) {
+            wait(retryMs);
+            continue;
+          }
+        }
+        try {
+          sender.send(entry.getTable(), entry.getRecords());
+        } catch (IOException | RuntimeException e) {
+          if (!isRetriable(e)) {
+            LOG.error("kafka refused a spilled batch of {} records of {}, dropping it",
+              entry.getRecords().size(), entry.getTable(), e);
+            synchronized (this) {
+              log.remove(entry);
+              metrics.spillDropped();
+              metrics.spillUpdated(log.getPendingEntries(), log.getPendingBytes());
+            }
+            continue;
+          }
+          LOG.warn("failed to send a spilled batch to kafka, trying again in {} ms", retryMs, e);
+          synchronized (this) {
+            degrade();
+            wait(retryMs);
+          }
+          continue;
+        }
+        synchronized (this) {
+          log.remove(entry);
+          metrics.spillUpdated(log.getPendingEntries(), log.getPendingBytes());
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    drainer.interrupt();
+    try {
+      drainer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      log.close();
+    }
+  }
+}
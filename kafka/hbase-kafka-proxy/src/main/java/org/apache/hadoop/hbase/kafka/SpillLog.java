@@ -0,0 +1,424 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append only log of replication batches on local disk, made of memory mapped segment files.
+ * Batches are appended at the end of the newest segment and read back in order from the oldest
+ * one; a segment is deleted once every batch in it was removed. The log is bounded by the total
+ * size of its segments. Only the segment being read and the one being written are mapped, the
+ * others are mapped again when reading reaches them, so the memory the log maps is bounded by
+ * twice the segment size (a batch larger than a segment gets a segment of its own). A segment that
+ * is no longer mapped is forced to disk first; its mapping goes away when the buffer is garbage
+ * collected.
+ * <p>
+ * Every segment starts with a magic number and the offset of the first batch that was not removed
+ * yet. Every batch is stored as its length, the CRC32 of its content and the content; on open the
+ * segments are scanned and a torn batch at the end is dropped, so the batches appended before a
+ * crash are read again after a restart. Not thread safe.
+ */
+@InterfaceAudience.Private
+public class SpillLog implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(SpillLog.class);
+
+  static final int MAGIC = 0x4b53504c;
+  // magic, read offset
+  static final int HEADER_SIZE = 8;
+  // length, crc
+  static final int ENTRY_HEADER_SIZE = 8;
+  private static final String PREFIX = "spill-";
+  private static final String SUFFIX = ".log";
+
+  /**
+   * A batch read back from the log.
+   */
+  public static final class Entry {
+    private final TableName table;
+    private final List<ProducerRecord<byte[], byte[]>> records;
+    private final int size;
+
+    Entry(TableName table, List<ProducerRecord<byte[], byte[]>> records, int size) {
+      this.table = table;
+      this.records = records;
+      this.size = size;
+    }
+
+    public TableName getTable() {
+      return table;
+    }
+
+    public List<ProducerRecord<byte[], byte[]>> getRecords() {
+      return records;
+    }
+  }
+
+  private static final class Segment {
+    final long id;
+    final File file;
+    final int capacity;
+    // null while the segment is neither read nor written
+    MappedByteBuffer buffer;
+    int readOffset;
+    int writeOffset;
+
+    Segment(long id, File file, MappedByteBuffer buffer) {
+      this.id = id;
+      this.file = file;
+      this.capacity = buffer.capacity();
+      this.buffer = buffer;
+    }
+
+    int capacity() {
+      return capacity;
+    }
+
+    MappedByteBuffer map() throws IOException {
+      if (buffer == null) {
+        buffer = SpillLog.map(file, capacity);
+      }
+      return buffer;
+    }
+
+    void unmap() {
+      if (buffer != null) {
+        buffer.force();
+        buffer = null;
+      }
+    }
+  }
+
+  private final File dir;
+  private final int segmentBytes;
+  private final long maxBytes;
+  private final boolean sync;
+  // oldest first, the last one is written to
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private long totalBytes = 0;
+  private long pendingBytes = 0;
+  private int pendingEntries = 0;
+
+  /**
+   * Open the log, reading what a previous process left in the directory.
+   * @param dir          directory of the segment files, created if missing
+   * @param segmentBytes size of a segment file
+   * @param maxBytes     most bytes the segment files can take together
+   * @param sync         whether every append is forced to disk before it returns
+   * @throws IOException if the directory or the segments can't be read
+   */
+  public SpillLog(File dir, int segmentBytes, long maxBytes, boolean sync) throws IOException {
+    if (segmentBytes <= HEADER_SIZE + ENTRY_HEADER_SIZE || maxBytes < segmentBytes) {
+      throw new IllegalArgumentException(
+        "bad spill log sizes, segment " + segmentBytes + ", max " + maxBytes);
+    }
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("can't create spill directory " + dir);
+    }
+    this.dir = dir;
+    this.segmentBytes = segmentBytes;
+    this.maxBytes = maxBytes;
+    this.sync = sync;
+    recover();
+  }
+
+  private void recover() throws IOException {
+    File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+    if (files == null) {
+      throw new IOException("can't list spill directory " + dir);
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      long id = Long.parseLong(
+        file.getName().substring(PREFIX.length(), file.getName().length() - SUFFIX.length()));
+      Segment segment = new Segment(id, file, map(file, file.length()));
+      if (segment.capacity() < HEADER_SIZE || segment.buffer.getInt(0) != MAGIC) {
+        LOG.warn("ignoring spill segment {}, it has no valid header", file);
+        continue;
+      }
+      segment.readOffset = segment.buffer.getInt(4);
+      int offset = HEADER_SIZE;
+      int entries = 0;
+      while (true) {
+        int size = entrySize(segment, offset);
+        if (size < 0) {
+          break;
+        }
+        if (offset >= segment.readOffset) {
+          entries++;
+          pendingBytes += size;
+        }
+        offset += size;
+      }
+      segment.writeOffset = offset;
+      if (segment.readOffset >= segment.writeOffset) {
+        deleteFile(segment);
+        continue;
+      }
+      addSegment(segment);
+      totalBytes += segment.capacity();
+      pendingEntries += entries;
+    }
+    if (pendingEntries > 0) {
+      LOG.info("recovered {} spilled batches ({} bytes) from {}", pendingEntries, pendingBytes,
+        dir);
+    }
+  }
+
+  /**
+   * @return the size of the valid entry at offset, header included, or -1 if there is none
+   */
+  private static int entrySize(Segment segment, int offset) {
+    if (offset + ENTRY_HEADER_SIZE > segment.capacity()) {
+      return -1;
+    }
+    int length = segment.buffer.getInt(offset);
+    if (length <= 0 || length > segment.capacity() - offset - ENTRY_HEADER_SIZE) {
+      return -1;
+    }
+    CRC32 crc = new CRC32();
+    for (int i = 0; i < length; i++) {
+      crc.update(segment.buffer.get(offset + ENTRY_HEADER_SIZE + i));
+    }
+    if ((int) crc.getValue() != segment.buffer.getInt(offset + 4)) {
+      return -1;
+    }
+    return length + ENTRY_HEADER_SIZE;
+  }
+
+  private static MappedByteBuffer map(File file, long size) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      if (raf.length() < size) {
+        raf.setLength(size);
+      }
+      // the mapping stays valid after the channel is closed
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+  /**
+   * @return true if there is no batch to read
+   */
+  public boolean isEmpty() {
+    return pendingEntries == 0;
+  }
+
+  /**
+   * @return the number of batches in the log
+   */
+  public int getPendingEntries() {
+    return pendingEntries;
+  }
+
+  /**
+   * @return the bytes of the batches in the log
+   */
+  public long getPendingBytes() {
+    return pendingBytes;
+  }
+
+  /**
+   * @return the number of segments currently mapped
+   */
+  int getMappedSegments() {
+    int mapped = 0;
+    for (Segment segment : segments) {
+      if (segment.buffer != null) {
+        mapped++;
+      }
+    }
+    return mapped;
+  }
+
+  /**
+   * Append a batch.
+   * @param table   table the records were encoded from
+   * @param records the records, not partitioned yet
+   * @return false if the log has no room left for the batch
+   * @throws IOException if a new segment can't be created
+   */
+  public boolean append(TableName table, List<ProducerRecord<byte[], byte[]>> records)
+    throws IOException {
+    byte[] tableBytes = table.toBytes();
+    int length = 4 + tableBytes.length + 4;
+    for (ProducerRecord<byte[], byte[]> record : records) {
+      byte[] topic = record.topic().getBytes(StandardCharsets.UTF_8);
+      length += 4 + topic.length + sizeOf(record.key()) + sizeOf(record.value()) + 4;
+    }
+    int size = ENTRY_HEADER_SIZE + length;
+    Segment segment = segments.peekLast();
+    if (segment == null || segment.writeOffset + size > segment.capacity()) {
+      segment = newSegment(Math.max(segmentBytes, HEADER_SIZE + size));
+      if (segment == null) {
+        return false;
+      }
+    }
+
+    MappedByteBuffer buffer = segment.map();
+    int start = segment.writeOffset;
+    buffer.position(start + ENTRY_HEADER_SIZE);
+    putBytes(buffer, tableBytes);
+    buffer.putInt(records.size());
+    for (ProducerRecord<byte[], byte[]> record : records) {
+      putBytes(buffer, record.topic().getBytes(StandardCharsets.UTF_8));
+      putBytes(buffer, record.key());
+      putBytes(buffer, record.value());
+      buffer.putInt(record.partition() == null ? -1 : record.partition());
+    }
+    CRC32 crc = new CRC32();
+    for (int i = 0; i < length; i++) {
+      crc.update(buffer.get(start + ENTRY_HEADER_SIZE + i));
+    }
+    buffer.putInt(start + 4, (int) crc.getValue());
+    // the length goes last, until then the entry is not there for recovery
+    buffer.putInt(start, length);
+    if (sync) {
+      buffer.force();
+    }
+    segment.writeOffset = start + size;
+    pendingEntries++;
+    pendingBytes += size;
+    return true;
+  }
+
+  private Segment newSegment(int size) throws IOException {
+    if (totalBytes + size > maxBytes) {
+      return null;
+    }
+    Segment last = segments.peekLast();
+    long id = last == null ? 0 : last.id + 1;
+    File file = new File(dir, String.format("%s%020d%s", PREFIX, id, SUFFIX));
+    Segment segment = new Segment(id, file, map(file, size));
+    segment.buffer.putInt(0, MAGIC);
+    segment.buffer.putInt(4, HEADER_SIZE);
+    segment.readOffset = HEADER_SIZE;
+    segment.writeOffset = HEADER_SIZE;
+    addSegment(segment);
+    totalBytes += size;
+    return segment;
+  }
+
+  /**
+   * Add a segment to write to, unmapping the previous one unless it is the one being read.
+   */
+  private void addSegment(Segment segment) {
+    Segment last = segments.peekLast();
+    if (last != null && last != segments.peekFirst()) {
+      last.unmap();
+    }
+    segments.add(segment);
+  }
+
+  private static int sizeOf(byte[] bytes) {
+    return 4 + (bytes == null ? 0 : bytes.length);
+  }
+
+  private static void putBytes(MappedByteBuffer buffer, byte[] bytes) {
+    if (bytes == null) {
+      buffer.putInt(-1);
+      return;
+    }
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static byte[] getBytes(MappedByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Read the oldest batch, without removing it.
+   * @return the batch, null if the log is empty
+   * @throws IOException if the segment of the batch can't be mapped
+   */
+  public Entry peek() throws IOException {
+    Segment segment = segments.peekFirst();
+    if (segment == null || segment.readOffset >= segment.writeOffset) {
+      return null;
+    }
+    MappedByteBuffer buffer = segment.map();
+    int length = buffer.getInt(segment.readOffset);
+    buffer.position(segment.readOffset + ENTRY_HEADER_SIZE);
+    TableName table = TableName.valueOf(getBytes(buffer));
+    int count = buffer.getInt();
+    List<ProducerRecord<byte[], byte[]>> records = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String topic = new String(getBytes(buffer), StandardCharsets.UTF_8);
+      byte[] key = getBytes(buffer);
+      byte[] value = getBytes(buffer);
+      int partition = buffer.getInt();
+      records.add(new ProducerRecord<byte[], byte[]>(topic, partition < 0 ? null : partition,
+        key, value));
+    }
+    return new Entry(table, records, length + ENTRY_HEADER_SIZE);
+  }
+
+  /**
+   * Remove the oldest batch, once it was sent.
+   * @param entry the batch returned by the last {@link #peek()}
+   */
+  public void remove(Entry entry) {
+    Segment segment = segments.peekFirst();
+    segment.readOffset += entry.size;
+    segment.buffer.putInt(4, segment.readOffset);
+    pendingEntries--;
+    pendingBytes -= entry.size;
+    if (segment.readOffset >= segment.writeOffset) {
+      segments.removeFirst();
+      totalBytes -= segment.capacity();
+      deleteFile(segment);
+    }
+  }
+
+  private static void deleteFile(Segment segment) {
+    if (!segment.file.delete()) {
+      LOG.warn("failed to delete spill segment {}", segment.file);
+    }
+  }
+
+  @Override
+  public void close() {
+    for (Segment segment : segments) {
+      segment.unmap();
+    }
+    segments.clear();
+  }
+}
@@ -19,16 +19,23 @@ package org.apache.hadoop.hbase.kafka;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.avro.Schema;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.yetus.audience.InterfaceAudience;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.NodeList;
 
 /**
@@ -50,8 +57,16 @@ import org.w3c.dom.NodeList;
 @InterfaceAudience.Private
 public class TopicRoutingRules {
 
-  private List<DropRule> dropRules = new ArrayList<>();
-  private List<TopicRule> routeRules = new ArrayList<>();
+  /**
+   * default number of memoized (table, family, qualifier) routing decisions
+   */
+  public static final long DEFAULT_DECISION_CACHE_SIZE = 100000;
+
+  private volatile long decisionCacheSize = DEFAULT_DECISION_CACHE_SIZE;
+
+  // the whole compiled rule set, replaced (never modified) when the rules change
+  private volatile RoutingTable routingTable =
+    new RoutingTable(new ArrayList<>(), new ArrayList<>(), decisionCacheSize);
 
   private File sourceFile;
 
@@ -68,38 +83,42 @@ public class TopicRoutingRules {
    * @throws Exception if load fails
    */
   public TopicRoutingRules(File source) throws Exception {
+    this(source, DEFAULT_DECISION_CACHE_SIZE);
+  }
+
+  /**
+   * construct rule set from file
+   * @param source            file that countains the rule set
+   * @param decisionCacheSize maximum number of cached decisions, 0 disables the cache
+   * @throws IOException if load fails
+   */
+  public TopicRoutingRules(File source, long decisionCacheSize) throws IOException {
     this.sourceFile = source;
+    this.decisionCacheSize = decisionCacheSize;
     this.reloadIfFile();
   }
 
   /**
-   * Reload the ruleset if it was parsed from a file
-   * @throws Exception error loading rule set
+   * Reload the ruleset if it was parsed from a file. The new rules are compiled first and then
+   * published at once, so readers see either the old or the new rule set, never a mix. If the file
+   * can't be parsed the current rules are kept.
+   * @throws IOException error loading rule set
    */
-  public void reloadIfFile() throws Exception {
+  public void reloadIfFile() throws IOException {
     if (this.sourceFile != null) {
-      List<DropRule> dropRulesSave = this.dropRules;
-      List<TopicRule> routeRulesSave = this.routeRules;
-
       try (FileInputStream fin = new FileInputStream(this.sourceFile)) {
-        List<DropRule> dropRulesNew = new ArrayList<>();
-        List<TopicRule> routeRulesNew = new ArrayList<>();
-
-        parseRules(fin, dropRulesNew, routeRulesNew);
-
-        this.dropRules = dropRulesNew;
-        this.routeRules = routeRulesNew;
-
-      } catch (Exception e) {
-        // roll back
-        this.dropRules = dropRulesSave;
-        this.routeRules = routeRulesSave;
-        // re-throw
-        throw e;
+        parseRules(fin);
       }
     }
   }
 
+  /**
+   * @return the file the rules are loaded from, null if they were not loaded from a file
+   */
+  public File getSourceFile() {
+    return sourceFile;
+  }
+
   /**
    * parse rules manually from an input stream
    * @param input InputStream that contains rule text
@@ -108,8 +127,27 @@ public class TopicRoutingRules {
     List<DropRule> dropRulesNew = new ArrayList<>();
     List<TopicRule> routeRulesNew = new ArrayList<>();
     parseRules(input, dropRulesNew, routeRulesNew);
-    this.dropRules = dropRulesNew;
-    this.routeRules = routeRulesNew;
+    this.routingTable = new RoutingTable(dropRulesNew, routeRulesNew, decisionCacheSize);
+  }
+
+  /**
+   * Set the number of routing decisions to memoize and recompile the current rules.
+   * @param decisionCacheSize maximum number of cached decisions, 0 disables the cache
+   */
+  public void setDecisionCacheSize(long decisionCacheSize) {
+    this.decisionCacheSize = decisionCacheSize;
+    RoutingTable current = this.routingTable;
+    this.routingTable =
+      new RoutingTable(current.getDropRules(), current.getRouteRules(), decisionCacheSize);
+  }
+
+  /**
+   * Get the current compiled rule set. A replication batch should route all of its cells with the
+   * same snapshot, so a reload never applies to part of a batch.
+   * @return the current rules
+   */
+  public RoutingTable getSnapshot() {
+    return routingTable;
   }
 
   /**
@@ -146,8 +184,16 @@ public class TopicRoutingRules {
       r = new DropRule();
       dropRules.add((DropRule) r);
     } else {
-      r = new TopicRule(n.getAttribute("topic"));
-      routeRules.add((TopicRule) r);
+      TopicRule topicRule = new TopicRule(n.getAttribute("topic"));
+      topicRule.setProducerProfile(parseProducerProfile(n));
+      if (n.hasAttribute("maxBytesPerSec")) {
+        topicRule.setRateLimit(parseRateLimit(n));
+      }
+      if (n.hasAttribute("transform")) {
+        topicRule.setTransform(parseTransform(n));
+      }
+      r = topicRule;
+      routeRules.add(topicRule);
     }
     if (n.hasAttribute("table")) {
       r.setTableName(TableName.valueOf(n.getAttribute("table")));
@@ -159,6 +205,92 @@ public class TopicRoutingRules {
       String qual = n.getAttribute("qualifier");
       r.setQualifier(Bytes.toBytes(qual));
     }
+    ByteAutomaton.Pattern familyPattern = parsePattern(n, "columnFamily");
+    if (familyPattern != null) {
+      r.setColumnFamilyPattern(familyPattern);
+    }
+    ByteAutomaton.Pattern qualifierPattern = parsePattern(n, "qualifier");
+    if (qualifierPattern != null) {
+      r.setQualifierPattern(qualifierPattern);
+    }
+  }
+
+  /**
+   * Compile the glob or regex of a rule element, from the &lt;name&gt;Glob or &lt;name&gt;Regex
+   * attribute. Only one of them, or the plain attribute, can be set.
+   */
+  private static ByteAutomaton.Pattern parsePattern(Element n, String name) {
+    boolean glob = n.hasAttribute(name + "Glob");
+    boolean regex = n.hasAttribute(name + "Regex");
+    if (!glob && !regex) {
+      return null;
+    }
+    if ((glob && regex) || n.hasAttribute(name)) {
+      throw new IllegalArgumentException(
+        "only one of " + name + ", " + name + "Glob and " + name + "Regex can be set");
+    }
+    return glob
+      ? new ByteAutomaton.Pattern(ByteAutomaton.Syntax.GLOB, n.getAttribute(name + "Glob"))
+      : new ByteAutomaton.Pattern(ByteAutomaton.Syntax.REGEX, n.getAttribute(name + "Regex"));
+  }
+
+  private static ProducerProfile parseProducerProfile(Element n) {
+    String compression = n.hasAttribute("compression") ? n.getAttribute("compression") : null;
+    Integer lingerMs =
+      n.hasAttribute("lingerMs") ? Integer.valueOf(n.getAttribute("lingerMs")) : null;
+    Integer batchSize =
+      n.hasAttribute("batchSize") ? Integer.valueOf(n.getAttribute("batchSize")) : null;
+    SendLane lane =
+      n.hasAttribute("priority") ? SendLane.parse(n.getAttribute("priority")) : SendLane.NORMAL;
+    if (compression == null && lingerMs == null && batchSize == null && lane == SendLane.NORMAL) {
+      return ProducerProfile.DEFAULT;
+    }
+    return new ProducerProfile(compression, lingerMs, batchSize, lane);
+  }
+
+  /**
+   * Build the rate limit of a route rule: maxBytesPerSec, and burstBytes which defaults to a second
+   * worth of bytes.
+   */
+  private static TopicThrottle.Limit parseRateLimit(Element n) {
+    long bytesPerSec = Long.parseLong(n.getAttribute("maxBytesPerSec"));
+    long burstBytes =
+      n.hasAttribute("burstBytes") ? Long.parseLong(n.getAttribute("burstBytes")) : bytesPerSec;
+    return new TopicThrottle.Limit(bytesPerSec, burstBytes);
+  }
+
+  /**
+   * Build the value transform of a route rule: transform="truncate" with maxValueBytes,
+   * transform="avro" with valueSchema (an avsc file) and fields (comma separated), or the class
+   * name of a {@link ValueTransform}.
+   */
+  private static ValueTransform parseTransform(Element n) {
+    String transform = n.getAttribute("transform");
+    if ("truncate".equals(transform)) {
+      return new TruncateTransform(Integer.parseInt(n.getAttribute("maxValueBytes")));
+    }
+    if ("avro".equals(transform)) {
+      try {
+        Schema schema = new Schema.Parser().parse(new File(n.getAttribute("valueSchema")));
+        return new AvroProjectionTransform(schema,
+          Arrays.asList(n.getAttribute("fields").split(",")));
+      } catch (IOException e) {
+        throw new IllegalArgumentException(
+          "can't read value schema " + n.getAttribute("valueSchema"), e);
+      }
+    }
+    Map<String, String> attributes = new HashMap<>();
+    NamedNodeMap nodes = n.getAttributes();
+    for (int i = 0; i < nodes.getLength(); i++) {
+      attributes.put(nodes.item(i).getNodeName(), nodes.item(i).getNodeValue());
+    }
+    try {
+      Class<? extends ValueTransform> clazz =
+        Class.forName(transform).asSubclass(ValueTransform.class);
+      return clazz.getConstructor(Map.class).newInstance(Collections.unmodifiableMap(attributes));
+    } catch (ReflectiveOperationException | ClassCastException e) {
+      throw new IllegalArgumentException("unknown transform " + transform, e);
+    }
   }
 
   /**
@@ -170,12 +302,7 @@ public class TopicRoutingRules {
    */
   public boolean isExclude(final TableName table, final byte[] columnFamily,
     final byte[] qualifer) {
-    for (DropRule r : getDropRules()) {
-      if (r.match(table, columnFamily, qualifer)) {
-        return true;
-      }
-    }
-    return false;
+    return route(table, columnFamily, qualifer, 0, qualifer.length).isDrop();
   }
 
   /**
@@ -186,14 +313,35 @@ public class TopicRoutingRules {
    * @return list of topics that match the passed in values (or empty for none).
    */
   public List<String> getTopics(TableName table, byte[] columnFamily, byte[] qualifer) {
-    List<String> ret = new ArrayList<>();
-    for (TopicRule r : getRouteRules()) {
-      if (r.match(table, columnFamily, qualifer)) {
-        ret.addAll(r.getTopics());
-      }
-    }
+    // the topics of the matching route rules, drop rules or not
+    return new ArrayList<>(
+      routingTable.getTopics(table, columnFamily, qualifer, 0, qualifer.length));
+  }
 
-    return ret;
+  /**
+   * Decide if a cell is dropped or which topics it is routed to, with a single lookup in the
+   * compiled rules. The qualifier is read in place, so it does not have to be cloned out of the
+   * cell.
+   * @param table           table name to check
+   * @param columnFamily    column family to check
+   * @param qualifierArray  array holding the qualifier
+   * @param qualifierOffset offset of the qualifier
+   * @param qualifierLength length of the qualifier
+   * @return the routing decision
+   */
+  public RoutingTable.Decision route(TableName table, byte[] columnFamily, byte[] qualifierArray,
+    int qualifierOffset, int qualifierLength) {
+    return routingTable.route(table, columnFamily, qualifierArray, qualifierOffset,
+      qualifierLength);
+  }
+
+  /**
+   * Get the producer batching settings of a topic, see {@link ProducerProfile}.
+   * @param topic the topic
+   * @return the profile for the topic
+   */
+  public ProducerProfile getProducerProfile(String topic) {
+    return routingTable.getProducerProfile(topic);
   }
 
   /**
@@ -201,7 +349,7 @@ public class TopicRoutingRules {
    * @return drop rules
    */
   public List<DropRule> getDropRules() {
-    return dropRules;
+    return routingTable.getDropRules();
   }
 
   /**
@@ -209,6 +357,6 @@ public class TopicRoutingRules {
    * @return route rules
    */
   public List<TopicRule> getRouteRules() {
-    return routeRules;
+    return routingTable.getRouteRules();
   }
 }
@@ -29,6 +29,9 @@ import org.apache.yetus.audience.InterfaceAudience;
 @InterfaceAudience.Private
 public class TopicRule extends Rule {
   private Set<String> topics = new HashSet<>();
+  private ProducerProfile producerProfile = ProducerProfile.DEFAULT;
+  private ValueTransform transform;
+  private TopicThrottle.Limit rateLimit;
 
   public TopicRule(String topics) {
     this.topics.addAll(Arrays.stream(topics.split(",")).collect(Collectors.toList()));
@@ -37,4 +40,37 @@ public class TopicRule extends Rule {
   public Set<String> getTopics() {
     return topics;
   }
+
+  /**
+   * @return the producer batching settings for the topics of this rule
+   */
+  public ProducerProfile getProducerProfile() {
+    return producerProfile;
+  }
+
+  public void setProducerProfile(ProducerProfile producerProfile) {
+    this.producerProfile = producerProfile;
+  }
+
+  /**
+   * @return the transform of the values this rule sends, null to send them as they are
+   */
+  public ValueTransform getTransform() {
+    return transform;
+  }
+
+  public void setTransform(ValueTransform transform) {
+    this.transform = transform;
+  }
+
+  /**
+   * @return the rate the topics of this rule are limited to, null if they are not limited
+   */
+  public TopicThrottle.Limit getRateLimit() {
+    return rateLimit;
+  }
+
+  public void setRateLimit(TopicThrottle.Limit rateLimit) {
+    this.rateLimit = rateLimit;
+  }
 }
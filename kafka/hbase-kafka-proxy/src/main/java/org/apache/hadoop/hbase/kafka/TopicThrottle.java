@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Token buckets that limit the bytes per second sent to a topic, as set by the maxBytesPerSec and
+ * burstBytes attributes of its route rule. A record takes its size from the bucket of its topic,
+ * running it into debt if need be, and the sender sleeps until the debt is paid off, so records
+ * are let through in the order they asked and a record larger than the burst still goes through.
+ * The buckets live as long as the connection, a rule reload only replaces the buckets of topics
+ * whose limit changed.
+ */
+@InterfaceAudience.Private
+public class TopicThrottle {
+
+  /**
+   * The rate limit of a topic.
+   */
+  public static final class Limit {
+    private final long bytesPerSec;
+    private final long burstBytes;
+
+    /**
+     * @param bytesPerSec bytes the topic gets per second
+     * @param burstBytes  bytes the topic can save up while it is idle
+     */
+    public Limit(long bytesPerSec, long burstBytes) {
+      if (bytesPerSec <= 0 || burstBytes <= 0) {
+        throw new IllegalArgumentException("rate limits must be positive, got bytesPerSec="
+          + bytesPerSec + " burstBytes=" + burstBytes);
+      }
+      this.bytesPerSec = bytesPerSec;
+      this.burstBytes = burstBytes;
+    }
+
+    public long getBytesPerSec() {
+      return bytesPerSec;
+    }
+
+    public long getBurstBytes() {
+      return burstBytes;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Limit)) {
+        return false;
+      }
+      Limit other = (Limit) obj;
+      return bytesPerSec == other.bytesPerSec && burstBytes == other.burstBytes;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(bytesPerSec, burstBytes);
+    }
+
+    @Override
+    public String toString() {
+      return "bytesPerSec=" + bytesPerSec + ", burstBytes=" + burstBytes;
+    }
+  }
+
+  private static final class Bucket {
+    final Limit limit;
+    private double tokens;
+    private long refilledNanos;
+
+    Bucket(Limit limit, long nowNanos) {
+      this.limit = limit;
+      this.tokens = limit.burstBytes;
+      this.refilledNanos = nowNanos;
+    }
+
+    /**
+     * Take bytes from the bucket.
+     * @return how long to wait until the bucket is out of debt, in nanoseconds
+     */
+    synchronized long take(long bytes, long nowNanos) {
+      tokens = Math.min(limit.burstBytes,
+        tokens + (nowNanos - refilledNanos) * (double) limit.bytesPerSec / 1e9);
+      refilledNanos = nowNanos;
+      tokens -= bytes;
+      return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1e9 / limit.bytesPerSec);
+    }
+  }
+
+  private final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private final KafkaProxyMetrics metrics;
+
+  /**
+   * @param metrics metrics to account throttled time to
+   */
+  public TopicThrottle(KafkaProxyMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Wait until the topic of a record may send it.
+   * @param rules  rules that give the limit of the topic
+   * @param record the record about to be sent
+   * @return time waited, in nanoseconds
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public long acquire(RoutingTable rules, ProducerRecord<byte[], byte[]> record)
+    throws InterruptedException {
+    Limit limit = rules.getRateLimit(record.topic());
+    if (limit == null) {
+      return 0;
+    }
+    return acquire(record.topic(), limit, PendingBatch.sizeOf(record));
+  }
+
+  /**
+   * Wait until a topic may send some bytes.
+   * @param topic the topic
+   * @param limit the limit of the topic
+   * @param bytes bytes about to be sent
+   * @return time waited, in nanoseconds
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public long acquire(String topic, Limit limit, long bytes) throws InterruptedException {
+    Bucket bucket = buckets.get(topic);
+    if (bucket == null || !bucket.limit.equals(limit)) {
+      // first record of the topic, or the rules were reloaded with another limit
+      bucket = buckets.compute(topic,
+        (t, b) -> b != null && b.limit.equals(limit) ? b : new Bucket(limit, System.nanoTime()));
+    }
+    long waitNanos = bucket.take(bytes, System.nanoTime());
+    if (waitNanos > 0) {
+      metrics.throttled(topic, waitNanos);
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+    return waitNanos;
+  }
+}
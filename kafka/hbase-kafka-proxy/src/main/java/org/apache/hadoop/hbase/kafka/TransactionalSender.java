@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.BiFunction;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.AuthorizationException;
+import org.apache.kafka.common.errors.OutOfOrderSequenceException;
+import org.apache.kafka.common.errors.ProducerFencedException;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
+import org.apache.yetus.audience.InterfaceAudience;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends replication batches through a transactional (and so idempotent) producer, for exactly once
+ * delivery. Every batch is part of exactly one kafka transaction and only returns once that
+ * transaction committed; when it fails the transaction is aborted, the batch throws and the
+ * replication source sends it again, and consumers reading with isolation.level=read_committed
+ * never see the aborted records.
+ * <p>
+ * A transaction is not committed per batch: the first batch of a transaction waits up to the linger
+ * time for the batches of other handlers to join it, and they are all committed together (group
+ * commit). A commit costs a round trip to the transaction coordinator plus the markers written to
+ * every partition, so sharing it is what keeps the throughput of this mode close to the plain one.
+ * Batches that arrive while a transaction commits wait and form the next one. A failure aborts the
+ * whole group; batches are retried as a whole, so nothing is written twice.
+ */
+@InterfaceAudience.Private
+public class TransactionalSender implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(TransactionalSender.class);
+
+  /**
+   * The batches sharing one kafka transaction.
+   */
+  private static final class Group {
+    final long startMs = System.currentTimeMillis();
+    int batches = 0;
+    // batches still handing records to the producer
+    int writers = 0;
+    // no more batches can join
+    boolean closed = false;
+    boolean done = false;
+    Exception failure;
+  }
+
+  private final ProducerPool.ProducerFactory factory;
+  private final Properties properties;
+  private final long lingerMs;
+  private final int maxBatches;
+  private final KafkaProxyMetrics metrics;
+
+  // guarded by this
+  private Producer<byte[], byte[]> producer;
+  private Group open;
+  private boolean closing = false;
+
+  /**
+   * @param baseProperties  producer properties, the transactional settings are added to them
+   * @param factory         creates the producer, again after it was fenced
+   * @param transactionalId transactional.id of the producer, stable across restarts of the proxy
+   * @param lingerMs        how long the first batch of a transaction waits for others to join
+   * @param maxBatches      batches after which a transaction is committed without waiting more
+   * @param metrics         metrics of the proxy
+   */
+  public TransactionalSender(Properties baseProperties, ProducerPool.ProducerFactory factory,
+    String transactionalId, long lingerMs, int maxBatches, KafkaProxyMetrics metrics) {
+    if (maxBatches < 1) {
+      throw new IllegalArgumentException("batches per transaction must be positive: " + maxBatches);
+    }
+    this.factory = factory;
+    this.properties = new Properties();
+    this.properties.putAll(baseProperties);
+    this.properties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, transactionalId);
+    this.properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true");
+    this.properties.put(ProducerConfig.ACKS_CONFIG, "all");
+    this.lingerMs = lingerMs;
+    this.maxBatches = maxBatches;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Send the records of a batch in a transaction and wait until it is committed.
+   * @param records the records of the batch, in order
+   * @param prepare called with the producer for every record before it is sent, returns the record
+   *                to send (to pick its partition)
+   * @throws IOException          if the transaction of the batch was aborted
+   * @throws InterruptedException if interrupted while waiting for the commit
+   */
+  public void send(List<ProducerRecord<byte[], byte[]>> records,
+    BiFunction<Producer<byte[], byte[]>, ProducerRecord<byte[], byte[]>,
+      ProducerRecord<byte[], byte[]>> prepare)
+    throws IOException, InterruptedException {
+    Group group;
+    Producer<byte[], byte[]> txnProducer;
+    boolean leader;
+    synchronized (this) {
+      while (open != null && open.closed) {
+        wait();
+      }
+      if (closing) {
+        throw new IOException("transactional sender is closed");
+      }
+      leader = open == null;
+      if (leader) {
+        open = new Group();
+        try {
+          begin();
+        } catch (KafkaException e) {
+          if (producer != null && isFatal(e)) {
+            discard(producer, e);
+          }
+          fail(open, e);
+          finish(open);
+          throw new IOException("Failed to begin kafka transaction", e);
+        }
+      }
+      group = open;
+      group.batches++;
+      group.writers++;
+      txnProducer = producer;
+      if (group.batches >= maxBatches) {
+        // full, the leader can commit right away
+        group.closed = true;
+        notifyAll();
+      }
+    }
+
+    try {
+      for (ProducerRecord<byte[], byte[]> item : records) {
+        Callback callback = (RecordMetadata metadata, Exception exception) -> {
+          if (exception != null) {
+            fail(group, exception);
+          }
+        };
+        txnProducer.send(prepare.apply(txnProducer, item), callback);
+      }
+    } catch (RuntimeException e) {
+      fail(group, e);
+    } finally {
+      synchronized (this) {
+        group.writers--;
+        notifyAll();
+      }
+    }
+
+    if (leader) {
+      commit(group);
+    }
+    // once records were sent, only the outcome of the transaction tells whether the source has to
+    // send the batch again, so wait for it even when interrupted
+    awaitUninterruptibly(() -> !group.done);
+    if (group.failure != null) {
+      throw new IOException("Kafka transaction was aborted", group.failure);
+    }
+  }
+
+  private void begin() {
+    if (producer == null) {
+      Producer<byte[], byte[]> created = factory.create(properties);
+      try {
+        // fences older producers with the same transactional.id and aborts what they left open
+        created.initTransactions();
+      } catch (RuntimeException e) {
+        created.close();
+        throw e;
+      }
+      producer = created;
+    }
+    producer.beginTransaction();
+  }
+
+  private synchronized void fail(Group group, Exception exception) {
+    if (group.failure == null) {
+      group.failure = exception;
+      notifyAll();
+    }
+  }
+
+  private interface Condition {
+    boolean holds();
+  }
+
+  /**
+   * Wait while the condition holds, keeping the interrupt for later.
+   */
+  private synchronized void awaitUninterruptibly(Condition waitWhile) {
+    boolean interrupted = false;
+    while (waitWhile.holds()) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized void finish(Group group) {
+    group.done = true;
+    open = null;
+    notifyAll();
+  }
+
+  /**
+   * Wait for the group to fill up or the linger time to pass, then commit it, or abort it if any
+   * of its records failed.
+   */
+  private void commit(Group group) {
+    Producer<byte[], byte[]> txnProducer;
+    synchronized (this) {
+      try {
+        long remaining = group.startMs + lingerMs - System.currentTimeMillis();
+        while (!group.closed && remaining > 0 && group.failure == null) {
+          wait(remaining);
+          remaining = group.startMs + lingerMs - System.currentTimeMillis();
+        }
+      } catch (InterruptedException e) {
+        // the batches that joined wait on us, abort rather than leave the transaction open
+        fail(group, e);
+        Thread.currentThread().interrupt();
+      }
+      group.closed = true;
+      // a transaction can only end once every batch in it handed over its records
+      awaitUninterruptibly(() -> group.writers > 0);
+      txnProducer = producer;
+    }
+
+    long start = System.nanoTime();
+    try {
+      if (group.failure == null) {
+        txnProducer.commitTransaction();
+        metrics.transactionCommitted(group.batches, System.nanoTime() - start);
+      } else {
+        abort(txnProducer);
+      }
+    } catch (KafkaException e) {
+      fail(group, e);
+      if (!isFatal(e)) {
+        abort(txnProducer);
+      } else {
+        discard(txnProducer, e);
+      }
+    } finally {
+      finish(group);
+    }
+  }
+
+  private void abort(Producer<byte[], byte[]> txnProducer) {
+    metrics.transactionAborted();
+    try {
+      txnProducer.abortTransaction();
+    } catch (KafkaException e) {
+      discard(txnProducer, e);
+    }
+  }
+
+  /**
+   * The producer can not be used anymore, the next batch creates a new one. Its transaction.id
+   * makes the coordinator abort whatever the old producer left open.
+   */
+  private void discard(Producer<byte[], byte[]> txnProducer, KafkaException e) {
+    LOG.warn("closing transactional producer after an unrecoverable error", e);
+    synchronized (this) {
+      if (producer == txnProducer) {
+        producer = null;
+      }
+    }
+    txnProducer.close();
+  }
+
+  private static boolean isFatal(KafkaException e) {
+    return e instanceof ProducerFencedException || e instanceof OutOfOrderSequenceException
+      || e instanceof AuthorizationException || e instanceof UnsupportedVersionException;
+  }
+
+  /**
+   * Flush the producer; the records of open transactions still wait for their commit.
+   */
+  public void flush() {
+    Producer<byte[], byte[]> current;
+    synchronized (this) {
+      current = producer;
+    }
+    if (current != null) {
+      current.flush();
+    }
+  }
+
+  @Override
+  public void close() {
+    Producer<byte[], byte[]> current;
+    synchronized (this) {
+      closing = true;
+      // let the open transaction finish, a closed producer would abort it
+      while (open != null) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      current = producer;
+      producer = null;
+    }
+    if (current != null) {
+      current.close();
+    }
+  }
+}
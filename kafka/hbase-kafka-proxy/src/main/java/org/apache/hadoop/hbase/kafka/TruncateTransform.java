@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.apache.hadoop.hbase.ByteBufferExtendedCell;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Sends at most the first bytes of a value, for consumers that only need a prefix of large values.
+ */
+@InterfaceAudience.Private
+public class TruncateTransform implements ValueTransform {
+  private final int maxValueBytes;
+
+  /**
+   * @param maxValueBytes longest value sent, longer values are cut
+   */
+  public TruncateTransform(int maxValueBytes) {
+    if (maxValueBytes < 0) {
+      throw new IllegalArgumentException("maxValueBytes must not be negative: " + maxValueBytes);
+    }
+    this.maxValueBytes = maxValueBytes;
+  }
+
+  public int getMaxValueBytes() {
+    return maxValueBytes;
+  }
+
+  @Override
+  public byte[] transform(Cell cell) {
+    int length = Math.min(cell.getValueLength(), maxValueBytes);
+    if (cell instanceof ByteBufferExtendedCell) {
+      ByteBufferExtendedCell bbCell = (ByteBufferExtendedCell) cell;
+      byte[] ret = new byte[length];
+      // a duplicate leaves the position of the cell's buffer alone
+      ByteBuffer value = bbCell.getValueByteBuffer().duplicate();
+      value.position(bbCell.getValuePosition());
+      value.get(ret);
+      return ret;
+    }
+    return Arrays.copyOfRange(cell.getValueArray(), cell.getValueOffset(),
+      cell.getValueOffset() + length);
+  }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Changes the value of the cells a route rule sends to its topics, set with the transform attribute
+ * of the rule. Everything else about the event (row, family, qualifier, timestamp) is kept.
+ * Implementations other than the built in ones need a public constructor that takes the attributes
+ * of the rule as a {@code Map<String, String>}, and must be thread safe.
+ */
+@InterfaceAudience.Private
+public interface ValueTransform {
+  /**
+   * @param cell routed cell, must not be changed
+   * @return the value to send instead of the value of the cell, or null to not send the cell to
+   *         the topics of the rule
+   */
+  byte[] transform(Cell cell);
+}
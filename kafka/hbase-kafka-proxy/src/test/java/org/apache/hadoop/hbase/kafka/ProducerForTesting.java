@@ -25,6 +25,7 @@ import java.util.concurrent.Future;
 import org.apache.avro.io.BinaryDecoder;
 import org.apache.avro.io.DecoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.MockProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
@@ -46,7 +47,8 @@ public class ProducerForTesting extends MockProducer<byte[], byte[]> {
   }
 
   @Override
-  public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> producerRecord) {
+  public Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> producerRecord,
+    Callback callback) {
     try {
       BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(producerRecord.value(), null);
       HBaseKafkaEvent event = dreader.read(null, decoder);
@@ -54,7 +56,7 @@ public class ProducerForTesting extends MockProducer<byte[], byte[]> {
         messages.put(producerRecord.topic(), new ArrayList<>());
       }
       messages.get(producerRecord.topic()).add(event);
-      return super.send(producerRecord);
+      return super.send(producerRecord, callback);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
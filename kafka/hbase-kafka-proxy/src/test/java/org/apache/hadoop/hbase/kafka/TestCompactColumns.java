@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test events referring to their table and family by id
+ */
+@Category(SmallTests.class)
+public class TestCompactColumns {
+  private static final String TABLE = "MyNamespace:MyTable";
+  private static final String RULES =
+    "<rules><rule action=\"route\" table=\"" + TABLE + "\" topic=\"foo\"/></rules>";
+
+  private static KafkaBridgeConnection getConnection(Configuration conf,
+    MockProducer<byte[], byte[]> producer) {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    return new KafkaBridgeConnection(conf, rules, producer);
+  }
+
+  private static List<Row> getRows(String... families) {
+    List<Row> rows = new ArrayList<>();
+    for (int r = 0; r < 2; r++) {
+      Put put = new Put(Bytes.toBytes("row" + r), 1L);
+      for (String family : families) {
+        put.addColumn(Bytes.toBytes(family), Bytes.toBytes("q"), Bytes.toBytes("v" + r));
+      }
+      rows.add(put);
+    }
+    return rows;
+  }
+
+  private static List<String> decode(ColumnDictionary dictionary,
+    List<ProducerRecord<byte[], byte[]>> records) throws Exception {
+    EventDecoder decoder = new EventDecoder(EventDecoder.Format.COMPACT, dictionary);
+    List<String> events = new ArrayList<>();
+    for (ProducerRecord<byte[], byte[]> record : records) {
+      if (record.topic().equals(KafkaProxy.DEFAULT_KAFKA_PROXY_COLUMN_DICTIONARY_TOPIC)) {
+        dictionary.addEntry(record.value());
+      } else {
+        decoder.decode(record.value(), (event) -> events.add(event.toString()));
+      }
+    }
+    return events;
+  }
+
+  private static boolean isDictionary(ProducerRecord<byte[], byte[]> record) {
+    return record.topic().equals(KafkaProxy.DEFAULT_KAFKA_PROXY_COLUMN_DICTIONARY_TOPIC);
+  }
+
+  @Test
+  public void testColumnsGetTheirIdFromTheDictionary() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(KafkaProxy.KAFKA_PROXY_COMPACT_COLUMNS, true);
+    MockProducer<byte[], byte[]> producer =
+      new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+    KafkaBridgeConnection connection = getConnection(conf, producer);
+    ColumnIds columnIds = connection.getColumnIds();
+    Table table = connection.getTable(TableName.valueOf(TABLE));
+    ColumnDictionary dictionary = new ColumnDictionary();
+
+    // new columns carry their table and family until the dictionary was read
+    table.batch(getRows("a", "b"), new Object[0]);
+    Assert.assertEquals(4, producer.history().size());
+    List<String> events = decode(dictionary, producer.history());
+    Assert.assertEquals(TABLE + "/row0/a:q/1/put/vlen=2", events.get(0));
+    Assert.assertEquals(0, dictionary.size());
+
+    // the ids are free, the entries go first with the next batch
+    columnIds.resolve(dictionary);
+    producer.clear();
+    table.batch(getRows("a", "b"), new Object[0]);
+    List<ProducerRecord<byte[], byte[]>> history = producer.history();
+    Assert.assertEquals(6, history.size());
+    Assert.assertTrue(isDictionary(history.get(0)));
+    Assert.assertTrue(isDictionary(history.get(1)));
+    int id = ColumnDictionary.idOf(Bytes.toBytes(TABLE), Bytes.toBytes("a"));
+    Assert.assertArrayEquals(Bytes.toBytes(id), history.get(0).key());
+    decode(dictionary, history);
+    Assert.assertEquals(2, dictionary.size());
+
+    // once the entries are in the dictionary the events use the ids
+    columnIds.resolve(dictionary);
+    producer.clear();
+    table.batch(getRows("a", "b", "c"), new Object[0]);
+    history = producer.history();
+    Assert.assertEquals(6, history.size());
+    events = decode(dictionary, history);
+    Assert.assertEquals(TABLE + "/row0/a:q/1/put/vlen=2", events.get(0));
+    Assert.assertEquals(TABLE + "/row1/c:q/1/put/vlen=2", events.get(5));
+    // row, timestamp, delete, value and qualifier take 13 bytes, the id at most 5 and the empty
+    // family and table one each
+    Assert.assertTrue(history.get(0).value().length <= 13 + 5 + 2);
+    // the new family carries its name
+    Assert.assertTrue(history.get(2).value().length > 13 + 5 + 2);
+  }
+
+  @Test
+  public void testIdOwnedByAnotherProxy() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(KafkaProxy.KAFKA_PROXY_COMPACT_COLUMNS, true);
+    MockProducer<byte[], byte[]> producer =
+      new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+    KafkaBridgeConnection connection = getConnection(conf, producer);
+    Table table = connection.getTable(TableName.valueOf(TABLE));
+    table.batch(getRows("a"), new Object[0]);
+
+    // another proxy published a column with the same id first
+    ColumnDictionary dictionary = new ColumnDictionary();
+    int id = ColumnDictionary.idOf(Bytes.toBytes(TABLE), Bytes.toBytes("a"));
+    dictionary.add(id, Bytes.toBytes("other:table"), Bytes.toBytes("x"));
+    connection.getColumnIds().resolve(dictionary);
+    Assert.assertFalse(connection.getColumnIds().hasWaiting());
+
+    producer.clear();
+    table.batch(getRows("a"), new Object[0]);
+    // no entry, and the events still carry their table and family
+    Assert.assertEquals(2, producer.history().size());
+    List<String> events = decode(dictionary, producer.history());
+    Assert.assertEquals(TABLE + "/row0/a:q/1/put/vlen=2", events.get(0));
+  }
+
+  @Test
+  public void testCollidingColumnIsInline() throws Exception {
+    // two families of the table with the same id
+    String first = "f3985819";
+    String second = "f4420602";
+    byte[] tableAsBytes = Bytes.toBytes(TABLE);
+    Assert.assertEquals(ColumnDictionary.idOf(tableAsBytes, Bytes.toBytes(first)),
+      ColumnDictionary.idOf(tableAsBytes, Bytes.toBytes(second)));
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(KafkaProxy.KAFKA_PROXY_COMPACT_COLUMNS, true);
+    MockProducer<byte[], byte[]> producer =
+      new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+    KafkaBridgeConnection connection = getConnection(conf, producer);
+    Table table = connection.getTable(TableName.valueOf(TABLE));
+    table.batch(getRows(first, second), new Object[0]);
+    ColumnDictionary dictionary = new ColumnDictionary();
+    connection.getColumnIds().resolve(dictionary);
+
+    producer.clear();
+    table.batch(getRows(first, second), new Object[0]);
+    // one entry, the second family is sent with its name
+    Assert.assertEquals(5, producer.history().size());
+    List<String> events = decode(dictionary, producer.history());
+    Assert.assertEquals(1, dictionary.size());
+    Assert.assertEquals(4, events.size());
+    Assert.assertTrue(events.contains(TABLE + "/row0/" + first + ":q/1/put/vlen=2"));
+    Assert.assertTrue(events.contains(TABLE + "/row0/" + second + ":q/1/put/vlen=2"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEnvelopesAreNotCompacted() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(KafkaProxy.KAFKA_PROXY_COMPACT_COLUMNS, true);
+    conf.set(KafkaProxy.KAFKA_PROXY_ENVELOPE, "row");
+    getConnection(conf, new MockProducer<>(true, new MockSerializer(), new MockSerializer()));
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test that cells are grouped into HBaseKafkaEventBatch envelopes
+ */
+@Category(SmallTests.class)
+public class TestEventBatch {
+  private static final String ROUTE_RULE1 =
+    "<rules><rule action=\"route\" table=\"MyNamespace:MyTable\" " + "topic=\"foo\"/></rules>";
+
+  private static List<ProducerRecord<byte[], byte[]>> send(String mode) throws Exception {
+    return send(mode, new Configuration());
+  }
+
+  private static List<ProducerRecord<byte[], byte[]>> send(String mode, Configuration conf)
+    throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(ROUTE_RULE1.getBytes(StandardCharsets.UTF_8)));
+    conf.set(KafkaProxy.KAFKA_PROXY_ENVELOPE, mode);
+    MockProducer<byte[], byte[]> producer =
+      new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+    KafkaBridgeConnection connection = new KafkaBridgeConnection(conf, rules, producer);
+    Table myTable = connection.getTable(TableName.valueOf("MyNamespace:MyTable"));
+
+    List<Row> rows = new ArrayList<>();
+    for (int r = 0; r < 2; r++) {
+      Put put = new Put(Bytes.toBytes("row" + r), 1L);
+      for (int q = 0; q < 3; q++) {
+        put.addColumn(Bytes.toBytes("FAMILY"), Bytes.toBytes("q" + q), Bytes.toBytes("v" + q));
+      }
+      rows.add(put);
+    }
+    myTable.batch(rows, new Object[0]);
+    return producer.history();
+  }
+
+  private static HBaseKafkaEventBatch decode(ProducerRecord<byte[], byte[]> record)
+    throws Exception {
+    SpecificDatumReader<HBaseKafkaEventBatch> reader =
+      new SpecificDatumReader<>(HBaseKafkaEventBatch.SCHEMA$);
+    return reader.read(null, DecoderFactory.get().binaryDecoder(record.value(), null));
+  }
+
+  @Test
+  public void testRowEnvelope() throws Exception {
+    List<ProducerRecord<byte[], byte[]>> records = send("row");
+    Assert.assertEquals(2, records.size());
+    for (int r = 0; r < 2; r++) {
+      Assert.assertArrayEquals(Bytes.toBytes("row" + r), records.get(r).key());
+      HBaseKafkaEventBatch batch = decode(records.get(r));
+      Assert.assertEquals("MyNamespace:MyTable", Bytes.toString(batch.getTable().array()));
+      Assert.assertEquals(3, batch.getEvents().size());
+      for (int q = 0; q < 3; q++) {
+        HBaseKafkaBatchEvent event = batch.getEvents().get(q);
+        Assert.assertEquals("row" + r, Bytes.toString(event.getKey().array()));
+        Assert.assertEquals("q" + q, Bytes.toString(event.getQualifier().array()));
+        Assert.assertEquals("v" + q, Bytes.toString(event.getValue().array()));
+        Assert.assertEquals(1L, event.getTimestamp());
+      }
+    }
+  }
+
+  @Test
+  public void testBatchEnvelope() throws Exception {
+    List<ProducerRecord<byte[], byte[]>> records = send("batch");
+    Assert.assertEquals(1, records.size());
+    Assert.assertArrayEquals(Bytes.toBytes("MyNamespace:MyTable"), records.get(0).key());
+    HBaseKafkaEventBatch batch = decode(records.get(0));
+    Assert.assertEquals(6, batch.getEvents().size());
+    Assert.assertEquals("row1", Bytes.toString(batch.getEvents().get(5).getKey().array()));
+  }
+
+  @Test
+  public void testEnvelopeLimit() throws Exception {
+    Configuration conf = new Configuration();
+    // room for two of the cells of the test batch
+    conf.setInt(KafkaProxy.KAFKA_PROXY_ENVELOPE_MAX_BYTES, 100);
+    List<ProducerRecord<byte[], byte[]>> records = send("batch", conf);
+    Assert.assertTrue(records.size() > 1);
+    int events = 0;
+    for (ProducerRecord<byte[], byte[]> record : records) {
+      Assert.assertTrue(record.value().length <= 100);
+      Assert.assertArrayEquals(Bytes.toBytes("MyNamespace:MyTable"), record.key());
+      for (HBaseKafkaBatchEvent event : decode(record).getEvents()) {
+        // the cells stay in order across envelopes
+        Assert.assertEquals("row" + events / 3, Bytes.toString(event.getKey().array()));
+        Assert.assertEquals("q" + events % 3, Bytes.toString(event.getQualifier().array()));
+        events++;
+      }
+    }
+    Assert.assertEquals(6, events);
+  }
+
+  @Test
+  public void testNoEnvelope() throws Exception {
+    Assert.assertEquals(6, send("none").size());
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test sending replication batches in kafka transactions
+ */
+@Category(SmallTests.class)
+public class TestExactlyOnce {
+  private static final String RULES = "<rules>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" topic=\"foo\"/>" + "</rules>";
+
+  /**
+   * Counts commits and fails as many of them as asked to.
+   */
+  private static final class TransactionalProducer extends MockProducer<byte[], byte[]> {
+    final AtomicInteger commits = new AtomicInteger();
+    final AtomicInteger failCommits = new AtomicInteger();
+
+    TransactionalProducer() {
+      super(true, new MockSerializer(), new MockSerializer());
+    }
+
+    @Override
+    public synchronized void commitTransaction() {
+      if (failCommits.getAndDecrement() > 0) {
+        throw new KafkaException("commit failed");
+      }
+      super.commitTransaction();
+      commits.incrementAndGet();
+    }
+  }
+
+  private final List<TransactionalProducer> producers = new ArrayList<>();
+  private final List<Properties> created = new ArrayList<>();
+
+  private TransactionalSender getSender(long lingerMs, int maxBatches,
+    KafkaProxyMetrics metrics) {
+    return new TransactionalSender(new Properties(), (props) -> {
+      TransactionalProducer producer = new TransactionalProducer();
+      producers.add(producer);
+      created.add(props);
+      return producer;
+    }, "test-proxy", lingerMs, maxBatches, metrics);
+  }
+
+  private static Table getTable(TransactionalSender sender, KafkaProxyMetrics metrics) {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    // the plain producer must never be used
+    MockProducer<byte[], byte[]> unused =
+      new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+    return new KafkaTableForBridge(TableName.valueOf("MyNamespace:MyTable"), new Configuration(),
+      rules, new KafkaTableForBridge.Collaborators(new ProducerPool(unused), metrics)
+        .setTransactions(sender));
+  }
+
+  private static List<Row> getRows(String prefix, int count) {
+    List<Row> rows = new ArrayList<>();
+    for (int r = 0; r < count; r++) {
+      Put put = new Put(Bytes.toBytes(prefix + r), 1L);
+      put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+      rows.add(put);
+    }
+    return rows;
+  }
+
+  @Test
+  public void testBatchIsCommitted() throws Exception {
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    TransactionalSender sender = getSender(0, 64, metrics);
+    getTable(sender, metrics).batch(getRows("row", 10), new Object[0]);
+
+    Assert.assertEquals(1, producers.size());
+    TransactionalProducer producer = producers.get(0);
+    Assert.assertTrue(producer.transactionCommitted());
+    Assert.assertEquals(1, producer.commits.get());
+    Assert.assertEquals(10, producer.history().size());
+    Assert.assertEquals("test-proxy", created.get(0).get(ProducerConfig.TRANSACTIONAL_ID_CONFIG));
+    Assert.assertEquals("true", created.get(0).get(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG));
+    Assert.assertEquals(1, metrics.getTransactionsCommitted());
+    sender.close();
+    Assert.assertTrue(producer.closed());
+  }
+
+  @Test
+  public void testGroupCommit() throws Exception {
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    // the first batch waits for the other three, then the full group commits at once
+    TransactionalSender sender = getSender(60000, 4, metrics);
+    Table table = getTable(sender, metrics);
+    ExecutorService handlers = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> batches = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        final String prefix = "handler" + i + "-";
+        batches.add(handlers.submit(() -> {
+          table.batch(getRows(prefix, 25), new Object[0]);
+          return null;
+        }));
+      }
+      for (Future<?> batch : batches) {
+        batch.get();
+      }
+    } finally {
+      handlers.shutdown();
+    }
+    Assert.assertEquals(1, producers.size());
+    Assert.assertEquals(1, producers.get(0).commits.get());
+    Assert.assertEquals(100, producers.get(0).history().size());
+    Assert.assertEquals(1, metrics.getTransactionsCommitted());
+  }
+
+  @Test
+  public void testAbortedBatchIsNotDuplicated() throws Exception {
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    TransactionalSender sender = getSender(0, 64, metrics);
+    Table table = getTable(sender, metrics);
+    List<Row> rows = getRows("row", 10);
+
+    table.batch(rows, new Object[0]);
+    producers.get(0).failCommits.set(1);
+    try {
+      table.batch(rows, new Object[0]);
+      Assert.fail("expected the aborted transaction to fail the batch");
+    } catch (IOException e) {
+      // expected, replication sends the batch again
+    }
+    Assert.assertTrue(producers.get(0).transactionAborted());
+    Assert.assertEquals(1, metrics.getTransactionsAborted());
+    table.batch(rows, new Object[0]);
+
+    // the aborted records were never committed
+    Assert.assertEquals(1, producers.size());
+    Assert.assertEquals(20, producers.get(0).history().size());
+  }
+
+  @Test
+  public void testFencedProducerIsReplaced() throws Exception {
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    TransactionalSender sender = getSender(0, 64, metrics);
+    Table table = getTable(sender, metrics);
+    table.batch(getRows("row", 10), new Object[0]);
+
+    producers.get(0).fenceProducer();
+    try {
+      table.batch(getRows("row", 10), new Object[0]);
+      Assert.fail("expected the fenced producer to fail the batch");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertTrue(producers.get(0).closed());
+
+    table.batch(getRows("row", 10), new Object[0]);
+    Assert.assertEquals(2, producers.size());
+    Assert.assertEquals(10, producers.get(1).history().size());
+  }
+}
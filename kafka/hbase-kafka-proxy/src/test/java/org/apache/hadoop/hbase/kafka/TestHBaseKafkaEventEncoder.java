@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Make sure the hand written encoder produces the same bytes as the avro writer
+ */
+@Category(SmallTests.class)
+public class TestHBaseKafkaEventEncoder {
+  private static final byte[] TABLE = "MyNamespace:MyTable".getBytes(StandardCharsets.UTF_8);
+
+  private static byte[] avroEncode(Cell cell, boolean isDelete) throws Exception {
+    HBaseKafkaEvent event = new HBaseKafkaEvent();
+    event.setKey(ByteBuffer.wrap(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()));
+    event.setTable(ByteBuffer.wrap(TABLE));
+    event.setDelete(isDelete);
+    event.setTimestamp(cell.getTimestamp());
+    event.setFamily(
+      ByteBuffer.wrap(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength()));
+    event.setQualifier(ByteBuffer.wrap(cell.getQualifierArray(), cell.getQualifierOffset(),
+      cell.getQualifierLength()));
+    event.setValue(
+      ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+    event.setType((int) cell.getType().getCode());
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(bout, null);
+    new SpecificDatumWriter<HBaseKafkaEvent>(HBaseKafkaEvent.getClassSchema()).write(event,
+      encoder);
+    encoder.flush();
+    return bout.toByteArray();
+  }
+
+  private static byte[] avroEncodeCompact(Cell cell, int column) throws Exception {
+    HBaseKafkaCompactEvent event = new HBaseKafkaCompactEvent();
+    event.setKey(ByteBuffer.wrap(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()));
+    event.setTimestamp(cell.getTimestamp());
+    event.setDelete(false);
+    event.setValue(
+      ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()));
+    event.setQualifier(ByteBuffer.wrap(cell.getQualifierArray(), cell.getQualifierOffset(),
+      cell.getQualifierLength()));
+    event.setColumn(column);
+    if (column == 0) {
+      event.setFamily(
+        ByteBuffer.wrap(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength()));
+      event.setTable(ByteBuffer.wrap(TABLE));
+    } else {
+      event.setFamily(ByteBuffer.allocate(0));
+      event.setTable(ByteBuffer.allocate(0));
+    }
+    event.setType((int) cell.getType().getCode());
+
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(bout, null);
+    new SpecificDatumWriter<HBaseKafkaCompactEvent>(HBaseKafkaCompactEvent.getClassSchema())
+      .write(event, encoder);
+    encoder.flush();
+    return bout.toByteArray();
+  }
+
+  private static Cell cell(String row, long ts, String qualifier, byte[] value) {
+    return new KeyValue(row.getBytes(StandardCharsets.UTF_8),
+      "FAMILY".getBytes(StandardCharsets.UTF_8), qualifier.getBytes(StandardCharsets.UTF_8), ts,
+      value);
+  }
+
+  @Test
+  public void testSameBytesAsAvro() throws Exception {
+    byte[] encodedTable = HBaseKafkaEventEncoder.encodeBytesField(TABLE);
+    HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+
+    byte[] value = "value".getBytes(StandardCharsets.UTF_8);
+    Cell[] cells = new Cell[] { cell("key1", 0L, "q", new byte[0]),
+      cell("key1", System.currentTimeMillis(), "qualifier", value),
+      cell("k", Long.MAX_VALUE, "", new byte[300]), cell("row", 63L, "x", new byte[64 * 1024]),
+      new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("FAMILY"), null, 5L,
+        KeyValue.Type.DeleteFamily),
+      new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("FAMILY"), null, 5L,
+        KeyValue.Type.DeleteColumn) };
+    for (Cell c : cells) {
+      for (boolean isDelete : new boolean[] { true, false }) {
+        Assert.assertArrayEquals(avroEncode(c, isDelete),
+          encoder.encode(c, encodedTable, isDelete).toByteArray());
+      }
+    }
+  }
+
+  @Test
+  public void testEncodeToArray() throws Exception {
+    byte[] encodedTable = HBaseKafkaEventEncoder.encodeBytesField(TABLE);
+    HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+
+    KeyValue large = (KeyValue) cell("row", 63L, "x", new byte[4 * 1024 * 1024]);
+    // the same cell as it is decoded from an off heap cell block
+    ByteBuffer offHeap = ByteBuffer.allocateDirect(large.getLength());
+    offHeap.put(large.getBuffer(), large.getOffset(), large.getLength());
+    Cell[] cells = new Cell[] { cell("key1", 0L, "q", new byte[0]),
+      cell("k", Long.MAX_VALUE, "", new byte[300]), large,
+      new ByteBufferKeyValue(offHeap, 0, large.getLength()) };
+    for (Cell c : cells) {
+      for (boolean isDelete : new boolean[] { true, false }) {
+        Assert.assertArrayEquals(avroEncode(c, isDelete),
+          encoder.encodeToArray(c, encodedTable, isDelete));
+      }
+    }
+    // the large value never went through the buffer
+    Assert.assertTrue(encoder.size() < 1024);
+  }
+
+  @Test
+  public void testCompactSameBytesAsAvro() throws Exception {
+    byte[] encodedTable = HBaseKafkaEventEncoder.encodeBytesField(TABLE);
+    HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+    Cell[] cells = new Cell[] { cell("key1", 0L, "q", new byte[0]),
+      cell("k", Long.MAX_VALUE, "", new byte[300]) };
+    for (Cell c : cells) {
+      for (int id : new int[] { 1, 63, 64, Integer.MAX_VALUE }) {
+        Assert.assertArrayEquals(avroEncodeCompact(c, id), encoder.encodeCompactToArray(c, null,
+          HBaseKafkaEventEncoder.encodeColumnId(id), encodedTable, false));
+      }
+      // a column without an id carries its family and table
+      Assert.assertArrayEquals(avroEncodeCompact(c, 0),
+        encoder.encodeCompactToArray(c, null, null, encodedTable, false));
+    }
+  }
+
+  @Test
+  public void testOversizedBufferIsDropped() {
+    byte[] encodedTable = HBaseKafkaEventEncoder.encodeBytesField(TABLE);
+    HBaseKafkaEventEncoder encoder = new HBaseKafkaEventEncoder();
+    encoder.encode(cell("row", 1L, "q", new byte[4 * 1024 * 1024]), encodedTable, false);
+    Assert.assertTrue(encoder.size() > 4 * 1024 * 1024);
+    byte[] small = encoder.encode(cell("row", 1L, "q", new byte[1]), encodedTable, false)
+      .toByteArray();
+    Assert.assertEquals(encoder.size(), small.length);
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test that encoding a batch on a pool gives the same records, in the same order
+ */
+@Category(SmallTests.class)
+public class TestParallelEncoding {
+  private static final String RULES = "<rules>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"a\" topic=\"foo\"/>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"b\" topic=\"foo\"/>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"b\" topic=\"bar\"/>"
+    + "<rule action=\"drop\" table=\"MyNamespace:MyTable\" columnFamily=\"c\"/>" + "</rules>";
+
+  private static List<Row> getRows() {
+    List<Row> rows = new ArrayList<>();
+    for (int r = 0; r < 500; r++) {
+      Put put = new Put(Bytes.toBytes("row" + r), r);
+      // rows of different widths, some with dropped cells only
+      for (int q = 0; q < r % 4; q++) {
+        put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q" + q), Bytes.toBytes("v" + r + q));
+      }
+      put.addColumn(Bytes.toBytes(r % 7 == 0 ? "c" : "b"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+      rows.add(put);
+    }
+    return rows;
+  }
+
+  private static List<ProducerRecord<byte[], byte[]>> send(String envelope,
+    ExecutorService encodePool) throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    Configuration conf = new Configuration();
+    conf.set(KafkaProxy.KAFKA_PROXY_ENVELOPE, envelope);
+    conf.setInt(KafkaProxy.KAFKA_PROXY_ENCODE_PARALLEL_MIN_CELLS, 50);
+    MockProducer<byte[], byte[]> producer =
+      new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+    KafkaTableForBridge table = new KafkaTableForBridge(TableName.valueOf("MyNamespace:MyTable"),
+      conf, rules, new KafkaTableForBridge.Collaborators(new ProducerPool(producer),
+        new KafkaProxyMetrics()).setEncodePool(encodePool));
+    table.batch(getRows(), new Object[0]);
+    return producer.history();
+  }
+
+  private static void assertSameRecords(List<ProducerRecord<byte[], byte[]>> expected,
+    List<ProducerRecord<byte[], byte[]>> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(expected.get(i).topic(), actual.get(i).topic());
+      Assert.assertArrayEquals(expected.get(i).key(), actual.get(i).key());
+      Assert.assertArrayEquals(expected.get(i).value(), actual.get(i).value());
+    }
+  }
+
+  @Test
+  public void testSameRecordsInOrder() throws Exception {
+    ExecutorService encodePool = Executors.newFixedThreadPool(4);
+    try {
+      List<ProducerRecord<byte[], byte[]>> sequential = send("none", null);
+      // 750 cells of family a, 428 of family b that go to both topics
+      Assert.assertEquals(750 + 2 * 428, sequential.size());
+      assertSameRecords(sequential, send("none", encodePool));
+      assertSameRecords(send("row", null), send("row", encodePool));
+      assertSameRecords(send("batch", null), send("batch", encodePool));
+    } finally {
+      encodePool.shutdown();
+    }
+  }
+}
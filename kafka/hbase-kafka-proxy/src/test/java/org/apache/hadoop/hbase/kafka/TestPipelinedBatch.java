@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test that pipelined batches are acknowledged through the in flight budget
+ */
+@Category(SmallTests.class)
+public class TestPipelinedBatch {
+  private static final String ROUTE_RULE1 =
+    "<rules><rule action=\"route\" table=\"MyNamespace:MyTable\" " + "topic=\"foo\"/></rules>";
+
+  private static TopicRoutingRules getRules() {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(ROUTE_RULE1.getBytes(StandardCharsets.UTF_8)));
+    return rules;
+  }
+
+  private static Configuration getConf() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(KafkaProxy.KAFKA_PROXY_PIPELINED_BATCHES, true);
+    // only one record in flight at a time, the batch has to wait on callbacks to make progress
+    conf.setLong(KafkaProxy.KAFKA_PROXY_INFLIGHT_MAX_RECORDS, 1);
+    return conf;
+  }
+
+  private static List<Row> getRows(int columns) {
+    Put put = new Put("key1".getBytes(StandardCharsets.UTF_8), System.currentTimeMillis());
+    for (int i = 0; i < columns; i++) {
+      put.addColumn("FAMILY".getBytes(StandardCharsets.UTF_8),
+        ("q" + i).getBytes(StandardCharsets.UTF_8), "VALUE".getBytes(StandardCharsets.UTF_8));
+    }
+    List<Row> rows = new ArrayList<>();
+    rows.add(put);
+    return rows;
+  }
+
+  @Test
+  public void testPipelinedSend() throws Exception {
+    ProducerForTesting myTestingProducer = new ProducerForTesting();
+    KafkaBridgeConnection connection =
+      new KafkaBridgeConnection(getConf(), getRules(), myTestingProducer);
+    Table myTable = connection.getTable(TableName.valueOf("MyNamespace:MyTable"));
+    myTable.batch(getRows(10), new Object[0]);
+
+    Assert.assertEquals(10, myTestingProducer.getMessages().get("foo").size());
+    Assert.assertEquals(10, myTestingProducer.history().size());
+  }
+
+  @Test
+  public void testPipelinedSendFailure() throws Exception {
+    MockProducer<byte[], byte[]> producer =
+      new MockProducer<>(false, new MockSerializer(), new MockSerializer());
+    KafkaBridgeConnection connection = new KafkaBridgeConnection(getConf(), getRules(), producer);
+    Table myTable = connection.getTable(TableName.valueOf("MyNamespace:MyTable"));
+
+    Thread acker = new Thread(() -> {
+      // acknowledge the first record and fail the second one
+      int acked = 0;
+      while (acked < 2) {
+        boolean done =
+          acked == 0 ? producer.completeNext() : producer.errorNext(new RuntimeException("boom"));
+        if (done) {
+          acked++;
+        } else {
+          Thread.yield();
+        }
+      }
+    });
+    acker.start();
+    try {
+      myTable.batch(getRows(2), new Object[0]);
+      Assert.fail("batch should have failed");
+    } catch (IOException e) {
+      Assert.assertEquals("boom", e.getCause().getMessage());
+    } finally {
+      acker.join();
+    }
+  }
+
+  @Test
+  public void testLimiterLetsOversizedRecordThrough() throws Exception {
+    InFlightLimiter limiter = new InFlightLimiter(10, 10);
+    limiter.acquire(100);
+    Assert.assertEquals(1, limiter.getRecordsInFlight());
+    Assert.assertEquals(100, limiter.getBytesInFlight());
+    limiter.release(100);
+    Assert.assertEquals(0, limiter.getRecordsInFlight());
+    Assert.assertEquals(0, limiter.getBytesInFlight());
+  }
+
+  @Test
+  public void testPipelinedBatchesGetSeveralHandlers() {
+    // a pipelined batch still holds its handler until it is acknowledged
+    Assert.assertEquals(1, KafkaProxy.getDefaultReplicationHandlerCount(getRules(), false));
+    Assert.assertEquals(KafkaProxy.DEFAULT_KAFKA_PROXY_CONCURRENT_HANDLER_COUNT,
+      KafkaProxy.getDefaultReplicationHandlerCount(getRules(), true));
+  }
+}
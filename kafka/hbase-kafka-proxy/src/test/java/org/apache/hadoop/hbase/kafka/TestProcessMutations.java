@@ -22,11 +22,13 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.Table;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -72,4 +74,35 @@ public class TestProcessMutations {
       Assert.fail(e.getMessage());
     }
   }
+
+  @Test
+  public void testSendCells() throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(ROUTE_RULE1.getBytes(StandardCharsets.UTF_8)));
+    KafkaBridgeConnection connection =
+      new KafkaBridgeConnection(new Configuration(), rules, myTestingProducer);
+    KafkaTableForBridge myTable =
+      (KafkaTableForBridge) connection.getTable(TableName.valueOf("MyNamespace:MyTable"));
+    byte[] family = "FAMILY".getBytes(StandardCharsets.UTF_8);
+    byte[] qualifier = "foo".getBytes(StandardCharsets.UTF_8);
+
+    // cells as they come out of a replicated WAL entry, two rows and a delete marker
+    KafkaTableForBridge.CellBatch batch = myTable.newCellBatch();
+    batch.add(new KeyValue("key1".getBytes(StandardCharsets.UTF_8), family, qualifier, 1L,
+      "value1".getBytes(StandardCharsets.UTF_8)));
+    batch.add(new KeyValue("key2".getBytes(StandardCharsets.UTF_8), family, qualifier, 2L,
+      "value2".getBytes(StandardCharsets.UTF_8)));
+    batch.add(new KeyValue("key2".getBytes(StandardCharsets.UTF_8), family, qualifier, 3L,
+      KeyValue.Type.DeleteColumn));
+    batch.send();
+
+    List<HBaseKafkaEvent> events = myTestingProducer.getMessages().get("foo");
+    Assert.assertEquals(3, events.size());
+    Assert.assertEquals("key1", Bytes.toString(events.get(0).getKey().array()));
+    Assert.assertFalse(events.get(0).getDelete());
+    Assert.assertEquals("key2", Bytes.toString(events.get(1).getKey().array()));
+    Assert.assertEquals("value2", Bytes.toString(events.get(1).getValue().array()));
+    Assert.assertTrue(events.get(2).getDelete());
+    Assert.assertEquals(3L, events.get(2).getTimestamp());
+  }
 }
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test the producer batching settings of route rules and how they are adapted
+ */
+@Category(SmallTests.class)
+public class TestProducerBatching {
+  private static final String RULES = "<rules>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"a\" topic=\"fast\"/>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"b\" topic=\"bulk\""
+    + " compression=\"snappy\" lingerMs=\"50\" batchSize=\"262144\"/>" + "</rules>";
+
+  private static TopicRoutingRules getRules() {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    return rules;
+  }
+
+  private static Configuration getAdaptiveConf() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(KafkaProxy.KAFKA_PROXY_BATCHING_ADAPTIVE, true);
+    conf.setLong(KafkaProxy.KAFKA_PROXY_BATCHING_LATENCY_TARGET_MS, 100);
+    conf.setInt(KafkaProxy.KAFKA_PROXY_BATCHING_MAX_LINGER_MS, 20);
+    conf.setInt(KafkaProxy.KAFKA_PROXY_BATCHING_MIN_BATCH_SIZE, 16 * 1024);
+    conf.setInt(KafkaProxy.KAFKA_PROXY_BATCHING_MAX_BATCH_SIZE, 1024 * 1024);
+    return conf;
+  }
+
+  @Test
+  public void testRuleProfiles() {
+    TopicRoutingRules rules = getRules();
+    Assert.assertEquals(ProducerProfile.DEFAULT, rules.getProducerProfile("fast"));
+    Assert.assertEquals(new ProducerProfile("snappy", 50, 262144),
+      rules.getProducerProfile("bulk"));
+    Assert.assertEquals(ProducerProfile.DEFAULT, rules.getProducerProfile("unknown"));
+  }
+
+  @Test
+  public void testProducerPerProfile() throws Exception {
+    List<Properties> created = new ArrayList<>();
+    List<MockProducer<byte[], byte[]>> producers = new ArrayList<>();
+    ProducerPool pool = new ProducerPool(new Properties(), (props) -> {
+      MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+      created.add(props);
+      producers.add(producer);
+      return producer;
+    }, new BatchingPolicy(new Configuration()));
+    Table table = new KafkaTableForBridge(TableName.valueOf("MyNamespace:MyTable"),
+      new Configuration(), getRules(),
+      new KafkaTableForBridge.Collaborators(pool, new KafkaProxyMetrics()));
+
+    List<Row> rows = new ArrayList<>();
+    for (int r = 0; r < 2; r++) {
+      Put put = new Put(Bytes.toBytes("row" + r), 1L);
+      put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+      put.addColumn(Bytes.toBytes("b"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+      rows.add(put);
+    }
+    table.batch(rows, new Object[0]);
+    table.batch(rows, new Object[0]);
+
+    // one producer per profile, reused by the second batch
+    Assert.assertEquals(2, producers.size());
+    Assert.assertEquals(4, producers.get(0).history().size());
+    Assert.assertEquals(4, producers.get(1).history().size());
+    Assert.assertEquals("fast", producers.get(0).history().get(0).topic());
+    Assert.assertNull(created.get(0).get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+    Assert.assertEquals("bulk", producers.get(1).history().get(0).topic());
+    Assert.assertEquals("snappy", created.get(1).get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+    Assert.assertEquals("50", created.get(1).get(ProducerConfig.LINGER_MS_CONFIG));
+    Assert.assertEquals("262144", created.get(1).get(ProducerConfig.BATCH_SIZE_CONFIG));
+    pool.close();
+    Assert.assertTrue(producers.get(0).closed());
+  }
+
+  @Test
+  public void testRowStriping() throws Exception {
+    List<MockProducer<byte[], byte[]>> producers = new ArrayList<>();
+    ProducerPool pool = new ProducerPool(new Properties(), (props) -> {
+      MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+      producers.add(producer);
+      return producer;
+    }, new BatchingPolicy(new Configuration()), 4, ProducerPool.Striping.ROW);
+    Table table = new KafkaTableForBridge(TableName.valueOf("MyNamespace:MyTable"),
+      new Configuration(), getRules(),
+      new KafkaTableForBridge.Collaborators(pool, new KafkaProxyMetrics()));
+
+    List<Row> rows = new ArrayList<>();
+    for (int r = 0; r < 64; r++) {
+      Put put = new Put(Bytes.toBytes("row" + r), 1L);
+      put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q1"), Bytes.toBytes("v"));
+      put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q2"), Bytes.toBytes("v"));
+      rows.add(put);
+    }
+    table.batch(rows, new Object[0]);
+
+    // the rows are spread over all the stripes, but every row stays on one producer
+    Assert.assertEquals(4, producers.size());
+    Set<Integer> stripes = new HashSet<>();
+    int records = 0;
+    for (MockProducer<byte[], byte[]> producer : producers) {
+      int stripe = pool.stripeOf(producer.history().get(0));
+      Assert.assertTrue(stripes.add(stripe));
+      for (ProducerRecord<byte[], byte[]> record : producer.history()) {
+        Assert.assertEquals(stripe, pool.stripeOf(record));
+        records++;
+      }
+    }
+    Assert.assertEquals(128, records);
+    pool.close();
+  }
+
+  @Test
+  public void testCloseReplacedProducerStillLeased() {
+    Configuration conf = getAdaptiveConf();
+    conf.setLong(KafkaProxy.KAFKA_PROXY_BATCHING_INTERVAL_MS, 0);
+    List<MockProducer<byte[], byte[]>> producers = new ArrayList<>();
+    ProducerPool pool = new ProducerPool(new Properties(), (props) -> {
+      MockProducer<byte[], byte[]> producer =
+        new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+      producers.add(producer);
+      return producer;
+    }, new BatchingPolicy(conf));
+    RoutingTable rules = getRules().getSnapshot();
+    ProducerRecord<byte[], byte[]> record =
+      new ProducerRecord<>("fast", Bytes.toBytes("row"), new byte[1024]);
+
+    ProducerPool.Lease running = pool.lease(rules);
+    running.producerFor(record);
+    ProducerPool.Lease done = pool.lease(rules);
+    done.producerFor(record);
+    // adapting the settings replaces the producer the running batch still holds
+    done.close();
+    Assert.assertEquals(2, producers.size());
+    Assert.assertFalse(producers.get(0).closed());
+
+    pool.close();
+    Assert.assertTrue(producers.get(0).closed());
+    Assert.assertTrue(producers.get(1).closed());
+    // the batch returning after shutdown does not close it again
+    running.close();
+  }
+
+  @Test
+  public void testAdaptBatchSizeAndLinger() {
+    BatchingPolicy policy = new BatchingPolicy(getAdaptiveConf());
+    ProducerProfile requested = ProducerProfile.DEFAULT;
+    ProducerProfile current = policy.initial(requested);
+
+    // 100KB per batch compressed to half, acked in 40ms
+    ProducerProfile next = policy.adapt(requested, current,
+      new BatchingPolicy.Observations(100 * 1024, 40, 0.5));
+    Assert.assertEquals(Integer.valueOf(64 * 1024), next.getBatchSize());
+    Assert.assertEquals(Integer.valueOf(20), next.getLingerMs());
+
+    // small changes are not worth a new producer
+    Assert.assertSame(next,
+      policy.adapt(requested, next, new BatchingPolicy.Observations(110 * 1024, 45, 0.5)));
+
+    // acks are slower than the target, stop lingering
+    ProducerProfile slow =
+      policy.adapt(requested, next, new BatchingPolicy.Observations(100 * 1024, 150, 0.5));
+    Assert.assertEquals(Integer.valueOf(0), slow.getLingerMs());
+
+    // huge batches are capped
+    ProducerProfile big = policy.adapt(requested, next,
+      new BatchingPolicy.Observations(64 * 1024 * 1024, 40, Double.NaN));
+    Assert.assertEquals(Integer.valueOf(1024 * 1024), big.getBatchSize());
+  }
+
+  @Test
+  public void testRuleSettingsAreKept() {
+    BatchingPolicy policy = new BatchingPolicy(getAdaptiveConf());
+    ProducerProfile requested = new ProducerProfile("snappy", 50, 262144);
+    ProducerProfile current = policy.initial(requested);
+    Assert.assertSame(current, policy.adapt(requested, current,
+      new BatchingPolicy.Observations(1024, 500, 0.99)));
+  }
+
+  @Test
+  public void testAutoCompression() {
+    BatchingPolicy policy = new BatchingPolicy(getAdaptiveConf());
+    ProducerProfile requested = new ProducerProfile(ProducerProfile.AUTO, 5, 65536);
+    ProducerProfile current = policy.initial(requested);
+    Assert.assertEquals("lz4", current.getCompression());
+    Assert.assertEquals("lz4",
+      current.apply(new Properties()).get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+
+    ProducerProfile next =
+      policy.adapt(requested, current, new BatchingPolicy.Observations(1024, 10, 0.98));
+    Assert.assertEquals("none", next.getCompression());
+    Assert.assertEquals(Integer.valueOf(5), next.getLingerMs());
+    Assert.assertEquals(Integer.valueOf(65536), next.getBatchSize());
+
+    // adaptation is off by default
+    BatchingPolicy fixed = new BatchingPolicy(new Configuration());
+    Assert.assertSame(current,
+      fixed.adapt(requested, current, new BatchingPolicy.Observations(1024, 10, 0.98)));
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test the metrics the proxy keeps about replication batches
+ */
+@Category(SmallTests.class)
+public class TestProxyMetrics {
+  private static final String RULES = "<rules>"
+    + "<rule action=\"drop\" table=\"MyNamespace:MyTable\" columnFamily=\"secret\"/>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"data\" topic=\"foo\"/>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"data\" "
+    + "qualifier=\"both*\" topic=\"bar\"/>" + "</rules>";
+
+  @Test
+  public void testBatchMetrics() throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    MockProducer<byte[], byte[]> producer =
+      new MockProducer<>(true, new MockSerializer(), new MockSerializer());
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    Table table = new KafkaTableForBridge(TableName.valueOf("MyNamespace:MyTable"),
+      new Configuration(), rules,
+      new KafkaTableForBridge.Collaborators(new ProducerPool(producer), metrics));
+
+    List<Row> rows = new ArrayList<>();
+    Put put = new Put(Bytes.toBytes("row"), 1L);
+    put.addColumn(Bytes.toBytes("data"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+    put.addColumn(Bytes.toBytes("data"), Bytes.toBytes("both1"), Bytes.toBytes("v"));
+    put.addColumn(Bytes.toBytes("secret"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+    put.addColumn(Bytes.toBytes("other"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+    rows.add(put);
+    table.batch(rows, new Object[0]);
+
+    Assert.assertEquals(4, metrics.getCellsIn());
+    Assert.assertEquals(1, metrics.getCellsDropped());
+    Assert.assertEquals(1, metrics.getCellsUnrouted());
+    Assert.assertEquals(3, metrics.getRecordsSent());
+    Assert.assertEquals(2, metrics.getRecordsSent("foo"));
+    Assert.assertEquals(1, metrics.getRecordsSent("bar"));
+    long bytes = 0;
+    for (ProducerRecord<byte[], byte[]> record : producer.history()) {
+      bytes += record.value().length;
+    }
+    Assert.assertEquals(bytes, metrics.getBytesEncoded());
+    // everything was acknowledged
+    Assert.assertEquals(0, metrics.getInFlightRecords());
+    Assert.assertEquals(0, metrics.getSendFailures());
+  }
+}
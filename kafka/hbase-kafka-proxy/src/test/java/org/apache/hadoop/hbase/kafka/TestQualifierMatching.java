@@ -18,6 +18,7 @@
 package org.apache.hadoop.hbase.kafka;
 
 import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
 import org.apache.hadoop.hbase.testclassification.SmallTests;
 import org.junit.Assert;
 import org.junit.Test;
@@ -73,4 +74,110 @@ public class TestQualifierMatching {
     Assert.assertFalse(rule.qualifierMatch("d".getBytes(StandardCharsets.UTF_8)));
     Assert.assertFalse(rule.qualifierMatch("".getBytes(StandardCharsets.UTF_8)));
   }
+
+  @Test
+  public void testGlobQualifier() {
+    DropRule rule = new DropRule();
+    rule.setQualifierPattern(new ByteAutomaton.Pattern(ByteAutomaton.Syntax.GLOB, "d?t[a-c]*"));
+    Assert.assertTrue(rule.qualifierMatch("data".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertTrue(rule.qualifierMatch("dotc_1".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertFalse(rule.qualifierMatch("dtab".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertFalse(rule.qualifierMatch("datd".getBytes(StandardCharsets.UTF_8)));
+
+    rule.setQualifierPattern(new ByteAutomaton.Pattern(ByteAutomaton.Syntax.GLOB, "[!x]\\*"));
+    Assert.assertTrue(rule.qualifierMatch("a*".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertFalse(rule.qualifierMatch("ab".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertFalse(rule.qualifierMatch("x*".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testRegexQualifier() {
+    DropRule rule = new DropRule();
+    rule.setQualifierPattern(
+      new ByteAutomaton.Pattern(ByteAutomaton.Syntax.REGEX, "^(user|acct)_\\d+(\\.bak)?$"));
+    Assert.assertTrue(rule.qualifierMatch("user_1".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertTrue(rule.qualifierMatch("acct_42.bak".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertFalse(rule.qualifierMatch("user_".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertFalse(rule.qualifierMatch("xuser_1".getBytes(StandardCharsets.UTF_8)));
+
+    // the qualifier does not have to start at the beginning of its array
+    byte[] padded = "__user_7__".getBytes(StandardCharsets.UTF_8);
+    Assert.assertTrue(rule.getQualifierPattern().matches(padded, 2, padded.length - 4));
+  }
+
+  private static boolean regexMatch(String regex, String qualifier) {
+    byte[] bytes = qualifier.getBytes(StandardCharsets.UTF_8);
+    return new ByteAutomaton.Pattern(ByteAutomaton.Syntax.REGEX, regex).matches(bytes, 0,
+      bytes.length);
+  }
+
+  @Test
+  public void testShorthandInClass() {
+    Assert.assertTrue(regexMatch("^[\\d_]+$", "1_2"));
+    Assert.assertFalse(regexMatch("^[\\d_]+$", "d"));
+    Assert.assertTrue(regexMatch("^[\\w-]+$", "a-Z_9"));
+    Assert.assertFalse(regexMatch("^[\\w-]+$", "a.b"));
+    Assert.assertTrue(regexMatch("^a[\\s]b$", "a b"));
+    Assert.assertFalse(regexMatch("^a[\\s]b$", "asb"));
+    Assert.assertTrue(regexMatch("^[^\\d]$", "x"));
+    Assert.assertFalse(regexMatch("^[^\\d]$", "5"));
+    // other escapes in a class are still the character
+    Assert.assertTrue(regexMatch("^[\\.\\]]+$", ".]"));
+
+    // in a glob class the escape is the letter
+    DropRule rule = new DropRule();
+    rule.setQualifierPattern(new ByteAutomaton.Pattern(ByteAutomaton.Syntax.GLOB, "a[\\d]"));
+    Assert.assertTrue(rule.qualifierMatch("ad".getBytes(StandardCharsets.UTF_8)));
+    Assert.assertFalse(rule.qualifierMatch("a1".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void testLazyQuantifiers() {
+    // a lazy quantifier matches what the greedy one matches, as java does for a whole qualifier
+    Assert.assertFalse(regexMatch("tmp_.+?", "tmp_"));
+    Assert.assertTrue(regexMatch("tmp_.+?", "tmp_1"));
+    Assert.assertTrue(regexMatch("a*?b", "aab"));
+    Assert.assertTrue(regexMatch("a*?b", "b"));
+    Assert.assertFalse(regexMatch("a??b", "aab"));
+    Assert.assertTrue(regexMatch("a??b", "ab"));
+  }
+
+  @Test
+  public void testDotMatchesAnyByte() {
+    // unlike java's default, . matches a line break and each byte of a multi-byte character
+    Assert.assertTrue(regexMatch("a.b", "a\nb"));
+    Assert.assertFalse(regexMatch("a.b", "a\u00e9b"));
+    Assert.assertTrue(regexMatch("a..b", "a\u00e9b"));
+  }
+
+  @Test
+  public void testCombinedPatterns() {
+    ByteAutomaton automaton = new ByteAutomaton.Builder()
+      .add(new ByteAutomaton.Pattern(ByteAutomaton.Syntax.GLOB, "a*"), 0)
+      .add(new ByteAutomaton.Pattern(ByteAutomaton.Syntax.REGEX, "[a-z]+_\\d"), 1)
+      .add(new ByteAutomaton.Pattern(ByteAutomaton.Syntax.GLOB, "*_1"), 2).build();
+    byte[] qualifier = "abc_1".getBytes(StandardCharsets.UTF_8);
+    BitSet matched = new BitSet();
+    automaton.collect(qualifier, 0, qualifier.length, matched);
+    Assert.assertEquals(3, matched.cardinality());
+
+    qualifier = "bc_2".getBytes(StandardCharsets.UTF_8);
+    matched.clear();
+    automaton.collect(qualifier, 0, qualifier.length, matched);
+    Assert.assertEquals(1, matched.cardinality());
+    Assert.assertTrue(matched.get(1));
+  }
+
+  @Test
+  public void testBadPatterns() {
+    for (String regex : new String[] { "a{2}", "(?i)a", "(a", "a)", "*a", "[z-a]",
+      "[a-\\d]", "a*+", "a++b", "a**", "a+*", "a*??", "a?{2}" }) {
+      try {
+        new ByteAutomaton.Pattern(ByteAutomaton.Syntax.REGEX, regex);
+        Assert.fail("expected " + regex + " to be rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.wal.WALEdit;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import org.apache.hbase.thirdparty.com.google.protobuf.ByteString;
+
+import org.apache.hadoop.hbase.shaded.protobuf.generated.AdminProtos.WALEntry;
+import org.apache.hadoop.hbase.shaded.protobuf.generated.WALProtos.WALKey;
+
+/**
+ * Test that the replication sink routes the cells of replicated WAL entries
+ */
+@Category(SmallTests.class)
+public class TestReplicationSink {
+  private static final String RULES = "<rules>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" topic=\"foo\"/>"
+    + "<rule action=\"route\" table=\"MyNamespace:OtherTable\" topic=\"bar\"/>" + "</rules>";
+  private static final byte[] FAMILY = Bytes.toBytes("FAMILY");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private static WALEntry entry(String table, int cells) {
+    WALKey key = WALKey.newBuilder().setEncodedRegionName(ByteString.copyFromUtf8("region"))
+      .setTableName(ByteString.copyFromUtf8(table)).setLogSequenceNumber(1L).setWriteTime(1L)
+      .build();
+    return WALEntry.newBuilder().setKey(key).setAssociatedCellCount(cells).build();
+  }
+
+  private static Cell cell(String row, long ts) {
+    return new KeyValue(Bytes.toBytes(row), FAMILY, QUALIFIER, ts, Bytes.toBytes("v" + ts));
+  }
+
+  @Test
+  public void testReplicateLogEntries() throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    ProducerForTesting producer = new ProducerForTesting();
+    KafkaReplicationSink sink =
+      new KafkaReplicationSink(new KafkaBridgeConnection(new Configuration(), rules, producer));
+
+    List<WALEntry> entries = new ArrayList<>();
+    List<Cell> cells = new ArrayList<>();
+    entries.add(entry("MyNamespace:MyTable", 2));
+    cells.add(cell("row1", 1L));
+    // a bulk load marker, nothing to forward
+    cells.add(new KeyValue(Bytes.toBytes("row1"), WALEdit.METAFAMILY, WALEdit.BULK_LOAD, 2L,
+      Bytes.toBytes("marker")));
+    entries.add(entry("MyNamespace:OtherTable", 1));
+    cells.add(cell("row2", 3L));
+    entries.add(entry("MyNamespace:MyTable", 1));
+    cells.add(cell("row3", 4L));
+    sink.replicateLogEntries(entries, CellUtil.createCellScanner(cells.toArray(new Cell[0])),
+      "cluster", null, null);
+
+    // one batch per table, in the order the tables first show up
+    List<ProducerRecord<byte[], byte[]>> sent = producer.history();
+    Assert.assertEquals(3, sent.size());
+    Assert.assertEquals("foo", sent.get(0).topic());
+    Assert.assertEquals("foo", sent.get(1).topic());
+    Assert.assertEquals("bar", sent.get(2).topic());
+
+    List<HBaseKafkaEvent> foo = producer.getMessages().get("foo");
+    Assert.assertEquals("row1", Bytes.toString(foo.get(0).getKey().array()));
+    Assert.assertEquals(1L, foo.get(0).getTimestamp());
+    Assert.assertEquals("row3", Bytes.toString(foo.get(1).getKey().array()));
+    Assert.assertEquals("MyNamespace:MyTable", Bytes.toString(foo.get(1).getTable().array()));
+    List<HBaseKafkaEvent> bar = producer.getMessages().get("bar");
+    Assert.assertEquals(1, bar.size());
+    Assert.assertEquals("row2", Bytes.toString(bar.get(0).getKey().array()));
+  }
+
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void testMissingCells() throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    KafkaReplicationSink sink = new KafkaReplicationSink(
+      new KafkaBridgeConnection(new Configuration(), rules, new ProducerForTesting()));
+    List<WALEntry> entries = new ArrayList<>();
+    entries.add(entry("MyNamespace:MyTable", 2));
+    sink.replicateLogEntries(entries,
+      CellUtil.createCellScanner(new Cell[] { cell("row1", 1L) }), "cluster", null, null);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Make sure the compiled routing table gives the same answers as evaluating every rule
+ */
+@Category(SmallTests.class)
+public class TestRoutingTable {
+  private static final String[] TABLES = { "default:MyTable", "ns:Other", "ns:Third" };
+  private static final String[] FAMILIES = { "data", "meta", "x" };
+  private static final String[] QUALIFIERS =
+    { "dhold", "dhold:1", "pickme", "xpickme", "pickmex", "secret", "", "d", "hold", "me",
+      "tmp_12", "tmp_" };
+
+  private static String getRules() {
+    StringBuilder sb = new StringBuilder("<rules>");
+    sb.append("<rule action=\"drop\" table=\"ns:Other\" columnFamily=\"x\" />");
+    sb.append("<rule action=\"drop\" qualifier=\"secret*\" />");
+    sb.append("<rule action=\"drop\" table=\"default:MyTable\" qualifier=\"*hold\" />");
+    sb.append("<rule action=\"route\" topic=\"all\" />");
+    sb.append("<rule action=\"route\" table=\"default:MyTable\" topic=\"t1,t2\" />");
+    sb.append("<rule action=\"route\" table=\"default:MyTable\" columnFamily=\"data\" "
+      + "qualifier=\"dhold:*\" topic=\"prefix\" />");
+    sb.append("<rule action=\"route\" columnFamily=\"data\" qualifier=\"*pickme\" "
+      + "topic=\"suffix\" />");
+    sb.append("<rule action=\"route\" table=\"ns:Third\" qualifier=\"*pickme*\" "
+      + "topic=\"both\" />");
+    sb.append("<rule action=\"route\" table=\"ns:Third\" columnFamily=\"meta\" qualifier=\"d\" "
+      + "topic=\"exact,t1\" />");
+    sb.append("<rule action=\"route\" table=\"ns:Other\" qualifier=\"*\" topic=\"star\" />");
+    sb.append("<rule action=\"drop\" table=\"ns:Third\" qualifierRegex=\"tmp_\\d+\" />");
+    sb.append("<rule action=\"route\" table=\"default:MyTable\" qualifierGlob=\"d?old*\" "
+      + "topic=\"glob\" />");
+    sb.append("<rule action=\"route\" columnFamilyRegex=\"m.*|x\" qualifierRegex=\"(pick)?me|d\" "
+      + "topic=\"regex\" />");
+    sb.append("<rule action=\"route\" table=\"ns:Other\" columnFamilyGlob=\"[dm]*\" "
+      + "qualifierGlob=\"*ick*\" topic=\"familyglob\" />");
+    sb.append("</rules>");
+    return sb.toString();
+  }
+
+  private static boolean linearIsExclude(TopicRoutingRules rules, TableName table, byte[] family,
+    byte[] qualifier) {
+    for (DropRule r : rules.getDropRules()) {
+      if (r.match(table, family, qualifier)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static List<String> linearGetTopics(TopicRoutingRules rules, TableName table,
+    byte[] family, byte[] qualifier) {
+    List<String> ret = new ArrayList<>();
+    for (TopicRule r : rules.getRouteRules()) {
+      if (r.match(table, family, qualifier)) {
+        ret.addAll(r.getTopics());
+      }
+    }
+    return ret;
+  }
+
+  @Test
+  public void testSameAsLinearScan() {
+    for (long cacheSize : new long[] { 0, 4, TopicRoutingRules.DEFAULT_DECISION_CACHE_SIZE }) {
+      TopicRoutingRules rules = new TopicRoutingRules();
+      rules.setDecisionCacheSize(cacheSize);
+      rules.parseRules(new ByteArrayInputStream(getRules().getBytes(StandardCharsets.UTF_8)));
+      // twice, so the second round is answered from the cache
+      for (int round = 0; round < 2; round++) {
+        for (String t : TABLES) {
+          TableName table = TableName.valueOf(t);
+          for (String f : FAMILIES) {
+            byte[] family = Bytes.toBytes(f);
+            for (String q : QUALIFIERS) {
+              byte[] qualifier = Bytes.toBytes(q);
+              String msg = t + "/" + f + "/" + q;
+              Assert.assertEquals(msg, linearIsExclude(rules, table, family, qualifier),
+                rules.isExclude(table, family, qualifier));
+              // the topics of the route rules do not depend on the drop rules
+              Assert.assertEquals(msg, linearGetTopics(rules, table, family, qualifier),
+                rules.getTopics(table, family, qualifier));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testTopicsOfDroppedCell() {
+    String xml = "<rules>"
+      + "<rule action=\"drop\" table=\"default:MyTable\" columnFamily=\"data\" qualifier=\"tmp*\"/>"
+      + "<rule action=\"route\" table=\"default:MyTable\" topic=\"all\"/>"
+      + "<rule action=\"route\" table=\"default:MyTable\" columnFamily=\"data\" topic=\"data\"/>"
+      + "</rules>";
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    TableName table = TableName.valueOf("default:MyTable");
+    byte[] family = Bytes.toBytes("data");
+    byte[] qualifier = Bytes.toBytes("tmp1");
+    Assert.assertTrue(rules.isExclude(table, family, qualifier));
+    Assert.assertTrue(rules.route(table, family, qualifier, 0, qualifier.length).isDrop());
+    Assert.assertEquals(Arrays.asList("all", "data"), rules.getTopics(table, family, qualifier));
+    Assert.assertEquals(linearGetTopics(rules, table, family, qualifier),
+      rules.getTopics(table, family, qualifier));
+  }
+
+  @Test
+  public void testQualifierInPlace() {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(getRules().getBytes(StandardCharsets.UTF_8)));
+    byte[] padded = Bytes.toBytes("__dhold:1__");
+    RoutingTable.Decision decision = rules.route(TableName.valueOf("default:MyTable"),
+      Bytes.toBytes("data"), padded, 2, padded.length - 4);
+    Assert.assertFalse(decision.isDrop());
+    Assert.assertTrue(decision.getTopics().contains("prefix"));
+
+    // a different qualifier in the same backing array must not hit the cached decision
+    decision = rules.route(TableName.valueOf("default:MyTable"), Bytes.toBytes("data"), padded, 0,
+      padded.length);
+    Assert.assertFalse(decision.getTopics().contains("prefix"));
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test that every cell of a mutation goes to the partition picked for its row, in order
+ */
+@Category(SmallTests.class)
+public class TestRowPartitioner {
+  private static final String ROUTE_RULE1 =
+    "<rules><rule action=\"route\" table=\"MyNamespace:MyTable\" " + "topic=\"foo\"/></rules>";
+  private static final int PARTITIONS = 8;
+
+  private static MockProducer<byte[], byte[]> getProducer() {
+    Node node = new Node(0, "localhost", 9092);
+    List<PartitionInfo> partitions = new ArrayList<>();
+    for (int i = 0; i < PARTITIONS; i++) {
+      partitions.add(new PartitionInfo("foo", i, node, new Node[] { node }, new Node[] { node }));
+    }
+    Cluster cluster = new Cluster("cluster", Collections.singletonList(node), partitions,
+      Collections.emptySet(), Collections.emptySet());
+    return new MockProducer<>(cluster, true, new DefaultPartitioner(), new MockSerializer(),
+      new MockSerializer());
+  }
+
+  private static List<ProducerRecord<byte[], byte[]>> send(String partitioner) throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(ROUTE_RULE1.getBytes(StandardCharsets.UTF_8)));
+    Configuration conf = new Configuration();
+    conf.set(KafkaProxy.KAFKA_PROXY_PARTITIONER, partitioner);
+    MockProducer<byte[], byte[]> producer = getProducer();
+    KafkaBridgeConnection connection = new KafkaBridgeConnection(conf, rules, producer);
+    Table myTable = connection.getTable(TableName.valueOf("MyNamespace:MyTable"));
+
+    List<Row> rows = new ArrayList<>();
+    for (int r = 0; r < 20; r++) {
+      Put put = new Put(Bytes.toBytes("row" + r), 1L);
+      for (int q = 0; q < 5; q++) {
+        put.addColumn(Bytes.toBytes("FAMILY"), Bytes.toBytes("q" + q), Bytes.toBytes("v" + q));
+      }
+      rows.add(put);
+    }
+    myTable.batch(rows, new Object[0]);
+    return producer.history();
+  }
+
+  private static void assertRowsInOrder(List<ProducerRecord<byte[], byte[]>> records) {
+    Assert.assertEquals(100, records.size());
+    Map<String, Integer> partitionOfRow = new HashMap<>();
+    Map<String, Integer> nextQualifier = new HashMap<>();
+    for (ProducerRecord<byte[], byte[]> record : records) {
+      String row = Bytes.toString(record.key());
+      Integer partition = partitionOfRow.putIfAbsent(row, record.partition());
+      if (partition != null) {
+        Assert.assertEquals(partition, record.partition());
+      }
+      // the cells of the row come in the order of the mutation
+      int q = nextQualifier.getOrDefault(row, 0);
+      Assert.assertTrue(Bytes.toString(record.value()).contains("v" + q));
+      nextQualifier.put(row, q + 1);
+    }
+  }
+
+  @Test
+  public void testRowPartitioner() throws Exception {
+    List<ProducerRecord<byte[], byte[]>> records = send("row");
+    assertRowsInOrder(records);
+    for (ProducerRecord<byte[], byte[]> record : records) {
+      int expected = Utils.toPositive(Utils.murmur2(record.key())) % PARTITIONS;
+      Assert.assertEquals(Integer.valueOf(expected), record.partition());
+    }
+  }
+
+  @Test
+  public void testTableRowPartitioner() throws Exception {
+    List<ProducerRecord<byte[], byte[]>> records = send("table-row");
+    assertRowsInOrder(records);
+    byte[] table = Bytes.toBytes("MyNamespace:MyTable");
+    for (ProducerRecord<byte[], byte[]> record : records) {
+      int expected =
+        Utils.toPositive(Utils.murmur2(Bytes.add(table, record.key()))) % PARTITIONS;
+      Assert.assertEquals(Integer.valueOf(expected), record.partition());
+    }
+  }
+
+  @Test
+  public void testCustomPartitioner() throws Exception {
+    for (ProducerRecord<byte[], byte[]> record : send(FirstPartition.class.getName())) {
+      Assert.assertEquals(Integer.valueOf(0), record.partition());
+    }
+  }
+
+  @Test
+  public void testProducerPartitioner() throws Exception {
+    // by default the partition is left to the producer
+    for (ProducerRecord<byte[], byte[]> record : send("kafka")) {
+      Assert.assertNull(record.partition());
+    }
+  }
+
+  public static class FirstPartition implements RowPartitioner {
+    @Override
+    public int partition(String topic, byte[] table, byte[] key, int numPartitions) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test that route rules are reloaded from their file as one snapshot
+ */
+@Category(SmallTests.class)
+public class TestRuleReload {
+  private static final TableName TABLE = TableName.valueOf("MyNamespace:MyTable");
+  private static final byte[] FAMILY = Bytes.toBytes("data");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static String getRules(String topic) {
+    return "<rules><rule action=\"route\" table=\"MyNamespace:MyTable\" topic=\"" + topic
+      + "\"/></rules>";
+  }
+
+  private static void write(File file, String text) throws IOException {
+    // write next to the file and rename it over, like a deployment would
+    File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+    Files.write(tmp.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String getTopic(RoutingTable rules) {
+    return rules.route(TABLE, FAMILY, QUALIFIER, 0, QUALIFIER.length).getTopics().get(0);
+  }
+
+  @Test
+  public void testSnapshotIsKept() throws Exception {
+    File file = folder.newFile("rules.xml");
+    write(file, getRules("foo"));
+    TopicRoutingRules rules = new TopicRoutingRules(file, 1000);
+    RoutingTable before = rules.getSnapshot();
+
+    write(file, getRules("bar"));
+    rules.reloadIfFile();
+
+    // a batch that started before the reload keeps routing with the old rules
+    Assert.assertEquals("foo", getTopic(before));
+    Assert.assertEquals("bar", getTopic(rules.getSnapshot()));
+    Assert.assertEquals(1, rules.getRouteRules().size());
+  }
+
+  @Test
+  public void testBadFileKeepsRules() throws Exception {
+    File file = folder.newFile("rules.xml");
+    write(file, getRules("foo"));
+    TopicRoutingRules rules = new TopicRoutingRules(file, 1000);
+
+    write(file, "<rules><rule action=\"route\"");
+    try {
+      rules.reloadIfFile();
+      Assert.fail("a truncated file should not load");
+    } catch (RuntimeException e) {
+      // expected
+    }
+    Assert.assertEquals("foo", getTopic(rules.getSnapshot()));
+  }
+
+  @Test
+  public void testWatcherReloads() throws Exception {
+    File file = folder.newFile("rules.xml");
+    write(file, getRules("foo"));
+    TopicRoutingRules rules = new TopicRoutingRules(file, 1000);
+    try (RuleFileWatcher watcher = new RuleFileWatcher(rules, 50)) {
+      watcher.start();
+      write(file, getRules("bar"));
+      long deadline = System.currentTimeMillis() + 30000;
+      while (!"bar".equals(getTopic(rules.getSnapshot()))) {
+        Assert.assertTrue("rules were not reloaded", System.currentTimeMillis() < deadline);
+        Thread.sleep(50);
+      }
+    }
+  }
+}
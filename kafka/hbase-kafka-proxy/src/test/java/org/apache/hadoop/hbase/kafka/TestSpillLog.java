@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.errors.TopicAuthorizationException;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test spilling replication batches to disk while kafka is down
+ */
+@Category(SmallTests.class)
+public class TestSpillLog {
+  private static final TableName TABLE = TableName.valueOf("MyNamespace:MyTable");
+  private static final String RULES = "<rules>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" topic=\"foo\"/>" + "</rules>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * A producer that fails every send while kafka is down.
+   */
+  private static final class FlakyProducer extends MockProducer<byte[], byte[]> {
+    volatile boolean down = true;
+
+    FlakyProducer() {
+      super(true, new MockSerializer(), new MockSerializer());
+    }
+
+    @Override
+    public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record,
+      Callback callback) {
+      if (down) {
+        throw new KafkaException("kafka is down");
+      }
+      return super.send(record, callback);
+    }
+  }
+
+  private static List<ProducerRecord<byte[], byte[]>> getRecords(String prefix, int count) {
+    List<ProducerRecord<byte[], byte[]>> records = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      records.add(new ProducerRecord<byte[], byte[]>("foo", Bytes.toBytes(prefix + i),
+        Bytes.toBytes("value" + i)));
+    }
+    return records;
+  }
+
+  private static void assertRecords(List<ProducerRecord<byte[], byte[]>> expected,
+    List<ProducerRecord<byte[], byte[]>> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(expected.get(i).topic(), actual.get(i).topic());
+      Assert.assertArrayEquals(expected.get(i).key(), actual.get(i).key());
+      Assert.assertArrayEquals(expected.get(i).value(), actual.get(i).value());
+    }
+  }
+
+  @Test
+  public void testAppendAndRemoveInOrder() throws Exception {
+    File dir = folder.newFolder();
+    SpillLog log = new SpillLog(dir, 4096, 64 * 1024, false);
+    List<List<ProducerRecord<byte[], byte[]>>> batches = new ArrayList<>();
+    // enough batches to fill several segments
+    for (int b = 0; b < 50; b++) {
+      batches.add(getRecords("batch" + b + "-", 10));
+      Assert.assertTrue(log.append(TABLE, batches.get(b)));
+    }
+    Assert.assertTrue(dir.list().length > 1);
+    Assert.assertEquals(50, log.getPendingEntries());
+    for (int b = 0; b < 50; b++) {
+      SpillLog.Entry entry = log.peek();
+      Assert.assertEquals(TABLE, entry.getTable());
+      assertRecords(batches.get(b), entry.getRecords());
+      log.remove(entry);
+    }
+    Assert.assertTrue(log.isEmpty());
+    Assert.assertNull(log.peek());
+    Assert.assertEquals(0, log.getPendingBytes());
+    // drained segments are deleted
+    Assert.assertEquals(0, dir.list().length);
+    log.close();
+  }
+
+  @Test
+  public void testMapsReadAndWriteSegmentsOnly() throws Exception {
+    File dir = folder.newFolder();
+    SpillLog log = new SpillLog(dir, 4096, 64 * 1024, false);
+    for (int b = 0; b < 50; b++) {
+      Assert.assertTrue(log.append(TABLE, getRecords("batch" + b + "-", 10)));
+      Assert.assertTrue(log.getMappedSegments() <= 2);
+    }
+    Assert.assertTrue(dir.list().length > 2);
+    log.close();
+
+    // a restarted log maps the same two segments, the others are mapped when reading gets there
+    log = new SpillLog(dir, 4096, 64 * 1024, false);
+    Assert.assertEquals(2, log.getMappedSegments());
+    for (int b = 0; b < 50; b++) {
+      SpillLog.Entry entry = log.peek();
+      assertRecords(getRecords("batch" + b + "-", 10), entry.getRecords());
+      log.remove(entry);
+      Assert.assertTrue(log.getMappedSegments() <= 2);
+    }
+    Assert.assertTrue(log.isEmpty());
+    log.close();
+  }
+
+  @Test
+  public void testRecoverAfterRestart() throws Exception {
+    File dir = folder.newFolder();
+    SpillLog log = new SpillLog(dir, 4096, 64 * 1024, true);
+    for (int b = 0; b < 3; b++) {
+      Assert.assertTrue(log.append(TABLE, getRecords("batch" + b + "-", 5)));
+    }
+    log.remove(log.peek());
+    log.close();
+
+    // a torn write after the last batch must be ignored
+    File segment = dir.listFiles()[0];
+    try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+      long end = SpillLog.HEADER_SIZE;
+      while (true) {
+        raf.seek(end);
+        int length = raf.readInt();
+        if (length == 0) {
+          break;
+        }
+        end += SpillLog.ENTRY_HEADER_SIZE + length;
+      }
+      raf.seek(end);
+      raf.writeInt(100);
+      raf.writeInt(12345);
+    }
+
+    log = new SpillLog(dir, 4096, 64 * 1024, true);
+    Assert.assertEquals(2, log.getPendingEntries());
+    assertRecords(getRecords("batch1-", 5), log.peek().getRecords());
+    log.remove(log.peek());
+    assertRecords(getRecords("batch2-", 5), log.peek().getRecords());
+    log.close();
+  }
+
+  @Test
+  public void testBounded() throws Exception {
+    SpillLog log = new SpillLog(folder.newFolder(), 4096, 8192, false);
+    int appended = 0;
+    while (log.append(TABLE, getRecords("row", 10))) {
+      appended++;
+    }
+    Assert.assertTrue(appended > 0);
+    // removing a batch does not make room until its segment is drained
+    while (!log.isEmpty()) {
+      log.remove(log.peek());
+    }
+    Assert.assertTrue(log.append(TABLE, getRecords("row", 10)));
+    // a batch larger than a segment gets a segment of its own, which has to fit the bound too
+    Assert.assertFalse(log.append(TABLE, getRecords("row", 1000)));
+    log.close();
+  }
+
+  @Test
+  public void testSpillWhileKafkaIsDown() throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    FlakyProducer producer = new FlakyProducer();
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    ProducerPool pool = new ProducerPool(producer);
+    SpillLog log = new SpillLog(folder.newFolder(), 64 * 1024, 1024 * 1024, false);
+    // spilled batches are drained through a table that does not spill
+    SpillBuffer spill = new SpillBuffer(log, 5000, 50,
+      (table, records) -> new KafkaTableForBridge(table, new Configuration(), rules,
+        new KafkaTableForBridge.Collaborators(pool, metrics)).sendSpilled(records),
+      metrics);
+    Table table = new KafkaTableForBridge(TABLE, new Configuration(), rules,
+      new KafkaTableForBridge.Collaborators(pool, metrics).setSpill(spill));
+
+    for (int b = 0; b < 3; b++) {
+      List<Row> rows = new ArrayList<>();
+      for (int r = 0; r < 10; r++) {
+        Put put = new Put(Bytes.toBytes("batch" + b + "-row" + r), 1L);
+        put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+        rows.add(put);
+      }
+      // replication sees the batch succeed although kafka is down
+      table.batch(rows, new Object[0]);
+    }
+    Assert.assertEquals(3, metrics.getBatchesSpilled());
+    Assert.assertEquals(3, metrics.getSpillPendingBatches());
+    Assert.assertTrue(producer.history().isEmpty());
+
+    producer.down = false;
+    spill.start();
+    long deadline = System.currentTimeMillis() + 30000;
+    while (producer.history().size() < 30) {
+      Assert.assertTrue("spill log was not drained", System.currentTimeMillis() < deadline);
+      Thread.sleep(20);
+    }
+    spill.close();
+    // drained in the order the batches were spilled
+    for (int i = 0; i < 30; i++) {
+      Assert.assertEquals("batch" + (i / 10) + "-row" + (i % 10),
+        Bytes.toString(producer.history().get(i).key()));
+    }
+    Assert.assertEquals(0, metrics.getSpillPendingBatches());
+  }
+
+  @Test
+  public void testFullLogFailsBatch() throws Exception {
+    SpillLog log = new SpillLog(folder.newFolder(), 4096, 4096, false);
+    SpillBuffer spill = new SpillBuffer(log, 5000, 60000, (table, records) -> {
+      throw new IOException("kafka is down");
+    }, new KafkaProxyMetrics());
+    spill.spill(TABLE, getRecords("row", 10), new IOException("kafka is down"));
+    // kafka was found down, so the next batch goes to the log without trying kafka
+    Assert.assertTrue(spill.offer(TABLE, getRecords("row", 10)));
+    try {
+      spill.offer(TABLE, getRecords("row", 1000));
+      Assert.fail("expected the full log to fail the batch");
+    } catch (IOException e) {
+      // expected, replication retries the batch
+    }
+    spill.close();
+  }
+
+  @Test
+  public void testRefusedBatchIsDropped() throws Exception {
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    SpillLog log = new SpillLog(folder.newFolder(), 64 * 1024, 1024 * 1024, false);
+    // kafka takes none of the batches, whatever happens
+    SpillBuffer spill = new SpillBuffer(log, 5000, 50, (table, records) -> {
+      throw new IOException("Failed to send replication batch to kafka",
+        new RecordTooLargeException("too large"));
+    }, metrics);
+    spill.spill(TABLE, getRecords("row", 10), new IOException("kafka is down"));
+    spill.spill(TABLE, getRecords("row", 10), new IOException("kafka is down"));
+    Assert.assertEquals(2, metrics.getSpillPendingBatches());
+
+    spill.start();
+    long deadline = System.currentTimeMillis() + 30000;
+    while (metrics.getSpillPendingBatches() > 0) {
+      Assert.assertTrue("refused batches block the log", System.currentTimeMillis() < deadline);
+      Thread.sleep(20);
+    }
+    Assert.assertEquals(2, metrics.getSpillDropped());
+    Assert.assertTrue(log.isEmpty());
+
+    // a refused batch is not spilled, it fails as it would without the log, and kafka is not
+    // taken for degraded once the earlier failures are over the retry period
+    Thread.sleep(100);
+    try {
+      spill.spill(TABLE, getRecords("row", 10),
+        new RuntimeException(new RecordTooLargeException("too large")));
+      Assert.fail("expected the refused batch to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    Assert.assertEquals(2, metrics.getBatchesSpilled());
+    Assert.assertFalse(spill.offer(TABLE, getRecords("row", 10)));
+    spill.close();
+  }
+
+  @Test
+  public void testRetriableFailures() {
+    Assert.assertTrue(SpillBuffer.isRetriable(new IOException("kafka is down")));
+    Assert.assertTrue(SpillBuffer.isRetriable(new KafkaException("kafka is down")));
+    Assert.assertTrue(SpillBuffer.isRetriable(new IOException(new TimeoutException("timeout"))));
+    Assert.assertFalse(SpillBuffer.isRetriable(new IOException(new RecordTooLargeException())));
+    Assert.assertFalse(SpillBuffer.isRetriable(new RuntimeException(new SerializationException())));
+    Assert.assertFalse(
+      SpillBuffer.isRetriable(new IOException(new TopicAuthorizationException("topic"))));
+  }
+}
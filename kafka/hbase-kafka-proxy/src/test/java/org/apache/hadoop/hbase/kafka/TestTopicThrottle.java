@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.test.MockSerializer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Test the rate limits and priority lanes of route rules
+ */
+@Category(SmallTests.class)
+public class TestTopicThrottle {
+  private static final String RULES = "<rules>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"a\" topic=\"fast\"/>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"b\" topic=\"bulk\""
+    + " priority=\"low\" maxBytesPerSec=\"1048576\"/>"
+    + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"c\" topic=\"alerts\""
+    + " priority=\"high\" maxBytesPerSec=\"10000\" burstBytes=\"500\"/>" + "</rules>";
+
+  private static TopicRoutingRules getRules() {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(RULES.getBytes(StandardCharsets.UTF_8)));
+    return rules;
+  }
+
+  @Test
+  public void testRuleSettings() {
+    RoutingTable rules = getRules().getSnapshot();
+    Assert.assertTrue(rules.hasLanes());
+    Assert.assertEquals(SendLane.NORMAL, rules.getLane("fast"));
+    Assert.assertEquals(SendLane.LOW, rules.getLane("bulk"));
+    Assert.assertEquals(SendLane.HIGH, rules.getLane("alerts"));
+    Assert.assertEquals(SendLane.NORMAL, rules.getLane("unknown"));
+    Assert.assertNull(rules.getRateLimit("fast"));
+    // the burst defaults to a second worth of bytes
+    Assert.assertEquals(new TopicThrottle.Limit(1048576, 1048576), rules.getRateLimit("bulk"));
+    Assert.assertEquals(new TopicThrottle.Limit(10000, 500), rules.getRateLimit("alerts"));
+    // lanes have producers of their own
+    Assert.assertNotEquals(ProducerProfile.DEFAULT, rules.getProducerProfile("bulk"));
+    Assert.assertNotEquals(rules.getProducerProfile("bulk"), rules.getProducerProfile("alerts"));
+  }
+
+  @Test
+  public void testThrottle() throws Exception {
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    TopicThrottle throttle = new TopicThrottle(metrics);
+    TopicThrottle.Limit limit = new TopicThrottle.Limit(10000, 1000);
+
+    // the burst goes through right away
+    Assert.assertEquals(0, throttle.acquire("foo", limit, 1000));
+    // then 1000 bytes take about 100ms
+    long waited = throttle.acquire("foo", limit, 1000);
+    Assert.assertTrue(waited > TimeUnit.MILLISECONDS.toNanos(50));
+    Assert.assertTrue(waited <= TimeUnit.MILLISECONDS.toNanos(100));
+    Assert.assertTrue(metrics.getThrottledTimeMs() > 50);
+    // other topics have buckets of their own
+    Assert.assertEquals(0, throttle.acquire("bar", limit, 1000));
+    // a new limit starts a new bucket
+    Assert.assertEquals(0, throttle.acquire("foo", new TopicThrottle.Limit(10000, 2000), 2000));
+  }
+
+  @Test
+  public void testLaneOrder() throws Exception {
+    List<String> sent = new ArrayList<>();
+    ProducerPool pool = new ProducerPool(new Properties(), (props) -> {
+      return new MockProducer<byte[], byte[]>(true, new MockSerializer(), new MockSerializer()) {
+        @Override
+        public synchronized Future<RecordMetadata> send(ProducerRecord<byte[], byte[]> record,
+          Callback callback) {
+          sent.add(record.topic());
+          return super.send(record, callback);
+        }
+      };
+    }, new BatchingPolicy(new Configuration()));
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    Table table = new KafkaTableForBridge(TableName.valueOf("MyNamespace:MyTable"),
+      new Configuration(), getRules(), new KafkaTableForBridge.Collaborators(pool, metrics)
+        .setThrottle(new TopicThrottle(metrics)));
+
+    List<Row> rows = new ArrayList<>();
+    for (int r = 0; r < 2; r++) {
+      Put put = new Put(Bytes.toBytes("row" + r), 1L);
+      put.addColumn(Bytes.toBytes("b"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+      put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+      put.addColumn(Bytes.toBytes("c"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+      rows.add(put);
+    }
+    table.batch(rows, new Object[0]);
+
+    // high lane first, low lane last, whatever the order of the cells
+    List<String> expected = new ArrayList<>();
+    expected.add("alerts");
+    expected.add("alerts");
+    expected.add("fast");
+    expected.add("fast");
+    expected.add("bulk");
+    expected.add("bulk");
+    Assert.assertEquals(expected, sent);
+    pool.close();
+  }
+
+  @Test
+  public void testThrottledTopicDoesNotHoldUpOtherHandlers() throws Exception {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(("<rules>"
+      + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"b\" topic=\"bulk\""
+      + " priority=\"low\" maxBytesPerSec=\"10\" burstBytes=\"1\"/>"
+      + "<rule action=\"route\" table=\"MyNamespace:MyTable\" columnFamily=\"c\""
+      + " topic=\"alerts\" priority=\"high\"/>" + "</rules>").getBytes(StandardCharsets.UTF_8)));
+    Assert.assertEquals(KafkaProxy.DEFAULT_KAFKA_PROXY_CONCURRENT_HANDLER_COUNT,
+      KafkaProxy.getDefaultReplicationHandlerCount(rules, false));
+    ProducerPool pool = new ProducerPool(new Properties(),
+      (props) -> new MockProducer<byte[], byte[]>(true, new MockSerializer(), new MockSerializer()),
+      new BatchingPolicy(new Configuration()));
+    KafkaProxyMetrics metrics = new KafkaProxyMetrics();
+    KafkaTableForBridge.Collaborators collaborators =
+      new KafkaTableForBridge.Collaborators(pool, metrics).setThrottle(new TopicThrottle(metrics));
+
+    // a bulk batch takes seconds at 10 bytes per second
+    Thread bulk = new Thread(() -> {
+      try {
+        getTable(rules, collaborators).batch(getRows("b"), new Object[0]);
+      } catch (InterruptedException e) {
+        // done waiting
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    });
+    bulk.start();
+    long deadline = System.currentTimeMillis() + 30000;
+    while (metrics.getThrottledTimeMs() == 0) {
+      Assert.assertTrue("bulk batch was not throttled", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+
+    // meanwhile the batch of another handler goes through
+    getTable(rules, collaborators).batch(getRows("c"), new Object[0]);
+    Assert.assertTrue(bulk.isAlive());
+    bulk.interrupt();
+    bulk.join();
+    pool.close();
+  }
+
+  @Test
+  public void testDefaultHandlerCount() {
+    TopicRoutingRules rules = new TopicRoutingRules();
+    rules.parseRules(new ByteArrayInputStream(("<rules>"
+      + "<rule action=\"route\" table=\"MyNamespace:MyTable\" topic=\"foo\"/>" + "</rules>")
+        .getBytes(StandardCharsets.UTF_8)));
+    // batches are handled one at a time unless one may wait on a rate limit
+    Assert.assertEquals(1, KafkaProxy.getDefaultReplicationHandlerCount(rules, false));
+    Assert.assertEquals(KafkaProxy.DEFAULT_KAFKA_PROXY_CONCURRENT_HANDLER_COUNT,
+      KafkaProxy.getDefaultReplicationHandlerCount(getRules(), false));
+  }
+
+  private static Table getTable(TopicRoutingRules rules,
+    KafkaTableForBridge.Collaborators collaborators) {
+    return new KafkaTableForBridge(TableName.valueOf("MyNamespace:MyTable"), new Configuration(),
+      rules, collaborators);
+  }
+
+  private static List<Row> getRows(String family) {
+    List<Row> rows = new ArrayList<>();
+    Put put = new Put(Bytes.toBytes("row"), 1L);
+    put.addColumn(Bytes.toBytes(family), Bytes.toBytes("q"), Bytes.toBytes("v"));
+    rows.add(put);
+    return rows;
+  }
+
+  @Test
+  public void testLaneBudgets() throws Exception {
+    InFlightLimiter limiter = new InFlightLimiter(100, 1);
+    limiter.acquire(10, SendLane.LOW);
+    // a full low lane does not hold up the others
+    limiter.acquire(10, SendLane.HIGH);
+    limiter.acquire(10);
+    Assert.assertEquals(3, limiter.getRecordsInFlight());
+    Assert.assertEquals(30, limiter.getBytesInFlight());
+    limiter.release(10, SendLane.LOW);
+    limiter.release(10, SendLane.HIGH);
+    limiter.release(10);
+    Assert.assertEquals(0, limiter.getRecordsInFlight());
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.ByteBufferKeyValue;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.testclassification.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the value transforms of route rules
+ */
+@Category(SmallTests.class)
+public class TestValueTransform {
+  private static final String SCHEMA = "{\"type\": \"record\", \"name\": \"User\", \"fields\": ["
+    + "{\"name\": \"id\", \"type\": \"long\"}, {\"name\": \"name\", \"type\": \"string\"},"
+    + "{\"name\": \"avatar\", \"type\": \"bytes\"}]}";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static ProducerForTesting send(String rules, List<Row> rows) throws Exception {
+    TopicRoutingRules routingRules = new TopicRoutingRules();
+    routingRules.parseRules(new ByteArrayInputStream(rules.getBytes(StandardCharsets.UTF_8)));
+    ProducerForTesting producer = new ProducerForTesting();
+    Table table = new KafkaTableForBridge(TableName.valueOf("MyNamespace:MyTable"),
+      new Configuration(), routingRules,
+      new KafkaTableForBridge.Collaborators(new ProducerPool(producer), new KafkaProxyMetrics()));
+    table.batch(rows, new Object[0]);
+    return producer;
+  }
+
+  @Test
+  public void testTruncate() throws Exception {
+    String rules = "<rules>"
+      + "<rule action=\"route\" table=\"MyNamespace:MyTable\" topic=\"full\"/>"
+      + "<rule action=\"route\" table=\"MyNamespace:MyTable\" topic=\"short\""
+      + " transform=\"truncate\" maxValueBytes=\"4\"/>" + "</rules>";
+    List<Row> rows = new ArrayList<>();
+    Put put = new Put(Bytes.toBytes("row"), 1L);
+    put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("long"), Bytes.toBytes("0123456789"));
+    put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("tiny"), Bytes.toBytes("01"));
+    rows.add(put);
+
+    ProducerForTesting producer = send(rules, rows);
+    List<HBaseKafkaEvent> full = producer.getMessages().get("full");
+    List<HBaseKafkaEvent> cut = producer.getMessages().get("short");
+    Assert.assertEquals("0123456789", Bytes.toString(full.get(0).getValue().array()));
+    Assert.assertEquals("0123", Bytes.toString(cut.get(0).getValue().array()));
+    Assert.assertEquals("long", Bytes.toString(cut.get(0).getQualifier().array()));
+    Assert.assertEquals("01", Bytes.toString(cut.get(1).getValue().array()));
+  }
+
+  @Test
+  public void testTruncateByteBufferCell() {
+    KeyValue kv = new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("a"), Bytes.toBytes("q"), 1L,
+      Bytes.toBytes("0123456789"));
+    // the same cell as it is decoded from an off heap cell block, not at the start of the buffer
+    ByteBuffer offHeap = ByteBuffer.allocateDirect(kv.getLength() + 3);
+    offHeap.position(3);
+    offHeap.put(kv.getBuffer(), kv.getOffset(), kv.getLength());
+    offHeap.position(1);
+    ByteBufferKeyValue cell = new ByteBufferKeyValue(offHeap, 3, kv.getLength());
+    Assert.assertEquals("0123", Bytes.toString(new TruncateTransform(4).transform(cell)));
+    Assert.assertEquals("0123456789", Bytes.toString(new TruncateTransform(20).transform(cell)));
+    // the buffer is left as it was
+    Assert.assertEquals(1, offHeap.position());
+  }
+
+  @Test
+  public void testAvroProjection() throws Exception {
+    File schemaFile = folder.newFile("user.avsc");
+    Files.write(schemaFile.toPath(), SCHEMA.getBytes(StandardCharsets.UTF_8));
+    String rules = "<rules><rule action=\"route\" table=\"MyNamespace:MyTable\" topic=\"users\""
+      + " transform=\"avro\" valueSchema=\"" + schemaFile.getAbsolutePath()
+      + "\" fields=\"name,id\"/></rules>";
+
+    Schema schema = new Schema.Parser().parse(SCHEMA);
+    GenericRecord user = new GenericData.Record(schema);
+    user.put("id", 42L);
+    user.put("name", "someone");
+    user.put("avatar", ByteBuffer.wrap(new byte[64 * 1024]));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    new GenericDatumWriter<GenericRecord>(schema).write(user, encoder);
+    encoder.flush();
+
+    List<Row> rows = new ArrayList<>();
+    Put put = new Put(Bytes.toBytes("row"), 1L);
+    put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("user"), out.toByteArray());
+    // not an avro record of the schema, left out
+    put.addColumn(Bytes.toBytes("a"), Bytes.toBytes("broken"), new byte[] { (byte) 0xff });
+    rows.add(put);
+
+    List<HBaseKafkaEvent> events = send(rules, rows).getMessages().get("users");
+    Assert.assertEquals(1, events.size());
+    byte[] value = events.get(0).getValue().array();
+    Assert.assertTrue(value.length < 64);
+
+    // the fields in the order of the rule
+    Schema projection = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"User\","
+      + " \"fields\": [{\"name\": \"name\", \"type\": \"string\"},"
+      + " {\"name\": \"id\", \"type\": \"long\"}]}");
+    GenericRecord projected = new GenericDatumReader<GenericRecord>(projection).read(null,
+      DecoderFactory.get().binaryDecoder(value, null));
+    Assert.assertEquals(42L, projected.get("id"));
+    Assert.assertEquals("someone", projected.get("name").toString());
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark.datasources;
+
+import java.io.IOException;
+import java.util.function.LongUnaryOperator;
+import org.apache.spark.TaskContext;
+import org.apache.spark.memory.MemoryConsumer;
+import org.apache.spark.memory.MemoryMode;
+import org.apache.yetus.audience.InterfaceAudience;
+
+/**
+ * Execution memory of a Spark task reserved for the results a prefetching scanner buffers ahead
+ * of the task, so that the buffers count against the memory of the task and shrink when another
+ * consumer of the task runs short. This is Java because the memory manager of a task is only
+ * visible to Scala code within Spark.
+ */
+@InterfaceAudience.Private
+public class PrefetchMemory extends MemoryConsumer {
+  private final LongUnaryOperator shrink;
+
+  /**
+   * @param context the task to reserve memory from
+   * @param shrink  called when the task needs memory back, with the bytes it needs; gives up at
+   *                most that many bytes of the reservation and returns how many it gave up
+   */
+  public PrefetchMemory(TaskContext context, LongUnaryOperator shrink) {
+    super(context.taskMemoryManager(), context.taskMemoryManager().pageSizeBytes(),
+      MemoryMode.ON_HEAP);
+    this.shrink = shrink;
+  }
+
+  @Override
+  public long spill(long size, MemoryConsumer trigger) throws IOException {
+    if (trigger == this) {
+      return 0;
+    }
+    long freed = shrink.applyAsLong(size);
+    freeMemory(freed);
+    return freed;
+  }
+
+  /**
+   * @return the bytes actually granted, possibly fewer than asked for
+   */
+  public long reserve(long bytes) {
+    return acquireMemory(bytes);
+  }
+
+  public void release(long bytes) {
+    freeMemory(bytes);
+  }
+}
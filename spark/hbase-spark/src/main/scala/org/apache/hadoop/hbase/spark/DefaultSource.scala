@@ -19,7 +19,6 @@ package org.apache.hadoop.hbase.spark
 
 import java.util
 import java.util.concurrent.ConcurrentLinkedQueue
-import org.apache.hadoop.hbase.CellUtil
 import org.apache.hadoop.hbase.HBaseConfiguration
 import org.apache.hadoop.hbase.HColumnDescriptor
 import org.apache.hadoop.hbase.HTableDescriptor
@@ -33,6 +32,7 @@ import org.apache.hadoop.hbase.util.{Bytes, PositionedByteRange, SimplePositione
 import org.apache.hadoop.mapred.JobConf
 import org.apache.spark.rdd.RDD
 import org.apache.spark.sql.{DataFrame, Row, SaveMode, SQLContext}
+import org.apache.spark.sql.catalyst.InternalRow
 import org.apache.spark.sql.sources._
 import org.apache.spark.sql.types._
 import org.apache.yetus.audience.InterfaceAudience
@@ -131,6 +131,48 @@ case class HBaseRelation(
     .map(_.toInt)
     .getOrElse(sqlContext.sparkContext.getConf.getInt(HBaseSparkConf.QUERY_BATCHSIZE, -1))
 
+  val columnarBatchSize = parameters
+    .get(HBaseSparkConf.QUERY_COLUMNAR_BATCHSIZE)
+    .map(_.toInt)
+    .getOrElse(sqlContext.sparkContext.getConf.getInt(
+      HBaseSparkConf.QUERY_COLUMNAR_BATCHSIZE,
+      HBaseSparkConf.DEFAULT_QUERY_COLUMNAR_BATCHSIZE))
+
+  val partitionTargetBytes = parameters
+    .get(HBaseSparkConf.QUERY_PARTITION_TARGET_BYTES)
+    .map(_.toLong)
+    .getOrElse(sqlContext.sparkContext.getConf.getLong(
+      HBaseSparkConf.QUERY_PARTITION_TARGET_BYTES,
+      HBaseSparkConf.DEFAULT_QUERY_PARTITION_TARGET_BYTES))
+
+  val prefetch = parameters
+    .get(HBaseSparkConf.QUERY_PREFETCH)
+    .map(_.toBoolean)
+    .getOrElse(sqlContext.sparkContext.getConf.getBoolean(
+      HBaseSparkConf.QUERY_PREFETCH,
+      HBaseSparkConf.DEFAULT_QUERY_PREFETCH))
+
+  val prefetchMaxBytes = parameters
+    .get(HBaseSparkConf.QUERY_PREFETCH_MAX_BYTES)
+    .map(_.toLong)
+    .getOrElse(sqlContext.sparkContext.getConf.getLong(
+      HBaseSparkConf.QUERY_PREFETCH_MAX_BYTES,
+      HBaseSparkConf.DEFAULT_QUERY_PREFETCH_MAX_BYTES))
+
+  val scanConcurrency = parameters
+    .get(HBaseSparkConf.QUERY_SCAN_CONCURRENCY)
+    .map(_.toInt)
+    .getOrElse(sqlContext.sparkContext.getConf.getInt(
+      HBaseSparkConf.QUERY_SCAN_CONCURRENCY,
+      HBaseSparkConf.DEFAULT_QUERY_SCAN_CONCURRENCY))
+
+  val maxOpenScanners = parameters
+    .get(HBaseSparkConf.QUERY_MAX_OPEN_SCANNERS)
+    .map(_.toInt)
+    .getOrElse(sqlContext.sparkContext.getConf.getInt(
+      HBaseSparkConf.QUERY_MAX_OPEN_SCANNERS,
+      HBaseSparkConf.DEFAULT_QUERY_MAX_OPEN_SCANNERS))
+
   val bulkGetSize = parameters
     .get(HBaseSparkConf.BULKGET_SIZE)
     .map(_.toInt)
@@ -162,6 +204,12 @@ case class HBaseRelation(
    */
   override val schema: StructType = userSpecifiedSchema.getOrElse(catalog.toDataType)
 
+  /**
+   * The scan produces InternalRows, decoded in place from the cells, rather than Rows
+   * that Spark would have to convert.
+   */
+  override def needConversion: Boolean = false
+
   def createTable() {
     val numReg = parameters
       .get(HBaseTableCatalog.newTable)
@@ -262,72 +310,14 @@ case class HBaseRelation(
   }
 
   /**
-   * Takes a HBase Row object and parses all of the fields from it.
-   * This is independent of which fields were requested from the key
-   * Because we have all the data it's less complex to parse everything.
-   *
-   * @param row the retrieved row from hbase.
-   * @param keyFields all of the fields in the row key, ORDERED by their order in the row key.
+   * Decodes the results of a partition into InternalRows, with a RowDecoder built once for
+   * the partition rather than the fields being resolved again for every row.
    */
-  def parseRowKey(row: Array[Byte], keyFields: Seq[Field]): Map[Field, Any] = {
-    keyFields
-      .foldLeft((0, Seq[(Field, Any)]()))(
-        (state, field) => {
-          val idx = state._1
-          val parsed = state._2
-          if (field.length != -1) {
-            val value = Utils.hbaseFieldToScalaType(field, row, idx, field.length)
-            // Return the new index and appended value
-            (idx + field.length, parsed ++ Seq((field, value)))
-          } else {
-            field.dt match {
-              case StringType =>
-                val pos = row.indexOf(HBaseTableCatalog.delimiter, idx)
-                if (pos == -1 || pos > row.length) {
-                  // this is at the last dimension
-                  val value = Utils.hbaseFieldToScalaType(field, row, idx, row.length)
-                  (row.length + 1, parsed ++ Seq((field, value)))
-                } else {
-                  val value = Utils.hbaseFieldToScalaType(field, row, idx, pos - idx)
-                  (pos, parsed ++ Seq((field, value)))
-                }
-              // We don't know the length, assume it extends to the end of the rowkey.
-              case _ =>
-                (
-                  row.length + 1,
-                  parsed ++ Seq((field, Utils.hbaseFieldToScalaType(field, row, idx, row.length))))
-            }
-          }
-        })
-      ._2
-      .toMap
-  }
-
-  def buildRow(fields: Seq[Field], result: Result): Row = {
-    val r = result.getRow
-    val keySeq = parseRowKey(r, catalog.getRowKey)
-    val valueSeq = fields
-      .filter(!_.isRowKey)
-      .map {
-        x =>
-          val kv = result.getColumnLatestCell(Bytes.toBytes(x.cf), Bytes.toBytes(x.col))
-          if (kv == null || kv.getValueLength == 0) {
-            (x, null)
-          } else {
-            val v = CellUtil.cloneValue(kv)
-            (
-              x,
-              x.dt match {
-                // Here, to avoid arraycopy, return v directly instead of calling hbaseFieldToScalaType
-                case BinaryType => v
-                case _ => Utils.hbaseFieldToScalaType(x, v, 0, v.length)
-              })
-          }
-      }
-      .toMap
-    val unionedRow = keySeq ++ valueSeq
-    // Return the row ordered by the requested order
-    Row.fromSeq(fields.map(unionedRow.get(_).getOrElse(null)))
+  private def decodeRows(
+      fields: Seq[Field],
+      results: Iterator[Result]): Iterator[InternalRow] = {
+    val decoder = new RowDecoder(fields, catalog.getRowKey)
+    results.map(decoder.decode(_))
   }
 
   /**
@@ -343,6 +333,44 @@ case class HBaseRelation(
    *                        execute the query on
    */
   override def buildScan(requiredColumns: Array[String], filters: Array[Filter]): RDD[Row] = {
+    val hRdd = buildScanRDD(requiredColumns, filters)
+    val fields = getIndexedProjections(requiredColumns).map(_._1)
+
+    var resultRDD: RDD[InternalRow] = {
+      val tmp = hRdd.mapPartitions(decodeRows(fields, _))
+      if (tmp.partitions.size > 0) {
+        tmp
+      } else {
+        null
+      }
+    }
+
+    if (resultRDD == null) {
+      val scan = new Scan()
+      scan.setCacheBlocks(blockCacheEnable)
+      scan.setBatch(batchNum)
+      scan.setCaching(cacheSize)
+      hRdd.columns.foreach(d => scan.addColumn(d.cfBytes, d.colBytes))
+
+      val rdd = hbaseContext
+        .hbaseRDD(TableName.valueOf(tableName), scan)
+        .mapPartitions(it => decodeRows(fields, it.map(_._2)))
+      resultRDD = rdd
+    }
+    // needConversion is false, Spark takes the rows as they are
+    resultRDD.asInstanceOf[RDD[Row]]
+  }
+
+  /**
+   * Builds the RDD of HBase results that both this relation and the V2 scan read from.
+   * The row key ranges and points and the column filter are pushed down, and only the
+   * required columns are requested.
+   *
+   * @param requiredColumns The columns that are being requested by the requesting query
+   * @param filters         The filters that are being applied by the requesting query
+   * @return                RDD of the results, one partition per region to read
+   */
+  def buildScanRDD(requiredColumns: Array[String], filters: Array[Filter]): HBaseTableScanRDD = {
 
     val pushDownTuple = buildPushDownPredicatesResource(filters)
     val pushDownRowKeyFilter = pushDownTuple._1
@@ -417,38 +445,7 @@ case class HBaseRelation(
       requiredQualifierDefinitionList.seq)
     pushDownRowKeyFilter.points.foreach(hRdd.addPoint(_))
     pushDownRowKeyFilter.ranges.foreach(hRdd.addRange(_))
-
-    var resultRDD: RDD[Row] = {
-      val tmp = hRdd.map {
-        r =>
-          val indexedFields = getIndexedProjections(requiredColumns).map(_._1)
-          buildRow(indexedFields, r)
-
-      }
-      if (tmp.partitions.size > 0) {
-        tmp
-      } else {
-        null
-      }
-    }
-
-    if (resultRDD == null) {
-      val scan = new Scan()
-      scan.setCacheBlocks(blockCacheEnable)
-      scan.setBatch(batchNum)
-      scan.setCaching(cacheSize)
-      requiredQualifierDefinitionList.foreach(d => scan.addColumn(d.cfBytes, d.colBytes))
-
-      val rdd = hbaseContext
-        .hbaseRDD(TableName.valueOf(tableName), scan)
-        .map(
-          r => {
-            val indexedFields = getIndexedProjections(requiredColumns).map(_._1)
-            buildRow(indexedFields, r._2)
-          })
-      resultRDD = rdd
-    }
-    resultRDD
+    hRdd
   }
 
   def buildPushDownPredicatesResource(
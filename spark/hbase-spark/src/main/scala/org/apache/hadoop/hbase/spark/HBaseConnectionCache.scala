@@ -18,10 +18,12 @@
 package org.apache.hadoop.hbase.spark
 
 import java.io.IOException
+import java.util.concurrent.ExecutionException
 import org.apache.hadoop.conf.Configuration
 import org.apache.hadoop.hbase.HConstants
 import org.apache.hadoop.hbase.TableName
 import org.apache.hadoop.hbase.client.Admin
+import org.apache.hadoop.hbase.client.AsyncConnection
 import org.apache.hadoop.hbase.client.Connection
 import org.apache.hadoop.hbase.client.ConnectionFactory
 import org.apache.hadoop.hbase.client.RegionLocator
@@ -99,7 +101,7 @@ private[spark] object HBaseConnectionCache extends Logging {
 
             if (forceClean || ((x._2.refCount <= 0) && (tsNow - x._2.timestamp > timeout))) {
               try {
-                x._2.connection.close()
+                x._2.closeConnections()
               } catch {
                 case e: IOException => logWarning(s"Fail to close connection ${x._2}", e)
               }
@@ -149,6 +151,37 @@ private[hbase] case class SmartConnection(
   def getRegionLocator(tableName: TableName): RegionLocator = connection.getRegionLocator(tableName)
   def isClosed: Boolean = connection.isClosed
   def getAdmin: Admin = connection.getAdmin
+
+  // async connection sharing the configuration and lifetime of the connection, created on first
+  // use by the prefetching scanners
+  private var asyncConnection: AsyncConnection = _
+
+  def getAsyncConnection: AsyncConnection = synchronized {
+    if (asyncConnection == null) {
+      asyncConnection =
+        try {
+          ConnectionFactory.createAsyncConnection(connection.getConfiguration).get()
+        } catch {
+          case e: ExecutionException => throw new IOException(e.getCause)
+        }
+    }
+    asyncConnection
+  }
+
+  // called by the housekeeping once the connection is no longer referenced
+  def closeConnections(): Unit = {
+    try {
+      synchronized {
+        if (asyncConnection != null) {
+          asyncConnection.close()
+          asyncConnection = null
+        }
+      }
+    } finally {
+      connection.close()
+    }
+  }
+
   def close() = {
     HBaseConnectionCache.connectionMap.synchronized {
       refCount -= 1
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark.datasources
+
+import java.sql.{Date, Timestamp}
+import org.apache.hadoop.hbase.client.Result
+import org.apache.hadoop.hbase.util.Bytes
+import org.apache.spark.sql.catalyst.util.DateTimeUtils
+import org.apache.spark.sql.execution.vectorized.{OnHeapColumnVector, WritableColumnVector}
+import org.apache.spark.sql.types._
+import org.apache.spark.sql.vectorized.{ColumnarBatch, ColumnVector}
+import org.apache.yetus.audience.InterfaceAudience
+
+/**
+ * Decodes HBase results straight into the column vectors of a ColumnarBatch, without building
+ * a Row or boxing the values. Only fields for which ResultDecoder.isAtomic holds are supported.
+ * The batch and its vectors are reused, so a batch is only valid until the next call to decode.
+ *
+ * @param fields   the fields to decode, in the order of the columns of the batch
+ * @param rowKey   all of the fields in the row key, ORDERED by their order in the row key
+ * @param capacity the maximum number of rows in a batch
+ */
+@InterfaceAudience.Private
+class ColumnarBatchDecoder(fields: Seq[Field], rowKey: Seq[Field], capacity: Int)
+    extends ResultDecoder(fields, rowKey)
+    with AutoCloseable {
+  private val vectors: Array[WritableColumnVector] = OnHeapColumnVector
+    .allocateColumns(capacity, StructType(fields.map(f => StructField(f.colName, f.dt))))
+    .toArray
+  private val batch = new ColumnarBatch(vectors.toArray[ColumnVector])
+  private var rowId = 0
+
+  /**
+   * Decodes up to capacity results into the batch.
+   *
+   * @param results the results to decode, empty results are not expected
+   * @return        the batch, with no rows once the results are exhausted
+   */
+  def decode(results: Iterator[Result]): ColumnarBatch = {
+    vectors.foreach(_.reset())
+    rowId = 0
+    while (rowId < capacity && results.hasNext) {
+      decodeResult(results.next())
+      rowId += 1
+    }
+    batch.setNumRows(rowId)
+    batch
+  }
+
+  override protected def put(column: Int, src: Array[Byte], offset: Int, length: Int): Unit = {
+    val vector = vectors(column)
+    types(column) match {
+      case BooleanType => vector.putBoolean(rowId, src(offset) != 0)
+      case ByteType => vector.putByte(rowId, src(offset))
+      case ShortType => vector.putShort(rowId, Bytes.toShort(src, offset))
+      case IntegerType => vector.putInt(rowId, Bytes.toInt(src, offset))
+      case LongType => vector.putLong(rowId, Bytes.toLong(src, offset))
+      case FloatType => vector.putFloat(rowId, Bytes.toFloat(src, offset))
+      case DoubleType => vector.putDouble(rowId, Bytes.toDouble(src, offset))
+      case DateType =>
+        vector.putInt(rowId, DateTimeUtils.fromJavaDate(new Date(Bytes.toLong(src, offset))))
+      case TimestampType =>
+        vector.putLong(
+          rowId,
+          DateTimeUtils.fromJavaTimestamp(new Timestamp(Bytes.toLong(src, offset))))
+      // Strings are stored as UTF-8, which is also the Spark internal format
+      case StringType | BinaryType => vector.putByteArray(rowId, src, offset, length)
+      case d: DecimalType =>
+        val value = Decimal(Bytes.toBigDecimal(src, offset, length))
+        if (value.changePrecision(d.precision, d.scale)) {
+          vector.putDecimal(rowId, value, d.precision)
+        } else {
+          vector.putNull(rowId)
+        }
+      case dt => throw new Exception(s"unsupported data type $dt")
+    }
+  }
+
+  override protected def putNull(column: Int): Unit = {
+    vectors(column).putNull(rowId)
+  }
+
+  override def close(): Unit = {
+    batch.close()
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.hadoop.hbase.spark.datasources
 import org.apache.hadoop.hbase.TableName
 import org.apache.hadoop.hbase.client._
 import org.apache.hadoop.hbase.spark.{HBaseConnectionCache, HBaseConnectionKey, HBaseRelation, SmartConnection}
+import org.apache.spark.TaskContext
 import org.apache.yetus.audience.InterfaceAudience
 import scala.language.implicitConversions
 
@@ -113,6 +114,15 @@ case class TableResource(relation: HBaseRelation) extends ReferencedResource {
     ScanResource(this, table.getScanner(scan))
   }
 
+  /**
+   * Scan through the async connection, buffering at most maxBytes of results ahead of the task.
+   */
+  def getPrefetchingScanner(scan: Scan, maxBytes: Long, context: TaskContext): ScanResource =
+    releaseOnException {
+      val asyncTable = connection.getAsyncConnection.getTable(TableName.valueOf(relation.tableName))
+      ScanResource(this, PrefetchingResultScanner(asyncTable, scan, maxBytes, context))
+    }
+
   def get(list: java.util.List[org.apache.hadoop.hbase.client.Get]) = releaseOnException {
     GetResource(this, table.get(list))
   }
@@ -40,6 +40,40 @@ object HBaseSparkConf {
   /** Set the maximum number of values to return for each call to next() in scan. */
   val QUERY_BATCHSIZE = "hbase.spark.query.batchsize"
 
+  /** The number of rows decoded into each columnar batch by the V2 data source. */
+  val QUERY_COLUMNAR_BATCHSIZE = "hbase.spark.query.columnar.batchsize"
+  val DEFAULT_QUERY_COLUMNAR_BATCHSIZE = 4096
+
+  /**
+   * The bytes each partition of a scan should read. When set, regions larger than this are
+   * split into several partitions, and adjacent smaller regions on the same region server
+   * are read by one partition. By default there is one partition per region.
+   */
+  val QUERY_PARTITION_TARGET_BYTES = "hbase.spark.query.partition.targetbytes"
+  val DEFAULT_QUERY_PARTITION_TARGET_BYTES = -1L
+
+  /**
+   * Read scans through the async client, fetching the next results while the task decodes the
+   * current ones. The results buffered ahead of the task count against its execution memory.
+   */
+  val QUERY_PREFETCH = "hbase.spark.query.prefetch"
+  val DEFAULT_QUERY_PREFETCH = false
+
+  /** The maximum bytes of results a prefetching scan buffers ahead of the task. */
+  val QUERY_PREFETCH_MAX_BYTES = "hbase.spark.query.prefetch.maxbytes"
+  val DEFAULT_QUERY_PREFETCH_MAX_BYTES = 8L * 1024 * 1024
+
+  /**
+   * The number of scanners of a partition open at once: the one being read, and the next ones
+   * opened ahead so that their first results are ready when the task gets to them.
+   */
+  val QUERY_SCAN_CONCURRENCY = "hbase.spark.query.scan.concurrency"
+  val DEFAULT_QUERY_SCAN_CONCURRENCY = 2
+
+  /** The maximum number of scanners open at once by all the tasks of an executor. */
+  val QUERY_MAX_OPEN_SCANNERS = "hbase.spark.query.scan.maxopen"
+  val DEFAULT_QUERY_MAX_OPEN_SCANNERS = 64
+
   /** The number of BulkGets send to HBase. */
   val BULKGET_SIZE = "hbase.spark.bulkget.size"
   val DEFAULT_BULKGET_SIZE = 1000
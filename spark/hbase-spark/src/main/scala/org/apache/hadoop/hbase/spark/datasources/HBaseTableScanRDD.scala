@@ -72,7 +72,16 @@ class HBaseTableScanRDD(
     val regions = RegionResource(relation)
     var idx = 0
     logDebug(s"There are ${regions.size} regions")
-    val ps = regions.flatMap {
+    val keyRanges = if (relation.partitionTargetBytes > 0) {
+      val sizes = PartitionPlanner.regionSizes(relation)
+      PartitionPlanner.plan(
+        regions,
+        r => if (sizes.containsKey(r.start.get)) sizes.get(r.start.get) else -1L,
+        relation.partitionTargetBytes)
+    } else {
+      regions.regions
+    }
+    val ps = keyRanges.flatMap {
       x =>
         val rs = Ranges.and(Range(x), ranges)
         val ps = Points.and(Range(x), points)
@@ -201,30 +210,6 @@ class HBaseTableScanRDD(
     filter.foreach(scan.setFilter(_))
     scan
   }
-  private def toResultIterator(scanner: ScanResource): Iterator[Result] = {
-    val iterator = new Iterator[Result] {
-      var cur: Option[Result] = None
-      override def hasNext: Boolean = {
-        if (cur.isEmpty) {
-          val r = scanner.next()
-          if (r == null) {
-            rddResources.release(scanner)
-          } else {
-            cur = Some(r)
-          }
-        }
-        cur.isDefined
-      }
-      override def next(): Result = {
-        hasNext
-        val ret = cur.get
-        cur = None
-        ret
-      }
-    }
-    iterator
-  }
-
   lazy val rddResources = RDDResources(new mutable.HashSet[Resource]())
 
   private def close() {
@@ -246,18 +231,19 @@ class HBaseTableScanRDD(
         buildGets(tableResource, points, filter, columns, hbaseContext)
       }
     }
-    val rIts = scans.par
-      .map {
-        scan =>
-          val scanner = tableResource.getScanner(scan)
-          rddResources.addResource(scanner)
-          scanner
+    val open = (scan: Scan) =>
+      if (relation.prefetch) {
+        tableResource.getPrefetchingScanner(scan, relation.prefetchMaxBytes, context)
+      } else {
+        tableResource.getScanner(scan)
       }
-      .map(toResultIterator(_))
-      .fold(Iterator.empty: Iterator[Result]) {
-        case (x, y) =>
-          x ++ y
-      } ++ gIt
+    val scanner = new ScanScheduler(
+      scans,
+      open,
+      relation.scanConcurrency,
+      ScanScheduler.permits(relation.maxOpenScanners))
+    rddResources.addResource(scanner)
+    val rIts = scanner ++ gIt
     ShutdownHookManager.affixShutdownHook(
       new Thread() {
         override def run() {
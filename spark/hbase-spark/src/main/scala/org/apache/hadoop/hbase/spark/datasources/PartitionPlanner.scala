@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark.datasources
+
+import java.util.TreeMap
+import org.apache.hadoop.hbase.{Size, TableName}
+import org.apache.hadoop.hbase.client.RegionInfo
+import org.apache.hadoop.hbase.spark.{HBaseConnectionCache, HBaseRelation, Logging}
+import org.apache.hadoop.hbase.spark.hbase._
+import org.apache.hadoop.hbase.util.Bytes
+import org.apache.yetus.audience.InterfaceAudience
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * Plans the key ranges that the partitions of a scan read, from the size of the regions:
+ * regions larger than the target bytes per partition are split into that many key ranges,
+ * and adjacent regions on the same server that are smaller than the target are coalesced
+ * into one range. Each range keeps the server of its regions as preferred location.
+ */
+@InterfaceAudience.Private
+object PartitionPlanner extends Logging {
+
+  /**
+   * Fetches the size of the regions of the relation's table, from the region metrics of the
+   * servers hosting them.
+   *
+   * @return the size in bytes of the store files and memstore of each region, by start key
+   */
+  def regionSizes(relation: HBaseRelation): TreeMap[Array[Byte], Long] = {
+    val sizes = new TreeMap[Array[Byte], Long](Bytes.BYTES_COMPARATOR)
+    val tableName = TableName.valueOf(relation.tableName)
+    val connection = HBaseConnectionCache.getConnection(relation.hbaseConf)
+    val admin = connection.getAdmin
+    val locator = connection.getRegionLocator(tableName)
+    try {
+      val servers = locator.getAllRegionLocations.asScala.map(_.getServerName).distinct
+      servers.foreach {
+        server =>
+          admin.getRegionMetrics(server, tableName).asScala.foreach {
+            metrics =>
+              val size = metrics.getStoreFileSize.get(Size.Unit.BYTE) +
+                metrics.getMemStoreSize.get(Size.Unit.BYTE)
+              sizes.put(RegionInfo.getStartKey(metrics.getRegionName), size.toLong)
+          }
+      }
+    } finally {
+      locator.close()
+      admin.close()
+      connection.close()
+    }
+    sizes
+  }
+
+  /**
+   * Plans the key ranges to read.
+   *
+   * @param regions     the regions of the table, ORDERED by their start key
+   * @param sizeOf      the size of a region in bytes, negative if it is not known
+   * @param targetBytes the bytes a partition should read
+   * @return            the ranges, as regions, ORDERED by their start key
+   */
+  def plan(
+      regions: Seq[HBaseRegion],
+      sizeOf: HBaseRegion => Long,
+      targetBytes: Long): Seq[HBaseRegion] = {
+    val ret = new mutable.ArrayBuffer[HBaseRegion]()
+    // the small regions being coalesced, and their total size
+    var pending: Option[HBaseRegion] = None
+    var pendingBytes = 0L
+    def flush(): Unit = {
+      pending.foreach(ret += _)
+      pending = None
+      pendingBytes = 0L
+    }
+    regions.foreach {
+      region =>
+        val size = sizeOf(region)
+        if (size < 0) {
+          // unknown size, the region is read as a whole
+          flush()
+          ret += region
+        } else if (size > targetBytes) {
+          flush()
+          val n = math.ceil(size.toDouble / targetBytes).toInt
+          ret ++= split(region, n)
+        } else if (pending.exists(_.server == region.server) &&
+          pendingBytes + size <= targetBytes) {
+          pending = pending.map(_.copy(end = region.end))
+          pendingBytes += size
+        } else {
+          flush()
+          pending = Some(region)
+          pendingBytes = size
+        }
+    }
+    flush()
+    logDebug(s"Planned ${ret.size} key ranges for ${regions.size} regions")
+    ret.zipWithIndex.map { case (r, i) => r.copy(index = i) }
+  }
+
+  /**
+   * Splits a region into n key ranges of the same width. Empty start and end keys are
+   * taken as 0x00 and as 0xff... for computing the split keys, the way TableInputFormat
+   * does, and the region is read as a whole if its keys are too close to be split.
+   */
+  def split(region: HBaseRegion, n: Int): Seq[HBaseRegion] = {
+    val start = region.start.getOrElse(bytesMin)
+    val end = region.end.getOrElse(bytesMin)
+    val lower = if (start.length == 0) Array[Byte](ByteMin) else start
+    val upper = if (end.length == 0) Array.fill(math.max(lower.length, 1))(ByteMax) else end
+    if (n <= 1 || Bytes.compareTo(lower, upper) >= 0) {
+      return Seq(region)
+    }
+    val keys = Bytes.split(lower, upper, true, n - 1)
+    if (keys == null) {
+      return Seq(region)
+    }
+    // keep the real bounds of the region, they may be empty
+    keys(0) = start
+    keys(keys.length - 1) = end
+    keys
+      .sliding(2)
+      .map(k => region.copy(start = Some(k(0)), end = Some(k(1))))
+      .toSeq
+  }
+}
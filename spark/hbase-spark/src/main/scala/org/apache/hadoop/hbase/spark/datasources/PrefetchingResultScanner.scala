@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark.datasources
+
+import java.io.{IOException, InterruptedIOException}
+import java.util.ArrayDeque
+import org.apache.hadoop.hbase.client.{AdvancedScanResultConsumer, AsyncTable, Result}
+import org.apache.hadoop.hbase.client.{ResultScanner, Scan}
+import org.apache.hadoop.hbase.client.AdvancedScanResultConsumer.{ScanController, ScanResumer}
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics
+import org.apache.spark.TaskContext
+import org.apache.yetus.audience.InterfaceAudience
+
+/**
+ * A ResultScanner fed by an async scan, which fetches the next results from the region servers
+ * while the task decodes the current ones. Results are buffered up to a byte limit reserved from
+ * the execution memory of the task; the scan is suspended when the buffer is full and resumed
+ * once the task drained half of it. When the task runs short of memory, the unused part of the
+ * reservation is given back and the buffer shrinks accordingly.
+ */
+@InterfaceAudience.Private
+class PrefetchingResultScanner private[hbase] (maxBytes: Long, context: TaskContext)
+  extends ResultScanner
+  with AdvancedScanResultConsumer {
+  private val queue = new ArrayDeque[Result]()
+  private var bufferedBytes = 0L
+  private var resumer: ScanResumer = _
+  private var scanMetrics: ScanMetrics = _
+  private var error: Throwable = _
+  private var completed = false
+  private var closed = false
+
+  private val memory =
+    if (context == null) null else new PrefetchMemory(context, (size: Long) => shrink(size))
+  // results are buffered up to this many bytes, reserved from the task if there is one
+  private var limitBytes = if (memory == null) maxBytes else memory.reserve(maxBytes)
+
+  override def onNext(results: Array[Result], controller: ScanController): Unit = synchronized {
+    if (closed) {
+      controller.terminate()
+    } else {
+      results.foreach {
+        r =>
+          queue.add(r)
+          bufferedBytes += PrefetchingResultScanner.estimateSize(r)
+      }
+      notifyAll()
+      if (bufferedBytes >= limitBytes) {
+        resumer = controller.suspend()
+      }
+    }
+  }
+
+  override def onHeartbeat(controller: ScanController): Unit = synchronized {
+    if (closed) {
+      controller.terminate()
+    }
+  }
+
+  override def onError(e: Throwable): Unit = synchronized {
+    error = e
+    notifyAll()
+  }
+
+  override def onComplete(): Unit = synchronized {
+    completed = true
+    notifyAll()
+  }
+
+  override def onScanMetricsCreated(metrics: ScanMetrics): Unit = synchronized {
+    scanMetrics = metrics
+  }
+
+  override def next(): Result = {
+    var toResume: ScanResumer = null
+    val result = synchronized {
+      try {
+        while (queue.isEmpty && error == null && !completed && !closed) {
+          wait()
+        }
+      } catch {
+        case e: InterruptedException =>
+          throw new InterruptedIOException(e.getMessage)
+      }
+      if (!queue.isEmpty) {
+        val r = queue.poll()
+        bufferedBytes -= PrefetchingResultScanner.estimateSize(r)
+        if (resumer != null && bufferedBytes <= limitBytes / 2) {
+          toResume = resumer
+          resumer = null
+        }
+        r
+      } else if (error != null) {
+        error match {
+          case e: IOException => throw e
+          case e => throw new IOException(e)
+        }
+      } else {
+        null
+      }
+    }
+    // resuming may deliver the next results on this thread, so do it outside the lock
+    if (toResume != null) {
+      toResume.resume()
+    }
+    result
+  }
+
+  override def close(): Unit = {
+    val (toResume, toRelease) = synchronized {
+      closed = true
+      queue.clear()
+      bufferedBytes = 0
+      val r = resumer
+      resumer = null
+      val released = limitBytes
+      limitBytes = 0
+      notifyAll()
+      (r, released)
+    }
+    // a resumed scan is terminated by the next callback; the memory manager is never called with
+    // the lock held since it may call back into shrink
+    if (toResume != null) {
+      toResume.resume()
+    }
+    if (memory != null && toRelease > 0) {
+      memory.release(toRelease)
+    }
+  }
+
+  // the async client renews the lease of a suspended scan by itself
+  override def renewLease(): Boolean = false
+
+  override def getScanMetrics: ScanMetrics = synchronized(scanMetrics)
+
+  private def shrink(size: Long): Long = synchronized {
+    val freed = math.min(size, math.max(limitBytes - bufferedBytes, 0L))
+    limitBytes -= freed
+    freed
+  }
+
+  private[hbase] def getLimitBytes: Long = synchronized(limitBytes)
+}
+
+@InterfaceAudience.Private
+object PrefetchingResultScanner {
+  // rough per cell overhead of the cell object and its offsets and lengths
+  private val CELL_OVERHEAD = 20
+
+  /**
+   * Start an async scan of the table feeding a new scanner.
+   * @param maxBytes bytes the scanner may buffer ahead of the task
+   * @param context task to reserve the buffer from, or null
+   */
+  def apply(
+      table: AsyncTable[AdvancedScanResultConsumer],
+      scan: Scan,
+      maxBytes: Long,
+      context: TaskContext): PrefetchingResultScanner = {
+    val scanner = new PrefetchingResultScanner(maxBytes, context)
+    table.scan(scan, scanner)
+    scanner
+  }
+
+  def estimateSize(result: Result): Long = {
+    val cells = result.rawCells()
+    if (cells == null) {
+      0
+    } else {
+      cells.foldLeft(0L) {
+        (size, c) =>
+          size + c.getRowLength + c.getFamilyLength + c.getQualifierLength + c.getValueLength +
+            CELL_OVERHEAD
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark.datasources
+
+import org.apache.hadoop.hbase.client.Result
+import org.apache.spark.sql.types._
+import org.apache.yetus.audience.InterfaceAudience
+
+/**
+ * Decodes the fields of a query from HBase results, with the column keys and the positions
+ * of the fields resolved once for the query rather than for every row. The values are handed
+ * to put in place, as offsets into the arrays of the cells, so that subclasses can write
+ * them to their output without copying them first.
+ *
+ * @param fields the fields to decode, in the order of the output columns
+ * @param rowKey all of the fields in the row key, ORDERED by their order in the row key
+ */
+@InterfaceAudience.Private
+abstract class ResultDecoder(fields: Seq[Field], rowKey: Seq[Field]) {
+  protected val types: Array[DataType] = fields.map(_.dt).toArray
+
+  // family and qualifier of each column, null for the columns of the row key
+  private val families = fields.map(f => if (f.isRowKey) null else f.cfBytes).toArray
+  private val qualifiers = fields.map(f => if (f.isRowKey) null else f.colBytes).toArray
+
+  // column of each field of the row key, -1 if the field is not read
+  private val keyColumns = rowKey.map(fields.indexOf(_)).toArray
+  private val keyLengths = rowKey.map(_.length).toArray
+  private val keyTypes = rowKey.map(_.dt).toArray
+  private val readsRowKey = keyColumns.exists(_ >= 0)
+
+  /** Writes the value of a column, found at offset in src. */
+  protected def put(column: Int, src: Array[Byte], offset: Int, length: Int): Unit
+
+  /** Writes a null for a column that has no cell, or an empty one. */
+  protected def putNull(column: Int): Unit
+
+  /**
+   * Decodes every column of a result.
+   *
+   * @param result the result to decode, it must not be empty
+   */
+  protected def decodeResult(result: Result): Unit = {
+    if (readsRowKey) {
+      val cell = result.rawCells()(0)
+      decodeRowKey(cell.getRowArray, cell.getRowOffset, cell.getRowLength)
+    }
+    var i = 0
+    while (i < families.length) {
+      if (families(i) != null) {
+        val cell = result.getColumnLatestCell(families(i), qualifiers(i))
+        if (cell == null || cell.getValueLength == 0) {
+          putNull(i)
+        } else {
+          put(i, cell.getValueArray, cell.getValueOffset, cell.getValueLength)
+        }
+      }
+      i += 1
+    }
+  }
+
+  // Splits the row key into its fields: a field without a length is a string that ends at
+  // the delimiter, or extends to the end of the row key.
+  private def decodeRowKey(row: Array[Byte], rowOffset: Int, rowLength: Int): Unit = {
+    val limit = rowOffset + rowLength
+    var offset = rowOffset
+    var k = 0
+    while (k < keyColumns.length) {
+      val end = if (keyLengths(k) != -1) {
+        offset + keyLengths(k)
+      } else if (keyTypes(k) == StringType) {
+        ResultDecoder.indexOf(row, HBaseTableCatalog.delimiter, offset, limit)
+      } else {
+        // We don't know the length, assume it extends to the end of the rowkey.
+        limit
+      }
+      if (keyColumns(k) >= 0) {
+        put(keyColumns(k), row, offset, end - offset)
+      }
+      offset = end
+      k += 1
+    }
+  }
+}
+
+@InterfaceAudience.Private
+object ResultDecoder {
+
+  /**
+   * Whether the value of a field can be written from its bytes directly. Avro fields and
+   * other complex types are converted through Utils.hbaseFieldToScalaType instead.
+   */
+  def isAtomic(field: Field): Boolean = {
+    field.exeSchema.isEmpty && (field.dt match {
+      case BooleanType | ByteType | ShortType | IntegerType | LongType | FloatType | DoubleType |
+          DateType | TimestampType | StringType | BinaryType =>
+        true
+      case _: DecimalType => true
+      case _ => false
+    })
+  }
+
+  // index of b in src between offset and limit, limit if it is not there
+  private def indexOf(src: Array[Byte], b: Byte, offset: Int, limit: Int): Int = {
+    var i = offset
+    while (i < limit && src(i) != b) {
+      i += 1
+    }
+    i
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark.datasources
+
+import java.sql.{Date, Timestamp}
+import java.util.Arrays
+import org.apache.hadoop.hbase.client.Result
+import org.apache.hadoop.hbase.util.Bytes
+import org.apache.spark.sql.catalyst.{CatalystTypeConverters, InternalRow}
+import org.apache.spark.sql.catalyst.expressions.SpecificInternalRow
+import org.apache.spark.sql.catalyst.util.DateTimeUtils
+import org.apache.spark.sql.types._
+import org.apache.spark.unsafe.types.UTF8String
+import org.apache.yetus.audience.InterfaceAudience
+
+/**
+ * Decodes HBase results into InternalRows. The row is reused, so it is only valid until the
+ * next call to decode. Atomic values are written from the cell arrays without going through
+ * their Scala type; strings point into the cell arrays rather than being copied. Avro and
+ * other complex fields are converted with Utils.hbaseFieldToScalaType, as the Row of the
+ * V1 relation used to be.
+ *
+ * @param fields the fields to decode, in the order of the columns of the row
+ * @param rowKey all of the fields in the row key, ORDERED by their order in the row key
+ */
+@InterfaceAudience.Private
+class RowDecoder(fields: Seq[Field], rowKey: Seq[Field]) extends ResultDecoder(fields, rowKey) {
+  private val fieldArray = fields.toArray
+  private val row = new SpecificInternalRow(types.toSeq)
+  // converters to the Spark internal type of the fields that are not atomic, null otherwise
+  private val converters: Array[Any => Any] = fieldArray.map {
+    f =>
+      if (ResultDecoder.isAtomic(f)) {
+        null
+      } else {
+        CatalystTypeConverters.createToCatalystConverter(f.dt)
+      }
+  }
+
+  def decode(result: Result): InternalRow = {
+    decodeResult(result)
+    row
+  }
+
+  override protected def put(column: Int, src: Array[Byte], offset: Int, length: Int): Unit = {
+    if (converters(column) != null) {
+      val value = Arrays.copyOfRange(src, offset, offset + length)
+      val scalaValue = Utils.hbaseFieldToScalaType(fieldArray(column), value, 0, length)
+      row.update(column, converters(column)(scalaValue))
+    } else {
+      types(column) match {
+        case BooleanType => row.setBoolean(column, src(offset) != 0)
+        case ByteType => row.setByte(column, src(offset))
+        case ShortType => row.setShort(column, Bytes.toShort(src, offset))
+        case IntegerType => row.setInt(column, Bytes.toInt(src, offset))
+        case LongType => row.setLong(column, Bytes.toLong(src, offset))
+        case FloatType => row.setFloat(column, Bytes.toFloat(src, offset))
+        case DoubleType => row.setDouble(column, Bytes.toDouble(src, offset))
+        case DateType =>
+          row.setInt(column, DateTimeUtils.fromJavaDate(new Date(Bytes.toLong(src, offset))))
+        case TimestampType =>
+          row.setLong(
+            column,
+            DateTimeUtils.fromJavaTimestamp(new Timestamp(Bytes.toLong(src, offset))))
+        case StringType => row.update(column, UTF8String.fromBytes(src, offset, length))
+        case BinaryType => row.update(column, Arrays.copyOfRange(src, offset, offset + length))
+        case d: DecimalType =>
+          val value = Decimal(Bytes.toBigDecimal(src, offset, length))
+          if (value.changePrecision(d.precision, d.scale)) {
+            row.setDecimal(column, value, d.precision)
+          } else {
+            row.setNullAt(column)
+          }
+        case dt => throw new Exception(s"unsupported data type $dt")
+      }
+    }
+  }
+
+  override protected def putNull(column: Int): Unit = {
+    row.setNullAt(column)
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark.datasources
+
+import java.util.concurrent.{Callable, ExecutionException, Executors, Future, Semaphore}
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
+import org.apache.hadoop.hbase.client.{Result, Scan}
+import org.apache.hadoop.hbase.spark.Logging
+import org.apache.yetus.audience.InterfaceAudience
+import scala.collection.mutable
+
+/**
+ * Reads the scans of a partition one after another, opening at most `concurrency` scanners at
+ * once: the one being read, and the next ones opened in the background so that their first
+ * results are ready when the task gets to them. Every open scanner also holds a permit of
+ * the executor wide limit on open scanners, which bounds the scanner leases the executor holds
+ * on the region servers however many tasks run. Scanners are only opened ahead when a permit
+ * is free right away, so a task never waits for a permit while holding one.
+ */
+@InterfaceAudience.Private
+class ScanScheduler(
+    scans: Seq[Scan],
+    open: Scan => ScanResource,
+    concurrency: Int,
+    permits: Semaphore)
+  extends Iterator[Result]
+  with Resource
+  with Logging {
+  private val pending = mutable.Queue(scans: _*)
+  // scanners opened ahead, in scan order, each holding a permit
+  private val opening = mutable.Queue[Opening]()
+  private var current: ScanResource = _
+  private var cur: Result = _
+
+  override def hasNext: Boolean = {
+    while (cur == null && (current != null || opening.nonEmpty || pending.nonEmpty)) {
+      if (current == null) {
+        current = openNext()
+        openAhead()
+      }
+      cur = current.rs.next()
+      if (cur == null) {
+        val scanner = current
+        current = null
+        close(scanner)
+      }
+    }
+    cur != null
+  }
+
+  override def next(): Result = {
+    if (!hasNext) {
+      throw new NoSuchElementException
+    }
+    val ret = cur
+    cur = null
+    ret
+  }
+
+  override def release(): Unit = {
+    pending.clear()
+    while (opening.nonEmpty) {
+      val ahead = opening.dequeue()
+      if (ahead.cancel()) {
+        permits.release()
+      } else {
+        // the scanner is being opened, or was, and has to be closed once it is
+        try {
+          close(ahead.future.get())
+        } catch {
+          case e: ExecutionException =>
+            permits.release()
+            logWarning("Fail to open scanner", e.getCause)
+        }
+      }
+    }
+    if (current != null) {
+      val scanner = current
+      current = null
+      close(scanner)
+    }
+  }
+
+  private def openNext(): ScanResource = {
+    if (opening.nonEmpty) {
+      try {
+        opening.dequeue().future.get()
+      } catch {
+        case e: ExecutionException =>
+          permits.release()
+          throw e.getCause
+      }
+    } else {
+      permits.acquire()
+      try {
+        open(pending.dequeue())
+      } catch {
+        case e: Throwable =>
+          permits.release()
+          throw e
+      }
+    }
+  }
+
+  private def openAhead(): Unit = {
+    while (pending.nonEmpty && opening.size + 1 < concurrency && permits.tryAcquire()) {
+      val ahead = new Opening(pending.dequeue())
+      ahead.future = ScanScheduler.executor.submit(ahead)
+      opening.enqueue(ahead)
+    }
+  }
+
+  // a scanner opened on the pool, unless cancelled before the pool gets to it
+  private class Opening(scan: Scan) extends Callable[ScanResource] {
+    private val started = new AtomicBoolean()
+    var future: Future[ScanResource] = _
+
+    override def call(): ScanResource = {
+      if (started.compareAndSet(false, true)) open(scan) else null
+    }
+
+    // true if the scanner will not be opened, false if it is being or was opened
+    def cancel(): Boolean = {
+      val cancelled = started.compareAndSet(false, true)
+      if (cancelled) {
+        future.cancel(false)
+      }
+      cancelled
+    }
+  }
+
+  private def close(scanner: ScanResource): Unit = {
+    try {
+      scanner.release()
+    } finally {
+      permits.release()
+    }
+  }
+}
+
+@InterfaceAudience.Private
+object ScanScheduler {
+  // opens scanners ahead for all the tasks of the executor
+  private val executor = Executors.newCachedThreadPool(new ThreadFactory {
+    private val count = new AtomicInteger()
+    override def newThread(r: Runnable): Thread = {
+      val thread = new Thread(r, "hbase-spark-scan-opener-" + count.incrementAndGet())
+      thread.setDaemon(true)
+      thread
+    }
+  })
+
+  private val permitsByLimit = new mutable.HashMap[Int, Semaphore]()
+
+  /**
+   * The permits for open scanners shared by the tasks of the executor with the same limit.
+   */
+  def permits(maxOpenScanners: Int): Semaphore = permitsByLimit.synchronized {
+    permitsByLimit.getOrElseUpdate(maxOpenScanners, new Semaphore(maxOpenScanners, true))
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark.v2
+
+import java.util
+import org.apache.hadoop.hbase.client.Result
+import org.apache.hadoop.hbase.spark.{HBaseRelation, Logging}
+import org.apache.hadoop.hbase.spark.datasources._
+import org.apache.spark.TaskContext
+import org.apache.spark.sql.SparkSession
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.connector.catalog.{SupportsRead, Table, TableCapability, TableProvider}
+import org.apache.spark.sql.connector.expressions.Transform
+import org.apache.spark.sql.connector.read._
+import org.apache.spark.sql.sources.Filter
+import org.apache.spark.sql.types.StructType
+import org.apache.spark.sql.util.CaseInsensitiveStringMap
+import org.apache.spark.sql.vectorized.ColumnarBatch
+import org.apache.yetus.audience.InterfaceAudience
+import scala.collection.JavaConverters._
+
+/**
+ * DataSource V2 entry point for reading HBase tables, used with
+ * format("org.apache.hadoop.hbase.spark.v2") and the same options as the V1 source.
+ *
+ * This class needs to stay in the current package 'org.apache.hadoop.hbase.spark.v2'
+ * for Spark to match the data source name.
+ *
+ * The scan planning (row key ranges and points, column filter push down and qualifier
+ * pruning) is the one of HBaseRelation, but the results are decoded straight into
+ * ColumnarBatches instead of one Row per result. Writes still go through the V1 source.
+ */
+@InterfaceAudience.Private
+class DefaultSource extends TableProvider with Logging {
+
+  override def inferSchema(options: CaseInsensitiveStringMap): StructType = {
+    HBaseTableCatalog(options.asCaseSensitiveMap().asScala.toMap).toDataType
+  }
+
+  override def supportsExternalMetadata(): Boolean = true
+
+  override def getTable(
+      schema: StructType,
+      partitioning: Array[Transform],
+      properties: util.Map[String, String]): Table = {
+    val relation =
+      HBaseRelation(properties.asScala.toMap, Some(schema))(SparkSession.active.sqlContext)
+    new HBaseTable(relation)
+  }
+}
+
+@InterfaceAudience.Private
+class HBaseTable(relation: HBaseRelation) extends Table with SupportsRead {
+
+  override def name(): String = relation.tableName
+
+  override def schema(): StructType = relation.schema
+
+  override def capabilities(): util.Set[TableCapability] = {
+    util.EnumSet.of(TableCapability.BATCH_READ)
+  }
+
+  override def newScanBuilder(options: CaseInsensitiveStringMap): ScanBuilder = {
+    new HBaseScanBuilder(relation)
+  }
+}
+
+/**
+ * Every filter is pushed down to build the scan ranges and the column filter, and every
+ * filter is also given back to Spark to evaluate, as the V1 relation does by not
+ * overriding unhandledFilters.
+ */
+@InterfaceAudience.Private
+class HBaseScanBuilder(relation: HBaseRelation)
+    extends ScanBuilder
+    with SupportsPushDownFilters
+    with SupportsPushDownRequiredColumns {
+  private var filters = Array.empty[Filter]
+  private var requiredSchema = relation.schema
+
+  override def pushFilters(filters: Array[Filter]): Array[Filter] = {
+    this.filters = filters
+    filters
+  }
+
+  override def pushedFilters(): Array[Filter] = filters
+
+  override def pruneColumns(requiredSchema: StructType): Unit = {
+    this.requiredSchema = requiredSchema
+  }
+
+  override def build(): Scan = new HBaseScan(relation, requiredSchema, filters)
+}
+
+@InterfaceAudience.Private
+class HBaseScan(relation: HBaseRelation, requiredSchema: StructType, filters: Array[Filter])
+    extends Scan
+    with Batch {
+  private lazy val rdd = relation.buildScanRDD(requiredSchema.fieldNames, filters)
+
+  override def readSchema(): StructType = requiredSchema
+
+  override def description(): String = {
+    s"HBaseScan ${relation.tableName} [${requiredSchema.fieldNames.mkString(", ")}] " +
+      s"PushedFilters: [${filters.mkString(", ")}]"
+  }
+
+  override def toBatch: Batch = this
+
+  override def planInputPartitions(): Array[InputPartition] = {
+    rdd.partitions.map(p => HBaseInputPartition(p.asInstanceOf[HBaseScanPartition]))
+  }
+
+  override def createReaderFactory(): PartitionReaderFactory = {
+    new HBasePartitionReaderFactory(relation, rdd, requiredSchema)
+  }
+}
+
+@InterfaceAudience.Private
+private[hbase] case class HBaseInputPartition(partition: HBaseScanPartition) extends InputPartition {
+  override def preferredLocations(): Array[String] = partition.regions.server.toArray
+}
+
+/**
+ * Reads the partitions through HBaseTableScanRDD.compute, which is shipped along with the
+ * factory the same way it is shipped with the tasks of the V1 relation.
+ */
+@InterfaceAudience.Private
+class HBasePartitionReaderFactory(
+    relation: HBaseRelation,
+    rdd: HBaseTableScanRDD,
+    requiredSchema: StructType)
+    extends PartitionReaderFactory {
+  private val fields = relation.getIndexedProjections(requiredSchema.fieldNames).map(_._1)
+  private val columnar = fields.forall(ResultDecoder.isAtomic(_))
+
+  private def results(partition: InputPartition): Iterator[Result] = {
+    rdd.compute(partition.asInstanceOf[HBaseInputPartition].partition, TaskContext.get())
+  }
+
+  override def supportColumnarReads(partition: InputPartition): Boolean = columnar
+
+  override def createReader(partition: InputPartition): PartitionReader[InternalRow] = {
+    val it = results(partition)
+    val decoder = new RowDecoder(fields, relation.catalog.getRowKey)
+    new PartitionReader[InternalRow] {
+      private var cur: InternalRow = _
+
+      override def next(): Boolean = {
+        if (it.hasNext) {
+          cur = decoder.decode(it.next())
+          true
+        } else {
+          false
+        }
+      }
+
+      override def get(): InternalRow = cur
+
+      // the scanners are released by the task completion listener of the RDD
+      override def close(): Unit = {}
+    }
+  }
+
+  override def createColumnarReader(partition: InputPartition): PartitionReader[ColumnarBatch] = {
+    val it = results(partition)
+    val decoder =
+      new ColumnarBatchDecoder(fields, relation.catalog.getRowKey, relation.columnarBatchSize)
+    new PartitionReader[ColumnarBatch] {
+      private var cur: ColumnarBatch = _
+
+      override def next(): Boolean = {
+        cur = decoder.decode(it)
+        cur.numRows() > 0
+      }
+
+      override def get(): ColumnarBatch = cur
+
+      override def close(): Unit = {
+        decoder.close()
+      }
+    }
+  }
+}
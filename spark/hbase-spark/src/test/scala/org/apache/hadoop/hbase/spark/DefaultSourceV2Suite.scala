@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark
+
+import org.apache.hadoop.hbase.{HBaseTestingUtility, TableName}
+import org.apache.hadoop.hbase.spark.datasources.{HBaseSparkConf, HBaseTableCatalog}
+import org.apache.spark.{SparkConf, SparkContext}
+import org.apache.spark.sql.{DataFrame, SQLContext}
+import org.apache.spark.sql.execution.datasources.v2.BatchScanExec
+import org.apache.spark.sql.functions._
+import org.scalatest.{BeforeAndAfterAll, FunSuite}
+
+class DefaultSourceV2Suite extends FunSuite with BeforeAndAfterAll with Logging {
+  @transient var sc: SparkContext = null
+  var TEST_UTIL: HBaseTestingUtility = new HBaseTestingUtility
+
+  var sqlContext: SQLContext = null
+
+  def catalog = s"""{
+                   |"table":{"namespace":"default", "name":"v2table"},
+                   |"rowkey":"key",
+                   |"columns":{
+                   |"col0":{"cf":"rowkey", "col":"key", "type":"string"},
+                   |"col1":{"cf":"cf1", "col":"col1", "type":"boolean"},
+                   |"col2":{"cf":"cf1", "col":"col2", "type":"double"},
+                   |"col3":{"cf":"cf3", "col":"col3", "type":"float"},
+                   |"col4":{"cf":"cf3", "col":"col4", "type":"int"},
+                   |"col5":{"cf":"cf5", "col":"col5", "type":"bigint"},
+                   |"col6":{"cf":"cf6", "col":"col6", "type":"smallint"},
+                   |"col7":{"cf":"cf7", "col":"col7", "type":"string"},
+                   |"col8":{"cf":"cf8", "col":"col8", "type":"tinyint"}
+                   |}
+                   |}""".stripMargin
+
+  override def beforeAll() {
+    TEST_UTIL.startMiniCluster
+    logInfo(" - minicluster started")
+
+    sc = new SparkContext("local", "test", new SparkConf)
+    new HBaseContext(sc, TEST_UTIL.getConfiguration)
+    sqlContext = new SQLContext(sc)
+
+    val sql = sqlContext
+    import sql.implicits._
+    val data = (0 to 255).map { i => HBaseRecord(i, "extra") }
+    sc.parallelize(data)
+      .toDF
+      .write
+      .options(Map(HBaseTableCatalog.tableCatalog -> catalog, HBaseTableCatalog.newTable -> "5"))
+      .format("org.apache.hadoop.hbase.spark")
+      .save()
+  }
+
+  override def afterAll() {
+    TEST_UTIL.deleteTable(TableName.valueOf("v2table"))
+    logInfo("shuting down minicluster")
+    TEST_UTIL.shutdownMiniCluster()
+
+    sc.stop()
+  }
+
+  def withCatalog(format: String, options: Map[String, String] = Map.empty): DataFrame = {
+    sqlContext.read
+      .options(options + (HBaseTableCatalog.tableCatalog -> catalog))
+      .format(format)
+      .load()
+  }
+
+  def isColumnar(df: DataFrame): Boolean = {
+    df.queryExecution.executedPlan.collectFirst {
+      case scan: BatchScanExec => scan.supportsColumnar
+    }.get
+  }
+
+  test("full query matches the V1 source") {
+    val v1 = withCatalog("org.apache.hadoop.hbase.spark").collect().map(_.toString).sorted
+    val df = withCatalog("org.apache.hadoop.hbase.spark.v2")
+    assert(isColumnar(df))
+    val v2 = df.collect().map(_.toString).sorted
+    assert(v2.length == 256)
+    assert(v2.sameElements(v1))
+  }
+
+  test("filtered query with pruned columns") {
+    val df = withCatalog("org.apache.hadoop.hbase.spark.v2")
+    val s = df
+      .filter(col("col0") <= "row005" && col("col4") > 2)
+      .select("col7", "col0")
+    assert(isColumnar(s))
+    val rows = s.collect().sortBy(_.getString(1))
+    assert(rows.length == 3)
+    assert(rows(0).getString(0) == "String3: extra")
+    assert(rows(0).getString(1) == "row003")
+  }
+
+  test("batches smaller than a region") {
+    val df = withCatalog(
+      "org.apache.hadoop.hbase.spark.v2",
+      Map(HBaseSparkConf.QUERY_COLUMNAR_BATCHSIZE -> "7"))
+    assert(df.count() == 256)
+    assert(df.filter(col("col1")).select("col0", "col2").collect().length == 128)
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark
+
+import org.apache.hadoop.hbase.spark.datasources.{HBaseRegion, PartitionPlanner}
+import org.apache.hadoop.hbase.util.Bytes
+import org.scalatest.FunSuite
+
+class PartitionPlannerSuite extends FunSuite with Logging {
+  val MB = 1024L * 1024L
+
+  def region(index: Int, start: String, end: String, server: String): HBaseRegion = {
+    HBaseRegion(index, Some(Bytes.toBytes(start)), Some(Bytes.toBytes(end)), Some(server))
+  }
+
+  // the key ranges must cover the regions without gaps or overlaps
+  def assertContiguous(ranges: Seq[HBaseRegion], first: String, last: String): Unit = {
+    assert(Bytes.toString(ranges.head.start.get) == first)
+    assert(Bytes.toString(ranges.last.end.get) == last)
+    ranges.sliding(2).foreach {
+      case Seq(a, b) => assert(Bytes.equals(a.end.get, b.start.get))
+    }
+    assert(ranges.map(_.index) == ranges.indices)
+  }
+
+  test("small regions on the same server are coalesced") {
+    val regions = Seq(
+      region(0, "", "b", "rs1"),
+      region(1, "b", "c", "rs1"),
+      region(2, "c", "d", "rs1"),
+      region(3, "d", "e", "rs2"),
+      region(4, "e", "", "rs2"))
+    val ranges = PartitionPlanner.plan(regions, _ => 40 * MB, 100 * MB)
+    assertContiguous(ranges, "", "")
+    assert(ranges.size == 3)
+    assert(Bytes.toString(ranges(0).end.get) == "c")
+    assert(ranges(1).server == Some("rs1"))
+    assert(Bytes.toString(ranges(2).start.get) == "d")
+    assert(ranges(2).server == Some("rs2"))
+  }
+
+  test("large regions are split") {
+    val regions = Seq(region(0, "", "m", "rs1"), region(1, "m", "", "rs2"))
+    val ranges =
+      PartitionPlanner.plan(regions, r => if (r.index == 0) 350 * MB else 10 * MB, 100 * MB)
+    assertContiguous(ranges, "", "")
+    assert(ranges.size == 5)
+    assert(ranges.take(4).forall(_.server == Some("rs1")))
+    assert(Bytes.toString(ranges(3).end.get) == "m")
+    assert(ranges(4).server == Some("rs2"))
+  }
+
+  test("regions of unknown size are kept") {
+    val regions = Seq(region(0, "a", "b", "rs1"), region(1, "b", "c", "rs1"))
+    val ranges = PartitionPlanner.plan(regions, _ => -1L, 100 * MB)
+    assert(ranges == regions)
+  }
+
+  test("the last region is split up to 0xff") {
+    val ranges = PartitionPlanner.split(region(0, "m", "", "rs1"), 4)
+    assertContiguous(ranges, "m", "")
+    assert(ranges.size == 4)
+    assert(ranges.forall(r => Bytes.compareTo(r.start.get, Bytes.toBytes("m")) >= 0))
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark
+
+import java.io.IOException
+import org.apache.hadoop.hbase.{Cell, KeyValue}
+import org.apache.hadoop.hbase.client.{Cursor, Result}
+import org.apache.hadoop.hbase.client.AdvancedScanResultConsumer.{ScanController, ScanResumer}
+import org.apache.hadoop.hbase.spark.datasources.PrefetchingResultScanner
+import org.apache.hadoop.hbase.util.Bytes
+import org.scalatest.FunSuite
+
+class PrefetchingResultScannerSuite extends FunSuite with Logging {
+
+  // records the calls an async scan would get from its consumer
+  class FakeController extends ScanController {
+    var suspended = false
+    var resumed = false
+    var terminated = false
+
+    override def suspend(): ScanResumer = {
+      suspended = true
+      new ScanResumer {
+        override def resume(): Unit = resumed = true
+      }
+    }
+
+    override def terminate(): Unit = terminated = true
+
+    override def cursor(): java.util.Optional[Cursor] = java.util.Optional.empty()
+  }
+
+  def result(row: Int): Result = {
+    val cells = new java.util.ArrayList[Cell]()
+    val value = new Array[Byte](96)
+    cells.add(new KeyValue(Bytes.toBytes(row), Bytes.toBytes("cf"), Bytes.toBytes("q"), value))
+    Result.create(cells)
+  }
+
+  test("suspend when full and resume when half drained") {
+    val size = PrefetchingResultScanner.estimateSize(result(0))
+    val scanner = new PrefetchingResultScanner(4 * size, null)
+    val controller = new FakeController
+    scanner.onNext(Array(result(0), result(1)), controller)
+    assert(!controller.suspended)
+    scanner.onNext(Array(result(2), result(3)), controller)
+    assert(controller.suspended)
+
+    assert(Bytes.toInt(scanner.next().getRow) == 0)
+    assert(!controller.resumed)
+    assert(Bytes.toInt(scanner.next().getRow) == 1)
+    assert(controller.resumed)
+
+    scanner.onComplete()
+    assert(Bytes.toInt(scanner.next().getRow) == 2)
+    assert(Bytes.toInt(scanner.next().getRow) == 3)
+    assert(scanner.next() == null)
+  }
+
+  test("error after the buffered results") {
+    val scanner = new PrefetchingResultScanner(1024 * 1024, null)
+    scanner.onNext(Array(result(0)), new FakeController)
+    scanner.onError(new IOException("region server gone"))
+    assert(Bytes.toInt(scanner.next().getRow) == 0)
+    intercept[IOException](scanner.next())
+  }
+
+  test("close terminates a suspended scan") {
+    val scanner = new PrefetchingResultScanner(1, null)
+    val controller = new FakeController
+    scanner.onNext(Array(result(0)), controller)
+    assert(controller.suspended)
+    scanner.close()
+    assert(controller.resumed)
+    scanner.onNext(Array(result(1)), controller)
+    assert(controller.terminated)
+    assert(scanner.next() == null)
+  }
+
+  test("next waits for the scan") {
+    val scanner = new PrefetchingResultScanner(1024 * 1024, null)
+    val feeder = new Thread() {
+      override def run(): Unit = {
+        Thread.sleep(100)
+        scanner.onNext(Array(result(5)), new FakeController)
+        scanner.onComplete()
+      }
+    }
+    feeder.start()
+    assert(Bytes.toInt(scanner.next().getRow) == 5)
+    assert(scanner.next() == null)
+    feeder.join()
+  }
+}
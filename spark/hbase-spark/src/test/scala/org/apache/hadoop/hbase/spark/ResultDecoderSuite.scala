@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark
+
+import org.apache.hadoop.hbase.{Cell, CellComparator, KeyValue}
+import org.apache.hadoop.hbase.client.Result
+import org.apache.hadoop.hbase.spark.datasources.{ColumnarBatchDecoder, HBaseTableCatalog}
+import org.apache.hadoop.hbase.spark.datasources.RowDecoder
+import org.apache.hadoop.hbase.util.Bytes
+import org.apache.spark.unsafe.types.UTF8String
+import org.scalatest.FunSuite
+
+class ResultDecoderSuite extends FunSuite with Logging {
+  val catalog = s"""{
+                   |"table":{"namespace":"default", "name":"htable"},
+                   |"rowkey":"key1:key2",
+                   |"columns":{
+                   |"col0":{"cf":"rowkey", "col":"key1", "type":"int"},
+                   |"col1":{"cf":"rowkey", "col":"key2", "type":"string"},
+                   |"col2":{"cf":"cf1", "col":"col2", "type":"string"},
+                   |"col3":{"cf":"cf1", "col":"col3", "type":"bigint"},
+                   |"col4":{"cf":"cf2", "col":"col4", "type":"binary"},
+                   |"col5":{"cf":"cf2", "col":"col5", "type":"double"}
+                   |}
+                   |}""".stripMargin
+  val t = HBaseTableCatalog(Map(HBaseTableCatalog.tableCatalog -> catalog))
+
+  // the fields of a query selecting the columns out of their catalog order
+  val fields = Seq("col5", "col1", "col2", "col3", "col4").map(t.getField(_))
+
+  def result(key1: Int, key2: String, col2: String, col3: Long): Result = {
+    val row = Bytes.add(Bytes.toBytes(key1), Bytes.toBytes(key2))
+    val cells = new java.util.ArrayList[Cell]()
+    cells.add(new KeyValue(row, Bytes.toBytes("cf1"), Bytes.toBytes("col2"), Bytes.toBytes(col2)))
+    cells.add(new KeyValue(row, Bytes.toBytes("cf1"), Bytes.toBytes("col3"), Bytes.toBytes(col3)))
+    // an empty value is read as null, as is a missing cell
+    cells.add(new KeyValue(row, Bytes.toBytes("cf2"), Bytes.toBytes("col4"), Array[Byte]()))
+    cells.sort(CellComparator.getInstance())
+    Result.create(cells)
+  }
+
+  test("row decoder") {
+    val decoder = new RowDecoder(fields, t.getRowKey)
+    val row = decoder.decode(result(7, "abc", "foo", 42L))
+    assert(row.numFields == 5)
+    assert(row.isNullAt(0))
+    assert(row.getUTF8String(1) == UTF8String.fromString("abc"))
+    assert(row.getUTF8String(2) == UTF8String.fromString("foo"))
+    assert(row.getLong(3) == 42L)
+    assert(row.isNullAt(4))
+
+    // the row is reused
+    assert(decoder.decode(result(8, "de", "bar", 43L)) eq row)
+    assert(row.getUTF8String(1) == UTF8String.fromString("de"))
+    assert(row.getUTF8String(2) == UTF8String.fromString("bar"))
+    assert(row.getLong(3) == 43L)
+  }
+
+  test("columnar batch decoder") {
+    val decoder = new ColumnarBatchDecoder(fields, t.getRowKey, 2)
+    val results = (0 until 3).map(i => result(i, s"key$i", s"value$i", i.toLong)).iterator
+    try {
+      var batch = decoder.decode(results)
+      assert(batch.numRows() == 2)
+      assert(batch.column(0).isNullAt(1))
+      assert(batch.column(1).getUTF8String(1) == UTF8String.fromString("key1"))
+      assert(batch.column(2).getUTF8String(0) == UTF8String.fromString("value0"))
+      assert(batch.column(3).getLong(1) == 1L)
+      assert(batch.column(4).isNullAt(0))
+
+      batch = decoder.decode(results)
+      assert(batch.numRows() == 1)
+      assert(batch.column(1).getUTF8String(0) == UTF8String.fromString("key2"))
+      assert(batch.column(3).getLong(0) == 2L)
+
+      assert(decoder.decode(results).numRows() == 0)
+    } finally {
+      decoder.close()
+    }
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.spark
+
+import java.util.concurrent.{CountDownLatch, Semaphore, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
+import org.apache.hadoop.hbase.{Cell, KeyValue}
+import org.apache.hadoop.hbase.client.{Result, ResultScanner, Scan}
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics
+import org.apache.hadoop.hbase.spark.datasources.{ScanResource, ScanScheduler, TableResource}
+import org.apache.hadoop.hbase.util.Bytes
+import org.scalatest.FunSuite
+
+class ScanSchedulerSuite extends FunSuite with Logging {
+  val openScanners = new AtomicInteger()
+  val maxOpenScanners = new AtomicInteger()
+
+  // returns one result per row of the range of its scan, counting the open scanners
+  class FakeScanner(scan: Scan) extends ResultScanner {
+    maxOpenScanners.accumulateAndGet(openScanners.incrementAndGet(), math.max(_, _))
+    private var row = Bytes.toInt(scan.getStartRow)
+    private val stop = Bytes.toInt(scan.getStopRow)
+
+    override def next(): Result = {
+      if (row >= stop) {
+        null
+      } else {
+        val cell: Cell = new KeyValue(Bytes.toBytes(row), Bytes.toBytes("cf"), Bytes.toBytes("q"))
+        row += 1
+        Result.create(Array(cell))
+      }
+    }
+
+    override def close(): Unit = openScanners.decrementAndGet()
+
+    override def renewLease(): Boolean = true
+
+    override def getScanMetrics: ScanMetrics = null
+  }
+
+  def scans(ranges: (Int, Int)*): Seq[Scan] =
+    ranges.map(r => new Scan(Bytes.toBytes(r._1), Bytes.toBytes(r._2)))
+
+  def scheduler(
+      scans: Seq[Scan],
+      concurrency: Int,
+      permits: Semaphore,
+      beforeOpen: Scan => Unit = _ => ()): ScanScheduler = {
+    openScanners.set(0)
+    maxOpenScanners.set(0)
+    val table = TableResource(null)
+    val open = (scan: Scan) => {
+      beforeOpen(scan)
+      ScanResource(table, new FakeScanner(scan))
+    }
+    new ScanScheduler(scans, open, concurrency, permits)
+  }
+
+  test("results in scan order") {
+    val permits = new Semaphore(10)
+    val it = scheduler(scans((0, 3), (10, 12), (5, 5), (20, 24)), 3, permits)
+    assert(it.map(r => Bytes.toInt(r.getRow)).toList == List(0, 1, 2, 10, 11, 20, 21, 22, 23))
+    assert(openScanners.get == 0)
+    assert(maxOpenScanners.get <= 3)
+    assert(permits.availablePermits == 10)
+  }
+
+  test("one scanner at a time without permits to spare") {
+    val permits = new Semaphore(1)
+    val it = scheduler(scans((0, 2), (2, 4), (4, 6)), 4, permits)
+    assert(it.size == 6)
+    assert(maxOpenScanners.get == 1)
+    assert(permits.availablePermits == 1)
+  }
+
+  test("release closes the scanners opened ahead") {
+    val permits = new Semaphore(10)
+    val it = scheduler(scans((0, 2), (2, 4), (4, 6), (6, 8)), 3, permits)
+    assert(Bytes.toInt(it.next().getRow) == 0)
+    it.release()
+    assert(openScanners.get == 0)
+    assert(permits.availablePermits == 10)
+    assert(!it.hasNext)
+  }
+
+  test("release waits for a scanner being opened and closes it") {
+    val permits = new Semaphore(10)
+    val opening = new CountDownLatch(1)
+    val unblock = new CountDownLatch(1)
+    val blockSecond = (scan: Scan) =>
+      if (Bytes.toInt(scan.getStartRow) == 2) {
+        opening.countDown()
+        unblock.await()
+      }
+    val it = scheduler(scans((0, 2), (2, 4)), 2, permits, blockSecond)
+    assert(Bytes.toInt(it.next().getRow) == 0)
+    assert(opening.await(10, TimeUnit.SECONDS))
+
+    val releaser = new Thread() {
+      override def run(): Unit = it.release()
+    }
+    releaser.start()
+    releaser.join(200)
+    // release waits for the open to finish instead of dropping the scanner
+    assert(releaser.isAlive)
+    unblock.countDown()
+    releaser.join()
+    assert(openScanners.get == 0)
+    assert(permits.availablePermits == 10)
+  }
+}